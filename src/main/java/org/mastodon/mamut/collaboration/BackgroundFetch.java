@@ -0,0 +1,250 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.mastodon.mamut.collaboration.utils.BranchStatus;
+import org.mastodon.mamut.collaboration.utils.OperationQueue;
+import org.scijava.listeners.Listeners;
+
+/**
+ * Periodically fetches the remote-tracking branch of a
+ * {@link MastodonGitRepository} in the background, and keeps the
+ * {@link BranchStatus} up to date.
+ * <p>
+ * The objects downloaded by the background fetch are reused by the next
+ * pull, which therefore only needs to merge.
+ * <p>
+ * The fetch is queued in the {@link OperationQueue} of the repository, but
+ * only if no other operation is running or waiting. If a fetch fails, for
+ * example because the server is not reachable, the interval between two
+ * fetches is doubled up to a maximum. The status is also updated, whenever
+ * the operation queue becomes idle, such that commits, pulls and pushes are
+ * reflected immediately.
+ * <p>
+ * If the fetch shows that the branches diverged, they are merged in advance
+ * on the low-priority background thread, see
+ * {@link MastodonGitRepository#speculateMerge()}. This tells early whether
+ * there will be merge conflicts, and makes the next pull faster.
+ */
+public class BackgroundFetch
+{
+
+	private static final String OPERATION_KEY = "background fetch";
+
+	private final MastodonGitRepository repository;
+
+	private final long intervalMillis;
+
+	private final long maxIntervalMillis;
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private final Listeners.SynchronizedList< BranchStatus.Listener > listeners = new Listeners.SynchronizedList<>();
+
+	private final OperationQueue.StateListener queueListener = this::queueChanged;
+
+	private long currentIntervalMillis;
+
+	private ScheduledFuture< ? > scheduledFetch = null;
+
+	private long lastFetchMillis = 0;
+
+	private String fetchError = null;
+
+	private volatile BranchStatus status = null;
+
+	/**
+	 * @param repository        the repository to fetch.
+	 * @param intervalMillis    time between two fetches.
+	 * @param maxIntervalMillis maximum time between two fetches, after fetches
+	 *                          failed.
+	 */
+	public BackgroundFetch( final MastodonGitRepository repository, final long intervalMillis, final long maxIntervalMillis )
+	{
+		this.repository = repository;
+		this.intervalMillis = intervalMillis;
+		this.maxIntervalMillis = maxIntervalMillis;
+		this.currentIntervalMillis = intervalMillis;
+		this.executor = new ScheduledThreadPoolExecutor( 1, runnable -> {
+			final Thread thread = new Thread( runnable, "Mastodon Git Background Fetch" );
+			thread.setDaemon( true );
+			thread.setPriority( Thread.MIN_PRIORITY );
+			return thread;
+		} );
+	}
+
+	/**
+	 * Starts fetching periodically. The first fetch happens immediately.
+	 */
+	public synchronized void start()
+	{
+		repository.getOperationQueue().listeners().add( queueListener );
+		schedule( 0 );
+	}
+
+	/**
+	 * Stops fetching. A fetch that is already running is finished.
+	 */
+	public synchronized void stop()
+	{
+		repository.getOperationQueue().listeners().remove( queueListener );
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Listeners that are notified, when the {@link BranchStatus} changes.
+	 * They are called on a background thread.
+	 */
+	public Listeners< BranchStatus.Listener > listeners()
+	{
+		return listeners;
+	}
+
+	/**
+	 * Returns the latest status, or null if it was not computed yet.
+	 */
+	public BranchStatus getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Returns the current time between two fetches, including the backoff
+	 * after failed fetches.
+	 */
+	public synchronized long getCurrentIntervalMillis()
+	{
+		return currentIntervalMillis;
+	}
+
+	private synchronized void schedule( final long delayMillis )
+	{
+		if ( executor.isShutdown() )
+			return;
+		if ( scheduledFetch != null )
+			scheduledFetch.cancel( false );
+		scheduledFetch = executor.schedule( this::submitFetch, delayMillis, TimeUnit.MILLISECONDS );
+	}
+
+	private void submitFetch()
+	{
+		final OperationQueue queue = repository.getOperationQueue();
+		if ( queue.getRunning() != null || !queue.getQueued().isEmpty() )
+		{
+			// don't delay the user's operations, try again later
+			schedule( intervalMillis );
+			return;
+		}
+		queue.submit( OPERATION_KEY, "Background Fetch", this::fetch );
+	}
+
+	private void fetch()
+	{
+		try
+		{
+			repository.fetchTrackingBranch();
+			fetchSucceeded();
+		}
+		catch ( final Exception e )
+		{
+			fetchFailed( e );
+		}
+		updateStatus();
+		final BranchStatus current = status;
+		if ( current != null && current.isDiverged() && !executor.isShutdown() )
+			executor.execute( this::speculateMerge );
+	}
+
+	private void speculateMerge()
+	{
+		try
+		{
+			repository.speculateMerge();
+			updateStatus();
+		}
+		catch ( final Exception e )
+		{
+			// ignore, the pull will merge again and report the error
+		}
+	}
+
+	synchronized void fetchSucceeded()
+	{
+		lastFetchMillis = System.currentTimeMillis();
+		fetchError = null;
+		currentIntervalMillis = intervalMillis;
+		schedule( currentIntervalMillis );
+	}
+
+	synchronized void fetchFailed( final Exception e )
+	{
+		fetchError = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+		currentIntervalMillis = Math.min( 2 * currentIntervalMillis, maxIntervalMillis );
+		schedule( currentIntervalMillis );
+	}
+
+	private void queueChanged()
+	{
+		final OperationQueue queue = repository.getOperationQueue();
+		if ( queue.getRunning() == null && queue.getQueued().isEmpty() && !executor.isShutdown() )
+			executor.execute( this::updateStatus );
+	}
+
+	private void updateStatus()
+	{
+		try
+		{
+			final long fetchMillis;
+			final String error;
+			synchronized ( this )
+			{
+				fetchMillis = lastFetchMillis;
+				error = fetchError;
+			}
+			final BranchStatus newStatus = repository.getBranchStatus().withFetch( fetchMillis, error );
+			status = newStatus;
+			final List< BranchStatus.Listener > copy;
+			synchronized ( listeners )
+			{
+				copy = new ArrayList<>( listeners.list );
+			}
+			copy.forEach( listener -> listener.statusChanged( newStatus ) );
+		}
+		catch ( final Exception e )
+		{
+			// ignore, the status is updated again after the next operation
+		}
+	}
+}
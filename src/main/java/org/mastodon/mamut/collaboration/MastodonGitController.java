@@ -32,6 +32,7 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
@@ -40,14 +41,19 @@ import org.mastodon.mamut.KeyConfigScopes;
 import org.mastodon.mamut.collaboration.commands.MastodonGitCloneRepository;
 import org.mastodon.mamut.collaboration.commands.MastodonGitCreateRepository;
 import org.mastodon.mamut.collaboration.commands.MastodonGitNewBranch;
+import org.mastodon.mamut.collaboration.dialogs.BranchStatusWindow;
+import org.mastodon.mamut.collaboration.dialogs.CommitHistoryWindow;
 import org.mastodon.mamut.collaboration.dialogs.SetAuthorDialog;
 import org.mastodon.mamut.collaboration.dialogs.CommitMessageDialog;
 import org.mastodon.mamut.collaboration.dialogs.ErrorDialog;
 import org.mastodon.mamut.collaboration.dialogs.NotificationDialog;
+import org.mastodon.mamut.collaboration.dialogs.ProgressDialog;
 import org.mastodon.mamut.collaboration.settings.MastodonGitSettingsService;
 import org.mastodon.mamut.collaboration.utils.ActionDescriptions;
 import org.mastodon.mamut.collaboration.utils.BasicDescriptionProvider;
 import org.mastodon.mamut.collaboration.utils.BasicMamutPlugin;
+import org.mastodon.mamut.collaboration.utils.GitProgressMonitor;
+import org.mastodon.mamut.collaboration.utils.OperationQueue;
 import org.mastodon.mamut.plugin.MamutPlugin;
 import org.mastodon.mamut.collaboration.exceptions.GraphMergeConflictException;
 import org.mastodon.mamut.collaboration.exceptions.GraphMergeException;
@@ -140,6 +146,36 @@ public class MastodonGitController extends BasicMamutPlugin
 			"Merge a branch into the current branch.",
 			MastodonGitController::mergeBranch );
 
+	private static final String FINISH_MERGE_ACTION_KEY = actionDescriptions.addActionDescription(
+			"[mastodon git] finish merge",
+			"Plugins > Collaborative (Git) > Merge Conflicts > Finish Merge (commit)",
+			"Commit the merge, after all merge conflicts are resolved.",
+			MastodonGitController::finishMerge );
+
+	private static final String ABORT_MERGE_ACTION_KEY = actionDescriptions.addActionDescription(
+			"[mastodon git] abort merge",
+			"Plugins > Collaborative (Git) > Merge Conflicts > Abort Merge",
+			"Stop resolving merge conflicts, and go back to the latest save point.",
+			MastodonGitController::abortMerge );
+
+	private static final String OPERATIONS_ACTION_KEY = actionDescriptions.addActionDescription(
+			"[mastodon git] show running operations",
+			"Plugins > Collaborative (Git) > Show Running Operations",
+			"Show the running and waiting git operations, and allow to cancel them.",
+			MastodonGitController::showOperations );
+
+	private static final String STATUS_ACTION_KEY = actionDescriptions.addActionDescription(
+			"[mastodon git] show sync status",
+			"Plugins > Collaborative (Git) > Show Sync Status",
+			"Show whether the remote server has changes that are not yet downloaded, and whether there are local changes that are not yet uploaded.",
+			MastodonGitController::showStatus );
+
+	private static final String HISTORY_ACTION_KEY = actionDescriptions.addActionDescription(
+			"[mastodon git] show history",
+			"Plugins > Collaborative (Git) > Show History",
+			"Show the save points of all branches, with the number of spots, links and tags of each save point.",
+			MastodonGitController::showHistory );
+
 	private static final List< String > IN_REPOSITORY_ACTIONS = Arrays.asList(
 			SYNCHRONIZE_ACTION_KEY,
 			COMMIT_ACTION_KEY,
@@ -148,10 +184,41 @@ public class MastodonGitController extends BasicMamutPlugin
 			RESET_ACTION_KEY,
 			NEW_BRANCH_ACTION_KEY,
 			SWITCH_ACTION_KEY,
-			MERGE_ACTION_KEY );
+			MERGE_ACTION_KEY,
+			FINISH_MERGE_ACTION_KEY,
+			ABORT_MERGE_ACTION_KEY,
+			OPERATIONS_ACTION_KEY,
+			STATUS_ACTION_KEY,
+			HISTORY_ACTION_KEY );
+
+	/**
+	 * Time between two fetches in the background.
+	 */
+	private static final long FETCH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis( 5 );
+
+	/**
+	 * Maximum time between two fetches, after fetches failed.
+	 */
+	private static final long MAX_FETCH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis( 1 );
 
 	private MastodonGitRepository repository;
 
+	private final ProgressDialog progressDialog = new ProgressDialog( "Mastodon Git", this::cancelRunningOperation );
+
+	private static final String MERGE_SESSION_MESSAGE = "<html><body>"
+			+ "A merge with conflicts is in progress.<br><br>"
+			+ "The conflicting spots are tagged in the tag sets \"Merge Conflict\",<br>"
+			+ "\"Merge Conflict (Labels)\" and \"Merge Conflict (Tags)\".<br>"
+			+ "Where both sides changed a spot differently, your version is kept<br>"
+			+ "and the other version is discarded. Only if the two versions have<br>"
+			+ "no common history, the tag sets \"((A))\" and \"((B))\" show both versions.<br>"
+			+ "Resolve the conflicts, remove the conflict tags, and then<br>"
+			+ "select \"Merge Conflicts > Finish Merge\" or \"Abort Merge\".";
+
+	private final BranchStatusWindow statusWindow = new BranchStatusWindow();
+
+	private BackgroundFetch backgroundFetch;
+
 	public MastodonGitController()
 	{
 		super( actionDescriptions );
@@ -161,10 +228,42 @@ public class MastodonGitController extends BasicMamutPlugin
 	protected void initialize()
 	{
 		super.initialize();
-		repository = new MastodonGitRepository( getProjectModel() );
+		setRepository( new MastodonGitRepository( getProjectModel() ) );
+	}
+
+	private void setRepository( final MastodonGitRepository repository )
+	{
+		if ( backgroundFetch != null )
+			backgroundFetch.stop();
+		if ( this.repository != null )
+			this.repository.close();
+		this.repository = repository;
+		backgroundFetch = null;
+		if ( repository.isRepository() )
+		{
+			backgroundFetch = new BackgroundFetch( repository, FETCH_INTERVAL_MILLIS, MAX_FETCH_INTERVAL_MILLIS );
+			backgroundFetch.listeners().add( statusWindow );
+			backgroundFetch.start();
+		}
+		if ( repository.isMergeSessionActive() )
+			SwingUtilities.invokeLater( () -> JOptionPane.showMessageDialog( null, MERGE_SESSION_MESSAGE,
+					"Merge In Progress", JOptionPane.PLAIN_MESSAGE ) );
+		repository.progressListeners().add( progressDialog );
+		final OperationQueue queue = repository.getOperationQueue();
+		queue.listeners().add( () -> {
+			if ( queue.getRunning() == null )
+				progressDialog.close();
+		} );
 		updateEnableCommands();
 	}
 
+	private void cancelRunningOperation()
+	{
+		final OperationQueue.Operation running = repository.getOperationQueue().getRunning();
+		if ( running != null )
+			running.cancel();
+	}
+
 	private void setAuthor()
 	{
 		settingsService.askForAuthorName();
@@ -176,8 +275,17 @@ public class MastodonGitController extends BasicMamutPlugin
 			return;
 
 		final MastodonGitCreateRepository.Callback callback = ( final File directory, final String url ) -> {
-			this.repository = MastodonGitRepository.shareProject( getProjectModel(), directory, url );
-			updateEnableCommands();
+			final ProgressDialog dialog = new ProgressDialog( "Share Project" );
+			final GitProgressMonitor monitor = new GitProgressMonitor( dialog, MastodonGitRepository.objectsDirectoryOfWorkTree( directory ) );
+			dialog.setCancelAction( monitor::cancel );
+			try
+			{
+				setRepository( MastodonGitRepository.shareProject( getProjectModel(), directory, url, monitor ) );
+			}
+			finally
+			{
+				dialog.close();
+			}
 		};
 		commandService.run( MastodonGitCreateRepository.class, true, "callback", callback );
 	}
@@ -198,7 +306,7 @@ public class MastodonGitController extends BasicMamutPlugin
 		if ( !settingsService.ensureAuthorIsSet( "Please set your author name before adding a save point (commit)." ) )
 			return;
 		run( "Add Save Point (Commit)", () -> {
-			if ( repository.isClean() )
+			if ( !repository.hasUncommittedChanges() )
 				NotificationDialog.show( "Add Save Point (Commit)",
 						"<html><body><font size=+4 color=green>&#10003</font> No changes to commit." );
 			else
@@ -206,7 +314,7 @@ public class MastodonGitController extends BasicMamutPlugin
 				final String commitMessage = CommitMessageDialog.showDialog();
 				if ( commitMessage == null )
 					return;
-				repository.commitWithoutSave( commitMessage );
+				repository.commit( commitMessage );
 			}
 		} );
 	}
@@ -267,7 +375,16 @@ public class MastodonGitController extends BasicMamutPlugin
 			final String selectedBranch = ( String ) JOptionPane.showInputDialog( null, "Select a branch", "Switch Git Branch", JOptionPane.PLAIN_MESSAGE, null, branches.toArray(), null );
 			if ( selectedBranch == null )
 				return;
-			repository.mergeBranch( selectedBranch );
+			run( "Merge Branch", () -> {
+				try
+				{
+					repository.mergeBranch( selectedBranch );
+				}
+				catch ( final GraphMergeConflictException e )
+				{
+					SwingUtilities.invokeLater( this::suggestResolveConflicts );
+				}
+			} );
 		}
 		catch ( final Exception e )
 		{
@@ -289,12 +406,13 @@ public class MastodonGitController extends BasicMamutPlugin
 			{
 				if ( !( e instanceof GraphMergeConflictException ) )
 					e.printStackTrace();
-				SwingUtilities.invokeLater( () -> suggestPullAlternative( e.getMessage() ) );
+				final boolean canResolve = repository.hasConflictingMerge();
+				SwingUtilities.invokeLater( () -> suggestPullAlternative( e.getMessage(), canResolve ) );
 			}
 		} );
 	}
 
-	private void suggestPullAlternative( final String errorMessage )
+	private void suggestPullAlternative( final String errorMessage, final boolean canResolve )
 	{
 		final String title = "Conflict During Download Of Changes (Pull)";
 		final String message = "There was a merge conflict during the pull. Details:\n"
@@ -306,6 +424,18 @@ public class MastodonGitController extends BasicMamutPlugin
 				+ "  2. Or cancel (And maybe save your local changes to a new branch,\n"
 				+ "             which you can then be merged into the remote branch.)\n";
 
+		if ( canResolve )
+		{
+			final String resolveMessage = message + "  3. Or resolve the conflicts yourself.\n";
+			final String[] options = { "Resolve Conflicts", "Discard Local Changes", "Cancel" };
+			final int result = JOptionPane.showOptionDialog( null, resolveMessage, title, JOptionPane.YES_NO_CANCEL_OPTION,
+					JOptionPane.PLAIN_MESSAGE, null, options, options[ 0 ] );
+			if ( result == JOptionPane.YES_OPTION )
+				startMergeSession();
+			else if ( result == JOptionPane.NO_OPTION )
+				resetToRemoteBranch();
+			return;
+		}
 		final String[] options = { "Discard Local Changes", "Cancel" };
 		final int result = JOptionPane.showOptionDialog( null, message, title, JOptionPane.YES_NO_OPTION,
 				JOptionPane.PLAIN_MESSAGE, null, options, options[ 0 ] );
@@ -313,6 +443,51 @@ public class MastodonGitController extends BasicMamutPlugin
 			resetToRemoteBranch();
 	}
 
+	private void suggestResolveConflicts()
+	{
+		final String title = "Conflict During Merge";
+		final String message = "The branches have conflicting changes, that could not be merged automatically.\n\n"
+				+ "Do you want to resolve the conflicts yourself?";
+		final String[] options = { "Resolve Conflicts", "Cancel" };
+		final int result = JOptionPane.showOptionDialog( null, message, title, JOptionPane.YES_NO_OPTION,
+				JOptionPane.PLAIN_MESSAGE, null, options, options[ 0 ] );
+		if ( result == JOptionPane.YES_OPTION )
+			startMergeSession();
+	}
+
+	private void startMergeSession()
+	{
+		run( "Resolve Merge Conflicts", () -> {
+			repository.startMergeSession();
+			SwingUtilities.invokeLater( () -> JOptionPane.showMessageDialog( null, MERGE_SESSION_MESSAGE,
+					"Resolve Merge Conflicts", JOptionPane.PLAIN_MESSAGE ) );
+		} );
+	}
+
+	private void finishMerge()
+	{
+		run( "Finish Merge", () -> {
+			try
+			{
+				repository.finishMergeSession( null );
+				NotificationDialog.show( "Finish Merge",
+						"<html><body><font size=+4 color=green>&#10003</font> Merge committed." );
+			}
+			catch ( final GraphMergeConflictException e )
+			{
+				SwingUtilities.invokeLater( () -> JOptionPane.showMessageDialog( null,
+						"<html><body>There are still spots or links tagged as \"Merge Conflict\".<br>"
+								+ "Please resolve them first, or abort the merge.",
+						"Finish Merge", JOptionPane.WARNING_MESSAGE ) );
+			}
+		} );
+	}
+
+	private void abortMerge()
+	{
+		run( "Abort Merge", () -> repository.abortMergeSession() );
+	}
+
 	private void resetToRemoteBranch()
 	{
 		run( "Throw Away All Local Changes (Reset To Remote)", () -> repository.resetToRemoteBranch() );
@@ -341,14 +516,14 @@ public class MastodonGitController extends BasicMamutPlugin
 			return;
 
 		run( "Synchronize Changes", () -> {
-			final boolean clean = repository.isClean();
-			if ( !clean )
+			if ( repository.hasUncommittedChanges() )
 			{
 				final String commitMessage = CommitMessageDialog.showDialog();
 				if ( commitMessage == null )
 					return;
-				repository.commitWithoutSave( commitMessage );
+				repository.commit( commitMessage );
 			}
+			OperationQueue.checkCancelled();
 			try
 			{
 				repository.pull();
@@ -357,18 +532,27 @@ public class MastodonGitController extends BasicMamutPlugin
 			{
 				if ( !( e instanceof GraphMergeConflictException ) )
 					e.printStackTrace();
-				SwingUtilities.invokeLater( () -> suggestPullAlternative( e.getMessage() ) );
+				final boolean canResolve = repository.hasConflictingMerge();
+				SwingUtilities.invokeLater( () -> suggestPullAlternative( e.getMessage(), canResolve ) );
 				return;
 			}
+			OperationQueue.checkCancelled();
 			repository.push();
 			NotificationDialog.show( "Synchronize Changes (Commit, Pull, Push)",
 					"<html><body><font size=+4 color=green>&#10003</font> Completed successfully." );
 		} );
 	}
 
+	/**
+	 * Queues the given action in the {@link OperationQueue} of the repository.
+	 * If the same action is already waiting in the queue, it is not queued a
+	 * second time.
+	 */
 	private void run( final String title, final RunnableWithException action )
 	{
-		new Thread( () -> {
+		final OperationQueue queue = repository.getOperationQueue();
+		final OperationQueue.Operation running = queue.getRunning();
+		queue.submit( title, title, () -> {
 			try
 			{
 				action.run();
@@ -379,9 +563,53 @@ public class MastodonGitController extends BasicMamutPlugin
 			}
 			catch ( final Exception e )
 			{
-				ErrorDialog.showErrorMessage( title, e );
+				if ( !OperationQueue.isCancelled() )
+					ErrorDialog.showErrorMessage( title, e );
 			}
-		} ).start();
+		} );
+		if ( running != null )
+			NotificationDialog.show( title, "<html><body>Waiting for \"" + running.getTitle() + "\" to finish." );
+	}
+
+	private void showOperations()
+	{
+		final OperationQueue queue = repository.getOperationQueue();
+		final OperationQueue.Operation running = queue.getRunning();
+		final List< OperationQueue.Operation > queued = queue.getQueued();
+		final String title = "Git Operations";
+		if ( running == null && queued.isEmpty() )
+		{
+			NotificationDialog.show( title, "<html><body>No git operation is running." );
+			return;
+		}
+		final StringBuilder message = new StringBuilder( "<html><body>" );
+		if ( running != null )
+			message.append( "Running: <b>" ).append( running.getTitle() ).append( "</b>" )
+					.append( running.isCancelled() ? " (cancelling)" : "" ).append( "<br>" );
+		for ( final OperationQueue.Operation operation : queued )
+			message.append( "Waiting: " ).append( operation.getTitle() ).append( "<br>" );
+		final String[] options = { "Cancel All", "Close" };
+		final int result = JOptionPane.showOptionDialog( null, message.toString(), title, JOptionPane.YES_NO_OPTION,
+				JOptionPane.PLAIN_MESSAGE, null, options, options[ 1 ] );
+		if ( result == JOptionPane.YES_OPTION )
+			queue.cancelAll();
+	}
+
+	private void showStatus()
+	{
+		statusWindow.show( backgroundFetch != null ? backgroundFetch.getStatus() : null );
+	}
+
+	private void showHistory()
+	{
+		try
+		{
+			CommitHistoryWindow.show( repository.history() );
+		}
+		catch ( final Exception e )
+		{
+			ErrorDialog.showErrorMessage( "Show History", e );
+		}
 	}
 
 	interface RunnableWithException
@@ -30,32 +30,93 @@ package org.mastodon.mamut.collaboration;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 
 import org.eclipse.jgit.api.CheckoutCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.ListBranchCommand;
+import org.eclipse.jgit.api.MergeCommand;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.ResetCommand;
+import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.lib.BranchConfig;
+import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
 import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.SshSessionFactory;
 import org.mastodon.graph.io.RawGraphIO;
 import org.mastodon.mamut.MainWindow;
 import org.mastodon.mamut.ProjectModel;
 import org.mastodon.mamut.collaboration.exceptions.MastodonGitException;
+import org.mastodon.mamut.collaboration.io.CanonicalModelIO;
+import org.mastodon.mamut.collaboration.io.ChunkedModelIO;
+import org.mastodon.mamut.collaboration.io.CommitStatsIndex;
+import org.mastodon.mamut.collaboration.io.GitProjectReader;
+import org.mastodon.mamut.collaboration.io.GitProjectWriter;
+import org.mastodon.mamut.collaboration.io.ModelFingerprintIO;
+import org.mastodon.mamut.collaboration.io.ModelIdsIO;
+import org.mastodon.mamut.collaboration.io.ProjectFingerprintStore;
+import org.mastodon.mamut.collaboration.merge.MergeResultCache;
+import org.mastodon.mamut.collaboration.merge.ModelChange;
+import org.mastodon.mamut.collaboration.merge.ModelDiff;
+import org.mastodon.mamut.collaboration.merge.ModelSnapshotCache;
+import org.mastodon.mamut.collaboration.merge.MergeSession;
+import org.mastodon.mamut.collaboration.merge.SpeculativeMerge;
+import org.mastodon.mamut.collaboration.merge.ThreeWayMerge;
 import org.mastodon.mamut.collaboration.settings.MastodonGitSettingsService;
+import org.mastodon.mamut.collaboration.transport.SshSessionPool;
+import org.mastodon.mamut.collaboration.utils.BranchStatus;
+import org.mastodon.mamut.collaboration.utils.CommitHistory;
+import org.mastodon.mamut.collaboration.utils.CommitStats;
 import org.mastodon.mamut.collaboration.utils.ConflictUtils;
+import org.mastodon.mamut.collaboration.utils.GitProgress;
+import org.mastodon.mamut.collaboration.utils.GitProgressMonitor;
+import org.mastodon.mamut.collaboration.utils.FingerprintTracker;
+import org.mastodon.mamut.collaboration.utils.ModelChangeTracker;
+import org.mastodon.mamut.collaboration.utils.ModelFingerprint;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.collaboration.utils.OperationQueue;
+import org.mastodon.mamut.collaboration.utils.RefCache;
 import org.mastodon.mamut.collaboration.utils.ReloadFromDiskUtils;
 import org.mastodon.mamut.feature.MamutRawFeatureModelIO;
 import org.mastodon.mamut.io.ProjectLoader;
@@ -71,6 +132,7 @@ import org.mastodon.mamut.collaboration.exceptions.GraphMergeException;
 import org.mastodon.mamut.tomancak.merging.Dataset;
 import org.mastodon.mamut.tomancak.merging.MergeDatasets;
 import org.scijava.Context;
+import org.scijava.listeners.Listeners;
 
 // make it one synchronized class per repository
 // don't allow to open a repository twice (maybe read only)
@@ -83,17 +145,163 @@ public class MastodonGitRepository
 
 	private static final String MASTODON_PROJECT_FOLDER = "mastodon.project";
 
+	/**
+	 * Section of the git config, that holds the options of Mastodon Git.
+	 */
+	private static final String CONFIG_SECTION = "mastodon";
+
+	/**
+	 * Git config option, that enables writing the model in canonical order,
+	 * see {@link CanonicalModelIO}. Enabled by default.
+	 */
+	private static final String CONFIG_CANONICAL_ORDER = "canonicalOrder";
+
+	/**
+	 * Git config option, that enables the chunked layout of
+	 * {@link ChunkedModelIO}. If not set, the layout of the current working
+	 * tree is kept.
+	 */
+	private static final String CONFIG_CHUNKED_LAYOUT = "chunkedLayout";
+
+	/**
+	 * Git config option, that enables the disk tier of the
+	 * {@link ModelSnapshotCache}. Disabled by default, because it stores
+	 * copies of the model in the .git folder.
+	 */
+	private static final String CONFIG_SNAPSHOT_DISK_CACHE = "snapshotDiskCache";
+
+	/**
+	 * In the chunked layout, the files written by Mastodon are not tracked.
+	 * They are ignored by a .gitignore file in the project folder.
+	 */
+	private static final String CHUNKED_GITIGNORE_FILE = ".gitignore";
+
+	/**
+	 * File within the .git folder, that stores the fingerprint of the last
+	 * committed model.
+	 */
+	private static final String FINGERPRINT_FILE = "mastodon/fingerprint.raw";
+
+	private static final String CHUNKED_GITIGNORE = "/" + GitProjectReader.MODEL_FILE + "\n"
+			+ "/" + GitProjectReader.TAGS_FILE + "\n"
+			+ "/" + ModelIdsIO.IDS_FILE + "\n"
+			+ "/" + GitProjectReader.FEATURES_FOLDER + "/\n";
+
+	/**
+	 * Time after which an unused SSH session to the remote server is closed.
+	 */
+	private static final long SESSION_IDLE_TIMEOUT_MILLIS = 60_000;
+
+	/**
+	 * Parameters of {@link MergeDatasets}, used to merge models that have no
+	 * common ancestor.
+	 */
+	private static final double DIST_CUTOFF = 1000;
+
+	private static final double MAHALANOBIS_DIST_CUTOFF = 1;
+
+	private static final double RATIO_THRESHOLD = 2;
+
 	private final ProjectModel projectModel;
 
 	private final File projectRoot;
 
 	private final MastodonGitSettingsService settingsService;
 
+	private final ModelChangeTracker changeTracker;
+
+	private final FingerprintTracker fingerprintTracker;
+
+	/**
+	 * Fingerprint of the model files on disk, or null if unknown.
+	 */
+	private ModelFingerprint savedFingerprint = null;
+
+	/**
+	 * Fingerprint of the model of the last commit created by
+	 * {@link #commit(String)}, and the id of that commit.
+	 */
+	private ModelFingerprint committedFingerprint = null;
+
+	private ObjectId committedCommit = null;
+
+	private final OperationQueue operationQueue = new OperationQueue( "Mastodon Git Operations" );
+
+	private final Listeners.SynchronizedList< GitProgress.Listener > progressListeners = new Listeners.SynchronizedList<>();
+
+	/**
+	 * Keeps the SSH sessions to the remote server open between the network
+	 * operations of this repository.
+	 */
+	private final SshSessionPool sessionPool = new SshSessionPool( SshSessionFactory.getInstance(), SESSION_IDLE_TIMEOUT_MILLIS );
+
+	/**
+	 * Guards {@link #repository} and {@link #refCache}. This is a separate
+	 * lock, such that queries of the cached repository state are not blocked
+	 * by long-running operations, which hold the lock on {@code this}.
+	 */
+	private final Object repositoryLock = new Object();
+
+	/**
+	 * The git repository, opened once by {@link #initGit()} and kept open
+	 * until {@link #close()}.
+	 */
+	private Repository repository = null;
+
+	private RefCache refCache = null;
+
+	private MergeResultCache mergeResultCache = null;
+
+	private ModelSnapshotCache snapshotCache = null;
+
+	private CommitStatsIndex commitStatsIndex = null;
+
+	private ProjectFingerprintStore projectFingerprints = null;
+
+	/**
+	 * Merge of the current branch and its remote-tracking branch, computed in
+	 * advance by {@link #speculateMerge()}.
+	 */
+	private final SpeculativeMerge speculativeMerge = new SpeculativeMerge();
+
+	/**
+	 * The last merge that failed because of conflicts. It can be continued
+	 * with {@link #startMergeSession()}.
+	 */
+	private MergeSession conflictingMerge = null;
+
+	/**
+	 * The HEAD commit, for which the last call to {@link #isClean()} found the
+	 * working tree to be clean. Null if the working tree was not clean.
+	 */
+	private ObjectId cleanHead = null;
+
 	public MastodonGitRepository( final ProjectModel projectModel )
 	{
 		this.projectModel = projectModel;
 		this.projectRoot = projectModel.getProject().getProjectRoot();
 		settingsService = projectModel.getContext().service( MastodonGitSettingsService.class );
+		changeTracker = new ModelChangeTracker( projectModel.getModel() );
+		fingerprintTracker = new FingerprintTracker( projectModel.getModel() );
+		restoreModelIds();
+	}
+
+	/**
+	 * Restores the persistent ids of spots and links, that were saved next to
+	 * the model file. If that fails, the spots and links keep new random ids.
+	 */
+	private void restoreModelIds()
+	{
+		ModelIds.of( projectModel.getModel() );
+		try
+		{
+			if ( projectRoot.isDirectory() )
+				ModelIdsIO.readFromFolder( projectRoot, projectModel.getModel() );
+		}
+		catch ( final IOException e )
+		{
+			// ignore, the ids will be written again on the next commit
+		}
 	}
 
 	/**
@@ -108,6 +316,21 @@ public class MastodonGitRepository
 			final File directory,
 			final String repositoryURL )
 			throws Exception
+	{
+		return shareProject( projectModel, directory, repositoryURL, NullProgressMonitor.INSTANCE );
+	}
+
+	/**
+	 * Same as {@link #shareProject(ProjectModel, File, String)}, but reports
+	 * the progress of downloading and uploading to the given monitor, see
+	 * {@link GitProgressMonitor}.
+	 */
+	public static MastodonGitRepository shareProject(
+			final ProjectModel projectModel,
+			final File directory,
+			final String repositoryURL,
+			final ProgressMonitor monitor )
+			throws Exception
 	{
 		if ( !directory.isDirectory() )
 			throw new IllegalArgumentException( "Not a directory: " + directory );
@@ -117,6 +340,7 @@ public class MastodonGitRepository
 		try (final Git git = Git.cloneRepository()
 				.setURI( repositoryURL )
 				.setCredentialsProvider( credentials.getSingleUseCredentialsProvider() )
+				.setProgressMonitor( monitor )
 				.setDirectory( directory )
 				.call())
 		{
@@ -134,10 +358,15 @@ public class MastodonGitRepository
 			addGitIgnoreFile( git, directory );
 
 			ProjectSaver.saveProject( mastodonProjectPath.toFile(), projectModel );
+			ModelIdsIO.writeToFolder( mastodonProjectPath.toFile(), projectModel.getModel() );
 			copyXmlsFromTo( mastodonProjectPath, initialStateFolder );
 			git.add().addFilepattern( INITIAL_STATE_FOLDER ).addFilepattern( MASTODON_PROJECT_FOLDER ).call();
 			git.commit().setMessage( "Share mastodon project" ).call();
-			git.push().setCredentialsProvider( credentials.getSingleUseCredentialsProvider() ).setRemote( "origin" ).call();
+			git.push()
+					.setCredentialsProvider( credentials.getSingleUseCredentialsProvider() )
+					.setProgressMonitor( monitor )
+					.setRemote( "origin" )
+					.call();
 			return new MastodonGitRepository( projectModel );
 		}
 	}
@@ -158,6 +387,58 @@ public class MastodonGitRepository
 		return projectRoot;
 	}
 
+	/**
+	 * Returns the queue, that runs the operations on this repository one
+	 * after the other, see {@link OperationQueue}.
+	 */
+	public OperationQueue getOperationQueue()
+	{
+		return operationQueue;
+	}
+
+	/**
+	 * Listeners that receive the progress of the network operations
+	 * {@link #fetchAll()}, {@link #pull()} and {@link #push()}.
+	 */
+	public Listeners< GitProgress.Listener > progressListeners()
+	{
+		return progressListeners;
+	}
+
+	/**
+	 * Returns a progress monitor, that reports to the {@link #progressListeners()}.
+	 * JGit stops the operation, when the {@link OperationQueue} operation of the
+	 * current thread is cancelled.
+	 */
+	private GitProgressMonitor progressMonitor( final Git git )
+	{
+		return new GitProgressMonitor( this::fireProgress, objectsDirectory( git.getRepository().getDirectory() ) );
+	}
+
+	private void fireProgress( final GitProgress progress )
+	{
+		final List< GitProgress.Listener > listeners;
+		synchronized ( progressListeners )
+		{
+			listeners = new ArrayList<>( progressListeners.list );
+		}
+		listeners.forEach( listener -> listener.progress( progress ) );
+	}
+
+	/**
+	 * Returns the directory in which JGit stores the objects of the working
+	 * tree at the given directory.
+	 */
+	public static File objectsDirectoryOfWorkTree( final File directory )
+	{
+		return objectsDirectory( new File( directory, Constants.DOT_GIT ) );
+	}
+
+	private static File objectsDirectory( final File gitDirectory )
+	{
+		return new File( gitDirectory, Constants.OBJECTS );
+	}
+
 	private static boolean isDirectoryEmpty( final File directory )
 	{
 		final String[] containedFiles = directory.list();
@@ -172,16 +453,30 @@ public class MastodonGitRepository
 	 * dataset.xml.backup are treated specially.
 	 */
 	public static void cloneRepository( final String repositoryURL, final File directory ) throws Exception
+	{
+		cloneRepository( repositoryURL, directory, NullProgressMonitor.INSTANCE );
+	}
+
+	/**
+	 * Same as {@link #cloneRepository(String, File)}, but reports the progress
+	 * of the download and checkout to the given monitor. Use a
+	 * {@link GitProgressMonitor} created with {@link #objectsDirectoryOfWorkTree(File)}
+	 * to see the bytes received.
+	 */
+	public static void cloneRepository( final String repositoryURL, final File directory, final ProgressMonitor monitor ) throws Exception
 	{
 		try (final Git ignored = Git.cloneRepository()
 				.setURI( repositoryURL )
 				.setCredentialsProvider( credentials.getSingleUseCredentialsProvider() )
+				.setProgressMonitor( monitor )
 				.setDirectory( directory )
 				.call())
 		{
 			final Path mastodonProjectPath = directory.toPath().resolve( MASTODON_PROJECT_FOLDER );
 			final Path remoteFolder = directory.toPath().resolve( INITIAL_STATE_FOLDER );
 			copyXmlsFromTo( remoteFolder, mastodonProjectPath );
+			if ( ChunkedModelIO.isChunked( mastodonProjectPath.toFile() ) )
+				writeModelFilesFromChunks( mastodonProjectPath.toFile() );
 		}
 	}
 
@@ -208,286 +503,1455 @@ public class MastodonGitRepository
 	 * Commits last saved changes to the git repository.
 	 */
 	public synchronized void commitWithoutSave( final String message ) throws Exception
+	{
+		commitWithoutSave( message, null );
+	}
+
+	/**
+	 * Commits last saved changes to the git repository, and records the
+	 * {@link CommitStats} of the new commit.
+	 *
+	 * @param savedModel the model that was saved into the project folder, or
+	 *                   null if unknown. The statistics are then computed
+	 *                   from the model in the new commit.
+	 */
+	private void commitWithoutSave( final String message, final Model savedModel ) throws Exception
 	{
 		try (final Git git = initGit())
 		{
 			git.add().addFilepattern( MASTODON_PROJECT_FOLDER ).call();
+			// stage the deletion of chunks that are not needed anymore
+			if ( ChunkedModelIO.isChunked( projectRoot ) )
+				git.add().setUpdate( true ).addFilepattern( MASTODON_PROJECT_FOLDER ).call();
 			final CommitCommand commit = git.commit();
 			commit.setMessage( message );
 			commit.setAuthor( settingsService.getPersonIdent() );
-			commit.call();
+			final RevCommit newCommit = commit.call();
+			recordCommitStats( git.getRepository(), newCommit, savedModel );
 		}
 	}
 
 	/**
-	 * Save the project and add a commit.
+	 * Adds a commit with the current state of the model.
+	 * <p>
+	 * The model is serialized directly into the git object database, and the
+	 * tree and the commit are built in memory. The index and the model files in
+	 * the working tree are updated afterward. Unlike saving the project and
+	 * running "git add", every file is written only once and never read back.
 	 * <p>
-	 * This method is mostly for testing purposes. As production code would
-	 * usually run {@link #isClean()} before asking the user for a commit message
-	 * and then call {@link #commitWithoutSave(String)} to avoid saving the
-	 * project twice.
+	 * No commit is created, if the model equals the model in HEAD.
 	 *
 	 * @param message the commit message.
 	 */
 	public synchronized void commit( final String message ) throws Exception
 	{
-		ProjectSaver.saveProject( projectRoot, projectModel );
-		commitWithoutSave( message );
+		try (final Git git = initGit())
+		{
+			final Repository repository = git.getRepository();
+			if ( isMergeSessionActive() )
+			{
+				finishMergeSession( message );
+				return;
+			}
+			if ( repository.getRepositoryState() != RepositoryState.SAFE )
+			{
+				// a merge or similar is in progress, let git handle it
+				saveIfModified( repository );
+				commitWithoutSave( message, projectModel.getModel() );
+				return;
+			}
+			final long revision = changeTracker.getRevision();
+			final boolean chunked = useChunkedLayout( repository );
+			final ObjectId head = repository.resolve( Constants.HEAD );
+			final ModelFingerprint fingerprint;
+			final CommitStats stats;
+			final Map< String, ObjectId > blobs;
+			final ObjectId commitId;
+			try (final ObjectInserter inserter = repository.newObjectInserter();
+					final ObjectReader reader = repository.newObjectReader())
+			{
+				final Lock lock = projectModel.getModel().getGraph().getLock().readLock();
+				lock.lock();
+				try
+				{
+					blobs = writeModel( inserter, useCanonicalOrder( repository ), chunked );
+					fingerprint = fingerprintTracker.getFingerprint();
+					stats = CommitStats.of( projectModel.getModel(), countChangedTimepoints( repository, head, fingerprint ) );
+				}
+				finally
+				{
+					lock.unlock();
+				}
+				final DirCache index = repository.lockDirCache();
+				try
+				{
+					final DirCacheBuilder builder = index.builder();
+					final List< DirCacheEntry > outdated = new ArrayList<>();
+					final List< String > removed = new ArrayList<>();
+					replaceProjectFiles( repository, index, builder, blobs, chunked, outdated, removed );
+					builder.finish();
+					final ObjectId tree = index.writeTree( inserter );
+					inserter.flush();
+					for ( final DirCacheEntry entry : outdated )
+						DirCacheCheckout.checkoutEntry( repository, entry, reader );
+					for ( final String path : removed )
+						Files.deleteIfExists( new File( repository.getWorkTree(), path ).toPath() );
+					commitId = commitTree( repository, inserter, reader, tree, message );
+					index.write();
+					if ( !index.commit() )
+						throw new MastodonGitException( "Failed to update the git index." );
+				}
+				finally
+				{
+					index.unlock();
+				}
+			}
+			changeTracker.markSaved( revision );
+			storeFingerprint( repository, fingerprint, blobs );
+			if ( commitId != null )
+				recordCommitStats( repository, commitId, fingerprint, stats );
+		}
 	}
 
 	/**
-	 * This method performs an operation similar to {@code "git push origin --set-upstream <current-branch>"}.
-	 *
-	 * @throws MastodonGitException if the push fails because the remote server has changes that the local
-	 * repository does not have. Or if the push fails for any other reason.
+	 * Returns the number of timepoints that differ between the model of the
+	 * given parent commit and the given fingerprint. Returns
+	 * {@link CommitStats#UNKNOWN}, if the fingerprint of the parent is
+	 * neither known from the last call of {@link #commit(String)} nor stored
+	 * in the {@link ProjectFingerprintStore}. The model of the parent is not
+	 * read.
 	 */
-	public synchronized void push() throws Exception
+	private int countChangedTimepoints( final Repository repository, final ObjectId parent, final ModelFingerprint fingerprint )
 	{
-		try (final Git git = initGit())
+		if ( parent == null )
+			return CommitStats.UNKNOWN;
+		if ( parent.equals( committedCommit ) )
+			return committedFingerprint.differingTimepoints( fingerprint ).length;
+		try
 		{
-			final Iterable< PushResult > results = git.push().setCredentialsProvider( credentials.getSingleUseCredentialsProvider() ).setRemote( "origin" ).call();
-			raiseExceptionOnUnsuccessfulPush( results );
-			final String branchName = getSimpleName( getCurrentBranch() );
-			if ( !upstreamIsConfigured( git, branchName ) )
-				setUpstream( git, branchName );
+			final ObjectId parentTree = projectTreeId( repository, parent );
+			final ModelFingerprint parentFingerprint = parentTree == null ? null : getProjectFingerprints().get( parentTree );
+			if ( parentFingerprint != null )
+				return parentFingerprint.differingTimepoints( fingerprint ).length;
+		}
+		catch ( final IOException e )
+		{
+			// ignore, the number is unknown
 		}
+		return CommitStats.UNKNOWN;
 	}
 
 	/**
-	 * Sets the upstream for the given branch to "origin".
+	 * Stores the statistics of the new commit in the {@link CommitStatsIndex},
+	 * which is used by {@link #history()}, and the fingerprint of its model
+	 * in the {@link ProjectFingerprintStore}.
 	 */
-	private static void setUpstream( final Git git, final String branchName ) throws IOException
+	private void recordCommitStats( final Repository repository, final ObjectId commitId, final ModelFingerprint fingerprint, final CommitStats stats )
 	{
-		final StoredConfig config = git.getRepository().getConfig();
-		config.setString( ConfigConstants.CONFIG_BRANCH_SECTION, branchName, "remote", "origin" );
-		config.setString( ConfigConstants.CONFIG_BRANCH_SECTION, branchName, "merge", "refs/heads/" + branchName );
-		config.save();
+		committedCommit = commitId;
+		committedFingerprint = fingerprint;
+		try
+		{
+			getCommitStatsIndex().put( commitId, stats );
+			final ObjectId tree = projectTreeId( repository, commitId );
+			if ( tree != null )
+				getProjectFingerprints().put( tree, fingerprint );
+		}
+		catch ( final IOException e )
+		{
+			// ignore, the history computes the statistics again if missing
+		}
 	}
 
 	/**
-	 * Checks if the upstream is configured for the given branch.
+	 * Records the statistics of a commit that was created by git from the
+	 * saved project folder.
+	 *
+	 * @param savedModel the model in the commit, or null if unknown. The
+	 *                   model is then read from the commit.
 	 */
-	private static boolean upstreamIsConfigured( final Git git, final String branchName )
-	{
-		final StoredConfig config = git.getRepository().getConfig();
-		final String merge = config.getString( ConfigConstants.CONFIG_BRANCH_SECTION, branchName, "merge" );
-		return merge != null;
-	}
-
-	private static void raiseExceptionOnUnsuccessfulPush( final Iterable< PushResult > results )
+	private void recordCommitStats( final Repository repository, final RevCommit commit, final Model savedModel )
 	{
-		for ( final PushResult result : results )
+		if ( savedModel == null )
 		{
-			for ( final RemoteRefUpdate update : result.getRemoteUpdates() )
+			try
 			{
-				if ( update.getStatus() == RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD )
-					throw new MastodonGitException( "The remote server has changes, that you didn't download yet.\n"
-							+ "Please download changes first. (pull)\n"
-							+ "You can upload your changes afterwards.\n" );
-				if ( update.getStatus() != RemoteRefUpdate.Status.OK &&
-						update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE )
-					throw new MastodonGitException( "Push failed: " + update.getMessage() + " " + update.getStatus() );
+				final CommitStats stats = computeCommitStats( commit );
+				if ( stats != null )
+					getCommitStatsIndex().put( commit, stats );
+			}
+			catch ( final IOException e )
+			{
+				// ignore, the history computes the statistics again if missing
 			}
+			return;
 		}
+		final ObjectId parent = commit.getParentCount() > 0 ? commit.getParent( 0 ) : null;
+		final ModelFingerprint fingerprint;
+		final CommitStats stats;
+		final Lock lock = savedModel.getGraph().getLock().readLock();
+		lock.lock();
+		try
+		{
+			fingerprint = ModelFingerprint.of( savedModel );
+			stats = CommitStats.of( savedModel, countChangedTimepoints( repository, parent, fingerprint ) );
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		recordCommitStats( repository, commit, fingerprint, stats );
 	}
 
 	/**
-	 * Create a new git branch with the given name.
-	 * Similar to {@code "git checkout -b <branchName>"}.
+	 * Computes the {@link CommitStats} of a commit that has none in the
+	 * {@link CommitStatsIndex}, for example a commit that was pulled. The
+	 * counts are taken from the model of the commit. The changed timepoints
+	 * are computed from the fingerprints of the commit and its first parent,
+	 * which are taken from the {@link ProjectFingerprintStore}, or computed
+	 * and stored there. The parent is usually the next commit in the
+	 * history, its fingerprint is therefore computed only once.
+	 *
+	 * @return the statistics, or null if the commit has no Mastodon project.
 	 */
-	public synchronized void createNewBranch( final String branchName ) throws Exception
+	private CommitStats computeCommitStats( final ObjectId commit ) throws IOException
 	{
-		try (final Git git = initGit())
+		final Repository repository = getRepository();
+		final RevCommit revCommit;
+		try (final RevWalk walk = new RevWalk( repository ))
 		{
-			git.checkout().setCreateBranch( true ).setName( branchName ).call();
+			revCommit = walk.parseCommit( commit );
 		}
+		final ObjectId tree = projectTreeId( repository, revCommit );
+		if ( tree == null )
+			return null;
+		final Model model = readModel( revCommit );
+		final ModelFingerprint fingerprint = projectFingerprint( tree, revCommit );
+		final ObjectId parent = revCommit.getParentCount() > 0 ? revCommit.getParent( 0 ) : null;
+		final ObjectId parentTree = projectTreeId( repository, parent );
+		final int changedTimepoints;
+		if ( parentTree == null )
+			changedTimepoints = fingerprint.getTimepoints().length;
+		else if ( parentTree.equals( tree ) )
+			changedTimepoints = 0;
+		else
+			changedTimepoints = projectFingerprint( parentTree, parent ).differingTimepoints( fingerprint ).length;
+		return CommitStats.of( model, changedTimepoints );
 	}
 
 	/**
-	 * Switches to the given branch.
-	 * <br>
-	 * Three steps:
-	 * <ol>
-	 *     <li>Saves, an checks if there are no uncommited changes. (clean)</li>
-	 *     <li>Switches to the given branch.</li>
-	 *     <li>Reloads the project from disk.</li>
-	 * </ol>
+	 * Returns the fingerprint of the model in the given commit, whose project
+	 * folder has the given tree id. The fingerprint is taken from the
+	 * {@link ProjectFingerprintStore}, or computed and stored there.
 	 */
-	public synchronized void switchBranch( final String branchName ) throws Exception
+	private ModelFingerprint projectFingerprint( final ObjectId tree, final ObjectId commit ) throws IOException
 	{
-		try (final Git git = initGit())
+		final ProjectFingerprintStore store = getProjectFingerprints();
+		final ModelFingerprint stored = store.get( tree );
+		if ( stored != null )
+			return stored;
+		final ModelFingerprint fingerprint = ModelFingerprint.of( readModel( commit ) );
+		store.put( tree, fingerprint );
+		return fingerprint;
+	}
+
+	private CommitStatsIndex getCommitStatsIndex() throws IOException
+	{
+		synchronized ( repositoryLock )
 		{
-			ensureClean( git, "switching the branch" );
-			final boolean isRemoteBranch = branchName.startsWith( "refs/remotes/" );
-			if ( isRemoteBranch )
-			{
-				final String simpleName = getSimpleName( branchName );
-				final boolean conflict = git.branchList().call().stream().map( Ref::getName ).anyMatch( localName -> simpleName.equals( getSimpleName( localName ) ) );
-				if ( conflict )
-					throw new MastodonGitException( "There's already a local branch with the same name." );
-				git.checkout()
-						.setCreateBranch( true )
-						.setName( simpleName )
-						.setUpstreamMode( CreateBranchCommand.SetupUpstreamMode.TRACK )
-						.setStartPoint( branchName )
-						.call();
-			}
-			else
-				git.checkout().setName( branchName ).call();
+			getRepository();
+			return commitStatsIndex;
 		}
-		reloadFromDisk();
 	}
 
-	private String getSimpleName( final String branchName )
+	private ProjectFingerprintStore getProjectFingerprints() throws IOException
 	{
-		final String[] parts = branchName.split( "/" );
-		return parts[ parts.length - 1 ];
+		synchronized ( repositoryLock )
+		{
+			getRepository();
+			return projectFingerprints;
+		}
 	}
 
 	/**
-	 * Returns a list of all branches local and remote branches in the git repository.
+	 * Returns the commits of all branches, newest first, to be read one page
+	 * at a time. The caller needs to close it.
 	 */
-	public synchronized List< String > getBranches() throws Exception
+	public CommitHistory history() throws IOException
 	{
-		try (final Git git = initGit())
-		{
-			return git.branchList().setListMode( ListBranchCommand.ListMode.ALL ).call().stream().map( Ref::getName ).collect( Collectors.toList() );
-		}
+		return new CommitHistory( getRepository(), getCommitStatsIndex(), this::computeCommitStats );
 	}
 
 	/**
-	 * Fetches all branches from the remote repository.
+	 * Remembers the fingerprint of the model files that were just written, and
+	 * stores it in the .git folder for the next session.
 	 */
-	public synchronized void fetchAll() throws Exception
+	private void storeFingerprint( final Repository repository, final ModelFingerprint fingerprint, final Map< String, ObjectId > blobs )
 	{
-		try (final Git git = initGit())
+		savedFingerprint = fingerprint;
+		try
+		{
+			ModelFingerprintIO.write( new File( repository.getDirectory(), FINGERPRINT_FILE ), fingerprint, blobs );
+		}
+		catch ( final IOException e )
 		{
-			git.fetch().setCredentialsProvider( credentials.getSingleUseCredentialsProvider() ).call();
+			// ignore, the fingerprint only saves work, it is computed again if missing
 		}
 	}
 
 	/**
-	 * Returns the name of the current branch.
+	 * Returns the fingerprint of the model files on disk. It is read from the
+	 * .git folder, if it is not known yet. Returns null if it is unknown.
 	 */
-	public synchronized String getCurrentBranch() throws Exception
+	private ModelFingerprint getSavedFingerprint( final Repository repository )
 	{
-		try (final Git git = initGit())
+		if ( savedFingerprint == null )
 		{
-			return git.getRepository().getFullBranch();
+			try
+			{
+				savedFingerprint = ModelFingerprintIO.read( new File( repository.getDirectory(), FINGERPRINT_FILE ), projectRoot );
+			}
+			catch ( final IOException e )
+			{
+				// ignore, without a fingerprint the model is simply saved again
+			}
 		}
+		return savedFingerprint;
 	}
 
 	/**
-	 * Merges the given branch into the current branch. Throws an exception if there are conflicts.
-	 * Otherwise, creates a merge comit with the message "Merge commit generated with Mastodon".
+	 * Writes the model, its features and its ids as blobs into the git object
+	 * database. In the chunked layout, the chunks and the .gitignore file are
+	 * written instead.
+	 *
+	 * @return the ids of the blobs, by their path relative to the project
+	 *         folder.
 	 */
-	public synchronized void mergeBranch( final String selectedBranch ) throws Exception
+	private Map< String, ObjectId > writeModel( final ObjectInserter inserter, final boolean canonical, final boolean chunked ) throws IOException
 	{
-		final Context context = projectModel.getContext();
-		try (final Git git = initGit())
+		final Model model = projectModel.getModel();
+		final Lock lock = model.getGraph().getLock().readLock();
+		lock.lock();
+		try (final GitProjectWriter writer = new GitProjectWriter( inserter, null ))
 		{
-			ensureClean( git, "merging" );
-			final String currentBranch = getCurrentBranch();
-			final Dataset dsA = new Dataset( projectRoot.getAbsolutePath() );
-			git.checkout().setName( selectedBranch ).call();
-			final Dataset dsB = new Dataset( projectRoot.getAbsolutePath() );
-			git.checkout().setName( currentBranch ).call();
-			git.merge().setCommit( false ).include( git.getRepository().exactRef( selectedBranch ) ).call(); // TODO selected branch, should not be a string but a ref instead
-			final MamutProject project = projectModel.getProject();
-			project.setProjectRoot( projectRoot );
-			mergeAndCommit( context, project, dsA, dsB, "Merge commit generated with Mastodon" );
+			if ( chunked )
+			{
+				ChunkedModelIO.write( model, writer );
+				try (final OutputStream out = writer.open( CHUNKED_GITIGNORE_FILE ))
+				{
+					out.write( CHUNKED_GITIGNORE.getBytes( StandardCharsets.UTF_8 ) );
+				}
+				return writer.getBlobs();
+			}
+			final Model saved = saveRaw( projectModel.getContext(), model, writer, canonical );
+			try (final OutputStream out = writer.open( ModelIdsIO.IDS_FILE ))
+			{
+				ModelIdsIO.write( saved, writer.getBlobId( GitProjectReader.MODEL_FILE ), out );
+			}
+			return writer.getBlobs();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Fills the builder with the entries of the given index, but with the files
+	 * of the Mastodon project folder replaced by the given blobs. Files written
+	 * by Mastodon Git, that are not among the blobs anymore, are removed from
+	 * the index. In the chunked layout, the files that Mastodon itself reads
+	 * are kept in the working tree.
+	 *
+	 * @param outdated is filled with the entries whose file in the working tree
+	 *                 needs to be written.
+	 * @param removed  is filled with the paths of the files to delete from the
+	 *                 working tree.
+	 */
+	private static void replaceProjectFiles( final Repository repository, final DirCache index, final DirCacheBuilder builder,
+			final Map< String, ObjectId > blobs, final boolean chunked, final List< DirCacheEntry > outdated, final List< String > removed )
+	{
+		final String prefix = MASTODON_PROJECT_FOLDER + "/";
+		final Map< String, ObjectId > remaining = new TreeMap<>( blobs );
+		for ( int i = 0; i < index.getEntryCount(); i++ )
+		{
+			final DirCacheEntry entry = index.getEntry( i );
+			final String path = entry.getPathString();
+			if ( !path.startsWith( prefix ) )
+			{
+				builder.add( entry );
+				continue;
+			}
+			final String name = path.substring( prefix.length() );
+			final ObjectId blob = remaining.remove( name );
+			if ( blob == null )
+			{
+				final boolean chunkFile = name.startsWith( ChunkedModelIO.CHUNKS_FOLDER + "/" ) || name.equals( CHUNKED_GITIGNORE_FILE );
+				final boolean featureFile = name.startsWith( GitProjectReader.FEATURES_FOLDER + "/" );
+				final boolean modelFile = name.equals( GitProjectReader.MODEL_FILE ) || name.equals( GitProjectReader.TAGS_FILE )
+						|| name.equals( ModelIdsIO.IDS_FILE );
+				if ( chunkFile || ( featureFile && !chunked ) )
+					removed.add( path );
+				else if ( !featureFile && !modelFile )
+					builder.add( entry );
+				continue;
+			}
+			final File file = new File( repository.getWorkTree(), path );
+			if ( !blob.equals( entry.getObjectId() ) || !isUnmodified( entry, file ) )
+			{
+				entry.setObjectId( blob );
+				outdated.add( entry );
+			}
+			builder.add( entry );
+		}
+		remaining.forEach( ( name, blob ) -> {
+			final DirCacheEntry entry = new DirCacheEntry( prefix + name );
+			entry.setFileMode( FileMode.REGULAR_FILE );
+			entry.setObjectId( blob );
+			outdated.add( entry );
+			builder.add( entry );
+		} );
+	}
+
+	/**
+	 * Quick check, based on file size and modification time, if the file in
+	 * the working tree still matches the index entry.
+	 */
+	private static boolean isUnmodified( final DirCacheEntry entry, final File file )
+	{
+		return file.isFile()
+				&& file.length() == entry.getLength()
+				&& file.lastModified() == entry.getLastModifiedInstant().toEpochMilli();
+	}
+
+	/**
+	 * Creates a commit for the given tree on top of HEAD, and moves HEAD to the
+	 * new commit. Does nothing if the tree equals the tree of HEAD.
+	 *
+	 * @return the id of the new commit, or null if no commit was created.
+	 */
+	private ObjectId commitTree( final Repository repository, final ObjectInserter inserter, final ObjectReader reader, final ObjectId tree, final String message ) throws IOException
+	{
+		final ObjectId head = repository.resolve( Constants.HEAD );
+		if ( head != null )
+			try (final RevWalk walk = new RevWalk( reader ))
+			{
+				if ( tree.equals( walk.parseCommit( head ).getTree() ) )
+					return null;
+			}
+		final PersonIdent committer = new PersonIdent( repository );
+		final PersonIdent author = settingsService.getPersonIdent();
+		final CommitBuilder commit = new CommitBuilder();
+		commit.setTreeId( tree );
+		if ( head != null )
+			commit.setParentId( head );
+		commit.setAuthor( author != null ? author : committer );
+		commit.setCommitter( committer );
+		commit.setMessage( message );
+		final ObjectId commitId = inserter.insert( commit );
+		inserter.flush();
+		final RefUpdate update = repository.updateRef( Constants.HEAD );
+		update.setNewObjectId( commitId );
+		update.setExpectedOldObjectId( head != null ? head : ObjectId.zeroId() );
+		update.setRefLogMessage( "commit: " + message.split( "\n", 2 )[ 0 ], false );
+		final RefUpdate.Result result = update.forceUpdate();
+		switch ( result )
+		{
+		case NEW:
+		case FORCED:
+		case FAST_FORWARD:
+			return commitId;
+		default:
+			throw new MastodonGitException( "Failed to update " + update.getName() + ": " + result );
+		}
+	}
+
+	/**
+	 * Saves the project, but only if the model was changed since it was last
+	 * saved by this class. Edits that were undone, don't count as change: if
+	 * the fingerprint of the model equals the fingerprint of the model files
+	 * on disk, the project is not saved. This shortcut is not taken if the
+	 * feature model changed, because the fingerprint doesn't cover it.
+	 */
+	private void saveIfModified( final Repository repository ) throws IOException
+	{
+		if ( !changeTracker.hasUnsavedChanges() )
+			return;
+		final long revision = changeTracker.getRevision();
+		final Model model = projectModel.getModel();
+		// The ids are written in the order of the spots in the model file, the
+		// graph must not change in between.
+		final Lock lock = model.getGraph().getLock().readLock();
+		lock.lock();
+		try
+		{
+			final ModelFingerprint fingerprint = fingerprintTracker.getFingerprint();
+			if ( !changeTracker.hasUnsavedFeatureChanges() && fingerprint.equals( getSavedFingerprint( repository ) ) )
+			{
+				changeTracker.markSaved( revision );
+				return;
+			}
+			savedFingerprint = null;
+			// the working tree changes, it needs to be checked again
+			cleanHead = null;
+			final boolean chunked = useChunkedLayout( repository );
+			if ( chunked || useCanonicalOrder( repository ) )
+			{
+				final MamutProject project = projectModel.getProject();
+				project.setProjectRoot( projectRoot );
+				saveModel( projectModel.getContext(), model, project, true, chunked );
+			}
+			else
+			{
+				ProjectSaver.saveProject( projectRoot, projectModel );
+				ModelIdsIO.writeToFolder( projectRoot, model );
+			}
+			savedFingerprint = fingerprint;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		changeTracker.markSaved( revision );
+	}
+
+	/**
+	 * This method performs an operation similar to {@code "git push origin --set-upstream <current-branch>"}.
+	 * <p>
+	 * The push is skipped, if the remote-tracking branch, as updated by the
+	 * last fetch, pull or push, already points to the local commit. This saves
+	 * a round trip to the server, when {@link #pull()} is directly followed by
+	 * a push without new local commits.
+	 *
+	 * @throws MastodonGitException if the push fails because the remote server has changes that the local
+	 * repository does not have. Or if the push fails for any other reason.
+	 */
+	public synchronized void push() throws Exception
+	{
+		try (final Git git = initGit())
+		{
+			if ( isPushed( git ) )
+				return;
+			final Iterable< PushResult > results = git.push()
+					.setCredentialsProvider( credentials.getSingleUseCredentialsProvider() )
+					.setProgressMonitor( progressMonitor( git ) )
+					.setTransportConfigCallback( sessionPool.transportConfigCallback() )
+					.setRemote( "origin" )
+					.call();
+			raiseExceptionOnUnsuccessfulPush( results );
+			final String branchName = getSimpleName( getCurrentBranch() );
+			if ( !upstreamIsConfigured( git, branchName ) )
+				setUpstream( git, branchName );
+		}
+	}
+
+	/**
+	 * Returns true if the upstream of the current branch is configured and
+	 * the remote-tracking branch points to the same commit as the current
+	 * branch.
+	 */
+	private static boolean isPushed( final Git git ) throws IOException
+	{
+		final Repository repository = git.getRepository();
+		final String branchName = repository.getBranch();
+		if ( !upstreamIsConfigured( git, branchName ) )
+			return false;
+		final ObjectId local = repository.resolve( Constants.HEAD );
+		final Ref remote = repository.exactRef( Constants.R_REMOTES + "origin/" + branchName );
+		return local != null && remote != null && local.equals( remote.getObjectId() );
+	}
+
+	/**
+	 * Sets the upstream for the given branch to "origin".
+	 */
+	private static void setUpstream( final Git git, final String branchName ) throws IOException
+	{
+		final StoredConfig config = git.getRepository().getConfig();
+		config.setString( ConfigConstants.CONFIG_BRANCH_SECTION, branchName, "remote", "origin" );
+		config.setString( ConfigConstants.CONFIG_BRANCH_SECTION, branchName, "merge", "refs/heads/" + branchName );
+		config.save();
+	}
+
+	/**
+	 * Checks if the upstream is configured for the given branch.
+	 */
+	private static boolean upstreamIsConfigured( final Git git, final String branchName )
+	{
+		final StoredConfig config = git.getRepository().getConfig();
+		final String merge = config.getString( ConfigConstants.CONFIG_BRANCH_SECTION, branchName, "merge" );
+		return merge != null;
+	}
+
+	private static void raiseExceptionOnUnsuccessfulPush( final Iterable< PushResult > results )
+	{
+		for ( final PushResult result : results )
+		{
+			for ( final RemoteRefUpdate update : result.getRemoteUpdates() )
+			{
+				if ( update.getStatus() == RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD )
+					throw new MastodonGitException( "The remote server has changes, that you didn't download yet.\n"
+							+ "Please download changes first. (pull)\n"
+							+ "You can upload your changes afterwards.\n" );
+				if ( update.getStatus() != RemoteRefUpdate.Status.OK &&
+						update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE )
+					throw new MastodonGitException( "Push failed: " + update.getMessage() + " " + update.getStatus() );
+			}
+		}
+	}
+
+	/**
+	 * Create a new git branch with the given name.
+	 * Similar to {@code "git checkout -b <branchName>"}.
+	 */
+	public synchronized void createNewBranch( final String branchName ) throws Exception
+	{
+		try (final Git git = initGit())
+		{
+			git.checkout().setCreateBranch( true ).setName( branchName ).call();
+		}
+	}
+
+	/**
+	 * Switches to the given branch.
+	 * <br>
+	 * Three steps:
+	 * <ol>
+	 *     <li>Saves, an checks if there are no uncommited changes. (clean)</li>
+	 *     <li>Switches to the given branch.</li>
+	 *     <li>Reloads the project from disk.</li>
+	 * </ol>
+	 */
+	public synchronized void switchBranch( final String branchName ) throws Exception
+	{
+		try (final Git git = initGit())
+		{
+			ensureClean( git, "switching the branch" );
+			final boolean isRemoteBranch = branchName.startsWith( "refs/remotes/" );
+			if ( isRemoteBranch )
+			{
+				final String simpleName = getSimpleName( branchName );
+				final boolean conflict = git.branchList().call().stream().map( Ref::getName ).anyMatch( localName -> simpleName.equals( getSimpleName( localName ) ) );
+				if ( conflict )
+					throw new MastodonGitException( "There's already a local branch with the same name." );
+				git.checkout()
+						.setCreateBranch( true )
+						.setName( simpleName )
+						.setUpstreamMode( CreateBranchCommand.SetupUpstreamMode.TRACK )
+						.setStartPoint( branchName )
+						.call();
+			}
+			else
+				git.checkout().setName( branchName ).call();
+		}
+		reloadFromDisk();
+	}
+
+	private String getSimpleName( final String branchName )
+	{
+		final String[] parts = branchName.split( "/" );
+		return parts[ parts.length - 1 ];
+	}
+
+	/**
+	 * Returns a list of all branches local and remote branches in the git repository.
+	 * Branches that were changed by other programs are included.
+	 */
+	public List< String > getBranches() throws Exception
+	{
+		final RefCache refCache = getRefCache();
+		refCache.refresh();
+		return new ArrayList<>( refCache.getBranches() );
+	}
+
+	/**
+	 * Fetches all branches from the remote repository.
+	 */
+	public synchronized void fetchAll() throws Exception
+	{
+		try (final Git git = initGit())
+		{
+			git.fetch()
+					.setCredentialsProvider( credentials.getSingleUseCredentialsProvider() )
+					.setProgressMonitor( progressMonitor( git ) )
+					.setTransportConfigCallback( sessionPool.transportConfigCallback() )
+					.call();
+		}
+	}
+
+	/**
+	 * Fetches the remote branch that the current branch tracks, without
+	 * asking the user for credentials and without reporting progress. This
+	 * is meant for fetching periodically in the background.
+	 *
+	 * @return false if the current branch has no upstream, and nothing was
+	 * fetched.
+	 */
+	public synchronized boolean fetchTrackingBranch() throws Exception
+	{
+		try (final Git git = initGit())
+		{
+			final Repository repository = git.getRepository();
+			final BranchConfig config = new BranchConfig( repository.getConfig(), repository.getBranch() );
+			final String remote = config.getRemote();
+			final String merge = config.getMerge();
+			final String remoteTrackingBranch = config.getRemoteTrackingBranch();
+			if ( remote == null || merge == null || remoteTrackingBranch == null )
+				return false;
+			git.fetch()
+					.setRemote( remote )
+					.setRefSpecs( new RefSpec( "+" + merge + ":" + remoteTrackingBranch ) )
+					.setCredentialsProvider( credentials.getNonInteractiveCredentialsProvider() )
+					.setProgressMonitor( new GitProgressMonitor( progress -> {}, null ) )
+					.setTransportConfigCallback( sessionPool.transportConfigCallback() )
+					.call();
+			return true;
+		}
+	}
+
+	/**
+	 * Compares the current branch to its remote-tracking branch, see
+	 * {@link BranchStatus}. Unlike {@link #isClean()}, this does not save the
+	 * project. Unsaved changes of the model count as uncommitted changes.
+	 */
+	public synchronized BranchStatus getBranchStatus() throws Exception
+	{
+		try (final Git git = initGit())
+		{
+			final Repository repository = git.getRepository();
+			final BranchStatus status = BranchStatus.of( repository, !isCleanWithoutSaving( git ) );
+			if ( !status.isDiverged() )
+				return status;
+			final Boolean conflict = speculativeMerge.hasConflict( repository.resolve( Constants.HEAD ), repository.resolve( status.getUpstream() ) );
+			return conflict == null ? status : status.withConflictPredicted( conflict );
+		}
+	}
+
+	/**
+	 * Merges the current branch and its remote-tracking branch in advance,
+	 * such that a following {@link #pull()} only needs to commit the merged
+	 * model, see {@link SpeculativeMerge}. Nothing is done if the branches
+	 * have not diverged, or if the merge was already computed.
+	 * <p>
+	 * Unlike the other methods, this runs concurrently with other operations
+	 * on this repository. It only reads from the git object database.
+	 *
+	 * @return true if the merged model has conflicts.
+	 */
+	public boolean speculateMerge() throws Exception
+	{
+		final Repository repository = getRepository();
+		final String remoteTrackingBranch = new BranchConfig( repository.getConfig(), repository.getBranch() ).getRemoteTrackingBranch();
+		if ( remoteTrackingBranch == null )
+			return false;
+		final ObjectId ours = repository.resolve( Constants.HEAD );
+		final ObjectId theirs = repository.resolve( remoteTrackingBranch );
+		if ( ours == null || theirs == null || ours.equals( theirs ) )
+			return false;
+		final RevCommit base = findMergeBase( repository, ours, theirs );
+		if ( base != null && ( base.equals( ours ) || base.equals( theirs ) || isProjectChangedOnOneSideOnly( repository, base, ours, theirs ) ) )
+			return false; // git merges without merging the models
+		return speculativeMerge.compute( ours, theirs, ( o, t ) -> mergeCommitsCached( repository, o, t ) );
+	}
+
+	/**
+	 * Computes the changes of the model between two revisions, see
+	 * {@link ModelDiff}. The changes are passed to the consumer as they are
+	 * found. The working tree is not touched, so this can run concurrently
+	 * with other operations on this repository.
+	 *
+	 * @param from a revision, like "HEAD~1", a branch name or a commit id.
+	 * @param to   a revision.
+	 */
+	public ModelDiff.Summary diff( final String from, final String to, final Consumer< ModelChange > consumer ) throws Exception
+	{
+		final Repository repository = getRepository();
+		return ModelDiff.diff( getSnapshotCache(), resolveRevision( repository, from ), resolveRevision( repository, to ), consumer );
+	}
+
+	private static ObjectId resolveRevision( final Repository repository, final String revision ) throws IOException
+	{
+		final ObjectId id = repository.resolve( revision );
+		if ( id == null )
+			throw new MastodonGitException( "Unknown revision: " + revision );
+		return id;
+	}
+
+	/**
+	 * Returns the name of the current branch. A checkout by another program
+	 * is taken into account.
+	 */
+	public String getCurrentBranch() throws Exception
+	{
+		final RefCache refCache = getRefCache();
+		refCache.refresh();
+		return refCache.getFullBranch();
+	}
+
+	/**
+	 * Merges the given branch into the current branch. Throws an exception if there are conflicts.
+	 * Otherwise, creates a merge comit with the message "Merge commit generated with Mastodon".
+	 * <p>
+	 * The models are only merged, if both branches changed the Mastodon
+	 * project. Nothing is done, if the selected branch is already merged. The
+	 * current branch is fast-forwarded, if it is an ancestor of the selected
+	 * branch. If only one branch changed the project, git's merge result is
+	 * committed directly.
+	 */
+	public synchronized void mergeBranch( final String selectedBranch ) throws Exception
+	{
+		final Context context = projectModel.getContext();
+		try (final Git git = initGit())
+		{
+			ensureClean( git, "merging" );
+			final Repository repository = git.getRepository();
+			final Ref selectedRef = repository.exactRef( selectedBranch ); // TODO selected branch, should not be a string but a ref instead
+			final ObjectId ours = repository.resolve( Constants.HEAD );
+			final ObjectId theirs = selectedRef.getObjectId();
+			final RevCommit base = findMergeBase( repository, ours, theirs );
+			if ( base != null && base.equals( theirs ) )
+				return; // already up to date
+			if ( base != null && base.equals( ours ) )
+			{
+				final MergeResult result = git.merge().include( selectedRef ).setFastForward( MergeCommand.FastForwardMode.FF_ONLY ).call();
+				if ( !result.getMergeStatus().isSuccessful() )
+					throw new MastodonGitException( "Failed to fast-forward to " + selectedBranch + ": " + result.getMergeStatus() );
+				reloadIfProjectChanged( repository, ours );
+				return;
+			}
+			if ( base != null && isProjectChangedOnOneSideOnly( repository, base, ours, theirs ) )
+			{
+				final MergeResult result = git.merge().setCommit( false ).include( selectedRef ).call();
+				if ( result.getMergeStatus().isSuccessful() )
+				{
+					commitWithoutSave( "Merge commit generated with Mastodon" );
+					reloadIfProjectChanged( repository, ours );
+					return;
+				}
+				// Git failed to merge, for example because files outside the
+				// project folder conflict. Fall back to the full model merge
+				// below. This costs a model merge, and fails again if the
+				// conflict is outside the project folder. It's rare, as
+				// ensureClean(...) excludes local changes.
+				abortMerge( git );
+			}
+			final String commitMessage = "Merge commit generated with Mastodon";
+			final Model mergedModel = mergeCommits( repository, ours, theirs );
+			rememberConflicts( mergedModel, ours, theirs, commitMessage );
+			git.merge().setCommit( false ).include( selectedRef ).call();
+			final MamutProject project = projectModel.getProject();
+			project.setProjectRoot( projectRoot );
+			try
+			{
+				commitMergedModel( context, repository, project, mergedModel, commitMessage );
+			}
+			catch ( final Throwable t )
+			{
+				abortMerge( git );
+				throw t;
+			}
+			reloadFromDisk();
+		}
+	}
+
+	/**
+	 * Pulls changes from the remote repository.
+	 * <br>
+	 * If there are conflicts, it tries to resolve them automatically by creating a merge commit.
+	 */
+	public synchronized void pull() throws Exception
+	{
+		final Context context = projectModel.getContext();
+		try (final Git git = initGit())
+		{
+			ensureClean( git, "pulling" );
+			final Repository repository = git.getRepository();
+			final ObjectId before = repository.resolve( Constants.HEAD );
+			try
+			{
+				final PullResult result = git.pull()
+						.setCredentialsProvider( credentials.getSingleUseCredentialsProvider() )
+						.setProgressMonitor( progressMonitor( git ) )
+						.setTransportConfigCallback( sessionPool.transportConfigCallback() )
+						.setRemote( "origin" )
+						.setRebase( false )
+						.call();
+				final MamutProject project = projectModel.getProject();
+				project.setProjectRoot( projectRoot );
+				if ( !result.isSuccessful() )
+					automaticMerge( context, project, git );
+				else if ( ChunkedModelIO.isChunked( projectRoot ) && result.getMergeResult() != null
+						&& result.getMergeResult().getMergeStatus() == MergeResult.MergeStatus.MERGED )
+					remergeChunkedModel( context, project, git );
+			}
+			finally
+			{
+				abortMerge( git );
+			}
+			reloadIfProjectChanged( repository, before );
+		}
+	}
+
+	/**
+	 * Reloads the project from disk, unless HEAD contains the same Mastodon
+	 * project files as the given commit. This skips the reload after pulls
+	 * that were up-to-date or didn't change the project.
+	 */
+	private void reloadIfProjectChanged( final Repository repository, final ObjectId before ) throws IOException
+	{
+		if ( !Objects.equals( projectTreeId( repository, before ), projectTreeId( repository, repository.resolve( Constants.HEAD ) ) ) )
 			reloadFromDisk();
+	}
+
+	/**
+	 * Returns true if exactly one of the two commits changed the Mastodon
+	 * project compared to the merge base. Git's merge result then has the
+	 * project files of the other commit, the models don't need to be merged.
+	 */
+	private static boolean isProjectChangedOnOneSideOnly( final Repository repository, final ObjectId base, final ObjectId ours, final ObjectId theirs ) throws IOException
+	{
+		final ObjectId baseTree = projectTreeId( repository, base );
+		return Objects.equals( baseTree, projectTreeId( repository, ours ) ) || Objects.equals( baseTree, projectTreeId( repository, theirs ) );
+	}
+
+	/**
+	 * Returns the id of the tree of the Mastodon project folder in the given
+	 * commit. Returns null if the commit is null or has no project folder.
+	 */
+	private static ObjectId projectTreeId( final Repository repository, final ObjectId commit ) throws IOException
+	{
+		if ( commit == null )
+			return null;
+		try (final RevWalk walk = new RevWalk( repository );
+				final TreeWalk treeWalk = TreeWalk.forPath( repository, MASTODON_PROJECT_FOLDER, walk.parseCommit( commit ).getTree() ))
+		{
+			return treeWalk == null ? null : treeWalk.getObjectId( 0 );
+		}
+	}
+
+	/**
+	 * Git merged the chunk files of both sides without conflicts. But chunks
+	 * from different sides don't necessarily fit together, a link between two
+	 * chunks might for example point to a spot that was removed on the other
+	 * side. The model of the merge commit is therefore replaced by a merge of
+	 * the models of both parents.
+	 */
+	private void remergeChunkedModel( final Context context, final MamutProject project, final Git git ) throws Exception
+	{
+		final Repository repository = git.getRepository();
+		final RevCommit mergeCommit;
+		try (final RevWalk walk = new RevWalk( repository ))
+		{
+			mergeCommit = walk.parseCommit( repository.resolve( Constants.HEAD ) );
+		}
+		final RevCommit ours = mergeCommit.getParent( 0 );
+		final RevCommit base = findMergeBase( repository, ours, mergeCommit.getParent( 1 ) );
+		if ( base != null && isProjectChangedOnOneSideOnly( repository, base, ours, mergeCommit.getParent( 1 ) ) )
+			return; // git took the chunks of the side that changed the model
+		try
+		{
+			final Model mergedModel = mergeCommits( repository, ours, mergeCommit.getParent( 1 ) );
+			rememberConflicts( mergedModel, ours, mergeCommit.getParent( 1 ), mergeCommit.getFullMessage() );
+			if ( ConflictUtils.hasConflict( mergedModel ) )
+				throw new GraphMergeConflictException();
+			ConflictUtils.removeMergeConflictTagSets( mergedModel );
+			saveModel( context, mergedModel, project, true, true );
+			git.add().addFilepattern( MASTODON_PROJECT_FOLDER ).call();
+			git.add().setUpdate( true ).addFilepattern( MASTODON_PROJECT_FOLDER ).call();
+			git.commit()
+					.setAmend( true )
+					.setMessage( mergeCommit.getFullMessage() )
+					.setAuthor( settingsService.getPersonIdent() )
+					.call();
+		}
+		catch ( final Throwable t )
+		{
+			// undo the merge commit
+			git.reset().setMode( ResetCommand.ResetType.HARD ).setRef( ours.name() ).call();
+			if ( t instanceof GraphMergeException )
+				throw ( GraphMergeException ) t;
+			throw new GraphMergeException( "There was a failure, when merging changes to the Model.", t );
+		}
+	}
+
+	private void automaticMerge( final Context context, final MamutProject project, final Git git )
+	{
+		try
+		{
+			final Repository repository = git.getRepository();
+			final ObjectId ours = repository.resolve( Constants.HEAD );
+			final ObjectId theirs = repository.readMergeHeads().get( 0 );
+			final Model mergedModel = mergeCommits( repository, ours, theirs );
+			final String commitMessage = "Automatic merge by Mastodon during pull";
+			rememberConflicts( mergedModel, ours, theirs, commitMessage );
+			checkoutOursForUnmergedFiles( git );
+			commitMergedModel( context, repository, project, mergedModel, commitMessage );
+		}
+		catch ( final GraphMergeException e )
+		{
+			throw e;
+		}
+		catch ( final Throwable t )
+		{
+			throw new GraphMergeException( "There was a failure, when merging changes to the Model.", t );
 		}
 	}
 
 	/**
-	 * Pulls changes from the remote repository.
-	 * <br>
-	 * If there are conflicts, it tries to resolve them automatically by creating a merge commit.
+	 * Merges the models of the two given commits. The result of
+	 * {@link #speculateMerge()} is used, if it merged the same commits.
 	 */
-	public synchronized void pull() throws Exception
+	private Model mergeCommits( final Repository repository, final ObjectId ours, final ObjectId theirs ) throws IOException, InterruptedException
+	{
+		final Model speculated = speculativeMerge.take( ours, theirs );
+		if ( speculated != null )
+			return speculated;
+		return mergeCommitsCached( repository, ours, theirs );
+	}
+
+	/**
+	 * Merges the models of the two given commits. The result is read from
+	 * the {@link MergeResultCache}, if the same project trees were merged
+	 * before. Otherwise, the merge is computed and stored in the cache.
+	 */
+	private Model mergeCommitsCached( final Repository repository, final ObjectId ours, final ObjectId theirs ) throws IOException
+	{
+		final RevCommit base = findMergeBase( repository, ours, theirs );
+		final String key = MergeResultCache.key( projectTreeId( repository, ours ), projectTreeId( repository, theirs ),
+				base == null ? null : projectTreeId( repository, base ), mergeParameters( base == null ) );
+		final MergeResultCache cache = getMergeResultCache();
+		final Model cached = cache.get( key );
+		if ( cached != null )
+			return cached;
+		final Model merged = mergeCommitsNow( repository, ours, theirs, base );
+		try
+		{
+			cache.put( key, merged );
+		}
+		catch ( final IOException e )
+		{
+			// ignore, the merge result is still valid, it's just not cached
+		}
+		return merged;
+	}
+
+	private MergeResultCache getMergeResultCache() throws IOException
+	{
+		synchronized ( repositoryLock )
+		{
+			getRepository();
+			return mergeResultCache;
+		}
+	}
+
+	private ModelSnapshotCache getSnapshotCache() throws IOException
+	{
+		synchronized ( repositoryLock )
+		{
+			getRepository();
+			return snapshotCache;
+		}
+	}
+
+	/**
+	 * Returns the hit and miss counts of the cache of the models of recently
+	 * read commits.
+	 */
+	public ModelSnapshotCache.Stats getSnapshotCacheStats() throws IOException
+	{
+		return getSnapshotCache().getStats();
+	}
+
+	/**
+	 * Describes the merge algorithm and its parameters, as part of the key of
+	 * the {@link MergeResultCache}.
+	 */
+	private static String mergeParameters( final boolean geometric )
+	{
+		if ( geometric )
+			return "MergeDatasets distCutoff=" + DIST_CUTOFF + " mahalanobisDistCutoff=" + MAHALANOBIS_DIST_CUTOFF + " ratioThreshold=" + RATIO_THRESHOLD;
+		return "ThreeWayMerge";
+	}
+
+	/**
+	 * Merges the models of the two given commits.
+	 * <p>
+	 * If the commits have a common ancestor, a {@link ThreeWayMerge} against
+	 * the model of the merge base is performed. Otherwise, the models are
+	 * merged geometrically with {@link MergeDatasets}.
+	 * <p>
+	 * The conflict tag sets of the {@link ThreeWayMerge} are only added if
+	 * there are conflicts, that the user needs to see.
+	 */
+	private Model mergeCommitsNow( final Repository repository, final ObjectId ours, final ObjectId theirs, final RevCommit base ) throws IOException
+	{
+		if ( base == null )
+			return merge( readDataset( ours ), readDataset( theirs ) );
+		final ThreeWayMerge.Result result = ThreeWayMerge.mergeLean( readModel( base ), readModel( ours ), readModel( theirs ) );
+		result.getConflicts().materialize( result.getModel() );
+		return result.getModel();
+	}
+
+	/**
+	 * Returns the best common ancestor of the two commits, or null if they
+	 * don't have a common ancestor.
+	 */
+	private static RevCommit findMergeBase( final Repository repository, final ObjectId a, final ObjectId b ) throws IOException
+	{
+		try (final RevWalk walk = new RevWalk( repository ))
+		{
+			walk.setRevFilter( RevFilter.MERGE_BASE );
+			walk.markStart( walk.parseCommit( a ) );
+			walk.markStart( walk.parseCommit( b ) );
+			return walk.next();
+		}
+	}
+
+	/**
+	 * Returns the model of the given commit. It is read from the git object
+	 * database, if it is not in the {@link ModelSnapshotCache}. The model is
+	 * shared with the cache and must not be modified.
+	 */
+	private Model readModel( final ObjectId commit ) throws IOException
+	{
+		return getSnapshotCache().get( commit );
+	}
+
+	/**
+	 * Reads the Mastodon project of the given commit into a {@link Dataset}.
+	 * <p>
+	 * The model is taken from the {@link ModelSnapshotCache} and written into
+	 * a temporary directory, that is deleted afterward. The working tree and
+	 * the index are not touched.
+	 */
+	private Dataset readDataset( final ObjectId commit ) throws IOException
+	{
+		final Model model = readModel( commit );
+		final Path tmp = Files.createTempDirectory( "mastodon-git-merge" );
+		try
+		{
+			// project.xml is not tracked by git, but needed to open the project.
+			Files.copy( projectRoot.toPath().resolve( "project.xml" ), tmp.resolve( "project.xml" ) );
+			try (final MamutProject.ProjectWriter writer = MamutProjectIO.load( tmp.toString() ).openForWriting())
+			{
+				model.saveRaw( writer );
+			}
+			return new Dataset( tmp.toString() );
+		}
+		finally
+		{
+			FileUtils.deleteDirectory( tmp.toFile() );
+		}
+	}
+
+	/**
+	 * Remembers the merge, if the merged model has conflicts, such that the
+	 * user can resolve them with {@link #startMergeSession()}.
+	 */
+	private void rememberConflicts( final Model mergedModel, final ObjectId ours, final ObjectId theirs, final String commitMessage )
+	{
+		conflictingMerge = ConflictUtils.hasConflict( mergedModel ) ? new MergeSession( ours, theirs, commitMessage ) : null;
+	}
+
+	/**
+	 * Returns true if the last pull or merge failed because of conflicts,
+	 * that can be resolved with {@link #startMergeSession()}.
+	 */
+	public synchronized boolean hasConflictingMerge()
+	{
+		return conflictingMerge != null;
+	}
+
+	/**
+	 * Continues the last pull or merge, that failed because of conflicts, in
+	 * a {@link MergeSession}. The merged model, including the conflict tag
+	 * sets, is loaded into Mastodon. It is not merged again, but read from
+	 * the {@link MergeResultCache}. The user then resolves the conflicts and
+	 * calls {@link #finishMergeSession(String)} or
+	 * {@link #abortMergeSession()}.
+	 */
+	public synchronized void startMergeSession() throws Exception
 	{
+		final MergeSession session = conflictingMerge;
+		if ( session == null )
+			throw new MastodonGitException( "There is no merge with conflicts to resolve." );
 		final Context context = projectModel.getContext();
 		try (final Git git = initGit())
 		{
-			ensureClean( git, "pulling" );
+			ensureClean( git, "resolving the merge conflicts" );
+			final Repository repository = git.getRepository();
+			if ( !session.getOurs().equals( repository.resolve( Constants.HEAD ) ) )
+				throw new MastodonGitException( "The current branch changed since the merge failed. Please pull or merge again." );
+			final Model mergedModel = mergeCommits( repository, session.getOurs(), session.getTheirs() );
+			git.merge().setCommit( false ).setFastForward( MergeCommand.FastForwardMode.NO_FF ).include( session.getTheirs() ).call();
 			try
 			{
-				final boolean conflict = !git.pull()
-						.setCredentialsProvider( credentials.getSingleUseCredentialsProvider() )
-						.setRemote( "origin" )
-						.setRebase( false )
-						.call().isSuccessful();
-				if ( conflict )
-				{
-					final MamutProject project = projectModel.getProject();
-					project.setProjectRoot( projectRoot );
-					automaticMerge( context, project, projectRoot, git );
-				}
+				checkoutOursForUnmergedFiles( git );
+				final MamutProject project = projectModel.getProject();
+				project.setProjectRoot( projectRoot );
+				saveModel( context, mergedModel, project, useCanonicalOrder( repository ), useChunkedLayout( repository ) );
+				repository.writeMergeCommitMsg( session.getMessage() );
+				session.save( repository.getDirectory() );
 			}
-			finally
+			catch ( final Throwable t )
 			{
 				abortMerge( git );
+				throw t;
 			}
+			conflictingMerge = null;
 			reloadFromDisk();
 		}
 	}
 
-	private void automaticMerge( final Context context, final MamutProject project, final File projectRoot, final Git git )
+	/**
+	 * Returns true if a {@link MergeSession} is in progress. This is also
+	 * the case after Mastodon was restarted during a session.
+	 */
+	public boolean isMergeSessionActive()
 	{
 		try
 		{
-			git.checkout().setAllPaths( true ).setStage( CheckoutCommand.Stage.OURS ).call();
-			final Dataset dsA = new Dataset( projectRoot.getAbsolutePath() );
-			git.checkout().setAllPaths( true ).setStage( CheckoutCommand.Stage.THEIRS ).call();
-			final Dataset dsB = new Dataset( projectRoot.getAbsolutePath() );
-			git.checkout().setAllPaths( true ).setStage( CheckoutCommand.Stage.OURS ).call();
-			final String commitMessage = "Automatic merge by Mastodon during pull";
-			mergeAndCommit( context, project, dsA, dsB, commitMessage );
+			final Repository repository = getRepository();
+			return MergeSession.load( repository.getDirectory() ) != null && repository.readMergeHeads() != null;
 		}
-		catch ( final GraphMergeException e )
+		catch ( final Exception e )
 		{
-			throw e;
+			return false;
 		}
-		catch ( final Throwable t )
+	}
+
+	/**
+	 * Finishes the {@link MergeSession}: Checks that all conflicts are
+	 * resolved, removes the conflict tag sets and commits the model as merge
+	 * commit with two parents.
+	 *
+	 * @param message the commit message, or null to use the message of the
+	 *                merge.
+	 * @throws GraphMergeConflictException if there are unresolved conflicts.
+	 */
+	public synchronized void finishMergeSession( final String message ) throws Exception
+	{
+		try (final Git git = initGit())
 		{
-			throw new GraphMergeException( "There was a failure, when merging changes to the Model.", t );
+			final Repository repository = git.getRepository();
+			final MergeSession session = MergeSession.load( repository.getDirectory() );
+			if ( session == null || repository.readMergeHeads() == null )
+				throw new MastodonGitException( "There is no merge in progress." );
+			final Model model = projectModel.getModel();
+			if ( ConflictUtils.hasConflict( model ) )
+				throw new GraphMergeConflictException();
+			ConflictUtils.removeMergeConflictTagSets( model );
+			changeTracker.markChanged();
+			fingerprintTracker.markAllDirty();
+			saveIfModified( repository );
+			commitWithoutSave( message != null ? message : session.getMessage(), model );
+			MergeSession.delete( repository.getDirectory() );
+		}
+	}
+
+	/**
+	 * Ends the {@link MergeSession} without committing. The working tree and
+	 * the model are reset to the last commit of the current branch.
+	 */
+	public synchronized void abortMergeSession() throws Exception
+	{
+		try (final Git git = initGit())
+		{
+			final Repository repository = git.getRepository();
+			abortMerge( git );
+			MergeSession.delete( repository.getDirectory() );
+			reloadFromDisk();
+		}
+	}
+
+	/**
+	 * Replaces the unmerged files in the working tree by "our" version.
+	 * Only the files with conflicts are written, the model files are
+	 * overwritten anyway by the merge result.
+	 */
+	private static void checkoutOursForUnmergedFiles( final Git git ) throws IOException, GitAPIException
+	{
+		final DirCache dirCache = git.getRepository().readDirCache();
+		final Set< String > unmerged = new LinkedHashSet<>();
+		for ( int i = 0; i < dirCache.getEntryCount(); i++ )
+		{
+			final DirCacheEntry entry = dirCache.getEntry( i );
+			if ( entry.getStage() != DirCacheEntry.STAGE_0 )
+				unmerged.add( entry.getPathString() );
 		}
+		if ( unmerged.isEmpty() )
+			return;
+		final CheckoutCommand checkout = git.checkout().setStage( CheckoutCommand.Stage.OURS );
+		unmerged.forEach( checkout::addPath );
+		checkout.call();
 	}
 
-	private void mergeAndCommit( final Context context, final MamutProject project, final Dataset datasetA, final Dataset datasetB, final String commitMessage ) throws Exception
+	private void commitMergedModel( final Context context, final Repository repository, final MamutProject project, final Model mergedModel, final String commitMessage ) throws Exception
 	{
-		final Model mergedModel = merge( datasetA, datasetB );
 		if ( ConflictUtils.hasConflict( mergedModel ) )
 			throw new GraphMergeConflictException();
 		ConflictUtils.removeMergeConflictTagSets( mergedModel );
-		saveModel( context, mergedModel, project );
-		commitWithoutSave( commitMessage );
+		saveModel( context, mergedModel, project, useCanonicalOrder( repository ), useChunkedLayout( repository ) );
+		commitWithoutSave( commitMessage, mergedModel );
 	}
 
-	private static void saveModel( final Context context, final Model model, final MamutProject project ) throws IOException
+	/**
+	 * Saves the model into the project folder. In the chunked layout only the
+	 * chunks that changed are written, the files that Mastodon reads are
+	 * written by {@link #reloadFromDisk()}.
+	 */
+	private void saveModel( final Context context, final Model model, final MamutProject project, final boolean canonical, final boolean chunked ) throws IOException
 	{
+		// the working tree changes, it needs to be checked again
+		cleanHead = null;
+		final File root = project.getProjectRoot();
+		if ( chunked )
+		{
+			try (final MamutProject.ProjectWriter writer = project.openForWriting())
+			{
+				MamutProjectIO.save( project, writer );
+			}
+			ChunkedModelIO.writeToFolder( root, model );
+			Files.write( new File( root, CHUNKED_GITIGNORE_FILE ).toPath(), CHUNKED_GITIGNORE.getBytes( StandardCharsets.UTF_8 ) );
+			return;
+		}
+		final Model saved;
 		try (final MamutProject.ProjectWriter writer = project.openForWriting())
 		{
 			MamutProjectIO.save( project, writer );
-			final RawGraphIO.GraphToFileIdMap< Spot, Link > idmap = model.saveRaw( writer );
-			MamutRawFeatureModelIO.serialize( context, model, idmap, writer );
+			saved = saveRaw( context, model, writer, canonical );
+		}
+		ModelIdsIO.writeToFolder( root, saved );
+	}
+
+	/**
+	 * Writes the files that Mastodon reads ({@value GitProjectReader#MODEL_FILE},
+	 * {@value GitProjectReader#TAGS_FILE} and the ids) from the chunks in the
+	 * given project folder. The feature files are deleted, as they refer to
+	 * the spots by their position in the old model file. After an incremental
+	 * reload, {@link #reloadFromDisk()} writes them again from the model in
+	 * memory.
+	 */
+	private static void writeModelFilesFromChunks( final File projectRoot ) throws IOException
+	{
+		final Model model = ChunkedModelIO.readFromFolder( projectRoot );
+		final MamutProject project = MamutProjectIO.load( projectRoot.getAbsolutePath() );
+		try (final MamutProject.ProjectWriter writer = project.openForWriting())
+		{
+			model.saveRaw( writer );
 		}
+		ModelIdsIO.writeToFolder( projectRoot, model );
+		FileUtils.deleteDirectory( new File( projectRoot, GitProjectReader.FEATURES_FOLDER ) );
+	}
+
+	/**
+	 * Writes graph, tags and features of the model. Optionally in canonical
+	 * order.
+	 *
+	 * @return the model, whose order of spots and links matches the written
+	 *         files. That's either the given model or a canonical copy of it.
+	 */
+	private static Model saveRaw( final Context context, final Model model, final MamutProject.ProjectWriter writer, final boolean canonical ) throws IOException
+	{
+		if ( canonical )
+			return CanonicalModelIO.saveRaw( context, model, writer );
+		final RawGraphIO.GraphToFileIdMap< Spot, Link > idmap = model.saveRaw( writer );
+		MamutRawFeatureModelIO.serialize( context, model, idmap, writer );
+		return model;
+	}
+
+	private static boolean useCanonicalOrder( final Repository repository )
+	{
+		return repository.getConfig().getBoolean( CONFIG_SECTION, CONFIG_CANONICAL_ORDER, true );
+	}
+
+	private boolean useChunkedLayout( final Repository repository )
+	{
+		return repository.getConfig().getBoolean( CONFIG_SECTION, CONFIG_CHUNKED_LAYOUT, ChunkedModelIO.isChunked( projectRoot ) );
 	}
 
 	private static Model merge( final Dataset dsA, final Dataset dsB )
 	{
 		final MergeDatasets.OutputDataSet output = new MergeDatasets.OutputDataSet( new Model() );
-		final double distCutoff = 1000;
-		final double mahalanobisDistCutoff = 1;
-		final double ratioThreshold = 2;
-		MergeDatasets.merge( dsA, dsB, output, distCutoff, mahalanobisDistCutoff, ratioThreshold );
+		MergeDatasets.merge( dsA, dsB, output, DIST_CUTOFF, MAHALANOBIS_DIST_CUTOFF, RATIO_THRESHOLD );
 		return output.getModel();
 	}
 
+	/**
+	 * Updates the model in memory to match the model on disk. Only the
+	 * differences are applied, as one undoable step. If that fails, the model
+	 * is reloaded completely.
+	 * <p>
+	 * In the chunked layout, the model files are written from the chunks first.
+	 */
 	private void reloadFromDisk() throws IOException
 	{
-		ReloadFromDiskUtils.reloadFromDisk( projectModel );
+		final boolean chunked = ChunkedModelIO.isChunked( projectRoot );
+		if ( chunked )
+			writeModelFilesFromChunks( projectRoot );
+		try
+		{
+			ReloadFromDiskUtils.reloadFromDiskIncrementally( projectModel );
+			if ( chunked )
+				writeModelFilesWithFeatures();
+		}
+		catch ( final RuntimeException e )
+		{
+			// The incremental update might have modified the model partially.
+			// The full reload replaces the model and discards the undo history,
+			// including the unfinished update.
+			reloadFromDiskCompletely( e );
+		}
+		changeTracker.markSaved();
+		final Lock lock = projectModel.getModel().getGraph().getLock().readLock();
+		lock.lock();
+		try
+		{
+			savedFingerprint = fingerprintTracker.getFingerprint();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the files that Mastodon reads, including the features, from the
+	 * model of the project. After an incremental reload, the spots that
+	 * didn't change still have their feature values. Writing them keeps the
+	 * features for the next time the project is opened.
+	 */
+	private void writeModelFilesWithFeatures() throws IOException
+	{
+		final Model model = projectModel.getModel();
+		final MamutProject project = MamutProjectIO.load( projectRoot.getAbsolutePath() );
+		final Lock lock = model.getGraph().getLock().readLock();
+		lock.lock();
+		try
+		{
+			try (final MamutProject.ProjectWriter writer = project.openForWriting())
+			{
+				saveRaw( projectModel.getContext(), model, writer, false );
+			}
+			ModelIdsIO.writeToFolder( projectRoot, model );
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private void reloadFromDiskCompletely( final RuntimeException incrementalFailure ) throws IOException
+	{
+		try
+		{
+			ReloadFromDiskUtils.reloadFromDisk( projectModel );
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			final MastodonGitException exception = new MastodonGitException( "Failed to reload the project from disk.", e );
+			exception.addSuppressed( incrementalFailure );
+			throw exception;
+		}
 	}
 
 	/**
@@ -502,21 +1966,81 @@ public class MastodonGitRepository
 		}
 	}
 
+	/**
+	 * Returns a {@link Git} for the long-lived {@link Repository} of the
+	 * project. Closing the returned {@link Git} does not close the repository.
+	 */
 	private Git initGit() throws IOException
+	{
+		return Git.wrap( getRepository() );
+	}
+
+	private Repository getRepository() throws IOException
+	{
+		synchronized ( repositoryLock )
+		{
+			if ( repository == null )
+			{
+				repository = openRepository();
+				refCache = new RefCache( repository );
+				mergeResultCache = new MergeResultCache( repository.getDirectory() );
+				final Model model = projectModel.getModel();
+				final boolean onDisk = repository.getConfig().getBoolean( CONFIG_SECTION, CONFIG_SNAPSHOT_DISK_CACHE, false );
+				snapshotCache = new ModelSnapshotCache( repository, MASTODON_PROJECT_FOLDER, model.getSpaceUnits(), model.getTimeUnits(), onDisk );
+				commitStatsIndex = new CommitStatsIndex( repository.getDirectory() );
+				projectFingerprints = new ProjectFingerprintStore( repository.getDirectory() );
+			}
+			return repository;
+		}
+	}
+
+	private RefCache getRefCache() throws IOException
+	{
+		synchronized ( repositoryLock )
+		{
+			getRepository();
+			return refCache;
+		}
+	}
+
+	private Repository openRepository() throws IOException
 	{
 		final boolean correctFolder = projectRoot.getName().equals( MASTODON_PROJECT_FOLDER );
 		if ( !correctFolder )
 			throw new MastodonGitException( "The current project does not appear to be in a git repo." );
 		final File gitRoot = projectRoot.getParentFile();
-		if ( !new File( gitRoot, ".git" ).exists() )
+		final File gitDir = new File( gitRoot, Constants.DOT_GIT );
+		if ( !gitDir.exists() )
 			throw new MastodonGitException( "The current project does not appear to be in a git repo." );
-		return Git.open( gitRoot );
+		return new FileRepositoryBuilder().setGitDir( gitDir ).setMustExist( true ).build();
+	}
+
+	/**
+	 * Closes the git repository and the SSH sessions to the remote server.
+	 * The repository is opened again, if this object is used afterward.
+	 */
+	public void close()
+	{
+		synchronized ( repositoryLock )
+		{
+			if ( repository != null )
+				repository.close();
+			repository = null;
+			refCache = null;
+			mergeResultCache = null;
+			snapshotCache = null;
+			commitStatsIndex = null;
+			projectFingerprints = null;
+		}
+		sessionPool.evictAll();
+		speculativeMerge.clear();
 	}
 
-	public synchronized boolean isRepository()
+	public boolean isRepository()
 	{
-		try (final Git ignored = initGit())
+		try
 		{
+			getRepository();
 			return true;
 		}
 		catch ( final Exception e )
@@ -556,7 +2080,10 @@ public class MastodonGitRepository
 
 	/**
 	 * Returns true if the currently opened Mastodon project is the same as the last commit on the current branch.
-	 * Side effect: Saves the project.
+	 * Side effect: Saves the project, if it was modified since it was last saved.
+	 * <p>
+	 * The answer is immediate if the model was not modified and HEAD did not
+	 * move since the last call found the project to be clean.
 	 */
 	public synchronized boolean isClean() throws Exception
 	{
@@ -566,9 +2093,42 @@ public class MastodonGitRepository
 		}
 	}
 
+	/**
+	 * Returns true if there are changes that can be committed with
+	 * {@link #commit(String)}. Unlike {@link #isClean()}, this does not save
+	 * the project, if the model was modified.
+	 */
+	public synchronized boolean hasUncommittedChanges() throws Exception
+	{
+		try (final Git git = initGit())
+		{
+			return !isCleanWithoutSaving( git );
+		}
+	}
+
 	private boolean isClean( final Git git ) throws Exception
 	{
-		ProjectSaver.saveProject( projectRoot, projectModel );
-		return git.status().call().isClean();
+		saveIfModified( git.getRepository() );
+		return isCleanWithoutSaving( git );
+	}
+
+	/**
+	 * Returns true if the model has no unsaved changes, and the working tree
+	 * has no uncommitted changes.
+	 * <p>
+	 * The result of the git status is reused while HEAD doesn't move. Every
+	 * method that writes to the working tree therefore resets
+	 * {@link #cleanHead}.
+	 */
+	private boolean isCleanWithoutSaving( final Git git ) throws Exception
+	{
+		if ( changeTracker.hasUnsavedChanges() )
+			return false;
+		final ObjectId head = git.getRepository().resolve( Constants.HEAD );
+		if ( head != null && head.equals( cleanHead ) )
+			return true;
+		final boolean clean = git.status().call().isClean();
+		cleanHead = clean ? head : null;
+		return clean;
 	}
 }
@@ -31,6 +31,8 @@ package org.mastodon.mamut.collaboration.commands;
 import java.io.File;
 
 import org.mastodon.mamut.collaboration.dialogs.ErrorDialog;
+import org.mastodon.mamut.collaboration.dialogs.ProgressDialog;
+import org.mastodon.mamut.collaboration.utils.GitProgressMonitor;
 import org.mastodon.mamut.collaboration.MastodonGitRepository;
 import org.scijava.Context;
 import org.scijava.command.Command;
@@ -80,14 +82,19 @@ public class MastodonGitCloneRepository extends AbstractCancellable implements C
 	@Override
 	public void run()
 	{
+		final ProgressDialog dialog = new ProgressDialog( "Download Shared Project (Clone)" );
 		try
 		{
 			directory = NewDirectoryUtils.createRepositoryDirectory( createSubdirectory, directory, repositoryURL );
-			MastodonGitRepository.cloneRepository( repositoryURL, directory );
+			final GitProgressMonitor monitor = new GitProgressMonitor( dialog, MastodonGitRepository.objectsDirectoryOfWorkTree( directory ) );
+			dialog.setCancelAction( monitor::cancel );
+			MastodonGitRepository.cloneRepository( repositoryURL, directory, monitor );
+			dialog.close();
 			MastodonGitRepository.openProjectInRepository( context, directory );
 		}
 		catch ( final Exception e )
 		{
+			dialog.close();
 			ErrorDialog.showErrorMessage( "Download Shared Project (Clone)", e );
 		}
 	}
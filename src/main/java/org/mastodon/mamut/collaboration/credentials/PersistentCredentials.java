@@ -106,4 +106,22 @@ public class PersistentCredentials
 	{
 		return new SingleUseCredentialsProvider( this::getUsernameAndPassword );
 	}
+
+	/**
+	 * Returns a {@link CredentialsProvider} that never asks the user. It
+	 * provides the username and password, if they are already known, and
+	 * fails otherwise. This is meant for operations that run in the
+	 * background.
+	 */
+	public CredentialsProvider getNonInteractiveCredentialsProvider()
+	{
+		return new SingleUseCredentialsProvider( this::getKnownUsernameAndPassword );
+	}
+
+	private synchronized Pair< String, String > getKnownUsernameAndPassword( URIish uri, boolean authenticationFailure )
+	{
+		if ( authenticationFailure || username == null || password == null )
+			return null;
+		return Pair.of( username, password );
+	}
 }
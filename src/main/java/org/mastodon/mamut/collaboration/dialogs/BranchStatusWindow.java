@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.dialogs;
+
+import java.awt.Color;
+import java.awt.Frame;
+import java.text.DateFormat;
+import java.util.Date;
+
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
+
+import org.mastodon.mamut.collaboration.utils.BranchStatus;
+
+import net.miginfocom.swing.MigLayout;
+
+/**
+ * A small non-modal window that shows the {@link BranchStatus} of the
+ * current branch: commits ahead and behind the remote, uncommitted changes,
+ * and the time of the last fetch. All methods can be called from any
+ * thread.
+ */
+public class BranchStatusWindow implements BranchStatus.Listener
+{
+
+	private static final Color UP_TO_DATE = new Color( 0, 128, 0 );
+
+	private static final Color DIVERGED = new Color( 192, 0, 0 );
+
+	private JDialog dialog;
+
+	private JLabel statusLabel;
+
+	private JLabel fetchLabel;
+
+	private BranchStatus status = null;
+
+	@Override
+	public void statusChanged( final BranchStatus status )
+	{
+		SwingUtilities.invokeLater( () -> update( status ) );
+	}
+
+	/**
+	 * Shows the window with the given status, which may be null if it is
+	 * not known yet.
+	 */
+	public void show( final BranchStatus status )
+	{
+		SwingUtilities.invokeLater( () -> {
+			if ( dialog == null )
+				initDialog();
+			update( status != null ? status : this.status );
+			dialog.setVisible( true );
+		} );
+	}
+
+	private void update( final BranchStatus status )
+	{
+		this.status = status;
+		if ( dialog == null )
+			return;
+		if ( status == null )
+		{
+			statusLabel.setText( "Checking the remote server..." );
+			statusLabel.setForeground( Color.GRAY );
+			fetchLabel.setText( " " );
+		}
+		else
+		{
+			statusLabel.setText( status.toString() );
+			statusLabel.setForeground( color( status ) );
+			fetchLabel.setText( fetchText( status ) );
+		}
+		dialog.pack();
+	}
+
+	private static Color color( final BranchStatus status )
+	{
+		if ( status.isDiverged() )
+			return DIVERGED;
+		if ( status.getAhead() > 0 || status.getBehind() > 0 || status.isDirty() || !status.hasUpstream() )
+			return Color.DARK_GRAY;
+		return UP_TO_DATE;
+	}
+
+	private static String fetchText( final BranchStatus status )
+	{
+		final String lastFetch = status.getLastFetchMillis() == 0 ? "never"
+				: DateFormat.getTimeInstance( DateFormat.SHORT ).format( new Date( status.getLastFetchMillis() ) );
+		if ( status.getFetchError() != null )
+			return "Last checked: " + lastFetch + " (failed: " + status.getFetchError() + ")";
+		return "Last checked: " + lastFetch;
+	}
+
+	private void initDialog()
+	{
+		dialog = new JDialog( ( Frame ) null, "Mastodon Git Status", false );
+		dialog.setDefaultCloseOperation( WindowConstants.HIDE_ON_CLOSE );
+		dialog.setLayout( new MigLayout( "insets dialog" ) );
+		statusLabel = new JLabel( " " );
+		fetchLabel = new JLabel( " " );
+		dialog.add( statusLabel, "wrap" );
+		dialog.add( fetchLabel, "wrap" );
+		dialog.pack();
+		dialog.setLocationRelativeTo( null );
+	}
+}
@@ -0,0 +1,302 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.dialogs;
+
+import java.awt.Dimension;
+import java.awt.Frame;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
+import javax.swing.table.AbstractTableModel;
+
+import org.mastodon.mamut.collaboration.utils.CommitHistory;
+import org.mastodon.mamut.collaboration.utils.CommitStats;
+
+import net.miginfocom.swing.MigLayout;
+
+/**
+ * A non-modal window that lists the commits of a {@link CommitHistory},
+ * together with the {@link CommitStats} of each commit.
+ * <p>
+ * The commits are read one page at a time, in a background thread. The next
+ * page is read when the user scrolls close to the end of the list. The
+ * window therefore opens quickly, even for repositories with many
+ * thousands of commits.
+ * <p>
+ * Statistics that were not recorded, for example of pulled commits, are
+ * computed in the same background thread after a page was read, one commit
+ * at a time, and filled into the table as they become available.
+ */
+public class CommitHistoryWindow
+{
+
+	private static final int PAGE_SIZE = 200;
+
+	private static final String[] COLUMNS = { "Message", "Author", "Date", "Spots", "Links", "Tags", "Changed Timepoints" };
+
+	private final CommitHistory history;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor( runnable -> {
+		final Thread thread = new Thread( runnable, "Mastodon Git History" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
+	private final List< CommitHistory.Entry > entries = new ArrayList<>();
+
+	private final CommitTableModel tableModel = new CommitTableModel();
+
+	private final DateFormat dateFormat = DateFormat.getDateTimeInstance( DateFormat.SHORT, DateFormat.SHORT );
+
+	private JDialog dialog;
+
+	private JTable table;
+
+	private JScrollPane scrollPane;
+
+	private JLabel statusLabel;
+
+	private JLabel detailsLabel;
+
+	private boolean loading = false;
+
+	private boolean complete = false;
+
+	private volatile boolean closed = false;
+
+	private CommitHistoryWindow( final CommitHistory history )
+	{
+		this.history = history;
+	}
+
+	/**
+	 * Shows a window with the given history. The history is closed, when the
+	 * window is closed. Can be called from any thread.
+	 */
+	public static void show( final CommitHistory history )
+	{
+		SwingUtilities.invokeLater( () -> new CommitHistoryWindow( history ).initDialog() );
+	}
+
+	private void initDialog()
+	{
+		dialog = new JDialog( ( Frame ) null, "Mastodon Git History", false );
+		dialog.setDefaultCloseOperation( WindowConstants.DISPOSE_ON_CLOSE );
+		dialog.setLayout( new MigLayout( "insets dialog, fill", "[grow]", "[grow][][]" ) );
+		table = new JTable( tableModel );
+		table.setSelectionMode( ListSelectionModel.SINGLE_SELECTION );
+		table.getColumnModel().getColumn( 0 ).setPreferredWidth( 300 );
+		table.getSelectionModel().addListSelectionListener( e -> showDetails() );
+		scrollPane = new JScrollPane( table );
+		scrollPane.setPreferredSize( new Dimension( 900, 500 ) );
+		scrollPane.getViewport().addChangeListener( e -> loadMoreIfNeeded() );
+		statusLabel = new JLabel( "Loading..." );
+		detailsLabel = new JLabel( " " );
+		dialog.add( scrollPane, "grow, wrap" );
+		dialog.add( detailsLabel, "wrap" );
+		dialog.add( statusLabel );
+		dialog.addWindowListener( new WindowAdapter()
+		{
+			@Override
+			public void windowClosed( final WindowEvent e )
+			{
+				closed = true;
+				executor.execute( history::close );
+				executor.shutdown();
+			}
+		} );
+		dialog.pack();
+		dialog.setLocationRelativeTo( null );
+		dialog.setVisible( true );
+		loadNextPage();
+	}
+
+	/**
+	 * Reads the next page, if the last visible row is close to the end of
+	 * the list.
+	 */
+	private void loadMoreIfNeeded()
+	{
+		if ( loading || complete )
+			return;
+		final Rectangle visible = scrollPane.getViewport().getViewRect();
+		final int lastVisibleRow = table.rowAtPoint( new Point( 0, visible.y + visible.height - 1 ) );
+		if ( lastVisibleRow < 0 || lastVisibleRow >= entries.size() - PAGE_SIZE / 2 )
+			loadNextPage();
+	}
+
+	private void loadNextPage()
+	{
+		if ( loading || complete || executor.isShutdown() )
+			return;
+		loading = true;
+		executor.execute( () -> {
+			try
+			{
+				final List< CommitHistory.Entry > page = history.nextPage( PAGE_SIZE );
+				final boolean hasMore = history.hasMore();
+				SwingUtilities.invokeLater( () -> append( page, hasMore ) );
+			}
+			catch ( final Exception e )
+			{
+				SwingUtilities.invokeLater( () -> {
+					loading = false;
+					complete = true;
+					statusLabel.setText( "Failed to read the history: " + e.getMessage() );
+				} );
+			}
+		} );
+	}
+
+	private void append( final List< CommitHistory.Entry > page, final boolean hasMore )
+	{
+		loading = false;
+		complete = !hasMore;
+		if ( !page.isEmpty() )
+		{
+			final int first = entries.size();
+			entries.addAll( page );
+			tableModel.fireTableRowsInserted( first, entries.size() - 1 );
+			fillStats( first, page );
+		}
+		statusLabel.setText( complete ? entries.size() + " commits" : entries.size() + " commits loaded, scroll down for more" );
+		loadMoreIfNeeded();
+	}
+
+	/**
+	 * Computes the missing statistics of the given page, which starts at the
+	 * given row.
+	 */
+	private void fillStats( final int first, final List< CommitHistory.Entry > page )
+	{
+		for ( int i = 0; i < page.size(); i++ )
+		{
+			final CommitHistory.Entry entry = page.get( i );
+			if ( entry.getStats() != null || executor.isShutdown() )
+				continue;
+			final int row = first + i;
+			executor.execute( () -> {
+				if ( closed )
+					return;
+				try
+				{
+					if ( history.fillStats( entry ) != null )
+						SwingUtilities.invokeLater( () -> statsFilled( row ) );
+				}
+				catch ( final Exception e )
+				{
+					// ignore, the commit is shown without statistics
+				}
+			} );
+		}
+	}
+
+	private void statsFilled( final int row )
+	{
+		tableModel.fireTableRowsUpdated( row, row );
+		if ( table.getSelectedRow() == row )
+			showDetails();
+	}
+
+	private void showDetails()
+	{
+		final int row = table.getSelectedRow();
+		if ( row < 0 || row >= entries.size() )
+		{
+			detailsLabel.setText( " " );
+			return;
+		}
+		final CommitHistory.Entry entry = entries.get( row );
+		final CommitStats stats = entry.getStats();
+		detailsLabel.setText( "Commit " + entry.getId().abbreviate( 10 ).name() + " by " + entry.getAuthor()
+				+ ( entry.isMerge() ? " (merge)" : "" ) + ": "
+				+ ( stats != null ? stats.toString() : "no statistics available" ) );
+	}
+
+	private class CommitTableModel extends AbstractTableModel
+	{
+
+		@Override
+		public int getRowCount()
+		{
+			return entries.size();
+		}
+
+		@Override
+		public int getColumnCount()
+		{
+			return COLUMNS.length;
+		}
+
+		@Override
+		public String getColumnName( final int column )
+		{
+			return COLUMNS[ column ];
+		}
+
+		@Override
+		public Object getValueAt( final int row, final int column )
+		{
+			final CommitHistory.Entry entry = entries.get( row );
+			final CommitStats stats = entry.getStats();
+			switch ( column )
+			{
+			case 0:
+				return entry.getMessage();
+			case 1:
+				return entry.getAuthor();
+			case 2:
+				return dateFormat.format( new Date( entry.getTimeMillis() ) );
+			case 3:
+				return stats == null ? "" : stats.getSpots();
+			case 4:
+				return stats == null ? "" : stats.getLinks();
+			case 5:
+				return stats == null ? "" : stats.getTags();
+			default:
+				return stats == null || stats.getChangedTimepoints() == CommitStats.UNKNOWN ? "" : stats.getChangedTimepoints();
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.dialogs;
+
+import java.awt.Frame;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
+
+import org.mastodon.mamut.collaboration.utils.GitProgress;
+
+import net.miginfocom.swing.MigLayout;
+
+/**
+ * A non-modal dialog that shows the {@link GitProgress} of a git operation,
+ * with a button to cancel the operation.
+ * <p>
+ * The dialog is shown when the first progress is reported, and hidden by
+ * {@link #close()}. All methods can be called from any thread.
+ */
+public class ProgressDialog implements GitProgress.Listener
+{
+
+	private final String title;
+
+	private volatile Runnable cancelAction;
+
+	private JDialog dialog;
+
+	private JLabel taskLabel;
+
+	private JLabel detailsLabel;
+
+	private JProgressBar progressBar;
+
+	private JButton cancelButton;
+
+	/**
+	 * @param title        title of the dialog.
+	 * @param cancelAction called, when the user clicks "Cancel".
+	 */
+	public ProgressDialog( final String title, final Runnable cancelAction )
+	{
+		this.title = title;
+		this.cancelAction = cancelAction;
+	}
+
+	/**
+	 * Creates a dialog, whose "Cancel" button cancels the given monitor.
+	 * Use it like this:
+	 * <pre>
+	 * ProgressDialog dialog = new ProgressDialog( "Download" );
+	 * GitProgressMonitor monitor = new GitProgressMonitor( dialog, null );
+	 * dialog.setCancelAction( monitor::cancel );
+	 * </pre>
+	 */
+	public ProgressDialog( final String title )
+	{
+		this( title, null );
+	}
+
+	public void setCancelAction( final Runnable cancelAction )
+	{
+		this.cancelAction = cancelAction;
+	}
+
+	@Override
+	public void progress( final GitProgress progress )
+	{
+		SwingUtilities.invokeLater( () -> update( progress ) );
+	}
+
+	/**
+	 * Hides the dialog. It is shown again, when the next progress is
+	 * reported.
+	 */
+	public void close()
+	{
+		SwingUtilities.invokeLater( () -> {
+			if ( dialog != null )
+				dialog.setVisible( false );
+		} );
+	}
+
+	private void update( final GitProgress progress )
+	{
+		if ( dialog == null )
+			initDialog();
+		taskLabel.setText( progress.getTask() );
+		final int percent = progress.getPercent();
+		progressBar.setIndeterminate( percent == GitProgress.UNKNOWN );
+		if ( percent != GitProgress.UNKNOWN )
+			progressBar.setValue( percent );
+		detailsLabel.setText( details( progress ) );
+		if ( !dialog.isVisible() )
+		{
+			cancelButton.setEnabled( true );
+			dialog.setVisible( true );
+		}
+	}
+
+	private static String details( final GitProgress progress )
+	{
+		final String text = progress.toString();
+		final String prefix = progress.getTask() + ": ";
+		return text.startsWith( prefix ) ? text.substring( prefix.length() ) : text;
+	}
+
+	private void initDialog()
+	{
+		dialog = new JDialog( ( Frame ) null, title, false );
+		dialog.setDefaultCloseOperation( WindowConstants.HIDE_ON_CLOSE );
+		dialog.setLayout( new MigLayout( "insets dialog, fillx", "[grow]" ) );
+		taskLabel = new JLabel( " " );
+		detailsLabel = new JLabel( " " );
+		progressBar = new JProgressBar( 0, 100 );
+		cancelButton = new JButton( "Cancel" );
+		cancelButton.addActionListener( ignore -> {
+			cancelButton.setEnabled( false );
+			final Runnable action = cancelAction;
+			if ( action != null )
+				action.run();
+		} );
+		dialog.add( taskLabel, "wrap" );
+		dialog.add( progressBar, "growx, width 400, wrap" );
+		dialog.add( detailsLabel, "wrap" );
+		dialog.add( cancelButton, "right" );
+		dialog.pack();
+		dialog.setLocationRelativeTo( null );
+	}
+}
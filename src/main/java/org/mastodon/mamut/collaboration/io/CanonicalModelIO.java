@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.collection.RefList;
+import org.mastodon.collection.RefRefMap;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.collection.ref.RefIntHashMap;
+import org.mastodon.graph.io.RawGraphIO;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.mamut.collaboration.utils.CopyModelUtils;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.feature.MamutRawFeatureModelIO;
+import org.mastodon.mamut.io.project.MamutProject;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.scijava.Context;
+
+/**
+ * Saves a model with its spots and links in a canonical order.
+ * <p>
+ * {@link Model#saveRaw} writes the spots in the order of the internal memory
+ * pool. Deleting and adding spots reshuffles this order, and even a small
+ * edit can change most of the model file. Git then fails to store the new
+ * version of the file as a small delta of the previous one.
+ * <p>
+ * Here the spots are written sorted by timepoint, and then by their
+ * persistent id ({@link ModelIds}). The links are written in the order of
+ * their source spots, and the tags and features follow the same order.
+ * Two versions of a model therefore only differ in the places where the
+ * model was changed.
+ * <p>
+ * The model is copied in canonical order before saving. This temporarily
+ * needs as much memory as the model itself.
+ */
+public class CanonicalModelIO
+{
+
+	private CanonicalModelIO()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * Writes the graph, tags and features of the given model in canonical
+	 * order.
+	 *
+	 * @return a copy of the model, whose spots and links are in the same
+	 *         order as in the written files. It can be used to write the
+	 *         {@link ModelIdsIO ids file}.
+	 */
+	public static Model saveRaw( final Context context, final Model model, final MamutProject.ProjectWriter writer ) throws IOException
+	{
+		final Model copy = new Model( model.getSpaceUnits(), model.getTimeUnits() );
+		final Pair< RefRefMap< Spot, Spot >, RefRefMap< Link, Link > > maps =
+				CopyModelUtils.copyModelFromTo( model, copy, sortedSpots( model ) );
+		final RawGraphIO.GraphToFileIdMap< Spot, Link > idmap = copy.saveRaw( writer );
+		MamutRawFeatureModelIO.serialize( context, model, composeIdMap( model, maps, idmap ), writer );
+		return copy;
+	}
+
+	/**
+	 * Returns the spots of the model, sorted by timepoint and then by their
+	 * persistent id.
+	 */
+	static RefList< Spot > sortedSpots( final Model model )
+	{
+		final ModelGraph graph = model.getGraph();
+		final ModelIds ids = ModelIds.of( model );
+		final int n = graph.vertices().size();
+		final int[] poolIndex = new int[ n ];
+		final int[] timepoint = new int[ n ];
+		final long[] id = new long[ n ];
+		final Integer[] order = new Integer[ n ];
+		int i = 0;
+		for ( final Spot spot : graph.vertices() )
+		{
+			poolIndex[ i ] = spot.getInternalPoolIndex();
+			timepoint[ i ] = spot.getTimepoint();
+			id[ i ] = ids.getSpotId( spot );
+			order[ i ] = i;
+			i++;
+		}
+		Arrays.sort( order, Comparator.< Integer >comparingInt( s -> timepoint[ s ] )
+				.thenComparingLong( s -> id[ s ] )
+				.thenComparingInt( s -> poolIndex[ s ] ) );
+		final RefPool< Spot > pool = graph.vertices().getRefPool();
+		final RefList< Spot > sorted = new RefArrayList<>( pool, n );
+		final Spot ref = graph.vertexRef();
+		try
+		{
+			for ( final int s : order )
+				sorted.add( pool.getObject( poolIndex[ s ], ref ) );
+		}
+		finally
+		{
+			graph.releaseRef( ref );
+		}
+		return sorted;
+	}
+
+	/**
+	 * Maps the spots and links of the model to the file ids of their copies.
+	 */
+	private static RawGraphIO.GraphToFileIdMap< Spot, Link > composeIdMap( final Model model,
+			final Pair< RefRefMap< Spot, Spot >, RefRefMap< Link, Link > > maps,
+			final RawGraphIO.GraphToFileIdMap< Spot, Link > copyIdMap )
+	{
+		final ModelGraph graph = model.getGraph();
+		return new RawGraphIO.GraphToFileIdMap<>(
+				new ObjectToFileIdMap<>( compose( graph.vertices().getRefPool(), maps.getLeft(), copyIdMap.vertices() ) ),
+				new ObjectToFileIdMap<>( compose( graph.edges().getRefPool(), maps.getRight(), copyIdMap.edges() ) ) );
+	}
+
+	private static < O > RefIntMap< O > compose( final RefPool< O > pool, final RefRefMap< O, O > toCopy, final ObjectToFileIdMap< O > copyToFileId )
+	{
+		final RefIntMap< O > map = new RefIntHashMap<>( pool, -1, toCopy.size() );
+		final O ref = toCopy.createValueRef();
+		try
+		{
+			for ( final O o : toCopy.keySet() )
+				map.put( o, copyToFileId.getId( toCopy.get( o, ref ) ) );
+		}
+		finally
+		{
+			toCopy.releaseValueRef( ref );
+		}
+		return map;
+	}
+}
@@ -0,0 +1,981 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mastodon.collection.RefList;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.ObjTags;
+import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.properties.ObjPropertyMap;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * Reads and writes a model in a chunked layout, that suits git better than
+ * one big {@value GitProjectReader#MODEL_FILE}.
+ * <p>
+ * The spots are split into chunks of {@value #TIMEPOINTS_PER_CHUNK}
+ * timepoints. Each chunk file holds the spots of its timepoints, the links
+ * between these spots, and their tags. Links between spots of different
+ * chunks are stored in the small file {@value #CROSS_LINKS_FILE}, which
+ * refers to their source and target by the ids of the spots. Adding or
+ * removing a spot therefore doesn't change the entries of the other links
+ * between chunks. The file
+ * {@value #MANIFEST_FILE} holds the units, the list of chunks and the tag set
+ * structure.
+ * <p>
+ * An edit only changes the chunks of the edited timepoints. Git only needs
+ * to hash, compress and transfer these files, instead of the whole model.
+ * The spots are written in the canonical order of {@link CanonicalModelIO},
+ * so unchanged chunks are written byte for byte identical.
+ * <p>
+ * The ids of spots and links ({@link ModelIds}) are stored in the chunks.
+ * Features are not stored.
+ */
+public class ChunkedModelIO
+{
+
+	public static final String CHUNKS_FOLDER = "chunks";
+
+	public static final String MANIFEST_FILE = CHUNKS_FOLDER + "/manifest.raw";
+
+	public static final String CROSS_LINKS_FILE = CHUNKS_FOLDER + "/links.raw";
+
+	public static final int TIMEPOINTS_PER_CHUNK = 16;
+
+	private static final int MAGIC = 0x4d47434b; // "MGCK"
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Version of {@value #CROSS_LINKS_FILE}. In version 1, source and target
+	 * were given by their chunk and index within the chunk.
+	 */
+	private static final int CROSS_LINKS_VERSION = 2;
+
+	/**
+	 * Destination for the files of the chunked layout. Paths are relative to
+	 * the project folder.
+	 */
+	public interface FileSink
+	{
+		void write( String path, byte[] content ) throws IOException;
+	}
+
+	/**
+	 * Source of the files of the chunked layout. Paths are relative to the
+	 * project folder.
+	 */
+	public interface FileSource
+	{
+		InputStream open( String path ) throws IOException;
+	}
+
+	private ChunkedModelIO()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * Returns true if the given Mastodon project folder contains a model in
+	 * the chunked layout.
+	 */
+	public static boolean isChunked( final File projectRoot )
+	{
+		return new File( projectRoot, MANIFEST_FILE ).isFile();
+	}
+
+	/**
+	 * Reads the chunked model from the given Mastodon project folder.
+	 */
+	public static Model readFromFolder( final File projectRoot ) throws IOException
+	{
+		return read( path -> Files.newInputStream( new File( projectRoot, path ).toPath() ) );
+	}
+
+	/**
+	 * Writes the model in the chunked layout into the given Mastodon project
+	 * folder. Files whose content did not change are not written. Chunk files
+	 * that are not needed anymore are deleted.
+	 */
+	public static void writeToFolder( final File projectRoot, final Model model ) throws IOException
+	{
+		Files.createDirectories( new File( projectRoot, CHUNKS_FOLDER ).toPath() );
+		final List< String > written = write( model, ( path, content ) -> {
+			final Path file = new File( projectRoot, path ).toPath();
+			final boolean unchanged = Files.isRegularFile( file )
+					&& Files.size( file ) == content.length
+					&& Arrays.equals( Files.readAllBytes( file ), content );
+			if ( !unchanged )
+				Files.write( file, content );
+		} );
+		final Set< String > keep = new HashSet<>( written );
+		final File[] files = new File( projectRoot, CHUNKS_FOLDER ).listFiles();
+		if ( files != null )
+			for ( final File file : files )
+				if ( !keep.contains( CHUNKS_FOLDER + "/" + file.getName() ) )
+					Files.delete( file.toPath() );
+	}
+
+	/**
+	 * Reads the chunked model from a git tree.
+	 */
+	public static Model read( final GitProjectReader reader ) throws IOException
+	{
+		return read( reader::open );
+	}
+
+	/**
+	 * Writes the model in the chunked layout into the git object database.
+	 */
+	public static void write( final Model model, final GitProjectWriter writer ) throws IOException
+	{
+		write( model, ( path, content ) -> {
+			try (final OutputStream out = writer.open( path ))
+			{
+				out.write( content );
+			}
+		} );
+	}
+
+	/**
+	 * Writes the model in the chunked layout. The caller needs to hold the
+	 * read lock of the model's graph.
+	 *
+	 * @return the paths of all written files.
+	 */
+	public static List< String > write( final Model model, final FileSink sink ) throws IOException
+	{
+		final ModelGraph graph = model.getGraph();
+		final ModelIds ids = ModelIds.of( model );
+		final List< TagSetStructure.TagSet > tagSets = model.getTagSetModel().getTagSetStructure().getTagSets();
+		final RefList< Spot > spots = CanonicalModelIO.sortedSpots( model );
+		final ObjPropertyMap< Spot, String > labels = graph.getVertexPool().labelProperty();
+		final Spot ref = graph.vertexRef();
+		final Spot ref2 = graph.vertexRef();
+		try
+		{
+			// Split the sorted spots into chunks. Remember the chunk and the
+			// index within the chunk of every spot, by pool index.
+			int maxPoolIndex = -1;
+			for ( final Spot spot : spots )
+				maxPoolIndex = Math.max( maxPoolIndex, spot.getInternalPoolIndex() );
+			final int[] chunkOf = new int[ maxPoolIndex + 1 ];
+			final int[] localIndexOf = new int[ maxPoolIndex + 1 ];
+			final List< Chunk > chunks = new ArrayList<>();
+			for ( int i = 0; i < spots.size(); i++ )
+			{
+				final Spot spot = spots.get( i, ref );
+				final int firstTimepoint = Math.floorDiv( spot.getTimepoint(), TIMEPOINTS_PER_CHUNK ) * TIMEPOINTS_PER_CHUNK;
+				if ( chunks.isEmpty() || chunks.get( chunks.size() - 1 ).firstTimepoint != firstTimepoint )
+					chunks.add( new Chunk( firstTimepoint, i ) );
+				final Chunk chunk = chunks.get( chunks.size() - 1 );
+				chunk.end = i + 1;
+				chunkOf[ spot.getInternalPoolIndex() ] = chunks.size() - 1;
+				localIndexOf[ spot.getInternalPoolIndex() ] = i - chunk.start;
+			}
+
+			final List< String > paths = new ArrayList<>();
+			final RefList< Link > crossLinks = new RefArrayList<>( graph.edges().getRefPool() );
+			final ByteArrayOutputStream crossLinkBytes = new ByteArrayOutputStream();
+			final DataOutputStream crossOut = new DataOutputStream( crossLinkBytes );
+			for ( int c = 0; c < chunks.size(); c++ )
+			{
+				final Chunk chunk = chunks.get( c );
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final DataOutputStream out = new DataOutputStream( bytes );
+				writeHeader( out );
+				out.writeInt( chunk.end - chunk.start );
+				for ( int i = chunk.start; i < chunk.end; i++ )
+					writeSpot( out, spots.get( i, ref ), ids, labels );
+
+				final RefList< Link > links = new RefArrayList<>( graph.edges().getRefPool() );
+				final ByteArrayOutputStream linkBytes = new ByteArrayOutputStream();
+				final DataOutputStream linkOut = new DataOutputStream( linkBytes );
+				for ( int i = chunk.start; i < chunk.end; i++ )
+				{
+					final Spot spot = spots.get( i, ref );
+					int outIndex = 0;
+					for ( final Link link : spot.outgoingEdges() )
+					{
+						final int target = link.getTarget( ref2 ).getInternalPoolIndex();
+						if ( chunkOf[ target ] == c )
+						{
+							linkOut.writeLong( ids.getLinkId( link ) );
+							linkOut.writeInt( i - chunk.start );
+							linkOut.writeInt( localIndexOf[ target ] );
+							linkOut.writeInt( outIndex );
+							links.add( link );
+						}
+						else
+						{
+							crossOut.writeLong( ids.getLinkId( link ) );
+							crossOut.writeInt( spot.getTimepoint() );
+							crossOut.writeLong( ids.getSpotId( spot ) );
+							crossOut.writeLong( ids.getSpotId( ref2 ) );
+							crossOut.writeInt( outIndex );
+							crossLinks.add( link );
+						}
+						outIndex++;
+					}
+				}
+				linkOut.flush();
+				out.writeInt( links.size() );
+				linkBytes.writeTo( out );
+
+				writeTags( out, model.getTagSetModel().getVertexTags(), tagSets, spots.subList( chunk.start, chunk.end ) );
+				writeTags( out, model.getTagSetModel().getEdgeTags(), tagSets, links );
+				out.flush();
+				final String path = chunkPath( chunk.firstTimepoint );
+				sink.write( path, bytes.toByteArray() );
+				paths.add( path );
+			}
+
+			crossOut.flush();
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream( bytes );
+			writeHeader( out, CROSS_LINKS_VERSION );
+			out.writeInt( crossLinks.size() );
+			crossLinkBytes.writeTo( out );
+			writeTags( out, model.getTagSetModel().getEdgeTags(), tagSets, crossLinks );
+			out.flush();
+			sink.write( CROSS_LINKS_FILE, bytes.toByteArray() );
+			paths.add( CROSS_LINKS_FILE );
+
+			sink.write( MANIFEST_FILE, manifest( model, chunks ) );
+			paths.add( MANIFEST_FILE );
+			return paths;
+		}
+		finally
+		{
+			graph.releaseRef( ref );
+			graph.releaseRef( ref2 );
+		}
+	}
+
+	/**
+	 * Returns the path of the chunk file, that holds the spots from the given
+	 * timepoint on.
+	 */
+	public static String chunkPath( final int firstTimepoint )
+	{
+		return String.format( "%s/t%06d.raw", CHUNKS_FOLDER, firstTimepoint );
+	}
+
+	private static void writeHeader( final DataOutputStream out ) throws IOException
+	{
+		writeHeader( out, VERSION );
+	}
+
+	private static void writeHeader( final DataOutputStream out, final int version ) throws IOException
+	{
+		out.writeInt( MAGIC );
+		out.writeInt( version );
+	}
+
+	private static void readHeader( final DataInputStream in, final String path ) throws IOException
+	{
+		if ( readVersion( in, path ) != VERSION )
+			throw new IOException( "Unsupported file format: " + path );
+	}
+
+	private static int readVersion( final DataInputStream in, final String path ) throws IOException
+	{
+		if ( in.readInt() != MAGIC )
+			throw new IOException( "Unsupported file format: " + path );
+		return in.readInt();
+	}
+
+	private static byte[] manifest( final Model model, final List< Chunk > chunks ) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream( bytes );
+		writeHeader( out );
+		out.writeUTF( model.getSpaceUnits() );
+		out.writeUTF( model.getTimeUnits() );
+		out.writeInt( chunks.size() );
+		for ( final Chunk chunk : chunks )
+			out.writeInt( chunk.firstTimepoint );
+		final List< TagSetStructure.TagSet > tagSets = model.getTagSetModel().getTagSetStructure().getTagSets();
+		out.writeInt( tagSets.size() );
+		for ( final TagSetStructure.TagSet tagSet : tagSets )
+		{
+			out.writeUTF( tagSet.getName() );
+			out.writeInt( tagSet.getTags().size() );
+			for ( final TagSetStructure.Tag tag : tagSet.getTags() )
+			{
+				out.writeUTF( tag.label() );
+				out.writeInt( tag.color() );
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeSpot( final DataOutputStream out, final Spot spot, final ModelIds ids, final ObjPropertyMap< Spot, String > labels ) throws IOException
+	{
+		final double[] position = new double[ 3 ];
+		final double[][] cov = new double[ 3 ][ 3 ];
+		spot.localize( position );
+		spot.getCovariance( cov );
+		out.writeLong( ids.getSpotId( spot ) );
+		out.writeInt( spot.getTimepoint() );
+		for ( int d = 0; d < 3; d++ )
+			out.writeDouble( position[ d ] );
+		for ( int r = 0; r < 3; r++ )
+			for ( int c = r; c < 3; c++ )
+				out.writeDouble( cov[ r ][ c ] );
+		// A spot without label returns its pool index as label. Only set
+		// labels are stored.
+		final boolean hasLabel = labels.isSet( spot );
+		out.writeBoolean( hasLabel );
+		if ( hasLabel )
+			out.writeUTF( labels.get( spot ) );
+	}
+
+	/**
+	 * Writes the tags of the given objects. For every tag set: the number of
+	 * tagged objects, followed by pairs of object index and tag index.
+	 */
+	private static < O > void writeTags( final DataOutputStream out, final ObjTags< O > objTags, final List< TagSetStructure.TagSet > tagSets, final List< O > objects ) throws IOException
+	{
+		final int[] tagged = new int[ objects.size() ];
+		final int[] tagIndex = new int[ objects.size() ];
+		for ( final TagSetStructure.TagSet tagSet : tagSets )
+		{
+			final ObjTagMap< O, TagSetStructure.Tag > tags = objTags.tags( tagSet );
+			final List< TagSetStructure.Tag > tagList = tagSet.getTags();
+			int count = 0;
+			for ( int i = 0; i < objects.size(); i++ )
+			{
+				final TagSetStructure.Tag tag = tags.get( objects.get( i ) );
+				if ( tag == null )
+					continue;
+				tagged[ count ] = i;
+				tagIndex[ count ] = tagList.indexOf( tag );
+				count++;
+			}
+			out.writeInt( count );
+			for ( int k = 0; k < count; k++ )
+			{
+				out.writeInt( tagged[ k ] );
+				out.writeInt( tagIndex[ k ] );
+			}
+		}
+	}
+
+	/**
+	 * Reads the manifest of a model in the chunked layout.
+	 */
+	public static Manifest readManifest( final FileSource source ) throws IOException
+	{
+		try (final DataInputStream in = open( source, MANIFEST_FILE ))
+		{
+			final String spaceUnits = in.readUTF();
+			final String timeUnits = in.readUTF();
+			final int[] chunkTimepoints = new int[ in.readInt() ];
+			for ( int c = 0; c < chunkTimepoints.length; c++ )
+				chunkTimepoints[ c ] = in.readInt();
+			final TagSetStructure structure = new TagSetStructure();
+			final int tagSetCount = in.readInt();
+			for ( int k = 0; k < tagSetCount; k++ )
+			{
+				final TagSetStructure.TagSet tagSet = structure.createTagSet( in.readUTF() );
+				final int tagCount = in.readInt();
+				for ( int t = 0; t < tagCount; t++ )
+					tagSet.createTag( in.readUTF(), in.readInt() );
+			}
+			return new Manifest( spaceUnits, timeUnits, chunkTimepoints, structure );
+		}
+	}
+
+	/**
+	 * Reads a model in the chunked layout.
+	 */
+	public static Model read( final FileSource source ) throws IOException
+	{
+		final Manifest manifest = readManifest( source );
+		final Model model = manifest.newModel();
+		// setTagSetStructure(...) copies the structure, use the tag sets of the model from here on
+		final List< TagSetStructure.TagSet > tagSets = model.getTagSetModel().getTagSetStructure().getTagSets();
+		final ModelGraph graph = model.getGraph();
+		final RefList< Spot > spots = new RefArrayList<>( graph.vertices().getRefPool() );
+		final List< long[] > spotIds = new ArrayList<>();
+		final List< LinkRecords > links = new ArrayList<>();
+		final Spot ref = graph.vertexRef();
+		try
+		{
+			// spots and links within chunks
+			for ( final int firstTimepoint : manifest.chunkTimepoints )
+				readChunk( source, firstTimepoint, model, tagSets, spots, spotIds, links, ref );
+		}
+		finally
+		{
+			graph.releaseRef( ref );
+		}
+		// links between chunks
+		final TLongIntHashMap indexById = new TLongIntHashMap( 2 * spots.size(), 0.5f, ModelIds.NO_ID, -1 );
+		int index = 0;
+		for ( final long[] chunkIds : spotIds )
+			for ( final long id : chunkIds )
+				if ( indexById.put( id, index++ ) >= 0 )
+					throw new IOException( "Two spots with the same id in: " + CHUNKS_FOLDER );
+		final CrossLinks crossLinks = readCrossLinks( source, tagSets.size() );
+		final LinkRecords records = new LinkRecords( crossLinks.id, crossLinks.outIndex, crossLinks.tags );
+		for ( int l = 0; l < records.size(); l++ )
+		{
+			records.source[ l ] = spotIndex( indexById, crossLinks.sourceId[ l ] );
+			records.target[ l ] = spotIndex( indexById, crossLinks.targetId[ l ] );
+		}
+		links.add( records );
+		addLinks( model, spots, links, tagSets );
+		setSpotIds( model, spots, spotIds );
+		return model;
+	}
+
+	/**
+	 * Reads the spots of a single chunk, the links between them and their
+	 * tags into a new model. Links to spots of other chunks are not read. The
+	 * spots are added to the model in the order in which they are stored in
+	 * the chunk.
+	 */
+	public static Model readChunk( final FileSource source, final Manifest manifest, final int firstTimepoint ) throws IOException
+	{
+		final Model model = manifest.newModel();
+		final List< TagSetStructure.TagSet > tagSets = model.getTagSetModel().getTagSetStructure().getTagSets();
+		final ModelGraph graph = model.getGraph();
+		final RefList< Spot > spots = new RefArrayList<>( graph.vertices().getRefPool() );
+		final List< long[] > spotIds = new ArrayList<>();
+		final List< LinkRecords > links = new ArrayList<>();
+		final Spot ref = graph.vertexRef();
+		try
+		{
+			readChunk( source, firstTimepoint, model, tagSets, spots, spotIds, links, ref );
+		}
+		finally
+		{
+			graph.releaseRef( ref );
+		}
+		addLinks( model, spots, links, tagSets );
+		setSpotIds( model, spots, spotIds );
+		return model;
+	}
+
+	/**
+	 * Reads the spots of one chunk into the model and appends them to
+	 * {@code spots}. The links are returned as {@link LinkRecords} with
+	 * indices into {@code spots}.
+	 */
+	private static void readChunk( final FileSource source, final int firstTimepoint, final Model model, final List< TagSetStructure.TagSet > tagSets,
+			final RefList< Spot > spots, final List< long[] > spotIds, final List< LinkRecords > links, final Spot ref ) throws IOException
+	{
+		try (final DataInputStream in = open( source, chunkPath( firstTimepoint ) ))
+		{
+			final int offset = spots.size();
+			final long[] ids = new long[ in.readInt() ];
+			for ( int i = 0; i < ids.length; i++ )
+				ids[ i ] = readSpot( in, model.getGraph(), spots, ref );
+			spotIds.add( ids );
+			final LinkRecords records = new LinkRecords( in.readInt(), tagSets.size() );
+			for ( int l = 0; l < records.size(); l++ )
+			{
+				records.id[ l ] = in.readLong();
+				records.source[ l ] = offset + in.readInt();
+				records.target[ l ] = offset + in.readInt();
+				records.outIndex[ l ] = in.readInt();
+			}
+			readSpotTags( in, model.getTagSetModel().getVertexTags(), tagSets, spots, offset, ref );
+			readTags( in, records.tags );
+			links.add( records );
+		}
+	}
+
+	private static void setSpotIds( final Model model, final RefList< Spot > spots, final List< long[] > spotIds )
+	{
+		final ModelIds ids = ModelIds.of( model );
+		int i = 0;
+		for ( final long[] chunkIds : spotIds )
+			for ( final long id : chunkIds )
+				ids.setSpotId( spots.get( i++ ), id );
+	}
+
+	/**
+	 * Reads the links between spots of different chunks. The chunks are only
+	 * read for files of version 1, that don't store the ids of the spots.
+	 *
+	 * @param tagSetCount the number of tag sets in the {@link Manifest}.
+	 */
+	public static CrossLinks readCrossLinks( final FileSource source, final int tagSetCount ) throws IOException
+	{
+		try (final DataInputStream in = new DataInputStream( new BufferedInputStream( source.open( CROSS_LINKS_FILE ) ) ))
+		{
+			final int version = readVersion( in, CROSS_LINKS_FILE );
+			if ( version != 1 && version != CROSS_LINKS_VERSION )
+				throw new IOException( "Unsupported file format: " + CROSS_LINKS_FILE );
+			final CrossLinks links = new CrossLinks( in.readInt(), tagSetCount );
+			if ( version == 1 )
+				readCrossLinksVersion1( source, in, links );
+			else
+				for ( int l = 0; l < links.size(); l++ )
+				{
+					links.id[ l ] = in.readLong();
+					links.sourceTimepoint[ l ] = in.readInt();
+					links.sourceId[ l ] = in.readLong();
+					links.targetId[ l ] = in.readLong();
+					links.outIndex[ l ] = in.readInt();
+				}
+			readTags( in, links.tags );
+			return links;
+		}
+	}
+
+	/**
+	 * Reads the entries of a {@value #CROSS_LINKS_FILE} of version 1, and
+	 * looks up the timepoints and ids of the spots in the chunks.
+	 */
+	private static void readCrossLinksVersion1( final FileSource source, final DataInputStream in, final CrossLinks links ) throws IOException
+	{
+		final int[] sourceChunk = new int[ links.size() ];
+		final int[] sourceIndex = new int[ links.size() ];
+		final int[] targetChunk = new int[ links.size() ];
+		final int[] targetIndex = new int[ links.size() ];
+		for ( int l = 0; l < links.size(); l++ )
+		{
+			links.id[ l ] = in.readLong();
+			sourceChunk[ l ] = in.readInt();
+			sourceIndex[ l ] = in.readInt();
+			targetChunk[ l ] = in.readInt();
+			targetIndex[ l ] = in.readInt();
+			links.outIndex[ l ] = in.readInt();
+		}
+		final Map< Integer, ChunkSpots > chunks = new HashMap<>();
+		for ( int l = 0; l < links.size(); l++ )
+		{
+			final ChunkSpots sourceSpots = chunkSpots( source, chunks, sourceChunk[ l ] );
+			final ChunkSpots targetSpots = chunkSpots( source, chunks, targetChunk[ l ] );
+			if ( sourceIndex[ l ] >= sourceSpots.size() || targetIndex[ l ] >= targetSpots.size() )
+				throw new IOException( "Link to unknown spot in: " + CROSS_LINKS_FILE );
+			links.sourceTimepoint[ l ] = sourceSpots.timepoint[ sourceIndex[ l ] ];
+			links.sourceId[ l ] = sourceSpots.id[ sourceIndex[ l ] ];
+			links.targetId[ l ] = targetSpots.id[ targetIndex[ l ] ];
+		}
+	}
+
+	/**
+	 * Reads the timepoints and ids of the spots of a chunk, the rest of the
+	 * chunk is skipped.
+	 */
+	private static ChunkSpots chunkSpots( final FileSource source, final Map< Integer, ChunkSpots > chunks, final int firstTimepoint ) throws IOException
+	{
+		final ChunkSpots cached = chunks.get( firstTimepoint );
+		if ( cached != null )
+			return cached;
+		try (final DataInputStream in = open( source, chunkPath( firstTimepoint ) ))
+		{
+			final ChunkSpots spots = new ChunkSpots( in.readInt() );
+			for ( int i = 0; i < spots.size(); i++ )
+			{
+				spots.id[ i ] = in.readLong();
+				spots.timepoint[ i ] = in.readInt();
+				// position and covariance
+				for ( int k = 0; k < 9; k++ )
+					in.readDouble();
+				if ( in.readBoolean() )
+					in.readUTF();
+			}
+			chunks.put( firstTimepoint, spots );
+			return spots;
+		}
+	}
+
+	private static DataInputStream open( final FileSource source, final String path ) throws IOException
+	{
+		final DataInputStream in = new DataInputStream( new BufferedInputStream( source.open( path ) ) );
+		try
+		{
+			readHeader( in, path );
+			return in;
+		}
+		catch ( final IOException e )
+		{
+			in.close();
+			throw e;
+		}
+	}
+
+	private static int spotIndex( final TLongIntHashMap indexById, final long spotId ) throws IOException
+	{
+		final int index = indexById.get( spotId );
+		if ( index < 0 )
+			throw new IOException( "Link to unknown spot in: " + CROSS_LINKS_FILE );
+		return index;
+	}
+
+	private static long readSpot( final DataInputStream in, final ModelGraph graph, final RefList< Spot > spots, final Spot ref ) throws IOException
+	{
+		final long id = in.readLong();
+		final int timepoint = in.readInt();
+		final double[] position = new double[ 3 ];
+		final double[][] cov = new double[ 3 ][ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			position[ d ] = in.readDouble();
+		for ( int r = 0; r < 3; r++ )
+			for ( int c = r; c < 3; c++ )
+				cov[ r ][ c ] = cov[ c ][ r ] = in.readDouble();
+		final Spot spot = graph.addVertex( ref ).init( timepoint, position, cov );
+		if ( in.readBoolean() )
+			spot.setLabel( in.readUTF() );
+		spots.add( spot );
+		return id;
+	}
+
+	private static void readSpotTags( final DataInputStream in, final ObjTags< Spot > objTags, final List< TagSetStructure.TagSet > tagSets,
+			final RefList< Spot > spots, final int offset, final Spot ref ) throws IOException
+	{
+		for ( final TagSetStructure.TagSet tagSet : tagSets )
+		{
+			final ObjTagMap< Spot, TagSetStructure.Tag > tags = objTags.tags( tagSet );
+			final int count = in.readInt();
+			for ( int k = 0; k < count; k++ )
+			{
+				final Spot spot = spots.get( offset + in.readInt(), ref );
+				tags.set( spot, tagSet.getTags().get( in.readInt() ) );
+			}
+		}
+	}
+
+	/**
+	 * Adds all links to the graph. To preserve the order of the outgoing
+	 * links, they are added sorted by source spot and index among the
+	 * outgoing links of the source.
+	 */
+	private static void addLinks( final Model model, final RefList< Spot > spots, final List< LinkRecords > records, final List< TagSetStructure.TagSet > tagSets )
+	{
+		final ModelGraph graph = model.getGraph();
+		final ModelIds ids = ModelIds.of( model );
+		final int total = records.stream().mapToInt( LinkRecords::size ).sum();
+		final int[] recordOf = new int[ total ];
+		final int[] indexOf = new int[ total ];
+		final Integer[] order = new Integer[ total ];
+		int n = 0;
+		for ( int r = 0; r < records.size(); r++ )
+			for ( int l = 0; l < records.get( r ).size(); l++ )
+			{
+				recordOf[ n ] = r;
+				indexOf[ n ] = l;
+				order[ n ] = n;
+				n++;
+			}
+		Arrays.sort( order, Comparator.< Integer >comparingInt( k -> records.get( recordOf[ k ] ).source[ indexOf[ k ] ] )
+				.thenComparingInt( k -> records.get( recordOf[ k ] ).outIndex[ indexOf[ k ] ] ) );
+		final Spot source = graph.vertexRef();
+		final Spot target = graph.vertexRef();
+		final Link ref = graph.edgeRef();
+		try
+		{
+			for ( final int k : order )
+			{
+				final LinkRecords r = records.get( recordOf[ k ] );
+				final int l = indexOf[ k ];
+				final Link link = graph.addEdge( spots.get( r.source[ l ], source ), spots.get( r.target[ l ], target ), ref ).init();
+				ids.setLinkId( link, r.id[ l ] );
+				for ( int t = 0; t < tagSets.size(); t++ )
+					if ( r.tags[ t ][ l ] >= 0 )
+					{
+						final TagSetStructure.TagSet tagSet = tagSets.get( t );
+						model.getTagSetModel().getEdgeTags().tags( tagSet ).set( link, tagSet.getTags().get( r.tags[ t ][ l ] ) );
+					}
+			}
+		}
+		finally
+		{
+			graph.releaseRef( source );
+			graph.releaseRef( target );
+			graph.releaseRef( ref );
+		}
+	}
+
+	/**
+	 * The content of {@value #MANIFEST_FILE}: units, chunks and tag set
+	 * structure of a chunked model.
+	 */
+	public static class Manifest
+	{
+
+		private final String spaceUnits;
+
+		private final String timeUnits;
+
+		private final int[] chunkTimepoints;
+
+		private final TagSetStructure tagSetStructure;
+
+		private Manifest( final String spaceUnits, final String timeUnits, final int[] chunkTimepoints, final TagSetStructure tagSetStructure )
+		{
+			this.spaceUnits = spaceUnits;
+			this.timeUnits = timeUnits;
+			this.chunkTimepoints = chunkTimepoints;
+			this.tagSetStructure = tagSetStructure;
+		}
+
+		public String getSpaceUnits()
+		{
+			return spaceUnits;
+		}
+
+		public String getTimeUnits()
+		{
+			return timeUnits;
+		}
+
+		/**
+		 * Returns the first timepoint of every chunk, in ascending order.
+		 */
+		public int[] getChunkTimepoints()
+		{
+			return chunkTimepoints.clone();
+		}
+
+		public TagSetStructure getTagSetStructure()
+		{
+			return tagSetStructure;
+		}
+
+		/**
+		 * Returns an empty model with the units and tag set structure of the
+		 * manifest.
+		 */
+		private Model newModel()
+		{
+			final Model model = new Model( spaceUnits, timeUnits );
+			model.getTagSetModel().setTagSetStructure( tagSetStructure );
+			return model;
+		}
+	}
+
+	/**
+	 * The links between spots of different chunks, as stored in
+	 * {@value #CROSS_LINKS_FILE}. Source and target of a link are given by
+	 * their ids.
+	 */
+	public static class CrossLinks
+	{
+
+		private final long[] id;
+
+		private final int[] sourceTimepoint;
+
+		private final long[] sourceId;
+
+		private final long[] targetId;
+
+		private final int[] outIndex;
+
+		/**
+		 * Tag index by tag set and link, -1 for no tag.
+		 */
+		private final int[][] tags;
+
+		private CrossLinks( final int size, final int tagSetCount )
+		{
+			id = new long[ size ];
+			sourceTimepoint = new int[ size ];
+			sourceId = new long[ size ];
+			targetId = new long[ size ];
+			outIndex = new int[ size ];
+			tags = emptyTags( size, tagSetCount );
+		}
+
+		public int size()
+		{
+			return id.length;
+		}
+
+		public long getId( final int link )
+		{
+			return id[ link ];
+		}
+
+		public int getSourceTimepoint( final int link )
+		{
+			return sourceTimepoint[ link ];
+		}
+
+		public long getSourceId( final int link )
+		{
+			return sourceId[ link ];
+		}
+
+		public long getTargetId( final int link )
+		{
+			return targetId[ link ];
+		}
+
+		/**
+		 * Returns the index of the tag of the link in the given tag set, or
+		 * -1 if the link is not tagged in this tag set.
+		 */
+		public int getTag( final int tagSet, final int link )
+		{
+			return tags[ tagSet ][ link ];
+		}
+	}
+
+	/**
+	 * Timepoints and ids of the spots of a chunk.
+	 */
+	private static class ChunkSpots
+	{
+
+		private final long[] id;
+
+		private final int[] timepoint;
+
+		private ChunkSpots( final int size )
+		{
+			id = new long[ size ];
+			timepoint = new int[ size ];
+		}
+
+		private int size()
+		{
+			return id.length;
+		}
+	}
+
+	/**
+	 * Range of the sorted spots, that belongs to one chunk.
+	 */
+	private static class Chunk
+	{
+
+		private final int firstTimepoint;
+
+		private final int start;
+
+		private int end;
+
+		private Chunk( final int firstTimepoint, final int start )
+		{
+			this.firstTimepoint = firstTimepoint;
+			this.start = start;
+			this.end = start;
+		}
+	}
+
+	/**
+	 * Links read from a file, before they are added to the graph. Source and
+	 * target are indices into the list of all spots.
+	 */
+	private static class LinkRecords
+	{
+
+		private final long[] id;
+
+		private final int[] source;
+
+		private final int[] target;
+
+		private final int[] outIndex;
+
+		/**
+		 * Tag index by tag set and link, -1 for no tag.
+		 */
+		private final int[][] tags;
+
+		private LinkRecords( final int size, final int tagSetCount )
+		{
+			this( new long[ size ], new int[ size ], emptyTags( size, tagSetCount ) );
+		}
+
+		private LinkRecords( final long[] id, final int[] outIndex, final int[][] tags )
+		{
+			this.id = id;
+			this.source = new int[ id.length ];
+			this.target = new int[ id.length ];
+			this.outIndex = outIndex;
+			this.tags = tags;
+		}
+
+		private int size()
+		{
+			return id.length;
+		}
+	}
+
+	private static int[][] emptyTags( final int size, final int tagSetCount )
+	{
+		final int[][] tags = new int[ tagSetCount ][ size ];
+		for ( final int[] t : tags )
+			Arrays.fill( t, -1 );
+		return tags;
+	}
+
+	/**
+	 * Reads the tags of links, as written by {@link #writeTags}, into the
+	 * given array of tag indices by tag set and link.
+	 */
+	private static void readTags( final DataInputStream in, final int[][] tags ) throws IOException
+	{
+		for ( final int[] t : tags )
+		{
+			final int count = in.readInt();
+			for ( int k = 0; k < count; k++ )
+			{
+				final int link = in.readInt();
+				t[ link ] = in.readInt();
+			}
+		}
+	}
+}
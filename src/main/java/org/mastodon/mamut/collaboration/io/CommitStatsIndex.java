@@ -0,0 +1,190 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.mastodon.mamut.collaboration.utils.CommitStats;
+
+/**
+ * Stores the {@link CommitStats} of commits, by commit id, in a file.
+ * <p>
+ * New entries are appended to the file, such that recording the statistics
+ * of a commit doesn't rewrite the whole index. The file is read once, when
+ * the first entry is requested. A truncated last entry, for example after a
+ * crash, is removed.
+ */
+public class CommitStatsIndex
+{
+
+	public static final String FILE = "mastodon/commit-stats.raw";
+
+	private static final int MAGIC = 0x4d474353; // "MGCS"
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final int ENTRY_SIZE = Constants.OBJECT_ID_LENGTH + 16;
+
+	private final File file;
+
+	private Map< ObjectId, CommitStats > entries = null;
+
+	/**
+	 * @param gitDirectory the ".git" directory of the repository.
+	 */
+	public CommitStatsIndex( final File gitDirectory )
+	{
+		this.file = new File( gitDirectory, FILE );
+	}
+
+	/**
+	 * Returns the statistics of the given commit, or null if they were not
+	 * recorded.
+	 */
+	public synchronized CommitStats get( final AnyObjectId commit ) throws IOException
+	{
+		return entries().get( commit.toObjectId() );
+	}
+
+	/**
+	 * Records the statistics of the given commit.
+	 */
+	public synchronized void put( final AnyObjectId commit, final CommitStats stats ) throws IOException
+	{
+		final Map< ObjectId, CommitStats > entries = entries();
+		final boolean newFile = !file.isFile();
+		if ( newFile )
+			Files.createDirectories( file.getParentFile().toPath() );
+		try (final OutputStream out = Files.newOutputStream( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND ))
+		{
+			final DataOutputStream dos = new DataOutputStream( new BufferedOutputStream( out ) );
+			if ( newFile )
+			{
+				dos.writeInt( MAGIC );
+				dos.writeInt( VERSION );
+			}
+			write( dos, commit, stats );
+			dos.flush();
+		}
+		entries.put( commit.copy(), stats );
+	}
+
+	private Map< ObjectId, CommitStats > entries() throws IOException
+	{
+		if ( entries == null )
+		{
+			entries = new HashMap<>();
+			if ( !file.isFile() )
+				return entries;
+			final int count;
+			try (final InputStream in = Files.newInputStream( file.toPath() ))
+			{
+				count = read( in, entries );
+			}
+			if ( count < 0 )
+				Files.delete( file.toPath() );
+			else if ( file.length() > HEADER_SIZE + ( long ) count * ENTRY_SIZE )
+				// remove a truncated last entry, new entries are appended
+				try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE ))
+				{
+					channel.truncate( HEADER_SIZE + ( long ) count * ENTRY_SIZE );
+				}
+		}
+		return entries;
+	}
+
+	static void write( final DataOutputStream dos, final AnyObjectId commit, final CommitStats stats ) throws IOException
+	{
+		final byte[] id = new byte[ Constants.OBJECT_ID_LENGTH ];
+		commit.copyRawTo( id, 0 );
+		dos.write( id );
+		dos.writeInt( stats.getSpots() );
+		dos.writeInt( stats.getLinks() );
+		dos.writeInt( stats.getTags() );
+		dos.writeInt( stats.getChangedTimepoints() );
+	}
+
+	/**
+	 * Reads the entries of an index file into the given map.
+	 *
+	 * @return the number of complete entries, or -1 if the file is not an
+	 *         index file of the current version.
+	 */
+	static int read( final InputStream in, final Map< ObjectId, CommitStats > entries ) throws IOException
+	{
+		final DataInputStream dis = new DataInputStream( new BufferedInputStream( in ) );
+		try
+		{
+			if ( dis.readInt() != MAGIC || dis.readInt() != VERSION )
+				return -1;
+		}
+		catch ( final EOFException e )
+		{
+			return -1;
+		}
+		int count = 0;
+		try
+		{
+			final byte[] id = new byte[ Constants.OBJECT_ID_LENGTH ];
+			while ( true )
+			{
+				dis.readFully( id );
+				final int spots = dis.readInt();
+				final int links = dis.readInt();
+				final int tags = dis.readInt();
+				final int changedTimepoints = dis.readInt();
+				entries.put( ObjectId.fromRaw( id ), new CommitStats( spots, links, tags, changedTimepoints ) );
+				count++;
+			}
+		}
+		catch ( final EOFException e )
+		{
+			// end of the file, or a truncated last entry
+			return count;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.io.project.MamutProject;
+import org.mastodon.mamut.model.Model;
+
+/**
+ * A {@link MamutProject.ProjectReader} that reads the files of a Mastodon
+ * project directly from the git object database.
+ * <p>
+ * The project is read from a folder within a given commit or tree. The blobs
+ * are streamed through a JGit {@link ObjectReader}. Neither the working tree
+ * nor the index are touched. This allows to load any version of the project
+ * without checking it out.
+ * <p>
+ * The files gui.xml, project.xml and dataset.xml.backup are usually not
+ * tracked by git. Trying to read them throws a {@link FileNotFoundException}.
+ */
+public class GitProjectReader implements MamutProject.ProjectReader
+{
+
+	public static final String MODEL_FILE = "model.raw";
+
+	public static final String TAGS_FILE = "tags.raw";
+
+	public static final String GUI_FILE = "gui.xml";
+
+	public static final String BACKUP_DATASET_FILE = "dataset.xml.backup";
+
+	public static final String FEATURES_FOLDER = "features";
+
+	public static final String FEATURE_FILE_EXTENSION = ".raw";
+
+	private final ObjectReader reader;
+
+	private final RevTree tree;
+
+	private final String folder;
+
+	/**
+	 * @param repository   the git repository.
+	 * @param commitOrTree id of a commit or tree object that contains the project.
+	 * @param folder       path of the Mastodon project folder within the tree,
+	 *                     for example "mastodon.project".
+	 */
+	public GitProjectReader( final Repository repository, final AnyObjectId commitOrTree, final String folder ) throws IOException
+	{
+		this.reader = repository.newObjectReader();
+		this.folder = folder;
+		try (final RevWalk walk = new RevWalk( reader ))
+		{
+			this.tree = walk.parseTree( commitOrTree );
+		}
+		catch ( final IOException e )
+		{
+			reader.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the model (graph and tags) of the Mastodon project in the given
+	 * commit or tree. The {@link ModelIds} are read too, if the tree contains
+	 * a matching ids file. Features are not read.
+	 * <p>
+	 * If the project is stored in the layout of {@link ChunkedModelIO}, the
+	 * model is read from the chunks, with the units stored there.
+	 */
+	public static Model readModel( final Repository repository, final AnyObjectId commitOrTree, final String folder, final String spaceUnits, final String timeUnits ) throws IOException
+	{
+		try (final GitProjectReader reader = new GitProjectReader( repository, commitOrTree, folder ))
+		{
+			if ( reader.getBlobId( ChunkedModelIO.MANIFEST_FILE ) != null )
+				return ChunkedModelIO.read( reader );
+			final Model model = new Model( spaceUnits, timeUnits );
+			model.loadRaw( reader );
+			ModelIdsIO.read( reader, model );
+			return model;
+		}
+	}
+
+	/**
+	 * Returns the id of the tree that this reader reads from.
+	 */
+	public ObjectId getTreeId()
+	{
+		return tree.getId();
+	}
+
+	/**
+	 * Returns the id of the blob at the given path, relative to the project
+	 * folder. Returns null if there is no such file.
+	 */
+	public ObjectId getBlobId( final String path ) throws IOException
+	{
+		try (final TreeWalk walk = TreeWalk.forPath( reader, folder + "/" + path, tree ))
+		{
+			if ( walk == null || walk.isSubtree() )
+				return null;
+			return walk.getObjectId( 0 );
+		}
+	}
+
+	/**
+	 * Opens the file at the given path, relative to the project folder, for
+	 * reading.
+	 */
+	public InputStream open( final String path ) throws IOException
+	{
+		final ObjectId blob = getBlobId( path );
+		if ( blob == null )
+			throw new FileNotFoundException( "File \"" + folder + "/" + path + "\" not found in git tree " + tree.getName() );
+		return reader.open( blob, Constants.OBJ_BLOB ).openStream();
+	}
+
+	@Override
+	public InputStream getRawModelInputStream() throws IOException
+	{
+		return open( MODEL_FILE );
+	}
+
+	@Override
+	public InputStream getRawTagsInputStream() throws IOException
+	{
+		return open( TAGS_FILE );
+	}
+
+	@Override
+	public InputStream getGuiInputStream() throws IOException
+	{
+		return open( GUI_FILE );
+	}
+
+	@Override
+	public InputStream getBackupDatasetXmlInputStream() throws IOException
+	{
+		return open( BACKUP_DATASET_FILE );
+	}
+
+	@Override
+	public InputStream getFeatureInputStream( final String featureKey ) throws IOException
+	{
+		return open( FEATURES_FOLDER + "/" + featureKey + FEATURE_FILE_EXTENSION );
+	}
+
+	@Override
+	public Collection< String > getFeatureKeys()
+	{
+		try (final TreeWalk folderWalk = TreeWalk.forPath( reader, folder + "/" + FEATURES_FOLDER, tree ))
+		{
+			if ( folderWalk == null || !folderWalk.isSubtree() )
+				return Collections.emptyList();
+			final List< String > keys = new ArrayList<>();
+			try (final TreeWalk walk = new TreeWalk( reader ))
+			{
+				walk.addTree( folderWalk.getObjectId( 0 ) );
+				walk.setRecursive( false );
+				while ( walk.next() )
+				{
+					final String name = walk.getNameString();
+					if ( !walk.isSubtree() && name.endsWith( FEATURE_FILE_EXTENSION ) )
+						keys.add( name.substring( 0, name.length() - FEATURE_FILE_EXTENSION.length() ) );
+				}
+			}
+			return keys;
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		reader.close();
+	}
+}
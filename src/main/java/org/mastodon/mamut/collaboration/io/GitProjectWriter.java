@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.util.TemporaryBuffer;
+import org.mastodon.mamut.io.project.MamutProject;
+
+/**
+ * A {@link MamutProject.ProjectWriter} that writes the files of a Mastodon
+ * project directly into the git object database.
+ * <p>
+ * Every file is inserted as a blob through a JGit {@link ObjectInserter}, when
+ * the respective output stream is closed. The ids of the inserted blobs are
+ * recorded by their path relative to the project folder, and can be used to
+ * build a tree. Neither the working tree nor the index are touched.
+ * <p>
+ * The files gui.xml, project.xml and dataset.xml.backup are not tracked by
+ * git. They are written into the given folder instead, or discarded if no
+ * folder is given.
+ * <p>
+ * The caller is responsible for flushing the inserter.
+ */
+public class GitProjectWriter implements MamutProject.ProjectWriter
+{
+
+	public static final String PROJECT_FILE = "project.xml";
+
+	/**
+	 * Files larger than this are buffered in a temporary file, instead of
+	 * memory.
+	 */
+	private static final int IN_CORE_LIMIT = 1024 * 1024;
+
+	private final ObjectInserter inserter;
+
+	private final File untrackedFolder;
+
+	private final Map< String, ObjectId > blobs = new TreeMap<>();
+
+	/**
+	 * @param inserter        the inserter that is used to write the blobs.
+	 * @param untrackedFolder folder to write the files that are not tracked by
+	 *                        git, or null to discard these files.
+	 */
+	public GitProjectWriter( final ObjectInserter inserter, final File untrackedFolder )
+	{
+		this.inserter = inserter;
+		this.untrackedFolder = untrackedFolder;
+	}
+
+	/**
+	 * Returns the ids of all blobs written so far, by their path relative to
+	 * the project folder. Paths use "/" as separator.
+	 */
+	public Map< String, ObjectId > getBlobs()
+	{
+		return Collections.unmodifiableMap( blobs );
+	}
+
+	/**
+	 * Returns the id of the blob that was written for the given path,
+	 * relative to the project folder. Returns null if no such blob was written.
+	 */
+	public ObjectId getBlobId( final String path )
+	{
+		return blobs.get( path );
+	}
+
+	/**
+	 * Opens the file at the given path, relative to the project folder, for
+	 * writing. The blob is inserted when the stream is closed.
+	 */
+	public OutputStream open( final String path )
+	{
+		return new BlobOutputStream( path );
+	}
+
+	@Override
+	public OutputStream getProjectXmlOutputStream() throws IOException
+	{
+		return openUntracked( PROJECT_FILE );
+	}
+
+	@Override
+	public OutputStream getRawModelOutputStream()
+	{
+		return open( GitProjectReader.MODEL_FILE );
+	}
+
+	@Override
+	public OutputStream getRawTagsOutputStream()
+	{
+		return open( GitProjectReader.TAGS_FILE );
+	}
+
+	@Override
+	public OutputStream getGuiOutputStream() throws IOException
+	{
+		return openUntracked( GitProjectReader.GUI_FILE );
+	}
+
+	@Override
+	public OutputStream getBackupDatasetXmlOutputStream() throws IOException
+	{
+		return openUntracked( GitProjectReader.BACKUP_DATASET_FILE );
+	}
+
+	@Override
+	public OutputStream getFeatureOutputStream( final String featureKey )
+	{
+		return open( GitProjectReader.FEATURES_FOLDER + "/" + featureKey + GitProjectReader.FEATURE_FILE_EXTENSION );
+	}
+
+	private OutputStream openUntracked( final String name ) throws IOException
+	{
+		if ( untrackedFolder == null )
+			return NullOutputStream.NULL_OUTPUT_STREAM;
+		return Files.newOutputStream( new File( untrackedFolder, name ).toPath() );
+	}
+
+	@Override
+	public void close()
+	{
+		// nothing to do, the blobs are inserted when their streams are closed
+	}
+
+	/**
+	 * Buffers the content of a file, and inserts it as a blob on
+	 * {@link #close()}. Git needs to know the length of a blob before its
+	 * content can be written. Small files are buffered in memory, large files
+	 * in a temporary file, such that the serialized model doesn't need to fit
+	 * into the heap next to the model.
+	 */
+	private class BlobOutputStream extends OutputStream
+	{
+
+		private final String path;
+
+		private TemporaryBuffer buffer = new TemporaryBuffer.LocalFile( null, IN_CORE_LIMIT );
+
+		private BlobOutputStream( final String path )
+		{
+			this.path = path;
+		}
+
+		@Override
+		public void write( final int b ) throws IOException
+		{
+			buffer.write( b );
+		}
+
+		@Override
+		public void write( final byte[] b, final int off, final int len ) throws IOException
+		{
+			buffer.write( b, off, len );
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if ( buffer == null )
+				return;
+			try
+			{
+				buffer.close();
+				try (final InputStream in = buffer.openInputStream())
+				{
+					blobs.put( path, inserter.insert( Constants.OBJ_BLOB, buffer.length(), in ) );
+				}
+			}
+			finally
+			{
+				buffer.destroy();
+				buffer = null;
+			}
+		}
+	}
+}
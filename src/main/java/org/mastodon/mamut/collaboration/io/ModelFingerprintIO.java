@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.mastodon.mamut.collaboration.utils.ModelFingerprint;
+
+/**
+ * Reads and writes a {@link ModelFingerprint}.
+ * <p>
+ * Like the ids file of {@link ModelIdsIO}, the fingerprint file also stores
+ * an id of the model files it belongs to: a hash over the git blob ids of
+ * {@value GitProjectReader#MODEL_FILE} and {@value GitProjectReader#TAGS_FILE},
+ * or of the chunk files in the layout of {@link ChunkedModelIO}. A
+ * fingerprint that doesn't match the model files is ignored.
+ */
+public class ModelFingerprintIO
+{
+
+	private static final int MAGIC = 0x4d474650; // "MGFP"
+
+	private static final int VERSION = 1;
+
+	private ModelFingerprintIO()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * Writes the fingerprint into the given file.
+	 *
+	 * @param blobs the git blob ids of the model files that the fingerprint
+	 *              belongs to, by their path relative to the project folder.
+	 *              Other files are ignored.
+	 */
+	public static void write( final File file, final ModelFingerprint fingerprint, final Map< String, ObjectId > blobs ) throws IOException
+	{
+		Files.createDirectories( file.getParentFile().toPath() );
+		try (final OutputStream out = Files.newOutputStream( file.toPath() ))
+		{
+			write( out, fingerprint, contentId( blobs ) );
+		}
+	}
+
+	/**
+	 * Reads the fingerprint from the given file, if it belongs to the model
+	 * files in the given Mastodon project folder.
+	 *
+	 * @return the fingerprint, or null if the file is missing, invalid or
+	 *         belongs to other model files.
+	 */
+	public static ModelFingerprint read( final File file, final File projectRoot ) throws IOException
+	{
+		if ( !file.isFile() )
+			return null;
+		try (final InputStream in = Files.newInputStream( file.toPath() ))
+		{
+			return read( in, contentId( modelFileBlobIds( projectRoot ) ) );
+		}
+	}
+
+	static void write( final OutputStream out, final ModelFingerprint fingerprint, final ObjectId contentId ) throws IOException
+	{
+		final DataOutputStream dos = new DataOutputStream( new BufferedOutputStream( out ) );
+		dos.writeInt( MAGIC );
+		dos.writeInt( VERSION );
+		final byte[] id = new byte[ Constants.OBJECT_ID_LENGTH ];
+		contentId.copyRawTo( id, 0 );
+		dos.write( id );
+		dos.writeLong( fingerprint.getStructureHash() );
+		final int[] timepoints = fingerprint.getTimepoints();
+		dos.writeInt( timepoints.length );
+		for ( final int timepoint : timepoints )
+		{
+			dos.writeInt( timepoint );
+			dos.writeLong( fingerprint.getHash( timepoint ) );
+		}
+		dos.writeLong( fingerprint.getRootHash() );
+		dos.flush();
+	}
+
+	static ModelFingerprint read( final InputStream in, final ObjectId contentId ) throws IOException
+	{
+		final DataInputStream dis = new DataInputStream( new BufferedInputStream( in ) );
+		if ( dis.readInt() != MAGIC || dis.readInt() != VERSION )
+			return null;
+		final byte[] id = new byte[ Constants.OBJECT_ID_LENGTH ];
+		dis.readFully( id );
+		if ( !contentId.equals( ObjectId.fromRaw( id ) ) )
+			return null;
+		final long structureHash = dis.readLong();
+		final int count = dis.readInt();
+		final int[] timepoints = new int[ count ];
+		final long[] hashes = new long[ count ];
+		for ( int i = 0; i < count; i++ )
+		{
+			timepoints[ i ] = dis.readInt();
+			hashes[ i ] = dis.readLong();
+		}
+		final ModelFingerprint fingerprint = ModelFingerprint.of( structureHash, timepoints, hashes );
+		return fingerprint.getRootHash() == dis.readLong() ? fingerprint : null;
+	}
+
+	/**
+	 * Returns the git blob ids of the model files in the given Mastodon
+	 * project folder, by their path relative to the folder.
+	 */
+	private static Map< String, ObjectId > modelFileBlobIds( final File projectRoot ) throws IOException
+	{
+		final Map< String, ObjectId > blobs = new TreeMap<>();
+		if ( ChunkedModelIO.isChunked( projectRoot ) )
+		{
+			final File[] files = new File( projectRoot, ChunkedModelIO.CHUNKS_FOLDER ).listFiles();
+			if ( files != null )
+				for ( final File file : files )
+					blobs.put( ChunkedModelIO.CHUNKS_FOLDER + "/" + file.getName(), ModelIdsIO.computeBlobId( file ) );
+			return blobs;
+		}
+		for ( final String name : new String[] { GitProjectReader.MODEL_FILE, GitProjectReader.TAGS_FILE } )
+		{
+			final File file = new File( projectRoot, name );
+			if ( file.isFile() )
+				blobs.put( name, ModelIdsIO.computeBlobId( file ) );
+		}
+		return blobs;
+	}
+
+	/**
+	 * Hash over the paths and blob ids of the model files. Other files among
+	 * the given blobs are ignored.
+	 */
+	private static ObjectId contentId( final Map< String, ObjectId > blobs )
+	{
+		final boolean chunked = blobs.containsKey( ChunkedModelIO.MANIFEST_FILE );
+		final StringBuilder text = new StringBuilder();
+		for ( final Map.Entry< String, ObjectId > entry : new TreeMap<>( blobs ).entrySet() )
+		{
+			final String path = entry.getKey();
+			final boolean modelFile = chunked
+					? path.startsWith( ChunkedModelIO.CHUNKS_FOLDER + "/" )
+					: path.equals( GitProjectReader.MODEL_FILE ) || path.equals( GitProjectReader.TAGS_FILE );
+			if ( modelFile )
+				text.append( path ).append( ' ' ).append( entry.getValue().name() ).append( '\n' );
+		}
+		try (final ObjectInserter.Formatter formatter = new ObjectInserter.Formatter())
+		{
+			return formatter.idFor( Constants.OBJ_BLOB, text.toString().getBytes( StandardCharsets.UTF_8 ) );
+		}
+	}
+}
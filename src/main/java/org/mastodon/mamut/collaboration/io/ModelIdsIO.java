@@ -0,0 +1,200 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+
+/**
+ * Reads and writes the {@link ModelIds} of a model. The ids are stored in the
+ * file {@value #IDS_FILE} next to {@value GitProjectReader#MODEL_FILE}.
+ * <p>
+ * Spot ids are stored in the iteration order of the graph's vertices, which
+ * is also the order of the spots in {@value GitProjectReader#MODEL_FILE}.
+ * Link ids are stored in the order of the outgoing links of these spots.
+ * <p>
+ * The ids file also stores the git blob id of the model file it belongs to.
+ * If the model file was changed without updating the ids file, for example
+ * because the project was saved by Mastodon itself, the ids file is ignored
+ * and the objects keep the random ids that were assigned on loading.
+ */
+public class ModelIdsIO
+{
+
+	public static final String IDS_FILE = "model_ids.raw";
+
+	private static final int MAGIC = 0x4d474944; // "MGID"
+
+	private static final int VERSION = 1;
+
+	private ModelIdsIO()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * Writes the ids of the given model into the Mastodon project folder. The
+	 * model must have been saved into the same folder before.
+	 */
+	public static void writeToFolder( final File projectRoot, final Model model ) throws IOException
+	{
+		final File modelFile = new File( projectRoot, GitProjectReader.MODEL_FILE );
+		if ( !modelFile.isFile() )
+			return;
+		final ObjectId modelBlobId = computeBlobId( modelFile );
+		try (final OutputStream out = Files.newOutputStream( new File( projectRoot, IDS_FILE ).toPath() ))
+		{
+			write( model, modelBlobId, out );
+		}
+	}
+
+	/**
+	 * Reads the ids file from the Mastodon project folder, and assigns the ids
+	 * to the spots and links of the given model. The model must have been
+	 * loaded from the same folder.
+	 *
+	 * @return true if the ids were assigned, false if the ids file is missing
+	 *         or does not match the model file.
+	 */
+	public static boolean readFromFolder( final File projectRoot, final Model model ) throws IOException
+	{
+		final File modelFile = new File( projectRoot, GitProjectReader.MODEL_FILE );
+		final File idsFile = new File( projectRoot, IDS_FILE );
+		if ( !modelFile.isFile() || !idsFile.isFile() )
+			return false;
+		try (final InputStream in = Files.newInputStream( idsFile.toPath() ))
+		{
+			return read( in, computeBlobId( modelFile ), model );
+		}
+	}
+
+	/**
+	 * Reads the ids file from a git tree, and assigns the ids to the spots and
+	 * links of the given model. The model must have been loaded from the same
+	 * tree.
+	 *
+	 * @return true if the ids were assigned, false if the ids file is missing
+	 *         or does not match the model file.
+	 */
+	public static boolean read( final GitProjectReader reader, final Model model ) throws IOException
+	{
+		final ObjectId modelBlobId = reader.getBlobId( GitProjectReader.MODEL_FILE );
+		if ( modelBlobId == null || reader.getBlobId( IDS_FILE ) == null )
+			return false;
+		try (final InputStream in = reader.open( IDS_FILE ))
+		{
+			return read( in, modelBlobId, model );
+		}
+	}
+
+	public static void write( final Model model, final ObjectId modelBlobId, final OutputStream out ) throws IOException
+	{
+		final ModelGraph graph = model.getGraph();
+		final ModelIds ids = ModelIds.of( model );
+		final DataOutputStream dos = new DataOutputStream( new BufferedOutputStream( out ) );
+		dos.writeInt( MAGIC );
+		dos.writeInt( VERSION );
+		final byte[] blobId = new byte[ Constants.OBJECT_ID_LENGTH ];
+		modelBlobId.copyRawTo( blobId, 0 );
+		dos.write( blobId );
+		dos.writeInt( graph.vertices().size() );
+		for ( final Spot spot : graph.vertices() )
+			dos.writeLong( ids.getSpotId( spot ) );
+		dos.writeInt( graph.edges().size() );
+		for ( final Spot spot : graph.vertices() )
+			for ( final Link link : spot.outgoingEdges() )
+				dos.writeLong( ids.getLinkId( link ) );
+		dos.flush();
+	}
+
+	/**
+	 * @return true if the ids were assigned, false if the ids don't belong to
+	 *         the given model.
+	 */
+	public static boolean read( final InputStream in, final ObjectId modelBlobId, final Model model ) throws IOException
+	{
+		final ModelGraph graph = model.getGraph();
+		final DataInputStream dis = new DataInputStream( new BufferedInputStream( in ) );
+		if ( dis.readInt() != MAGIC || dis.readInt() != VERSION )
+			return false;
+		final byte[] blobId = new byte[ Constants.OBJECT_ID_LENGTH ];
+		dis.readFully( blobId );
+		if ( !modelBlobId.equals( ObjectId.fromRaw( blobId ) ) )
+			return false;
+		final int spotCount = dis.readInt();
+		if ( spotCount != graph.vertices().size() )
+			return false;
+		final long[] spotIds = new long[ spotCount ];
+		for ( int i = 0; i < spotCount; i++ )
+			spotIds[ i ] = dis.readLong();
+		final int linkCount = dis.readInt();
+		if ( linkCount != graph.edges().size() )
+			return false;
+		final long[] linkIds = new long[ linkCount ];
+		for ( int i = 0; i < linkCount; i++ )
+			linkIds[ i ] = dis.readLong();
+		final ModelIds ids = ModelIds.of( model );
+		int s = 0;
+		int l = 0;
+		for ( final Spot spot : graph.vertices() )
+		{
+			ids.setSpotId( spot, spotIds[ s++ ] );
+			for ( final Link link : spot.outgoingEdges() )
+				ids.setLinkId( link, linkIds[ l++ ] );
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the id that git would assign to the given file as a blob.
+	 */
+	static ObjectId computeBlobId( final File file ) throws IOException
+	{
+		try (final InputStream in = Files.newInputStream( file.toPath() ))
+		{
+			return new ObjectInserter.Formatter().idFor( Constants.OBJ_BLOB, file.length(), in );
+		}
+	}
+}
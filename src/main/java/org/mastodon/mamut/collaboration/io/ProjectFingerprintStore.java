@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.mastodon.mamut.collaboration.utils.ModelFingerprint;
+
+/**
+ * Stores the {@link ModelFingerprint} of committed Mastodon projects, by the
+ * id of the git tree of the project folder, one file per tree.
+ * <p>
+ * The fingerprints allow to count the timepoints that changed in a commit,
+ * without reading the model of its parent commit. Commits with the same
+ * project folder share a fingerprint.
+ */
+public class ProjectFingerprintStore
+{
+
+	public static final String FOLDER = "mastodon/fingerprints";
+
+	private final File folder;
+
+	/**
+	 * @param gitDirectory the ".git" directory of the repository.
+	 */
+	public ProjectFingerprintStore( final File gitDirectory )
+	{
+		this.folder = new File( gitDirectory, FOLDER );
+	}
+
+	/**
+	 * Returns the fingerprint of the project folder with the given tree id,
+	 * or null if it's not stored.
+	 */
+	public synchronized ModelFingerprint get( final AnyObjectId tree ) throws IOException
+	{
+		final File file = file( tree );
+		if ( !file.isFile() )
+			return null;
+		try (final InputStream in = Files.newInputStream( file.toPath() ))
+		{
+			return ModelFingerprintIO.read( in, tree.toObjectId() );
+		}
+	}
+
+	/**
+	 * Stores the fingerprint of the project folder with the given tree id.
+	 */
+	public synchronized void put( final AnyObjectId tree, final ModelFingerprint fingerprint ) throws IOException
+	{
+		final File file = file( tree );
+		if ( file.isFile() )
+			return;
+		Files.createDirectories( folder.toPath() );
+		// write a temporary file first, such that a crash leaves no partial file
+		final File tmp = new File( folder, file.getName() + ".tmp" );
+		try (final OutputStream out = Files.newOutputStream( tmp.toPath() ))
+		{
+			ModelFingerprintIO.write( out, fingerprint, tree.toObjectId() );
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+	}
+
+	private File file( final AnyObjectId tree )
+	{
+		return new File( folder, tree.name() );
+	}
+}
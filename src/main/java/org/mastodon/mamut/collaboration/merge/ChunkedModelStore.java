@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.mastodon.mamut.collaboration.io.ChunkedModelIO;
+import org.mastodon.mamut.model.Model;
+
+/**
+ * Stores models on disk, in the layout of {@link ChunkedModelIO}, one sub
+ * folder per key. Only the most recently used entries are kept, bounded by
+ * their number and by their total size in bytes. This is the disk storage of
+ * {@link MergeResultCache} and {@link ModelSnapshotCache}.
+ * <p>
+ * Entries are written to a temporary folder first, and then moved into
+ * place, such that a reader never sees a partially written entry.
+ */
+final class ChunkedModelStore
+{
+
+	private static final String TEMPORARY_PREFIX = "tmp-";
+
+	private final File folder;
+
+	private final int maxEntries;
+
+	private final long maxBytes;
+
+	ChunkedModelStore( final File folder, final int maxEntries, final long maxBytes )
+	{
+		this.folder = folder;
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the model stored with the given key, or null if there is none.
+	 * An entry that can not be read is removed.
+	 */
+	Model read( final String key )
+	{
+		final File entry = new File( folder, key );
+		if ( !ChunkedModelIO.isChunked( entry ) )
+			return null;
+		try
+		{
+			final Model model = ChunkedModelIO.readFromFolder( entry );
+			entry.setLastModified( System.currentTimeMillis() );
+			return model;
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			FileUtils.deleteQuietly( entry );
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the model with the given key. The least recently used entries
+	 * are removed, such that the maximum number of entries and the maximum
+	 * size are not exceeded. An entry that alone exceeds the maximum size is
+	 * removed, too.
+	 */
+	void write( final String key, final Model model ) throws IOException
+	{
+		final File entry = new File( folder, key );
+		final File temporary = new File( folder, TEMPORARY_PREFIX + UUID.randomUUID() );
+		try
+		{
+			Files.createDirectories( temporary.toPath() );
+			ChunkedModelIO.writeToFolder( temporary, model );
+			FileUtils.deleteDirectory( entry );
+			Files.move( temporary.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE );
+		}
+		finally
+		{
+			FileUtils.deleteQuietly( temporary );
+		}
+		evict();
+	}
+
+	/**
+	 * Returns true if a model is stored with the given key.
+	 */
+	boolean contains( final String key )
+	{
+		return ChunkedModelIO.isChunked( new File( folder, key ) );
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	void clear() throws IOException
+	{
+		FileUtils.deleteDirectory( folder );
+	}
+
+	private void evict()
+	{
+		final File[] entries = folder.listFiles( file -> file.isDirectory() && !file.getName().startsWith( TEMPORARY_PREFIX ) );
+		if ( entries == null )
+			return;
+		Arrays.sort( entries, Comparator.comparingLong( File::lastModified ).reversed() );
+		long bytes = 0;
+		for ( int i = 0; i < entries.length; i++ )
+		{
+			bytes += FileUtils.sizeOfDirectory( entries[ i ] );
+			if ( i >= maxEntries || bytes > maxBytes )
+				FileUtils.deleteQuietly( entries[ i ] );
+		}
+	}
+}
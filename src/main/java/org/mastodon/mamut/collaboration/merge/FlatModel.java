@@ -0,0 +1,326 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetModel;
+import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.properties.ObjPropertyMap;
+
+/**
+ * A read-only copy of a {@link Model} stored in flat arrays.
+ * <p>
+ * Spots are numbered densely in the iteration order of the graph. Links are
+ * numbered such that the outgoing links of each spot are consecutive and in
+ * the order of {@link Spot#outgoingEdges()}. Tags are stored by tag set and
+ * tag label. Unlike the {@link Model} itself, a flat model can be read from
+ * multiple threads, and spots of different models can be compared cheaply.
+ */
+public class FlatModel
+{
+
+	public final int spotCount;
+
+	final int[] spotPoolIndex;
+
+	public final int[] timepoint;
+
+	/** Three coordinates per spot. */
+	public final double[] position;
+
+	/** Nine covariance matrix entries per spot, row major. */
+	public final double[] covariance;
+
+	final double[] boundingSphereRadiusSquared;
+
+	/** Spot labels, null if the label was never set. */
+	public final String[] label;
+
+	final long[] contentHash;
+
+	/** Persistent spot ids, {@link ModelIds#NO_ID} if the model has no ids. */
+	public final long[] spotId;
+
+	public final int linkCount;
+
+	public final int[] linkSource;
+
+	public final int[] linkTarget;
+
+	final int[] linkPoolIndex;
+
+	public final long[] linkId;
+
+	/** The outgoing links of spot s are the links outgoingStart[s] to outgoingStart[s + 1] - 1. */
+	public final int[] outgoingStart;
+
+	public final List< FlatTagSet > tagSets;
+
+	private FlatModel( final Model model )
+	{
+		final ModelGraph graph = model.getGraph();
+		spotCount = graph.vertices().size();
+		spotPoolIndex = new int[ spotCount ];
+		timepoint = new int[ spotCount ];
+		position = new double[ 3 * spotCount ];
+		covariance = new double[ 9 * spotCount ];
+		boundingSphereRadiusSquared = new double[ spotCount ];
+		label = new String[ spotCount ];
+		contentHash = new long[ spotCount ];
+		spotId = new long[ spotCount ];
+		final ModelIds ids = ModelIds.find( model );
+		final ObjPropertyMap< Spot, String > labels = graph.getVertexPool().labelProperty();
+		int maxPoolIndex = -1;
+		final double[] pos = new double[ 3 ];
+		final double[][] cov = new double[ 3 ][ 3 ];
+		int s = 0;
+		for ( final Spot spot : graph.vertices() )
+		{
+			spotPoolIndex[ s ] = spot.getInternalPoolIndex();
+			maxPoolIndex = Math.max( maxPoolIndex, spotPoolIndex[ s ] );
+			timepoint[ s ] = spot.getTimepoint();
+			spot.localize( pos );
+			System.arraycopy( pos, 0, position, 3 * s, 3 );
+			spot.getCovariance( cov );
+			for ( int r = 0; r < 3; r++ )
+				System.arraycopy( cov[ r ], 0, covariance, 9 * s + 3 * r, 3 );
+			boundingSphereRadiusSquared[ s ] = spot.getBoundingSphereRadiusSquared();
+			label[ s ] = labels.isSet( spot ) ? labels.get( spot ) : null;
+			contentHash[ s ] = computeContentHash( s );
+			spotId[ s ] = ids == null ? ModelIds.NO_ID : ids.getSpotId( spot );
+			s++;
+		}
+		final int[] spotOfPoolIndex = new int[ maxPoolIndex + 1 ];
+		for ( int i = 0; i < spotCount; i++ )
+			spotOfPoolIndex[ spotPoolIndex[ i ] ] = i;
+
+		linkCount = graph.edges().size();
+		linkSource = new int[ linkCount ];
+		linkTarget = new int[ linkCount ];
+		linkPoolIndex = new int[ linkCount ];
+		linkId = new long[ linkCount ];
+		outgoingStart = new int[ spotCount + 1 ];
+		int maxLinkPoolIndex = -1;
+		final Spot ref = graph.vertexRef();
+		try
+		{
+			int l = 0;
+			s = 0;
+			for ( final Spot spot : graph.vertices() )
+			{
+				outgoingStart[ s ] = l;
+				for ( final Link link : spot.outgoingEdges() )
+				{
+					linkSource[ l ] = s;
+					linkTarget[ l ] = spotOfPoolIndex[ link.getTarget( ref ).getInternalPoolIndex() ];
+					linkPoolIndex[ l ] = link.getInternalPoolIndex();
+					linkId[ l ] = ids == null ? ModelIds.NO_ID : ids.getLinkId( link );
+					maxLinkPoolIndex = Math.max( maxLinkPoolIndex, linkPoolIndex[ l ] );
+					l++;
+				}
+				s++;
+			}
+			outgoingStart[ spotCount ] = l;
+		}
+		finally
+		{
+			graph.releaseRef( ref );
+		}
+		final int[] linkOfPoolIndex = new int[ maxLinkPoolIndex + 1 ];
+		for ( int i = 0; i < linkCount; i++ )
+			linkOfPoolIndex[ linkPoolIndex[ i ] ] = i;
+
+		tagSets = readTagSets( model.getTagSetModel(), spotOfPoolIndex, linkOfPoolIndex );
+	}
+
+	/**
+	 * Copies the graph and tags of the given model into a new flat model.
+	 */
+	public static FlatModel of( final Model model )
+	{
+		return new FlatModel( model );
+	}
+
+	private List< FlatTagSet > readTagSets( final TagSetModel< Spot, Link > tagSetModel, final int[] spotOfPoolIndex, final int[] linkOfPoolIndex )
+	{
+		final List< FlatTagSet > result = new ArrayList<>();
+		for ( final TagSetStructure.TagSet tagSet : tagSetModel.getTagSetStructure().getTagSets() )
+		{
+			final List< TagSetStructure.Tag > tags = tagSet.getTags();
+			final String[] labels = new String[ tags.size() ];
+			final int[] colors = new int[ tags.size() ];
+			final String[] spotTags = new String[ spotCount ];
+			final String[] linkTags = new String[ linkCount ];
+			final ObjTagMap< Spot, TagSetStructure.Tag > spotTagMap = tagSetModel.getVertexTags().tags( tagSet );
+			final ObjTagMap< Link, TagSetStructure.Tag > linkTagMap = tagSetModel.getEdgeTags().tags( tagSet );
+			for ( int i = 0; i < tags.size(); i++ )
+			{
+				final TagSetStructure.Tag tag = tags.get( i );
+				labels[ i ] = tag.label();
+				colors[ i ] = tag.color();
+				for ( final Spot spot : spotTagMap.getTaggedWith( tag ) )
+					spotTags[ spotOfPoolIndex[ spot.getInternalPoolIndex() ] ] = tag.label();
+				for ( final Link link : linkTagMap.getTaggedWith( tag ) )
+					linkTags[ linkOfPoolIndex[ link.getInternalPoolIndex() ] ] = tag.label();
+			}
+			result.add( new FlatTagSet( tagSet.getName(), labels, colors, spotTags, linkTags ) );
+		}
+		return Collections.unmodifiableList( result );
+	}
+
+	/**
+	 * Returns the index of the link from spot {@code source} to spot
+	 * {@code target}, or -1 if there is no such link.
+	 */
+	public int findLink( final int source, final int target )
+	{
+		for ( int l = outgoingStart[ source ]; l < outgoingStart[ source + 1 ]; l++ )
+			if ( linkTarget[ l ] == target )
+				return l;
+		return -1;
+	}
+
+	/**
+	 * Returns the tag set with the given name, or null if there is none.
+	 */
+	FlatTagSet getTagSet( final String name )
+	{
+		for ( final FlatTagSet tagSet : tagSets )
+			if ( tagSet.name.equals( name ) )
+				return tagSet;
+		return null;
+	}
+
+	/**
+	 * Returns true if spot {@code s} of this model and spot {@code t} of the
+	 * other model have the same timepoint, position, covariance and label.
+	 */
+	boolean sameContent( final int s, final FlatModel other, final int t )
+	{
+		return timepoint[ s ] == other.timepoint[ t ]
+				&& sameGeometry( s, other, t )
+				&& Objects.equals( label[ s ], other.label[ t ] );
+	}
+
+	/**
+	 * Returns true if spot {@code s} of this model and spot {@code t} of the
+	 * other model have the same position and covariance.
+	 */
+	public boolean sameGeometry( final int s, final FlatModel other, final int t )
+	{
+		return rangeEquals( position, 3 * s, other.position, 3 * t, 3 )
+				&& rangeEquals( covariance, 9 * s, other.covariance, 9 * t, 9 );
+	}
+
+	double distanceSquared( final int s, final FlatModel other, final int t )
+	{
+		double sum = 0;
+		for ( int d = 0; d < 3; d++ )
+		{
+			final double diff = position[ 3 * s + d ] - other.position[ 3 * t + d ];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	private static boolean rangeEquals( final double[] a, final int offsetA, final double[] b, final int offsetB, final int length )
+	{
+		for ( int i = 0; i < length; i++ )
+			if ( Double.doubleToLongBits( a[ offsetA + i ] ) != Double.doubleToLongBits( b[ offsetB + i ] ) )
+				return false;
+		return true;
+	}
+
+	private long computeContentHash( final int s )
+	{
+		long hash = timepoint[ s ];
+		for ( int i = 0; i < 3; i++ )
+			hash = 31 * hash + Double.doubleToLongBits( position[ 3 * s + i ] );
+		for ( int i = 0; i < 9; i++ )
+			hash = 31 * hash + Double.doubleToLongBits( covariance[ 9 * s + i ] );
+		hash = 31 * hash + Objects.hashCode( label[ s ] );
+		return mix( hash );
+	}
+
+	/**
+	 * Finalization step of the MurmurHash3 64-bit hash function.
+	 */
+	static long mix( long h )
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * A tag set of a {@link FlatModel}. Tags are identified by their label.
+	 */
+	public static class FlatTagSet
+	{
+		public final String name;
+
+		public final String[] tagLabels;
+
+		public final int[] tagColors;
+
+		/** The label of the tag of each spot, or null if the spot has no tag in this set. */
+		public final String[] spotTags;
+
+		/** The label of the tag of each link, or null if the link has no tag in this set. */
+		public final String[] linkTags;
+
+		FlatTagSet( final String name, final String[] tagLabels, final int[] tagColors, final String[] spotTags, final String[] linkTags )
+		{
+			this.name = name;
+			this.tagLabels = tagLabels;
+			this.tagColors = tagColors;
+			this.spotTags = spotTags;
+			this.linkTags = linkTags;
+		}
+
+		int indexOfTag( final String tagLabel )
+		{
+			return Arrays.asList( tagLabels ).indexOf( tagLabel );
+		}
+	}
+}
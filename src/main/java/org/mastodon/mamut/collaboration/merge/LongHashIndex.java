@@ -0,0 +1,108 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * An open addressing hash index over an array of {@code long} keys. It maps a
+ * key to the positions in the array that hold that key. Keys may occur
+ * multiple times.
+ */
+final class LongHashIndex
+{
+
+	private final long[] keys;
+
+	/** Slots hold the position of a key plus one, zero marks an empty slot. */
+	private final int[] slots;
+
+	private final int mask;
+
+	LongHashIndex( final long[] keys )
+	{
+		this( keys, i -> true );
+	}
+
+	/**
+	 * Creates an index over the positions {@code i} of the keys array that
+	 * are accepted by the given predicate.
+	 */
+	LongHashIndex( final long[] keys, final IntPredicate include )
+	{
+		this.keys = keys;
+		final int capacity = Integer.highestOneBit( Math.max( 2, 2 * keys.length ) - 1 ) << 1;
+		this.slots = new int[ capacity ];
+		this.mask = capacity - 1;
+		for ( int i = 0; i < keys.length; i++ )
+		{
+			if ( !include.test( i ) )
+				continue;
+			int slot = slotOf( keys[ i ] );
+			while ( slots[ slot ] != 0 )
+				slot = ( slot + 1 ) & mask;
+			slots[ slot ] = i + 1;
+		}
+	}
+
+	/**
+	 * Returns the first position {@code i} with {@code keys[i] == key} that is
+	 * accepted by the given predicate, or -1 if there is none.
+	 */
+	int find( final long key, final IntPredicate accept )
+	{
+		for ( int slot = slotOf( key ); slots[ slot ] != 0; slot = ( slot + 1 ) & mask )
+		{
+			final int i = slots[ slot ] - 1;
+			if ( keys[ i ] == key && accept.test( i ) )
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Calls the consumer for every position {@code i} with
+	 * {@code keys[i] == key}.
+	 */
+	void forEach( final long key, final IntConsumer action )
+	{
+		for ( int slot = slotOf( key ); slots[ slot ] != 0; slot = ( slot + 1 ) & mask )
+		{
+			final int i = slots[ slot ] - 1;
+			if ( keys[ i ] == key )
+				action.accept( i );
+		}
+	}
+
+	private int slotOf( final long key )
+	{
+		return ( int ) FlatModel.mix( key ) & mask;
+	}
+}
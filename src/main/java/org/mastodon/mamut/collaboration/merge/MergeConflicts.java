@@ -0,0 +1,181 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.util.BitSet;
+
+import org.mastodon.graph.GraphIdBimap;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.ObjTags;
+import org.mastodon.model.tag.TagSetModel;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * The conflicts found by a {@link ThreeWayMerge}. The conflicting spots and
+ * links are stored as bit sets of their ids in the merged model (see
+ * {@link GraphIdBimap}).
+ * <p>
+ * The conflict tag sets, that the user can inspect in Mastodon and that are
+ * detected by {@link org.mastodon.mamut.collaboration.utils.ConflictUtils},
+ * are only added to the model by {@link #materialize(Model)}. A merge without
+ * conflicts therefore never touches the tag set structure.
+ */
+public class MergeConflicts
+{
+
+	private final BitSet spots = new BitSet();
+
+	private final BitSet labels = new BitSet();
+
+	private final BitSet spotTags = new BitSet();
+
+	private final BitSet linkTags = new BitSet();
+
+	void addSpot( final int spotId )
+	{
+		spots.set( spotId );
+	}
+
+	void addLabel( final int spotId )
+	{
+		labels.set( spotId );
+	}
+
+	void addSpotTags( final int spotId )
+	{
+		spotTags.set( spotId );
+	}
+
+	void addLinkTags( final int linkId )
+	{
+		linkTags.set( linkId );
+	}
+
+	/**
+	 * Returns true if the merge has no conflicts.
+	 */
+	public boolean isEmpty()
+	{
+		return spots.isEmpty() && labels.isEmpty() && spotTags.isEmpty() && linkTags.isEmpty();
+	}
+
+	/**
+	 * Returns the number of conflicts. A spot that conflicts in more than one
+	 * way is counted more than once.
+	 */
+	public int getConflictCount()
+	{
+		return spots.cardinality() + labels.cardinality() + spotTags.cardinality() + linkTags.cardinality();
+	}
+
+	/**
+	 * Adds the conflict tag sets "Merge Conflict", "Merge Conflict (Tags)"
+	 * and "Merge Conflict (Labels)" to the given model, and tags the
+	 * conflicting spots and links. Only the tag sets that are needed are
+	 * added. The model must be the merged model that these conflicts were
+	 * found for.
+	 */
+	public void materialize( final Model model )
+	{
+		if ( isEmpty() )
+			return;
+		final TagSetModel< Spot, Link > tagSetModel = model.getTagSetModel();
+		final TagSetStructure structure = new TagSetStructure();
+		structure.set( tagSetModel.getTagSetStructure() );
+		final boolean hasTagConflicts = !spotTags.isEmpty() || !linkTags.isEmpty();
+		final String conflict = createTagSet( structure, !spots.isEmpty(), ThreeWayMerge.CONFLICT_TAG_SET, ThreeWayMerge.CONFLICT_TAG, ThreeWayMerge.CONFLICT_COLOR );
+		final String tagConflict = createTagSet( structure, hasTagConflicts, ThreeWayMerge.TAG_CONFLICT_TAG_SET, ThreeWayMerge.TAG_CONFLICT_TAG, ThreeWayMerge.TAG_CONFLICT_COLOR );
+		final String labelConflict = createTagSet( structure, !labels.isEmpty(), ThreeWayMerge.LABEL_CONFLICT_TAG_SET, ThreeWayMerge.LABEL_CONFLICT_TAG, ThreeWayMerge.LABEL_CONFLICT_COLOR );
+		tagSetModel.setTagSetStructure( structure );
+
+		// setTagSetStructure(...) copies the structure, use the tag sets of the model from here on
+		final TagSetStructure modelStructure = tagSetModel.getTagSetStructure();
+		final ModelGraph graph = model.getGraph();
+		final GraphIdBimap< Spot, Link > idBimap = graph.getGraphIdBimap();
+		final Spot spotRef = graph.vertexRef();
+		final Link linkRef = graph.edgeRef();
+		try
+		{
+			final ObjTags< Spot > vertexTags = tagSetModel.getVertexTags();
+			final ObjTags< Link > edgeTags = tagSetModel.getEdgeTags();
+			if ( conflict != null )
+				markSpots( vertexTags, find( modelStructure, conflict ), spots, idBimap, spotRef );
+			if ( tagConflict != null )
+			{
+				final TagSetStructure.TagSet tagSet = find( modelStructure, tagConflict );
+				markSpots( vertexTags, tagSet, spotTags, idBimap, spotRef );
+				markLinks( edgeTags, tagSet, linkTags, idBimap, linkRef );
+			}
+			if ( labelConflict != null )
+				markSpots( vertexTags, find( modelStructure, labelConflict ), labels, idBimap, spotRef );
+		}
+		finally
+		{
+			graph.releaseRef( spotRef );
+			graph.releaseRef( linkRef );
+		}
+	}
+
+	private static String createTagSet( final TagSetStructure structure, final boolean needed, final String name, final String label, final int color )
+	{
+		if ( !needed )
+			return null;
+		structure.createTagSet( name ).createTag( label, color );
+		return name;
+	}
+
+	private static TagSetStructure.TagSet find( final TagSetStructure structure, final String name )
+	{
+		TagSetStructure.TagSet result = null;
+		for ( final TagSetStructure.TagSet tagSet : structure.getTagSets() )
+			if ( tagSet.getName().equals( name ) )
+				result = tagSet; // the last one, that's the tag set added by materialize
+		return result;
+	}
+
+	private static void markSpots( final ObjTags< Spot > objTags, final TagSetStructure.TagSet tagSet, final BitSet ids, final GraphIdBimap< Spot, Link > idBimap, final Spot ref )
+	{
+		final ObjTagMap< Spot, TagSetStructure.Tag > tagMap = objTags.tags( tagSet );
+		final TagSetStructure.Tag tag = tagSet.getTags().get( 0 );
+		for ( int i = ids.nextSetBit( 0 ); i >= 0; i = ids.nextSetBit( i + 1 ) )
+			tagMap.set( idBimap.getVertex( i, ref ), tag );
+	}
+
+	private static void markLinks( final ObjTags< Link > objTags, final TagSetStructure.TagSet tagSet, final BitSet ids, final GraphIdBimap< Spot, Link > idBimap, final Link ref )
+	{
+		final ObjTagMap< Link, TagSetStructure.Tag > tagMap = objTags.tags( tagSet );
+		final TagSetStructure.Tag tag = tagSet.getTags().get( 0 );
+		for ( int i = ids.nextSetBit( 0 ); i >= 0; i = ids.nextSetBit( i + 1 ) )
+			tagMap.set( idBimap.getEdge( i, ref ), tag );
+	}
+}
@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.mastodon.mamut.collaboration.io.ChunkedModelIO;
+import org.mastodon.mamut.model.Model;
+
+/**
+ * Keeps the results of model merges on disk, such that repeating a merge
+ * does not need to compute it again. This is similar to git's "rerere".
+ * <p>
+ * A pull, that fails because of merge conflicts, resets the working tree.
+ * The next attempt to pull merges the same commits again. With this cache,
+ * the merged model, including the conflict tag sets, is read from disk
+ * instead.
+ * <p>
+ * The cache is stored in the folder {@value #FOLDER} of the ".git"
+ * directory. Every merge result is stored in the layout of
+ * {@link ChunkedModelIO}, in a sub folder whose name is the key of the
+ * merge, see {@link #key}. Only the most recently used
+ * {@link #DEFAULT_MAX_ENTRIES} results are kept.
+ */
+public class MergeResultCache
+{
+
+	public static final String FOLDER = "mastodon/merge-cache";
+
+	public static final int DEFAULT_MAX_ENTRIES = 3;
+
+	private final ChunkedModelStore store;
+
+	/**
+	 * @param gitDirectory the ".git" directory of the repository.
+	 */
+	public MergeResultCache( final File gitDirectory )
+	{
+		this( new File( gitDirectory, FOLDER ), DEFAULT_MAX_ENTRIES );
+	}
+
+	MergeResultCache( final File folder, final int maxEntries )
+	{
+		this.store = new ChunkedModelStore( folder, maxEntries, Long.MAX_VALUE );
+	}
+
+	/**
+	 * Returns the key of a merge.
+	 *
+	 * @param ours       id of the tree of "our" project.
+	 * @param theirs     id of the tree of "their" project.
+	 * @param base       id of the tree of the common ancestor, or null.
+	 * @param parameters the merge algorithm and its parameters. A change of
+	 *                   the algorithm or the parameters needs to change this
+	 *                   string.
+	 */
+	public static String key( final AnyObjectId ours, final AnyObjectId theirs, final AnyObjectId base, final String parameters )
+	{
+		final String text = name( ours ) + " " + name( theirs ) + " " + name( base ) + " " + parameters;
+		try (final ObjectInserter.Formatter formatter = new ObjectInserter.Formatter())
+		{
+			return formatter.idFor( Constants.OBJ_BLOB, text.getBytes( StandardCharsets.UTF_8 ) ).name();
+		}
+	}
+
+	private static String name( final AnyObjectId id )
+	{
+		return id == null ? "none" : id.name();
+	}
+
+	/**
+	 * Returns the merged model stored with the given key, or null if there
+	 * is none. A result that can not be read is removed from the cache.
+	 */
+	public Model get( final String key )
+	{
+		return store.read( key );
+	}
+
+	/**
+	 * Stores the merged model with the given key. The oldest results are
+	 * removed, such that at most the maximum number of results is kept.
+	 */
+	public void put( final String key, final Model model ) throws IOException
+	{
+		store.write( key, model );
+	}
+
+	/**
+	 * Returns true if a merge result is stored with the given key.
+	 */
+	public boolean contains( final String key )
+	{
+		return store.contains( key );
+	}
+
+	/**
+	 * Removes all merge results.
+	 */
+	public void clear() throws IOException
+	{
+		store.clear();
+	}
+}
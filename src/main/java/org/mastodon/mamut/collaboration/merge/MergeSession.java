@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A merge, whose conflicts are resolved by the user.
+ * <p>
+ * During the session, git is in the "merging" state: the merge head is
+ * written to ".git/MERGE_HEAD", and the project folder in the working tree
+ * holds the merged model, including the conflict tag sets. The user
+ * resolves the conflicts in Mastodon and then commits, which records a merge
+ * commit with two parents. Nothing needs to be merged again.
+ * <p>
+ * The commits and the commit message of the session are stored in the file
+ * {@value #FILE} of the ".git" directory, such that the session survives a
+ * restart of Mastodon.
+ */
+public class MergeSession
+{
+
+	public static final String FILE = "mastodon/merge-session.properties";
+
+	private static final String OURS = "ours";
+
+	private static final String THEIRS = "theirs";
+
+	private static final String MESSAGE = "message";
+
+	private final ObjectId ours;
+
+	private final ObjectId theirs;
+
+	private final String message;
+
+	/**
+	 * @param ours    the commit that is merged into, usually HEAD.
+	 * @param theirs  the commit that is merged.
+	 * @param message the message of the merge commit.
+	 */
+	public MergeSession( final ObjectId ours, final ObjectId theirs, final String message )
+	{
+		this.ours = ours.copy();
+		this.theirs = theirs.copy();
+		this.message = message;
+	}
+
+	public ObjectId getOurs()
+	{
+		return ours;
+	}
+
+	public ObjectId getTheirs()
+	{
+		return theirs;
+	}
+
+	public String getMessage()
+	{
+		return message;
+	}
+
+	/**
+	 * Writes the session into the given ".git" directory.
+	 */
+	public void save( final File gitDirectory ) throws IOException
+	{
+		final Properties properties = new Properties();
+		properties.setProperty( OURS, ours.name() );
+		properties.setProperty( THEIRS, theirs.name() );
+		properties.setProperty( MESSAGE, message );
+		final File file = new File( gitDirectory, FILE );
+		Files.createDirectories( file.getParentFile().toPath() );
+		try (final OutputStream out = Files.newOutputStream( file.toPath() ))
+		{
+			properties.store( out, "Mastodon merge session" );
+		}
+	}
+
+	/**
+	 * Reads the session from the given ".git" directory. Returns null if
+	 * there is no session, or if the file can not be read.
+	 */
+	public static MergeSession load( final File gitDirectory )
+	{
+		final File file = new File( gitDirectory, FILE );
+		if ( !file.isFile() )
+			return null;
+		try (final InputStream in = Files.newInputStream( file.toPath() ))
+		{
+			final Properties properties = new Properties();
+			properties.load( in );
+			final String ours = properties.getProperty( OURS );
+			final String theirs = properties.getProperty( THEIRS );
+			final String message = properties.getProperty( MESSAGE );
+			if ( ours == null || theirs == null || message == null )
+				return null;
+			return new MergeSession( ObjectId.fromString( ours ), ObjectId.fromString( theirs ), message );
+		}
+		catch ( final IOException | IllegalArgumentException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Removes the session from the given ".git" directory.
+	 */
+	public static void delete( final File gitDirectory ) throws IOException
+	{
+		Files.deleteIfExists( new File( gitDirectory, FILE ).toPath() );
+	}
+}
@@ -0,0 +1,224 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.util.Arrays;
+
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+
+/**
+ * A single change between two versions of a model, as reported by
+ * {@link ModelDiff}.
+ * <p>
+ * Spots and links are identified by their persistent ids (see
+ * {@link ModelIds}). Which of the other fields are set depends on the
+ * {@link Type} of the change.
+ */
+public class ModelChange
+{
+
+	public enum Type
+	{
+		SPOT_ADDED,
+		SPOT_REMOVED,
+		/** The position of the spot changed, see {@link #getDisplacement()}. */
+		SPOT_MOVED,
+		/** Only the covariance (shape) of the spot changed. */
+		SPOT_RESHAPED,
+		LABEL_CHANGED,
+		SPOT_TAG_CHANGED,
+		LINK_ADDED,
+		LINK_REMOVED,
+		LINK_TAG_CHANGED
+	}
+
+	private final Type type;
+
+	private final int timepoint;
+
+	private final long id;
+
+	private final long sourceId;
+
+	private final long targetId;
+
+	private final double[] displacement;
+
+	private final String tagSet;
+
+	private final String oldValue;
+
+	private final String newValue;
+
+	private ModelChange( final Type type, final int timepoint, final long id, final long sourceId, final long targetId, final double[] displacement,
+			final String tagSet, final String oldValue, final String newValue )
+	{
+		this.type = type;
+		this.timepoint = timepoint;
+		this.id = id;
+		this.sourceId = sourceId;
+		this.targetId = targetId;
+		this.displacement = displacement;
+		this.tagSet = tagSet;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+	}
+
+	/**
+	 * A spot was added or removed. {@code label} is the label of the spot,
+	 * or null if it has none.
+	 */
+	static ModelChange spot( final Type type, final int timepoint, final long spotId, final String label )
+	{
+		final boolean added = type == Type.SPOT_ADDED;
+		return new ModelChange( type, timepoint, spotId, ModelIds.NO_ID, ModelIds.NO_ID, null, null, added ? null : label, added ? label : null );
+	}
+
+	static ModelChange moved( final int timepoint, final long spotId, final double[] displacement )
+	{
+		return new ModelChange( Type.SPOT_MOVED, timepoint, spotId, ModelIds.NO_ID, ModelIds.NO_ID, displacement, null, null, null );
+	}
+
+	static ModelChange reshaped( final int timepoint, final long spotId )
+	{
+		return new ModelChange( Type.SPOT_RESHAPED, timepoint, spotId, ModelIds.NO_ID, ModelIds.NO_ID, null, null, null, null );
+	}
+
+	static ModelChange label( final int timepoint, final long spotId, final String oldLabel, final String newLabel )
+	{
+		return new ModelChange( Type.LABEL_CHANGED, timepoint, spotId, ModelIds.NO_ID, ModelIds.NO_ID, null, null, oldLabel, newLabel );
+	}
+
+	static ModelChange spotTag( final int timepoint, final long spotId, final String tagSet, final String oldTag, final String newTag )
+	{
+		return new ModelChange( Type.SPOT_TAG_CHANGED, timepoint, spotId, ModelIds.NO_ID, ModelIds.NO_ID, null, tagSet, oldTag, newTag );
+	}
+
+	/**
+	 * A link was added or removed. {@code timepoint} is the timepoint of the
+	 * source spot.
+	 */
+	static ModelChange link( final Type type, final int timepoint, final long linkId, final long sourceId, final long targetId )
+	{
+		return new ModelChange( type, timepoint, linkId, sourceId, targetId, null, null, null, null );
+	}
+
+	static ModelChange linkTag( final int timepoint, final long linkId, final long sourceId, final long targetId, final String tagSet, final String oldTag, final String newTag )
+	{
+		return new ModelChange( Type.LINK_TAG_CHANGED, timepoint, linkId, sourceId, targetId, null, tagSet, oldTag, newTag );
+	}
+
+	public Type getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Returns the timepoint of the spot, or of the source spot of the link.
+	 */
+	public int getTimepoint()
+	{
+		return timepoint;
+	}
+
+	/**
+	 * Returns the id of the spot or link.
+	 */
+	public long getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Returns the id of the source spot, for changes of links.
+	 */
+	public long getSourceId()
+	{
+		return sourceId;
+	}
+
+	/**
+	 * Returns the id of the target spot, for changes of links.
+	 */
+	public long getTargetId()
+	{
+		return targetId;
+	}
+
+	/**
+	 * Returns new position minus old position, for
+	 * {@link Type#SPOT_MOVED}.
+	 */
+	public double[] getDisplacement()
+	{
+		return displacement == null ? null : displacement.clone();
+	}
+
+	/**
+	 * Returns the name of the tag set, for tag changes.
+	 */
+	public String getTagSet()
+	{
+		return tagSet;
+	}
+
+	/**
+	 * Returns the old label or tag. For removed spots, that's the label of
+	 * the spot.
+	 */
+	public String getOldValue()
+	{
+		return oldValue;
+	}
+
+	/**
+	 * Returns the new label or tag. For added spots, that's the label of the
+	 * spot.
+	 */
+	public String getNewValue()
+	{
+		return newValue;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder text = new StringBuilder();
+		text.append( type ).append( " t=" ).append( timepoint ).append( " id=" ).append( Long.toHexString( id ) );
+		if ( sourceId != ModelIds.NO_ID || targetId != ModelIds.NO_ID )
+			text.append( " " ).append( Long.toHexString( sourceId ) ).append( " -> " ).append( Long.toHexString( targetId ) );
+		if ( displacement != null )
+			text.append( " by " ).append( Arrays.toString( displacement ) );
+		if ( tagSet != null )
+			text.append( " \"" ).append( tagSet ).append( "\"" );
+		if ( oldValue != null || newValue != null )
+			text.append( ": " ).append( oldValue ).append( " -> " ).append( newValue );
+		return text.toString();
+	}
+}
@@ -0,0 +1,513 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.mastodon.mamut.collaboration.io.ChunkedModelIO;
+import org.mastodon.mamut.collaboration.io.GitProjectReader;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * Computes the changes between two versions of a Mastodon model: spots that
+ * were added, removed, moved, reshaped or relabeled, links that were added or
+ * removed, and changed tags. The changes are passed to a consumer as they are
+ * found, and counted in a {@link Summary}.
+ * <p>
+ * The diff works chunk by chunk, in the layout of {@link ChunkedModelIO}.
+ * Chunks, that are byte for byte identical in both versions (same git blob
+ * id), are skipped without being read. The other chunks are read one pair at
+ * a time. Models stored in git in the chunked layout are therefore compared
+ * with memory for one chunk of {@value ChunkedModelIO#TIMEPOINTS_PER_CHUNK}
+ * timepoints only. Models in the layout of
+ * {@value GitProjectReader#MODEL_FILE} are read completely and split into
+ * chunks in memory.
+ * <p>
+ * Within a chunk, spots are paired like in a merge (see
+ * {@link ThreeWayMerge#matchToBase}) and links by the spots they connect.
+ * Links between spots of different chunks are paired by their ids.
+ */
+public class ModelDiff
+{
+
+	private final Version from;
+
+	private final Version to;
+
+	private final Consumer< ModelChange > consumer;
+
+	private final Summary summary = new Summary();
+
+	private ChunkedModelIO.Manifest fromManifest;
+
+	private ChunkedModelIO.Manifest toManifest;
+
+	private ModelDiff( final Version from, final Version to, final Consumer< ModelChange > consumer )
+	{
+		this.from = from;
+		this.to = to;
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Computes the changes of the model in the Mastodon project folder
+	 * {@code folder} between the two given commits (or trees). The blobs are
+	 * read directly from the git object database, the working tree is not
+	 * touched.
+	 */
+	public static Summary diff( final Repository repository, final AnyObjectId from, final AnyObjectId to, final String folder, final Consumer< ModelChange > consumer ) throws IOException
+	{
+		return diff( repository, from, to, folder, null, consumer );
+	}
+
+	/**
+	 * Same as {@link #diff(Repository, AnyObjectId, AnyObjectId, String, Consumer)},
+	 * for the repository and project folder of the given cache. Projects that
+	 * are not stored in the layout of {@link ChunkedModelIO}, are read
+	 * through the cache.
+	 */
+	public static Summary diff( final ModelSnapshotCache cache, final AnyObjectId from, final AnyObjectId to, final Consumer< ModelChange > consumer ) throws IOException
+	{
+		return diff( cache.getRepository(), from, to, cache.getFolder(), cache, consumer );
+	}
+
+	private static Summary diff( final Repository repository, final AnyObjectId from, final AnyObjectId to, final String folder, final ModelSnapshotCache cache, final Consumer< ModelChange > consumer ) throws IOException
+	{
+		try (final GitProjectReader fromReader = new GitProjectReader( repository, from, folder );
+				final GitProjectReader toReader = new GitProjectReader( repository, to, folder ))
+		{
+			return new ModelDiff( version( repository, from, folder, fromReader, cache ), version( repository, to, folder, toReader, cache ), consumer ).run();
+		}
+	}
+
+	/**
+	 * Computes the changes between two models in memory. The caller needs to
+	 * hold the read locks of both graphs.
+	 */
+	public static Summary diff( final Model from, final Model to, final Consumer< ModelChange > consumer ) throws IOException
+	{
+		return new ModelDiff( new MemoryVersion( from ), new MemoryVersion( to ), consumer ).run();
+	}
+
+	private static Version version( final Repository repository, final AnyObjectId commit, final String folder, final GitProjectReader reader, final ModelSnapshotCache cache ) throws IOException
+	{
+		if ( reader.getBlobId( ChunkedModelIO.MANIFEST_FILE ) != null )
+			return new GitVersion( reader );
+		if ( reader.getBlobId( GitProjectReader.MODEL_FILE ) == null )
+			return new MemoryVersion( new Model() );
+		if ( cache != null )
+			return new MemoryVersion( cache.get( commit ) );
+		// The units don't matter for the diff.
+		return new MemoryVersion( GitProjectReader.readModel( repository, commit, folder, "pixel", "frame" ) );
+	}
+
+	private Summary run() throws IOException
+	{
+		fromManifest = ChunkedModelIO.readManifest( from );
+		toManifest = ChunkedModelIO.readManifest( to );
+		// The chunks store tags by index. Skipping identical chunks is only
+		// correct, if the indices mean the same in both versions.
+		final boolean sameTags = sameTagSets( fromManifest.getTagSetStructure(), toManifest.getTagSetStructure() );
+		final Set< Integer > chunks = new TreeSet<>();
+		for ( final int firstTimepoint : fromManifest.getChunkTimepoints() )
+			chunks.add( firstTimepoint );
+		for ( final int firstTimepoint : toManifest.getChunkTimepoints() )
+			chunks.add( firstTimepoint );
+		for ( final int firstTimepoint : chunks )
+		{
+			final String path = ChunkedModelIO.chunkPath( firstTimepoint );
+			final ObjectId fromBlob = from.getBlobId( path );
+			final ObjectId toBlob = to.getBlobId( path );
+			if ( sameTags && fromBlob != null && fromBlob.equals( toBlob ) )
+			{
+				summary.unchangedChunks++;
+				continue;
+			}
+			summary.changedChunks++;
+			diffChunk( readChunk( from, fromManifest, fromBlob, firstTimepoint ), readChunk( to, toManifest, toBlob, firstTimepoint ) );
+		}
+		final ObjectId fromCrossLinks = from.getBlobId( ChunkedModelIO.CROSS_LINKS_FILE );
+		final ObjectId toCrossLinks = to.getBlobId( ChunkedModelIO.CROSS_LINKS_FILE );
+		if ( !sameTags || !Objects.equals( fromCrossLinks, toCrossLinks ) )
+			diffCrossLinks();
+		return summary;
+	}
+
+	private static FlatModel readChunk( final Version version, final ChunkedModelIO.Manifest manifest, final ObjectId blob, final int firstTimepoint ) throws IOException
+	{
+		if ( blob == null )
+			return FlatModel.of( new Model() );
+		return FlatModel.of( ChunkedModelIO.readChunk( version, manifest, firstTimepoint ) );
+	}
+
+	private void diffChunk( final FlatModel a, final FlatModel b )
+	{
+		final int[] bToA = ThreeWayMerge.matchToBase( a, b );
+		final int[] aToB = ThreeWayMerge.invert( bToA, a.spotCount );
+		for ( int i = 0; i < a.spotCount; i++ )
+			if ( aToB[ i ] < 0 )
+				emit( ModelChange.spot( ModelChange.Type.SPOT_REMOVED, a.timepoint[ i ], a.spotId[ i ], a.label[ i ] ) );
+		final Set< String > tagSetNames = tagSetNames( a, b );
+		for ( int j = 0; j < b.spotCount; j++ )
+		{
+			final int i = bToA[ j ];
+			if ( i < 0 )
+				emit( ModelChange.spot( ModelChange.Type.SPOT_ADDED, b.timepoint[ j ], b.spotId[ j ], b.label[ j ] ) );
+			else
+				diffSpot( a, i, b, j, tagSetNames );
+		}
+		for ( int l = 0; l < a.linkCount; l++ )
+		{
+			final int source = aToB[ a.linkSource[ l ] ];
+			final int target = aToB[ a.linkTarget[ l ] ];
+			if ( source < 0 || target < 0 || b.findLink( source, target ) < 0 )
+				emit( ModelChange.link( ModelChange.Type.LINK_REMOVED, a.timepoint[ a.linkSource[ l ] ], a.linkId[ l ],
+						a.spotId[ a.linkSource[ l ] ], a.spotId[ a.linkTarget[ l ] ] ) );
+		}
+		for ( int l = 0; l < b.linkCount; l++ )
+		{
+			final int s = b.linkSource[ l ];
+			final int t = b.linkTarget[ l ];
+			final int la = bToA[ s ] < 0 || bToA[ t ] < 0 ? -1 : a.findLink( bToA[ s ], bToA[ t ] );
+			if ( la < 0 )
+			{
+				emit( ModelChange.link( ModelChange.Type.LINK_ADDED, b.timepoint[ s ], b.linkId[ l ], b.spotId[ s ], b.spotId[ t ] ) );
+				continue;
+			}
+			for ( final String name : tagSetNames )
+			{
+				final String oldTag = linkTag( a.getTagSet( name ), la );
+				final String newTag = linkTag( b.getTagSet( name ), l );
+				if ( !Objects.equals( oldTag, newTag ) )
+					emit( ModelChange.linkTag( b.timepoint[ s ], b.linkId[ l ], b.spotId[ s ], b.spotId[ t ], name, oldTag, newTag ) );
+			}
+		}
+	}
+
+	private void diffSpot( final FlatModel a, final int i, final FlatModel b, final int j, final Set< String > tagSetNames )
+	{
+		final int timepoint = b.timepoint[ j ];
+		final long id = b.spotId[ j ];
+		if ( !a.sameGeometry( i, b, j ) )
+		{
+			final double[] displacement = new double[ 3 ];
+			boolean moved = false;
+			for ( int d = 0; d < 3; d++ )
+			{
+				displacement[ d ] = b.position[ 3 * j + d ] - a.position[ 3 * i + d ];
+				moved |= displacement[ d ] != 0;
+			}
+			emit( moved ? ModelChange.moved( timepoint, id, displacement ) : ModelChange.reshaped( timepoint, id ) );
+		}
+		if ( !Objects.equals( a.label[ i ], b.label[ j ] ) )
+			emit( ModelChange.label( timepoint, id, a.label[ i ], b.label[ j ] ) );
+		for ( final String name : tagSetNames )
+		{
+			final FlatModel.FlatTagSet tagSetA = a.getTagSet( name );
+			final FlatModel.FlatTagSet tagSetB = b.getTagSet( name );
+			final String oldTag = tagSetA == null ? null : tagSetA.spotTags[ i ];
+			final String newTag = tagSetB == null ? null : tagSetB.spotTags[ j ];
+			if ( !Objects.equals( oldTag, newTag ) )
+				emit( ModelChange.spotTag( timepoint, id, name, oldTag, newTag ) );
+		}
+	}
+
+	private static String linkTag( final FlatModel.FlatTagSet tagSet, final int link )
+	{
+		return tagSet == null ? null : tagSet.linkTags[ link ];
+	}
+
+	private static Set< String > tagSetNames( final FlatModel a, final FlatModel b )
+	{
+		final Set< String > names = new LinkedHashSet<>();
+		for ( final FlatModel.FlatTagSet tagSet : a.tagSets )
+			names.add( tagSet.name );
+		for ( final FlatModel.FlatTagSet tagSet : b.tagSets )
+			names.add( tagSet.name );
+		return names;
+	}
+
+	/**
+	 * Compares the links between chunks. They are paired by their ids. The
+	 * chunks don't need to be read, the links refer to their spots by id.
+	 */
+	private void diffCrossLinks() throws IOException
+	{
+		final List< TagSetStructure.TagSet > fromTagSets = fromManifest.getTagSetStructure().getTagSets();
+		final List< TagSetStructure.TagSet > toTagSets = toManifest.getTagSetStructure().getTagSets();
+		final ChunkedModelIO.CrossLinks a = ChunkedModelIO.readCrossLinks( from, fromTagSets.size() );
+		final ChunkedModelIO.CrossLinks b = ChunkedModelIO.readCrossLinks( to, toTagSets.size() );
+		final Map< Long, Integer > indexOfA = new HashMap<>();
+		for ( int l = 0; l < a.size(); l++ )
+			indexOfA.put( a.getId( l ), l );
+		final List< String > tagSetNames = new ArrayList<>( tagSetNames( fromTagSets, toTagSets ) );
+		for ( int l = 0; l < b.size(); l++ )
+		{
+			final Integer la = indexOfA.remove( b.getId( l ) );
+			if ( la == null )
+			{
+				emit( crossLinkChange( ModelChange.Type.LINK_ADDED, b, l ) );
+				continue;
+			}
+			for ( final String name : tagSetNames )
+			{
+				final String oldTag = crossLinkTag( a, la, fromTagSets, name );
+				final String newTag = crossLinkTag( b, l, toTagSets, name );
+				if ( !Objects.equals( oldTag, newTag ) )
+					emit( ModelChange.linkTag( b.getSourceTimepoint( l ), b.getId( l ), b.getSourceId( l ), b.getTargetId( l ), name, oldTag, newTag ) );
+			}
+		}
+		for ( int l = 0; l < a.size(); l++ )
+			if ( indexOfA.containsKey( a.getId( l ) ) )
+				emit( crossLinkChange( ModelChange.Type.LINK_REMOVED, a, l ) );
+	}
+
+	private static ModelChange crossLinkChange( final ModelChange.Type type, final ChunkedModelIO.CrossLinks links, final int link )
+	{
+		return ModelChange.link( type, links.getSourceTimepoint( link ), links.getId( link ), links.getSourceId( link ), links.getTargetId( link ) );
+	}
+
+	private static Set< String > tagSetNames( final List< TagSetStructure.TagSet > a, final List< TagSetStructure.TagSet > b )
+	{
+		final Set< String > names = new LinkedHashSet<>();
+		for ( final TagSetStructure.TagSet tagSet : a )
+			names.add( tagSet.getName() );
+		for ( final TagSetStructure.TagSet tagSet : b )
+			names.add( tagSet.getName() );
+		return names;
+	}
+
+	private static String crossLinkTag( final ChunkedModelIO.CrossLinks links, final int link, final List< TagSetStructure.TagSet > tagSets, final String name )
+	{
+		for ( int k = 0; k < tagSets.size(); k++ )
+		{
+			final TagSetStructure.TagSet tagSet = tagSets.get( k );
+			if ( !tagSet.getName().equals( name ) )
+				continue;
+			final int tag = links.getTag( k, link );
+			return tag < 0 ? null : tagSet.getTags().get( tag ).label();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if the tag sets have the same names and tag labels, in
+	 * the same order.
+	 */
+	private static boolean sameTagSets( final TagSetStructure a, final TagSetStructure b )
+	{
+		final List< TagSetStructure.TagSet > tagSetsA = a.getTagSets();
+		final List< TagSetStructure.TagSet > tagSetsB = b.getTagSets();
+		if ( tagSetsA.size() != tagSetsB.size() )
+			return false;
+		for ( int k = 0; k < tagSetsA.size(); k++ )
+		{
+			final List< TagSetStructure.Tag > tagsA = tagSetsA.get( k ).getTags();
+			final List< TagSetStructure.Tag > tagsB = tagSetsB.get( k ).getTags();
+			if ( !tagSetsA.get( k ).getName().equals( tagSetsB.get( k ).getName() ) || tagsA.size() != tagsB.size() )
+				return false;
+			for ( int t = 0; t < tagsA.size(); t++ )
+				if ( !tagsA.get( t ).label().equals( tagsB.get( t ).label() ) )
+					return false;
+		}
+		return true;
+	}
+
+	private void emit( final ModelChange change )
+	{
+		summary.counts[ change.getType().ordinal() ]++;
+		consumer.accept( change );
+	}
+
+	/**
+	 * One of the two versions of the model that are compared, in the chunked
+	 * layout.
+	 */
+	private interface Version extends ChunkedModelIO.FileSource
+	{
+		/**
+		 * Returns the git blob id of the file, or null if there is no such
+		 * file.
+		 */
+		ObjectId getBlobId( String path ) throws IOException;
+	}
+
+	private static class GitVersion implements Version
+	{
+
+		private final GitProjectReader reader;
+
+		private GitVersion( final GitProjectReader reader )
+		{
+			this.reader = reader;
+		}
+
+		@Override
+		public InputStream open( final String path ) throws IOException
+		{
+			return reader.open( path );
+		}
+
+		@Override
+		public ObjectId getBlobId( final String path ) throws IOException
+		{
+			return reader.getBlobId( path );
+		}
+	}
+
+	/**
+	 * A model that was split into chunks in memory.
+	 */
+	private static class MemoryVersion implements Version
+	{
+
+		private final Map< String, byte[] > files = new HashMap<>();
+
+		private final Map< String, ObjectId > blobIds = new HashMap<>();
+
+		private MemoryVersion( final Model model ) throws IOException
+		{
+			final ObjectInserter.Formatter formatter = new ObjectInserter.Formatter();
+			ChunkedModelIO.write( model, ( path, content ) -> {
+				files.put( path, content );
+				blobIds.put( path, formatter.idFor( Constants.OBJ_BLOB, content ) );
+			} );
+		}
+
+		@Override
+		public InputStream open( final String path ) throws IOException
+		{
+			final byte[] content = files.get( path );
+			if ( content == null )
+				throw new FileNotFoundException( path );
+			return new ByteArrayInputStream( content );
+		}
+
+		@Override
+		public ObjectId getBlobId( final String path )
+		{
+			return blobIds.get( path );
+		}
+	}
+
+	/**
+	 * The number of changes by {@link ModelChange.Type}, and the number of
+	 * chunks that had to be compared.
+	 */
+	public static class Summary
+	{
+
+		private final int[] counts = new int[ ModelChange.Type.values().length ];
+
+		private int changedChunks = 0;
+
+		private int unchangedChunks = 0;
+
+		public int getCount( final ModelChange.Type type )
+		{
+			return counts[ type.ordinal() ];
+		}
+
+		public int getChangeCount()
+		{
+			int sum = 0;
+			for ( final int count : counts )
+				sum += count;
+			return sum;
+		}
+
+		public boolean isEmpty()
+		{
+			return getChangeCount() == 0;
+		}
+
+		/**
+		 * Returns the number of chunks that differ between the two versions
+		 * and were compared spot by spot.
+		 */
+		public int getChangedChunks()
+		{
+			return changedChunks;
+		}
+
+		/**
+		 * Returns the number of chunks that are identical in both versions
+		 * and were skipped.
+		 */
+		public int getUnchangedChunks()
+		{
+			return unchangedChunks;
+		}
+
+		/**
+		 * Returns a short description like "2 spots added, 1 spot moved,
+		 * 3 links added".
+		 */
+		@Override
+		public String toString()
+		{
+			final List< String > parts = new ArrayList<>();
+			add( parts, ModelChange.Type.SPOT_ADDED, "spot", "added" );
+			add( parts, ModelChange.Type.SPOT_REMOVED, "spot", "removed" );
+			add( parts, ModelChange.Type.SPOT_MOVED, "spot", "moved" );
+			add( parts, ModelChange.Type.SPOT_RESHAPED, "spot", "reshaped" );
+			add( parts, ModelChange.Type.LABEL_CHANGED, "spot", "relabeled" );
+			add( parts, ModelChange.Type.SPOT_TAG_CHANGED, "spot tag", "changed" );
+			add( parts, ModelChange.Type.LINK_ADDED, "link", "added" );
+			add( parts, ModelChange.Type.LINK_REMOVED, "link", "removed" );
+			add( parts, ModelChange.Type.LINK_TAG_CHANGED, "link tag", "changed" );
+			return parts.isEmpty() ? "no changes" : String.join( ", ", parts );
+		}
+
+		private void add( final List< String > parts, final ModelChange.Type type, final String noun, final String verb )
+		{
+			final int count = getCount( type );
+			if ( count > 0 )
+				parts.add( count + " " + noun + ( count == 1 ? "" : "s" ) + " " + verb );
+		}
+	}
+}
@@ -0,0 +1,420 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.mastodon.mamut.collaboration.io.ChunkedModelIO;
+import org.mastodon.mamut.collaboration.io.GitProjectReader;
+import org.mastodon.mamut.model.Model;
+
+/**
+ * Keeps the models of recently read commits in memory, such that merges,
+ * diffs and previews don't need to parse the same commit again.
+ * <p>
+ * The models are keyed by the id of the tree of the Mastodon project folder.
+ * Commits that don't change the project, share the same entry. The memory
+ * tier is bounded by the total number of spots of the cached models. The
+ * least recently used models are evicted first.
+ * <p>
+ * Optionally, the models are also stored on disk, in the layout of
+ * {@link ChunkedModelIO}, in the folder {@value #FOLDER} of the ".git"
+ * directory. Reading a model from there is faster than reading it from the
+ * git object database, and the entries survive a restart of Mastodon. The
+ * models are written to disk on a background thread, such that a cache miss
+ * doesn't wait for it. Only the most recently used models are kept on disk,
+ * up to {@link #DEFAULT_MAX_DISK_BYTES} in total.
+ * <p>
+ * The models returned by the cache are shared. They must not be modified.
+ */
+public class ModelSnapshotCache
+{
+
+	public static final String FOLDER = "mastodon/cache";
+
+	public static final long DEFAULT_MAX_SPOTS = 2_000_000;
+
+	public static final long DEFAULT_MAX_DISK_BYTES = 1L << 30;
+
+	/**
+	 * Maximum number of models waiting to be written to disk. Further models
+	 * are not written, such that the queue doesn't keep them in memory.
+	 */
+	private static final int MAX_PENDING_DISK_WRITES = 2;
+
+	/**
+	 * Reads a model, if it is not in the cache.
+	 */
+	interface Loader
+	{
+		Model load() throws IOException;
+	}
+
+	private final Repository repository;
+
+	private final String folder;
+
+	private final String spaceUnits;
+
+	private final String timeUnits;
+
+	private final long maxSpots;
+
+	private final ChunkedModelStore diskStore;
+
+	private final ThreadPoolExecutor diskWriter;
+
+	private int pendingDiskWrites = 0;
+
+	private final LinkedHashMap< ObjectId, Model > models = new LinkedHashMap<>( 16, 0.75f, true );
+
+	private long spots = 0;
+
+	private long hits = 0;
+
+	private long diskHits = 0;
+
+	private long misses = 0;
+
+	private long evictions = 0;
+
+	/**
+	 * Creates a cache with the default limits.
+	 *
+	 * @param repository the git repository.
+	 * @param folder     path of the Mastodon project folder within the
+	 *                   repository.
+	 * @param spaceUnits space units of the models.
+	 * @param timeUnits  time units of the models.
+	 * @param onDisk     true to also store the models on disk, in the folder
+	 *                   {@value #FOLDER} of the ".git" directory.
+	 */
+	public ModelSnapshotCache( final Repository repository, final String folder, final String spaceUnits, final String timeUnits, final boolean onDisk )
+	{
+		this( repository, folder, spaceUnits, timeUnits, DEFAULT_MAX_SPOTS, onDisk ? new File( repository.getDirectory(), FOLDER ) : null, DEFAULT_MAX_DISK_BYTES );
+	}
+
+	/**
+	 * @param maxSpots     maximum total number of spots of the models kept in
+	 *                     memory.
+	 * @param diskFolder   folder to store the models on disk, or null to keep
+	 *                     them in memory only.
+	 * @param maxDiskBytes maximum total size of the models kept on disk.
+	 */
+	public ModelSnapshotCache( final Repository repository, final String folder, final String spaceUnits, final String timeUnits, final long maxSpots, final File diskFolder, final long maxDiskBytes )
+	{
+		this.repository = repository;
+		this.folder = folder;
+		this.spaceUnits = spaceUnits;
+		this.timeUnits = timeUnits;
+		this.maxSpots = maxSpots;
+		if ( diskFolder == null )
+		{
+			this.diskStore = null;
+			this.diskWriter = null;
+		}
+		else
+		{
+			this.diskStore = new ChunkedModelStore( diskFolder, Integer.MAX_VALUE, maxDiskBytes );
+			this.diskWriter = new ThreadPoolExecutor( 1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+				final Thread thread = new Thread( runnable, "model snapshot cache writer" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+			this.diskWriter.allowCoreThreadTimeOut( true );
+		}
+	}
+
+	public Repository getRepository()
+	{
+		return repository;
+	}
+
+	public String getFolder()
+	{
+		return folder;
+	}
+
+	/**
+	 * Returns the model of the Mastodon project in the given commit or tree.
+	 * The model is read from the git object database, if it is not cached.
+	 * The returned model must not be modified.
+	 */
+	public Model get( final AnyObjectId commitOrTree ) throws IOException
+	{
+		final ObjectId tree = projectTreeId( commitOrTree );
+		final Loader loader = () -> GitProjectReader.readModel( repository, commitOrTree, folder, spaceUnits, timeUnits );
+		if ( tree == null )
+			return loader.load();
+		return get( tree, loader );
+	}
+
+	/**
+	 * Returns the model with the given key. If it is neither in memory nor
+	 * on disk, the model is loaded and stored in both tiers.
+	 */
+	Model get( final ObjectId key, final Loader loader ) throws IOException
+	{
+		synchronized ( this )
+		{
+			final Model model = models.get( key );
+			if ( model != null )
+			{
+				hits++;
+				return model;
+			}
+		}
+		Model model = readFromDisk( key );
+		final boolean fromDisk = model != null;
+		if ( !fromDisk )
+		{
+			model = loader.load();
+			writeToDisk( key, model );
+		}
+		synchronized ( this )
+		{
+			if ( fromDisk )
+				diskHits++;
+			else
+				misses++;
+			final Model other = models.get( key );
+			if ( other != null )
+				return other; // loaded concurrently by another thread
+			put( key, model );
+		}
+		return model;
+	}
+
+	private void put( final ObjectId key, final Model model )
+	{
+		final int size = weight( model );
+		if ( size > maxSpots )
+			return;
+		models.put( key.copy(), model );
+		spots += size;
+		final Iterator< Map.Entry< ObjectId, Model > > iterator = models.entrySet().iterator();
+		while ( spots > maxSpots && iterator.hasNext() )
+		{
+			final Map.Entry< ObjectId, Model > eldest = iterator.next();
+			spots -= weight( eldest.getValue() );
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	private static int weight( final Model model )
+	{
+		return Math.max( 1, model.getGraph().vertices().size() );
+	}
+
+	/**
+	 * Removes all models from memory. The models on disk are kept.
+	 */
+	public synchronized void clear()
+	{
+		models.clear();
+		spots = 0;
+	}
+
+	/**
+	 * Returns the hit and miss counts and the current size of the cache.
+	 */
+	public synchronized Stats getStats()
+	{
+		return new Stats( hits, diskHits, misses, evictions, models.size(), spots );
+	}
+
+	private ObjectId projectTreeId( final AnyObjectId commitOrTree ) throws IOException
+	{
+		try (final RevWalk walk = new RevWalk( repository );
+				final TreeWalk treeWalk = TreeWalk.forPath( repository, folder, walk.parseTree( commitOrTree ) ))
+		{
+			return treeWalk == null || !treeWalk.isSubtree() ? null : treeWalk.getObjectId( 0 );
+		}
+	}
+
+	/**
+	 * Returns the model stored on disk with the given key, or null if there
+	 * is none or it has different units.
+	 */
+	private Model readFromDisk( final ObjectId key )
+	{
+		if ( diskStore == null )
+			return null;
+		final Model model = diskStore.read( key.name() );
+		if ( model == null || !spaceUnits.equals( model.getSpaceUnits() ) || !timeUnits.equals( model.getTimeUnits() ) )
+			return null;
+		return model;
+	}
+
+	/**
+	 * Stores the model on disk, on a background thread. Failing to do so is
+	 * not an error, the model is just not cached on disk.
+	 */
+	private void writeToDisk( final ObjectId key, final Model model )
+	{
+		if ( diskStore == null )
+			return;
+		synchronized ( diskWriter )
+		{
+			if ( pendingDiskWrites >= MAX_PENDING_DISK_WRITES )
+				return;
+			pendingDiskWrites++;
+		}
+		final String name = key.name();
+		diskWriter.execute( () -> {
+			try
+			{
+				diskStore.write( name, model );
+			}
+			catch ( final IOException e )
+			{
+				// ignore, the model is just not cached on disk
+			}
+			finally
+			{
+				synchronized ( diskWriter )
+				{
+					pendingDiskWrites--;
+					diskWriter.notifyAll();
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Waits until the models queued for writing are stored on disk.
+	 */
+	void awaitDiskWrites() throws InterruptedException
+	{
+		if ( diskWriter == null )
+			return;
+		synchronized ( diskWriter )
+		{
+			while ( pendingDiskWrites > 0 )
+				diskWriter.wait();
+		}
+	}
+
+	/**
+	 * Hit and miss counts of a {@link ModelSnapshotCache}.
+	 */
+	public static class Stats
+	{
+
+		private final long hits;
+
+		private final long diskHits;
+
+		private final long misses;
+
+		private final long evictions;
+
+		private final int entries;
+
+		private final long spots;
+
+		private Stats( final long hits, final long diskHits, final long misses, final long evictions, final int entries, final long spots )
+		{
+			this.hits = hits;
+			this.diskHits = diskHits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.entries = entries;
+			this.spots = spots;
+		}
+
+		/**
+		 * Number of models found in memory.
+		 */
+		public long getHits()
+		{
+			return hits;
+		}
+
+		/**
+		 * Number of models found on disk.
+		 */
+		public long getDiskHits()
+		{
+			return diskHits;
+		}
+
+		/**
+		 * Number of models read from the git object database.
+		 */
+		public long getMisses()
+		{
+			return misses;
+		}
+
+		/**
+		 * Number of models evicted from memory.
+		 */
+		public long getEvictions()
+		{
+			return evictions;
+		}
+
+		/**
+		 * Number of models in memory.
+		 */
+		public int getEntries()
+		{
+			return entries;
+		}
+
+		/**
+		 * Total number of spots of the models in memory.
+		 */
+		public long getSpots()
+		{
+			return spots;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "hits=" + hits + " diskHits=" + diskHits + " misses=" + misses + " evictions=" + evictions
+					+ " entries=" + entries + " spots=" + spots;
+		}
+	}
+}
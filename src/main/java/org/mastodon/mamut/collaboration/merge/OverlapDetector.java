@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Finds overlapping spots between two sets of spots.
+ * <p>
+ * Two spots overlap if they are in the same timepoint and the distance
+ * between their centers is smaller than the larger of their bounding sphere
+ * radii. The spots are grouped by timepoint, and within each timepoint the
+ * spots of the second set are binned into a uniform grid, whose cell size is
+ * the largest radius. Only the neighboring cells need to be searched for
+ * each spot. The timepoints are processed in parallel on the common
+ * {@link java.util.concurrent.ForkJoinPool}.
+ */
+final class OverlapDetector
+{
+
+	private OverlapDetector()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * @param a         the model that contains the first set of spots.
+	 * @param spotsA    indices of the spots in {@code a}.
+	 * @param b         the model that contains the second set of spots.
+	 * @param spotsB    indices of the spots in {@code b}.
+	 * @param overlapsA positions in {@code spotsA} of the spots that overlap
+	 *                  with any spot of the second set are set in this bitset.
+	 * @param overlapsB same for the positions in {@code spotsB}.
+	 */
+	static void findOverlaps( final FlatModel a, final int[] spotsA, final FlatModel b, final int[] spotsB, final BitSet overlapsA, final BitSet overlapsB )
+	{
+		if ( spotsA.length == 0 || spotsB.length == 0 )
+			return;
+		final long[] sortedA = sortByTimepoint( a, spotsA );
+		final long[] sortedB = sortByTimepoint( b, spotsB );
+		final int[][] rangesA = timepointRanges( a, sortedA );
+		final int[][] rangesB = timepointRanges( b, sortedB );
+		// pair up the ranges of the same timepoint
+		final List< int[] > tasks = IntStream.range( 0, rangesA[ 0 ].length )
+				.mapToObj( i -> {
+					final int j = Arrays.binarySearch( rangesB[ 0 ], rangesA[ 0 ][ i ] );
+					return j < 0 ? null : new int[] { rangesA[ 1 ][ i ], rangesA[ 1 ][ i + 1 ], rangesB[ 1 ][ j ], rangesB[ 1 ][ j + 1 ] };
+				} )
+				.filter( Objects::nonNull )
+				.collect( Collectors.toList() );
+		final List< long[] > results = tasks.parallelStream()
+				.map( task -> findOverlapsInTimepoint( a, sortedA, task[ 0 ], task[ 1 ], b, sortedB, task[ 2 ], task[ 3 ] ) )
+				.collect( Collectors.toList() );
+		for ( final long[] pairs : results )
+			for ( final long pair : pairs )
+			{
+				overlapsA.set( ( int ) ( pair >>> 32 ) );
+				overlapsB.set( ( int ) pair );
+			}
+	}
+
+	/**
+	 * Returns the overlapping pairs, each packed into a long: the position in
+	 * spotsA in the upper, the position in spotsB in the lower 32 bits.
+	 */
+	private static long[] findOverlapsInTimepoint( final FlatModel a, final long[] sortedA, final int startA, final int endA,
+			final FlatModel b, final long[] sortedB, final int startB, final int endB )
+	{
+		double maxRadiusSquared = 0;
+		for ( int i = startA; i < endA; i++ )
+			maxRadiusSquared = Math.max( maxRadiusSquared, a.boundingSphereRadiusSquared[ spot( sortedA[ i ] ) ] );
+		for ( int i = startB; i < endB; i++ )
+			maxRadiusSquared = Math.max( maxRadiusSquared, b.boundingSphereRadiusSquared[ spot( sortedB[ i ] ) ] );
+		final double cellSize = maxRadiusSquared > 0 ? Math.sqrt( maxRadiusSquared ) : 1;
+
+		final int countB = endB - startB;
+		final long[] cellKeys = new long[ countB ];
+		for ( int i = 0; i < countB; i++ )
+		{
+			final int s = spot( sortedB[ startB + i ] );
+			cellKeys[ i ] = cellKey( cell( b, s, 0, cellSize ), cell( b, s, 1, cellSize ), cell( b, s, 2, cellSize ) );
+		}
+		final LongHashIndex grid = new LongHashIndex( cellKeys );
+
+		final PairList pairs = new PairList();
+		for ( int i = startA; i < endA; i++ )
+		{
+			final int sa = spot( sortedA[ i ] );
+			final long positionA = position( sortedA[ i ] );
+			final long cx = cell( a, sa, 0, cellSize );
+			final long cy = cell( a, sa, 1, cellSize );
+			final long cz = cell( a, sa, 2, cellSize );
+			for ( long x = cx - 1; x <= cx + 1; x++ )
+				for ( long y = cy - 1; y <= cy + 1; y++ )
+					for ( long z = cz - 1; z <= cz + 1; z++ )
+						grid.forEach( cellKey( x, y, z ), k -> {
+							final long entry = sortedB[ startB + k ];
+							final int sb = spot( entry );
+							final double radiusSquared = Math.max( a.boundingSphereRadiusSquared[ sa ], b.boundingSphereRadiusSquared[ sb ] );
+							if ( a.distanceSquared( sa, b, sb ) < radiusSquared )
+								pairs.add( ( positionA << 32 ) | position( entry ) );
+						} );
+		}
+		return pairs.toArray();
+	}
+
+	/**
+	 * Returns one entry per spot, sorted by timepoint. Each entry packs the
+	 * spot index (upper 32 bits) and the position in the spots array (lower 32
+	 * bits).
+	 */
+	private static long[] sortByTimepoint( final FlatModel model, final int[] spots )
+	{
+		final long[] entries = new long[ spots.length ];
+		for ( int i = 0; i < spots.length; i++ )
+			entries[ i ] = ( ( long ) model.timepoint[ spots[ i ] ] << 32 ) | i;
+		Arrays.sort( entries );
+		// replace the timepoint by the spot index, the order stays the same
+		for ( int i = 0; i < entries.length; i++ )
+			entries[ i ] = ( ( long ) spots[ ( int ) position( entries[ i ] ) ] << 32 ) | position( entries[ i ] );
+		return entries;
+	}
+
+	/**
+	 * Returns the distinct timepoints in the first row, and the start index of
+	 * each timepoint in the sorted array in the second row. The second row has
+	 * an additional last entry, that marks the end of the array.
+	 */
+	private static int[][] timepointRanges( final FlatModel model, final long[] sorted )
+	{
+		final int[] timepoints = new int[ sorted.length ];
+		final int[] starts = new int[ sorted.length + 1 ];
+		int count = 0;
+		for ( int i = 0; i < sorted.length; i++ )
+		{
+			final int timepoint = model.timepoint[ spot( sorted[ i ] ) ];
+			if ( count == 0 || timepoints[ count - 1 ] != timepoint )
+			{
+				timepoints[ count ] = timepoint;
+				starts[ count ] = i;
+				count++;
+			}
+		}
+		starts[ count ] = sorted.length;
+		return new int[][] { Arrays.copyOf( timepoints, count ), Arrays.copyOf( starts, count + 1 ) };
+	}
+
+	private static int spot( final long entry )
+	{
+		return ( int ) ( entry >>> 32 );
+	}
+
+	private static long position( final long entry )
+	{
+		return entry & 0xffffffffL;
+	}
+
+	private static long cell( final FlatModel model, final int s, final int d, final double cellSize )
+	{
+		return ( long ) Math.floor( model.position[ 3 * s + d ] / cellSize );
+	}
+
+	private static long cellKey( final long x, final long y, final long z )
+	{
+		return ( ( x & 0x1fffff ) << 42 ) | ( ( y & 0x1fffff ) << 21 ) | ( z & 0x1fffff );
+	}
+
+	/**
+	 * A growable list of primitive longs.
+	 */
+	private static class PairList
+	{
+		private long[] values = new long[ 8 ];
+
+		private int size = 0;
+
+		private void add( final long value )
+		{
+			if ( size == values.length )
+				values = Arrays.copyOf( values, 2 * size );
+			values[ size++ ] = value;
+		}
+
+		private long[] toArray()
+		{
+			return Arrays.copyOf( values, size );
+		}
+	}
+}
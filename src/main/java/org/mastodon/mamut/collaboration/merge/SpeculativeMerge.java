@@ -0,0 +1,208 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.mastodon.mamut.collaboration.utils.ConflictUtils;
+import org.mastodon.mamut.model.Model;
+
+/**
+ * Holds the result of a merge, that was computed before the user asked for
+ * it. The result is keyed by the ids of the two commits that were merged.
+ * <p>
+ * A background thread calls {@link #compute} after fetching, a pull then
+ * calls {@link #take} with the commits that it actually merges. If the
+ * commits still match, the pull gets the merged model without merging
+ * again. If the speculative merge is still running, {@link #take} waits for
+ * it to finish.
+ * <p>
+ * Only one merge result is kept. The merged model is handed out once,
+ * because the caller modifies it.
+ */
+public class SpeculativeMerge
+{
+
+	/**
+	 * Computes the merged model of two commits.
+	 */
+	public interface MergeFunction
+	{
+		Model merge( ObjectId ours, ObjectId theirs ) throws Exception;
+	}
+
+	private Entry entry = null;
+
+	/**
+	 * Merges the two commits on the calling thread, and keeps the result.
+	 * Nothing is done if the result for the two commits is already known.
+	 * If another thread is merging the same commits, this waits for its
+	 * result, and merges again if the other merge fails.
+	 *
+	 * @return true if the merged model has conflicts.
+	 */
+	public boolean compute( final AnyObjectId ours, final AnyObjectId theirs, final MergeFunction mergeFunction ) throws Exception
+	{
+		final Entry newEntry;
+		while ( true )
+		{
+			final Entry existing;
+			synchronized ( this )
+			{
+				existing = entry != null && entry.matches( ours, theirs ) ? entry : null;
+				if ( existing == null )
+				{
+					newEntry = new Entry( ours.copy(), theirs.copy() );
+					entry = newEntry;
+					break;
+				}
+			}
+			try
+			{
+				return existing.result.get().hasConflict;
+			}
+			catch ( final ExecutionException e )
+			{
+				// The other merge failed and removed its entry. Like in
+				// take, a failed merge counts as no result, merge again.
+			}
+		}
+		try
+		{
+			final Model model = mergeFunction.merge( newEntry.ours, newEntry.theirs );
+			final Result result = new Result( model, ConflictUtils.hasConflict( model ) );
+			newEntry.result.complete( result );
+			return result.hasConflict;
+		}
+		catch ( final Throwable t )
+		{
+			// Remove the entry before completing it, such that waiting
+			// callers don't find the failed entry again.
+			synchronized ( this )
+			{
+				if ( entry == newEntry )
+					entry = null;
+			}
+			newEntry.result.completeExceptionally( t );
+			throw t;
+		}
+	}
+
+	/**
+	 * Returns the merged model of the two commits, and removes it from this
+	 * cache. Returns null if there is no result for the two commits, or if
+	 * the speculative merge failed.
+	 */
+	public Model take( final AnyObjectId ours, final AnyObjectId theirs ) throws InterruptedException
+	{
+		final Entry taken;
+		synchronized ( this )
+		{
+			if ( entry == null || !entry.matches( ours, theirs ) )
+				return null;
+			taken = entry;
+			entry = null;
+		}
+		try
+		{
+			return taken.result.get().model;
+		}
+		catch ( final ExecutionException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if the merge result for the two commits is known and has
+	 * conflicts, false if it is known and has no conflicts, and null if it is
+	 * not known (yet). Does not wait for a running merge.
+	 */
+	public synchronized Boolean hasConflict( final AnyObjectId ours, final AnyObjectId theirs )
+	{
+		if ( entry == null || !entry.matches( ours, theirs ) || !entry.result.isDone() || entry.result.isCompletedExceptionally() )
+			return null;
+		return entry.result.join().hasConflict;
+	}
+
+	/**
+	 * Returns true if a merge result for the two commits is known or being
+	 * computed.
+	 */
+	public synchronized boolean contains( final AnyObjectId ours, final AnyObjectId theirs )
+	{
+		return entry != null && entry.matches( ours, theirs );
+	}
+
+	/**
+	 * Removes the merge result, such that the memory is freed.
+	 */
+	public synchronized void clear()
+	{
+		entry = null;
+	}
+
+	private static class Entry
+	{
+
+		private final ObjectId ours;
+
+		private final ObjectId theirs;
+
+		private final CompletableFuture< Result > result = new CompletableFuture<>();
+
+		private Entry( final ObjectId ours, final ObjectId theirs )
+		{
+			this.ours = ours;
+			this.theirs = theirs;
+		}
+
+		private boolean matches( final AnyObjectId ours, final AnyObjectId theirs )
+		{
+			return this.ours.equals( ours ) && this.theirs.equals( theirs );
+		}
+	}
+
+	private static class Result
+	{
+
+		private final Model model;
+
+		private final boolean hasConflict;
+
+		private Result( final Model model, final boolean hasConflict )
+		{
+			this.model = model;
+			this.hasConflict = hasConflict;
+		}
+	}
+}
@@ -0,0 +1,739 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.collection.RefList;
+import org.mastodon.graph.GraphIdBimap;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.ObjTags;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * Three-way merge of Mastodon models.
+ * <p>
+ * The two versions "ours" and "theirs" are compared against their common
+ * ancestor "base". Spots are identified by their persistent id (see
+ * {@link ModelIds}) or, if there is no spot with the same id, by their
+ * content (timepoint, position, covariance and label). Links are identified
+ * by the spots they connect and tags by their tag set name and label. Changes that were made on only one side
+ * are applied without further checks:
+ * <ul>
+ * <li>A spot that was removed on one side and left unchanged on the other
+ * side is removed.</li>
+ * <li>Spots and links that were added on either side are added. Identical
+ * spots added on both sides are only added once.</li>
+ * <li>Position, covariance, label and tags of a spot are taken from the side
+ * that changed them.</li>
+ * </ul>
+ * Contradicting changes are marked with the same conflict tag sets as used by
+ * {@link org.mastodon.mamut.tomancak.merging.MergeDatasets}, such that they
+ * can be detected with
+ * {@link org.mastodon.mamut.collaboration.utils.ConflictUtils}:
+ * <ul>
+ * <li>"Merge Conflict": spots that were changed differently on both sides,
+ * spots that were changed on one side and removed on the other side, new
+ * spots on both sides that overlap, new links to removed spots and spots
+ * with more than one parent or more than two children.</li>
+ * <li>"Merge Conflict (Labels)": spots that were relabeled differently on
+ * both sides.</li>
+ * <li>"Merge Conflict (Tags)": spots and links that were tagged differently
+ * on both sides.</li>
+ * </ul>
+ * In case of a conflict, the version of "ours" is kept.
+ * <p>
+ * {@link #mergeLean(Model, Model, Model)} doesn't add the conflict tag sets.
+ * The conflicts are returned as {@link MergeConflicts} instead, and can be
+ * turned into tag sets later, if they need to be shown to the user.
+ */
+public class ThreeWayMerge
+{
+
+	public static final String CONFLICT_TAG_SET = "Merge Conflict";
+
+	public static final String CONFLICT_TAG = "Conflict";
+
+	public static final String TAG_CONFLICT_TAG_SET = "Merge Conflict (Tags)";
+
+	public static final String TAG_CONFLICT_TAG = "Tag Conflict";
+
+	public static final String LABEL_CONFLICT_TAG_SET = "Merge Conflict (Labels)";
+
+	public static final String LABEL_CONFLICT_TAG = "Label Conflict";
+
+	static final int CONFLICT_COLOR = 0xffff0000;
+
+	static final int TAG_CONFLICT_COLOR = 0xffff8000;
+
+	static final int LABEL_CONFLICT_COLOR = 0xffff00ff;
+
+	private final FlatModel base;
+
+	private final FlatModel ours;
+
+	private final FlatModel theirs;
+
+	private final int[] oursToBase;
+
+	private final int[] theirsToBase;
+
+	private final int[] baseToOurs;
+
+	private final int[] baseToTheirs;
+
+	private final Model merged;
+
+	private final ModelIds ids;
+
+	private final ModelGraph graph;
+
+	private final RefList< Spot > spots;
+
+	private final RefList< Link > links;
+
+	private final RefIntMap< Link > linkIndex;
+
+	/** Maps spots of "ours" to the index of the merged spot, -1 if the spot was removed. */
+	private final int[] outOfOurs;
+
+	private final int[] outOfTheirs;
+
+	/** Index of the spot in "base" that a merged spot originates from, or -1. */
+	private final int[] spotOriginBase;
+
+	private final int[] spotOriginOurs;
+
+	private final int[] spotOriginTheirs;
+
+	private final int[] linkOriginBase;
+
+	private final int[] linkOriginOurs;
+
+	private final int[] linkOriginTheirs;
+
+	private final BitSet spotConflicts = new BitSet();
+
+	private final BitSet labelConflicts = new BitSet();
+
+	private final BitSet spotTagConflicts = new BitSet();
+
+	private final BitSet linkTagConflicts = new BitSet();
+
+	private final Spot spotRef;
+
+	private final Spot spotRef2;
+
+	private final Link linkRef;
+
+	private final double[] position = new double[ 3 ];
+
+	private final double[][] covariance = new double[ 3 ][ 3 ];
+
+	private ThreeWayMerge( final FlatModel base, final FlatModel ours, final FlatModel theirs, final String spaceUnits, final String timeUnits )
+	{
+		this.base = base;
+		this.ours = ours;
+		this.theirs = theirs;
+		this.oursToBase = matchToBase( base, ours );
+		this.theirsToBase = matchToBase( base, theirs );
+		this.baseToOurs = invert( oursToBase, base.spotCount );
+		this.baseToTheirs = invert( theirsToBase, base.spotCount );
+		this.merged = new Model( spaceUnits, timeUnits );
+		this.ids = ModelIds.of( merged );
+		this.graph = merged.getGraph();
+		final int maxSpots = base.spotCount + ours.spotCount + theirs.spotCount;
+		final int maxLinks = base.linkCount + ours.linkCount + theirs.linkCount;
+		this.spots = RefCollections.createRefList( graph.vertices(), ours.spotCount );
+		this.links = RefCollections.createRefList( graph.edges(), ours.linkCount );
+		this.linkIndex = RefCollections.createRefIntMap( graph.edges(), -1, ours.linkCount );
+		this.outOfOurs = filled( ours.spotCount, -1 );
+		this.outOfTheirs = filled( theirs.spotCount, -1 );
+		this.spotOriginBase = filled( maxSpots, -1 );
+		this.spotOriginOurs = filled( maxSpots, -1 );
+		this.spotOriginTheirs = filled( maxSpots, -1 );
+		this.linkOriginBase = filled( maxLinks, -1 );
+		this.linkOriginOurs = filled( maxLinks, -1 );
+		this.linkOriginTheirs = filled( maxLinks, -1 );
+		this.spotRef = graph.vertexRef();
+		this.spotRef2 = graph.vertexRef();
+		this.linkRef = graph.edgeRef();
+	}
+
+	/**
+	 * Merges the changes between {@code base} and {@code ours} with the
+	 * changes between {@code base} and {@code theirs}. The given models are
+	 * not modified.
+	 *
+	 * @return a new model that contains the merged graph and tags. Conflicts
+	 *         are marked with conflict tag sets, see {@link ThreeWayMerge}.
+	 */
+	public static Model merge( final Model base, final Model ours, final Model theirs )
+	{
+		final Result result = mergeLean( base, ours, theirs );
+		result.getConflicts().materialize( result.getModel() );
+		return result.getModel();
+	}
+
+	/**
+	 * Same as {@link #merge(Model, Model, Model)}, but the conflicts are not
+	 * marked with tag sets. They are returned as {@link MergeConflicts}
+	 * instead.
+	 */
+	public static Result mergeLean( final Model base, final Model ours, final Model theirs )
+	{
+		return mergeLean( FlatModel.of( base ), FlatModel.of( ours ), FlatModel.of( theirs ), ours.getSpaceUnits(), ours.getTimeUnits() );
+	}
+
+	static Result mergeLean( final FlatModel base, final FlatModel ours, final FlatModel theirs, final String spaceUnits, final String timeUnits )
+	{
+		return new ThreeWayMerge( base, ours, theirs, spaceUnits, timeUnits ).run();
+	}
+
+	/**
+	 * The merged model and its conflicts.
+	 */
+	public static class Result
+	{
+
+		private final Model model;
+
+		private final MergeConflicts conflicts;
+
+		private Result( final Model model, final MergeConflicts conflicts )
+		{
+			this.model = model;
+			this.conflicts = conflicts;
+		}
+
+		public Model getModel()
+		{
+			return model;
+		}
+
+		public MergeConflicts getConflicts()
+		{
+			return conflicts;
+		}
+	}
+
+	private Result run()
+	{
+		try
+		{
+			mergeBaseSpots();
+			addNewSpots();
+			markOverlappingNewSpots();
+			addLinks( ours, oursToBase, outOfOurs, theirs, baseToTheirs, true );
+			addLinks( theirs, theirsToBase, outOfTheirs, ours, baseToOurs, false );
+			markInvalidLineages();
+			assignIds();
+			mergeTags();
+			return new Result( merged, collectConflicts() );
+		}
+		finally
+		{
+			graph.releaseRef( spotRef );
+			graph.releaseRef( spotRef2 );
+			graph.releaseRef( linkRef );
+		}
+	}
+
+	/**
+	 * Returns for each spot of {@code side} the index of the corresponding
+	 * spot in {@code base}, or -1 if there is none. Spots are first paired by
+	 * their persistent id, the remaining spots are paired if their content is
+	 * identical. Each spot of {@code base} is assigned at most once.
+	 */
+	public static int[] matchToBase( final FlatModel base, final FlatModel side )
+	{
+		final boolean[] taken = new boolean[ base.spotCount ];
+		final int[] sideToBase = filled( side.spotCount, -1 );
+		final LongHashIndex idIndex = new LongHashIndex( base.spotId, i -> base.spotId[ i ] != ModelIds.NO_ID );
+		for ( int s = 0; s < side.spotCount; s++ )
+		{
+			if ( side.spotId[ s ] == ModelIds.NO_ID )
+				continue;
+			final int spot = s;
+			final int b = idIndex.find( side.spotId[ s ], i -> !taken[ i ] && base.timepoint[ i ] == side.timepoint[ spot ] );
+			if ( b >= 0 )
+			{
+				taken[ b ] = true;
+				sideToBase[ s ] = b;
+			}
+		}
+		final LongHashIndex contentIndex = new LongHashIndex( base.contentHash, i -> !taken[ i ] );
+		for ( int s = 0; s < side.spotCount; s++ )
+		{
+			if ( sideToBase[ s ] >= 0 )
+				continue;
+			final int spot = s;
+			final int b = contentIndex.find( side.contentHash[ s ], i -> !taken[ i ] && base.sameContent( i, side, spot ) );
+			if ( b >= 0 )
+			{
+				taken[ b ] = true;
+				sideToBase[ s ] = b;
+			}
+		}
+		return sideToBase;
+	}
+
+	private void mergeBaseSpots()
+	{
+		for ( int b = 0; b < base.spotCount; b++ )
+		{
+			final int o = baseToOurs[ b ];
+			final int t = baseToTheirs[ b ];
+			if ( o < 0 && t < 0 )
+				continue;
+			if ( o < 0 || t < 0 )
+			{
+				// removed on one side, keep it only if it was changed on the other side
+				final FlatModel side = o < 0 ? theirs : ours;
+				final int s = o < 0 ? t : o;
+				if ( base.sameContent( b, side, s ) )
+					continue;
+				final int out = addSpot( side, s, side.label[ s ] );
+				setSpotOrigin( out, b, o, t );
+				spotConflicts.set( out );
+				continue;
+			}
+			final boolean oursMoved = !base.sameGeometry( b, ours, o );
+			final boolean theirsMoved = !base.sameGeometry( b, theirs, t );
+			final boolean takeTheirs = theirsMoved && !oursMoved;
+			final String label = mergeValue( base.label[ b ], ours.label[ o ], theirs.label[ t ] );
+			final int out = addSpot( takeTheirs ? theirs : ours, takeTheirs ? t : o, label );
+			setSpotOrigin( out, b, o, t );
+			if ( oursMoved && theirsMoved && !ours.sameGeometry( o, theirs, t ) )
+				spotConflicts.set( out );
+			if ( isConflict( base.label[ b ], ours.label[ o ], theirs.label[ t ] ) )
+				labelConflicts.set( out );
+		}
+	}
+
+	private void addNewSpots()
+	{
+		for ( int o = 0; o < ours.spotCount; o++ )
+			if ( oursToBase[ o ] < 0 )
+				setSpotOrigin( addSpot( ours, o, ours.label[ o ] ), -1, o, -1 );
+		final LongHashIndex oursIdIndex = new LongHashIndex( ours.spotId, i -> oursToBase[ i ] < 0 && ours.spotId[ i ] != ModelIds.NO_ID );
+		final LongHashIndex oursContentIndex = new LongHashIndex( ours.contentHash, i -> oursToBase[ i ] < 0 );
+		final boolean[] paired = new boolean[ ours.spotCount ];
+		for ( int t = 0; t < theirs.spotCount; t++ )
+		{
+			if ( theirsToBase[ t ] >= 0 )
+				continue;
+			final int spot = t;
+			int o = theirs.spotId[ t ] == ModelIds.NO_ID ? -1
+					: oursIdIndex.find( theirs.spotId[ t ], i -> !paired[ i ] && ours.timepoint[ i ] == theirs.timepoint[ spot ] );
+			if ( o >= 0 && !ours.sameContent( o, theirs, t ) )
+				// the same spot was added on both sides, but differently
+				spotConflicts.set( outOfOurs[ o ] );
+			if ( o < 0 )
+				o = oursContentIndex.find( theirs.contentHash[ t ], i -> !paired[ i ] && ours.sameContent( i, theirs, spot ) );
+			if ( o >= 0 )
+			{
+				// the same spot was added on both sides
+				paired[ o ] = true;
+				setSpotOrigin( outOfOurs[ o ], -1, o, t );
+			}
+			else
+				setSpotOrigin( addSpot( theirs, t, theirs.label[ t ] ), -1, -1, t );
+		}
+	}
+
+	/**
+	 * Marks spots that were added on one side as conflicts, if they overlap
+	 * with a spot that was added on the other side in the same timepoint.
+	 */
+	private void markOverlappingNewSpots()
+	{
+		final int[] newOurs = IntStream.range( 0, ours.spotCount )
+				.filter( o -> oursToBase[ o ] < 0 && spotOriginTheirs[ outOfOurs[ o ] ] < 0 ).toArray();
+		final int[] newTheirs = IntStream.range( 0, theirs.spotCount )
+				.filter( t -> theirsToBase[ t ] < 0 && spotOriginOurs[ outOfTheirs[ t ] ] < 0 ).toArray();
+		final BitSet overlapsOurs = new BitSet();
+		final BitSet overlapsTheirs = new BitSet();
+		OverlapDetector.findOverlaps( ours, newOurs, theirs, newTheirs, overlapsOurs, overlapsTheirs );
+		overlapsOurs.stream().forEach( i -> spotConflicts.set( outOfOurs[ newOurs[ i ] ] ) );
+		overlapsTheirs.stream().forEach( i -> spotConflicts.set( outOfTheirs[ newTheirs[ i ] ] ) );
+	}
+
+	/**
+	 * Adds the links of one side to the merged graph. Links that also exist in
+	 * {@code base} are only added if the other side kept them.
+	 */
+	private void addLinks( final FlatModel side, final int[] sideToBase, final int[] outOfSide, final FlatModel other, final int[] baseToOther, final boolean isOurs )
+	{
+		for ( int l = 0; l < side.linkCount; l++ )
+		{
+			final int source = side.linkSource[ l ];
+			final int target = side.linkTarget[ l ];
+			final int baseSource = sideToBase[ source ];
+			final int baseTarget = sideToBase[ target ];
+			final int baseLink = baseSource < 0 || baseTarget < 0 ? -1 : base.findLink( baseSource, baseTarget );
+			int otherLink = -1;
+			if ( baseLink >= 0 )
+			{
+				final int otherSource = baseToOther[ baseSource ];
+				final int otherTarget = baseToOther[ baseTarget ];
+				otherLink = otherSource < 0 || otherTarget < 0 ? -1 : other.findLink( otherSource, otherTarget );
+				if ( otherLink < 0 )
+					continue; // removed on the other side
+			}
+			final int outSource = outOfSide[ source ];
+			final int outTarget = outOfSide[ target ];
+			if ( outSource < 0 || outTarget < 0 )
+			{
+				// a new link to a spot that was removed on the other side
+				if ( outSource >= 0 )
+					spotConflicts.set( outSource );
+				if ( outTarget >= 0 )
+					spotConflicts.set( outTarget );
+				continue;
+			}
+			final int out = getOrAddLink( outSource, outTarget );
+			linkOriginBase[ out ] = baseLink;
+			if ( isOurs )
+			{
+				linkOriginOurs[ out ] = l;
+				if ( otherLink >= 0 )
+					linkOriginTheirs[ out ] = otherLink;
+			}
+			else
+			{
+				linkOriginTheirs[ out ] = l;
+				if ( otherLink >= 0 )
+					linkOriginOurs[ out ] = otherLink;
+			}
+		}
+	}
+
+	private void markInvalidLineages()
+	{
+		for ( int i = 0; i < spots.size(); i++ )
+		{
+			final Spot spot = spots.get( i, spotRef );
+			if ( spot.incomingEdges().size() > 1 || spot.outgoingEdges().size() > 2 )
+				spotConflicts.set( i );
+		}
+	}
+
+	/**
+	 * Assigns the persistent ids to the merged spots and links. The id of
+	 * "ours" is preferred, if the objects have different ids.
+	 */
+	private void assignIds()
+	{
+		for ( int i = 0; i < spots.size(); i++ )
+		{
+			final long id = firstId( ours.spotId, spotOriginOurs[ i ], theirs.spotId, spotOriginTheirs[ i ], base.spotId, spotOriginBase[ i ] );
+			if ( id != ModelIds.NO_ID )
+				ids.setSpotId( spots.get( i, spotRef ), id );
+		}
+		for ( int i = 0; i < links.size(); i++ )
+		{
+			final long id = firstId( ours.linkId, linkOriginOurs[ i ], theirs.linkId, linkOriginTheirs[ i ], base.linkId, linkOriginBase[ i ] );
+			if ( id != ModelIds.NO_ID )
+				ids.setLinkId( links.get( i, linkRef ), id );
+		}
+	}
+
+	private static long firstId( final long[] ours, final int oursIndex, final long[] theirs, final int theirsIndex, final long[] base, final int baseIndex )
+	{
+		if ( oursIndex >= 0 && ours[ oursIndex ] != ModelIds.NO_ID )
+			return ours[ oursIndex ];
+		if ( theirsIndex >= 0 && theirs[ theirsIndex ] != ModelIds.NO_ID )
+			return theirs[ theirsIndex ];
+		return baseIndex >= 0 ? base[ baseIndex ] : ModelIds.NO_ID;
+	}
+
+	private void mergeTags()
+	{
+		final List< MergedTagSet > tagSets = mergeTagSetStructure();
+		for ( final MergedTagSet tagSet : tagSets )
+		{
+			tagSet.spotTags = mergeTagValues( tagSet, spots.size(), tagSet.base == null ? null : tagSet.base.spotTags,
+					tagSet.ours == null ? null : tagSet.ours.spotTags, tagSet.theirs == null ? null : tagSet.theirs.spotTags,
+					spotOriginBase, spotOriginOurs, spotOriginTheirs, spotTagConflicts );
+			tagSet.linkTags = mergeTagValues( tagSet, links.size(), tagSet.base == null ? null : tagSet.base.linkTags,
+					tagSet.ours == null ? null : tagSet.ours.linkTags, tagSet.theirs == null ? null : tagSet.theirs.linkTags,
+					linkOriginBase, linkOriginOurs, linkOriginTheirs, linkTagConflicts );
+		}
+		final TagSetStructure structure = new TagSetStructure();
+		for ( final MergedTagSet tagSet : tagSets )
+		{
+			final TagSetStructure.TagSet ts = structure.createTagSet( tagSet.name );
+			for ( final Map.Entry< String, Integer > tag : tagSet.tags.entrySet() )
+				ts.createTag( tag.getKey(), tag.getValue() );
+		}
+		merged.getTagSetModel().setTagSetStructure( structure );
+
+		// setTagSetStructure(...) copies the structure, use the tag sets of the model from here on
+		final List< TagSetStructure.TagSet > modelTagSets = merged.getTagSetModel().getTagSetStructure().getTagSets();
+		final ObjTags< Spot > vertexTags = merged.getTagSetModel().getVertexTags();
+		final ObjTags< Link > edgeTags = merged.getTagSetModel().getEdgeTags();
+		for ( int k = 0; k < tagSets.size(); k++ )
+		{
+			final TagSetStructure.TagSet ts = modelTagSets.get( k );
+			final Map< String, TagSetStructure.Tag > tagsByLabel = new HashMap<>();
+			for ( final TagSetStructure.Tag tag : ts.getTags() )
+				tagsByLabel.put( tag.label(), tag );
+			applyTags( vertexTags.tags( ts ), spots, spotRef, tagSets.get( k ).spotTags, tagsByLabel );
+			applyTags( edgeTags.tags( ts ), links, linkRef, tagSets.get( k ).linkTags, tagsByLabel );
+		}
+	}
+
+	/**
+	 * Merges the tag set structures. A tag set (or a tag) is kept if it exists
+	 * on either side, unless it existed in base and was removed on one side.
+	 * Tag sets and tags are ordered as in "ours" followed by the ones that
+	 * were only added in "theirs".
+	 */
+	private List< MergedTagSet > mergeTagSetStructure()
+	{
+		final List< MergedTagSet > result = new ArrayList<>();
+		for ( final String name : mergeNames( names( base.tagSets ), names( ours.tagSets ), names( theirs.tagSets ) ) )
+		{
+			final MergedTagSet tagSet = new MergedTagSet( name, base.getTagSet( name ), ours.getTagSet( name ), theirs.getTagSet( name ) );
+			for ( final String label : mergeNames( tagLabels( tagSet.base ), tagLabels( tagSet.ours ), tagLabels( tagSet.theirs ) ) )
+				tagSet.tags.put( label, mergeValue( tagColor( tagSet.base, label ), tagColor( tagSet.ours, label ), tagColor( tagSet.theirs, label ) ) );
+			result.add( tagSet );
+		}
+		return result;
+	}
+
+	private static Set< String > mergeNames( final List< String > base, final List< String > ours, final List< String > theirs )
+	{
+		final Set< String > result = new LinkedHashSet<>();
+		for ( final String name : ours )
+			if ( !base.contains( name ) || theirs.contains( name ) )
+				result.add( name );
+		for ( final String name : theirs )
+			if ( !base.contains( name ) )
+				result.add( name );
+		return result;
+	}
+
+	private static List< String > names( final List< FlatModel.FlatTagSet > tagSets )
+	{
+		final List< String > names = new ArrayList<>();
+		for ( final FlatModel.FlatTagSet tagSet : tagSets )
+			names.add( tagSet.name );
+		return names;
+	}
+
+	private static List< String > tagLabels( final FlatModel.FlatTagSet tagSet )
+	{
+		return tagSet == null ? new ArrayList<>() : Arrays.asList( tagSet.tagLabels );
+	}
+
+	private static Integer tagColor( final FlatModel.FlatTagSet tagSet, final String label )
+	{
+		if ( tagSet == null )
+			return null;
+		final int index = tagSet.indexOfTag( label );
+		return index < 0 ? null : tagSet.tagColors[ index ];
+	}
+
+	/**
+	 * Three-way merge of the tags of the merged spots (or links) for one tag set.
+	 * If an object does not exist on one side, the value of base is used for
+	 * that side.
+	 */
+	private static String[] mergeTagValues( final MergedTagSet tagSet, final int count,
+			final String[] base, final String[] ours, final String[] theirs,
+			final int[] originBase, final int[] originOurs, final int[] originTheirs,
+			final BitSet conflicts )
+	{
+		final String[] result = new String[ count ];
+		for ( int i = 0; i < count; i++ )
+		{
+			final String b = tagValue( base, originBase[ i ], null );
+			final String o = tagValue( ours, originOurs[ i ], b );
+			final String t = tagValue( theirs, originTheirs[ i ], b );
+			if ( isConflict( b, o, t ) )
+				conflicts.set( i );
+			final String value = mergeValue( b, o, t );
+			result[ i ] = tagSet.tags.containsKey( value ) ? value : null;
+		}
+		return result;
+	}
+
+	private static String tagValue( final String[] tags, final int origin, final String fallback )
+	{
+		if ( origin < 0 )
+			return fallback;
+		return tags == null ? null : tags[ origin ];
+	}
+
+	private static < O > void applyTags( final ObjTagMap< O, TagSetStructure.Tag > tagMap, final RefList< O > objects, final O ref,
+			final String[] values, final Map< String, TagSetStructure.Tag > tagsByLabel )
+	{
+		for ( int i = 0; i < values.length; i++ )
+			if ( values[ i ] != null )
+				tagMap.set( objects.get( i, ref ), tagsByLabel.get( values[ i ] ) );
+	}
+
+	/**
+	 * Converts the conflicts, that are stored by the index of the merged
+	 * spots and links, to {@link MergeConflicts}.
+	 */
+	private MergeConflicts collectConflicts()
+	{
+		final MergeConflicts conflicts = new MergeConflicts();
+		final GraphIdBimap< Spot, Link > idBimap = graph.getGraphIdBimap();
+		for ( int i = spotConflicts.nextSetBit( 0 ); i >= 0; i = spotConflicts.nextSetBit( i + 1 ) )
+			conflicts.addSpot( idBimap.getVertexId( spots.get( i, spotRef ) ) );
+		for ( int i = labelConflicts.nextSetBit( 0 ); i >= 0; i = labelConflicts.nextSetBit( i + 1 ) )
+			conflicts.addLabel( idBimap.getVertexId( spots.get( i, spotRef ) ) );
+		for ( int i = spotTagConflicts.nextSetBit( 0 ); i >= 0; i = spotTagConflicts.nextSetBit( i + 1 ) )
+			conflicts.addSpotTags( idBimap.getVertexId( spots.get( i, spotRef ) ) );
+		for ( int i = linkTagConflicts.nextSetBit( 0 ); i >= 0; i = linkTagConflicts.nextSetBit( i + 1 ) )
+			conflicts.addLinkTags( idBimap.getEdgeId( links.get( i, linkRef ) ) );
+		return conflicts;
+	}
+
+	private int addSpot( final FlatModel source, final int s, final String label )
+	{
+		System.arraycopy( source.position, 3 * s, position, 0, 3 );
+		for ( int r = 0; r < 3; r++ )
+			System.arraycopy( source.covariance, 9 * s + 3 * r, covariance[ r ], 0, 3 );
+		final Spot spot = graph.addVertex( spotRef ).init( source.timepoint[ s ], position, covariance );
+		if ( label != null )
+			spot.setLabel( label );
+		spots.add( spot );
+		return spots.size() - 1;
+	}
+
+	private void setSpotOrigin( final int out, final int b, final int o, final int t )
+	{
+		spotOriginBase[ out ] = b;
+		if ( o >= 0 )
+		{
+			spotOriginOurs[ out ] = o;
+			outOfOurs[ o ] = out;
+		}
+		if ( t >= 0 )
+		{
+			spotOriginTheirs[ out ] = t;
+			outOfTheirs[ t ] = out;
+		}
+	}
+
+	private int getOrAddLink( final int outSource, final int outTarget )
+	{
+		final Spot source = spots.get( outSource, spotRef );
+		final Spot target = spots.get( outTarget, spotRef2 );
+		final Link existing = graph.getEdge( source, target, linkRef );
+		if ( existing != null )
+			return linkIndex.get( existing );
+		final Link link = graph.addEdge( source, target, linkRef );
+		links.add( link );
+		linkIndex.put( link, links.size() - 1 );
+		return links.size() - 1;
+	}
+
+	/**
+	 * Returns the value of "ours", unless "ours" did not change the value,
+	 * then the value of "theirs" is returned.
+	 */
+	private static < T > T mergeValue( final T base, final T ours, final T theirs )
+	{
+		return Objects.equals( ours, base ) ? theirs : ours;
+	}
+
+	private static < T > boolean isConflict( final T base, final T ours, final T theirs )
+	{
+		return !Objects.equals( ours, base ) && !Objects.equals( theirs, base ) && !Objects.equals( ours, theirs );
+	}
+
+	/**
+	 * Returns the inverse of a partial mapping from {@code 0 .. map.length - 1}
+	 * to {@code 0 .. size - 1}. Unmapped indices are -1.
+	 */
+	public static int[] invert( final int[] map, final int size )
+	{
+		final int[] inverse = filled( size, -1 );
+		for ( int i = 0; i < map.length; i++ )
+			if ( map[ i ] >= 0 )
+				inverse[ map[ i ] ] = i;
+		return inverse;
+	}
+
+	private static int[] filled( final int size, final int value )
+	{
+		final int[] array = new int[ size ];
+		Arrays.fill( array, value );
+		return array;
+	}
+
+	private static class MergedTagSet
+	{
+		private final String name;
+
+		private final FlatModel.FlatTagSet base;
+
+		private final FlatModel.FlatTagSet ours;
+
+		private final FlatModel.FlatTagSet theirs;
+
+		/** Tag labels and colors of the merged tag set. */
+		private final Map< String, Integer > tags = new LinkedHashMap<>();
+
+		private String[] spotTags;
+
+		private String[] linkTags;
+
+		private MergedTagSet( final String name, final FlatModel.FlatTagSet base, final FlatModel.FlatTagSet ours, final FlatModel.FlatTagSet theirs )
+		{
+			this.name = name;
+			this.base = base;
+			this.ours = ours;
+			this.theirs = theirs;
+		}
+	}
+}
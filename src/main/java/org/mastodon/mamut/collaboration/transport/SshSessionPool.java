@@ -0,0 +1,294 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.FtpChannel;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.RemoteSession2;
+import org.eclipse.jgit.transport.SshSessionFactory;
+import org.eclipse.jgit.transport.SshTransport;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * An {@link SshSessionFactory} that keeps SSH sessions open after a JGit
+ * transport is closed, such that the next fetch, pull or push to the same
+ * server reuses the session instead of doing a new handshake and
+ * authentication.
+ * <p>
+ * JGit opens a new session for every transport and closes it by
+ * {@link SshSessionFactory#releaseSession(RemoteSession)}. This pool wraps
+ * the sessions of a delegate factory (usually JGit's Apache MINA based
+ * factory), and keeps released sessions per user, host and port. A session
+ * that is idle for longer than the idle timeout is disconnected.
+ * <p>
+ * The server may close an idle session earlier than the pool. If opening a
+ * channel on a reused session fails, the session is replaced by a new one
+ * and the command is executed again.
+ * <p>
+ * HTTP(S) transports need no pooling here: the JDK keeps HTTP connections
+ * alive across requests on its own.
+ */
+public class SshSessionPool extends SshSessionFactory
+{
+
+	private static final ScheduledThreadPoolExecutor evictionExecutor = initEvictionExecutor();
+
+	private final SshSessionFactory delegate;
+
+	private final long idleTimeoutMillis;
+
+	private final LongSupplier clock;
+
+	private final Map< String, PooledSession > idleSessions = new HashMap<>();
+
+	public SshSessionPool( final SshSessionFactory delegate, final long idleTimeoutMillis )
+	{
+		this( delegate, idleTimeoutMillis, System::currentTimeMillis );
+	}
+
+	SshSessionPool( final SshSessionFactory delegate, final long idleTimeoutMillis, final LongSupplier clock )
+	{
+		this.delegate = delegate;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.clock = clock;
+	}
+
+	private static ScheduledThreadPoolExecutor initEvictionExecutor()
+	{
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor( 1, runnable -> {
+			final Thread thread = new Thread( runnable, "Mastodon Git SSH session eviction" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		executor.setRemoveOnCancelPolicy( true );
+		return executor;
+	}
+
+	/**
+	 * Returns a callback for JGit transport commands, that lets SSH
+	 * transports use this pool.
+	 */
+	public TransportConfigCallback transportConfigCallback()
+	{
+		return this::configure;
+	}
+
+	private void configure( final Transport transport )
+	{
+		if ( transport instanceof SshTransport )
+			( ( SshTransport ) transport ).setSshSessionFactory( this );
+	}
+
+	@Override
+	public RemoteSession getSession( final URIish uri, final CredentialsProvider credentialsProvider, final FS fs, final int tms ) throws TransportException
+	{
+		final String key = keyOf( uri );
+		final PooledSession idle;
+		synchronized ( this )
+		{
+			evictExpired();
+			idle = idleSessions.remove( key );
+		}
+		if ( idle != null )
+			return idle;
+		return new PooledSession( key, uri, credentialsProvider, fs, tms, delegate.getSession( uri, credentialsProvider, fs, tms ) );
+	}
+
+	@Override
+	public void releaseSession( final RemoteSession session )
+	{
+		if ( !( session instanceof PooledSession ) )
+		{
+			delegate.releaseSession( session );
+			return;
+		}
+		final PooledSession pooled = ( PooledSession ) session;
+		final PooledSession replaced;
+		synchronized ( this )
+		{
+			pooled.releaseTime = clock.getAsLong();
+			pooled.reused = true;
+			replaced = idleSessions.put( pooled.key, pooled );
+		}
+		if ( replaced != null && replaced != pooled )
+			replaced.close();
+		evictionExecutor.schedule( this::evictExpired, idleTimeoutMillis + 100, TimeUnit.MILLISECONDS );
+	}
+
+	@Override
+	public String getType()
+	{
+		return delegate.getType();
+	}
+
+	/**
+	 * Returns the number of idle sessions that are kept open.
+	 */
+	public synchronized int getIdleSessionCount()
+	{
+		return idleSessions.size();
+	}
+
+	/**
+	 * Disconnects all idle sessions.
+	 */
+	public void evictAll()
+	{
+		final List< PooledSession > sessions;
+		synchronized ( this )
+		{
+			sessions = new ArrayList<>( idleSessions.values() );
+			idleSessions.clear();
+		}
+		sessions.forEach( PooledSession::close );
+	}
+
+	void evictExpired()
+	{
+		final List< PooledSession > expired = new ArrayList<>();
+		synchronized ( this )
+		{
+			final long now = clock.getAsLong();
+			idleSessions.values().removeIf( session -> {
+				final boolean isExpired = now - session.releaseTime >= idleTimeoutMillis;
+				if ( isExpired )
+					expired.add( session );
+				return isExpired;
+			} );
+		}
+		expired.forEach( PooledSession::close );
+	}
+
+	private static String keyOf( final URIish uri )
+	{
+		return uri.getUser() + "@" + uri.getHost() + ":" + uri.getPort();
+	}
+
+	/**
+	 * A session of the delegate factory, that is not disconnected when JGit
+	 * releases it.
+	 */
+	private class PooledSession implements RemoteSession2
+	{
+
+		private final String key;
+
+		private final URIish uri;
+
+		private final CredentialsProvider credentialsProvider;
+
+		private final FS fs;
+
+		private final int tms;
+
+		private RemoteSession session;
+
+		private long releaseTime;
+
+		/** True if the session was used by a previous transport. */
+		private boolean reused = false;
+
+		private PooledSession( final String key, final URIish uri, final CredentialsProvider credentialsProvider, final FS fs, final int tms, final RemoteSession session )
+		{
+			this.key = key;
+			this.uri = uri;
+			this.credentialsProvider = credentialsProvider;
+			this.fs = fs;
+			this.tms = tms;
+			this.session = session;
+		}
+
+		@Override
+		public Process exec( final String commandName, final int timeout ) throws IOException
+		{
+			return exec( commandName, null, timeout );
+		}
+
+		@Override
+		public Process exec( final String commandName, final Map< String, String > environment, final int timeout ) throws IOException
+		{
+			try
+			{
+				return execOnSession( commandName, environment, timeout );
+			}
+			catch ( final IOException e )
+			{
+				if ( !reused )
+					throw e;
+				// The server probably closed the idle session. Retry with a new one.
+				reused = false;
+				delegate.releaseSession( session );
+				session = delegate.getSession( uri, credentialsProvider, fs, tms );
+				return execOnSession( commandName, environment, timeout );
+			}
+		}
+
+		private Process execOnSession( final String commandName, final Map< String, String > environment, final int timeout ) throws IOException
+		{
+			if ( environment != null && session instanceof RemoteSession2 )
+				return ( ( RemoteSession2 ) session ).exec( commandName, environment, timeout );
+			return session.exec( commandName, timeout );
+		}
+
+		@Override
+		public FtpChannel getFtpChannel()
+		{
+			return session.getFtpChannel();
+		}
+
+		/**
+		 * Called by JGit, when the transport is closed. The session is kept
+		 * open, JGit releases it to the pool afterwards.
+		 */
+		@Override
+		public void disconnect()
+		{
+			// NB: JGit calls SshSessionFactory.releaseSession(), which returns the session to the pool.
+		}
+
+		private void close()
+		{
+			delegate.releaseSession( session );
+		}
+	}
+}
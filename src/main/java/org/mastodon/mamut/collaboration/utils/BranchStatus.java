@@ -0,0 +1,218 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.BranchTrackingStatus;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * The state of the current branch compared to its remote-tracking branch:
+ * the number of commits that are ahead and behind, and whether there are
+ * uncommitted changes.
+ * <p>
+ * The remote-tracking branch is only as recent as the last fetch, see
+ * {@link #getLastFetchMillis()}.
+ * <p>
+ * Instances are immutable.
+ */
+public class BranchStatus
+{
+
+	private final String branch;
+
+	private final String upstream;
+
+	private final int ahead;
+
+	private final int behind;
+
+	private final boolean dirty;
+
+	private final long lastFetchMillis;
+
+	private final String fetchError;
+
+	private final boolean conflictPredicted;
+
+	public BranchStatus( final String branch, final String upstream, final int ahead, final int behind, final boolean dirty, final long lastFetchMillis, final String fetchError, final boolean conflictPredicted )
+	{
+		this.branch = branch;
+		this.upstream = upstream;
+		this.ahead = ahead;
+		this.behind = behind;
+		this.dirty = dirty;
+		this.lastFetchMillis = lastFetchMillis;
+		this.fetchError = fetchError;
+		this.conflictPredicted = conflictPredicted;
+	}
+
+	/**
+	 * Compares the current branch of the given repository to its
+	 * remote-tracking branch. The commits are counted with a RevWalk.
+	 *
+	 * @param dirty true if there are uncommitted changes.
+	 */
+	public static BranchStatus of( final Repository repository, final boolean dirty ) throws IOException
+	{
+		final String branch = repository.getBranch();
+		final BranchTrackingStatus tracking = BranchTrackingStatus.of( repository, branch );
+		if ( tracking == null )
+			return new BranchStatus( branch, null, 0, 0, dirty, 0, null, false );
+		return new BranchStatus( branch, tracking.getRemoteTrackingBranch(), tracking.getAheadCount(), tracking.getBehindCount(), dirty, 0, null, false );
+	}
+
+	/**
+	 * Returns a copy of this status, with the given result of the last fetch.
+	 *
+	 * @param lastFetchMillis time of the last successful fetch, see {@link System#currentTimeMillis()}.
+	 * @param fetchError      error message of the last fetch, or null if it was successful.
+	 */
+	public BranchStatus withFetch( final long lastFetchMillis, final String fetchError )
+	{
+		return new BranchStatus( branch, upstream, ahead, behind, dirty, lastFetchMillis, fetchError, conflictPredicted );
+	}
+
+	/**
+	 * Returns a copy of this status, that tells whether merging the
+	 * remote-tracking branch will result in conflicts.
+	 */
+	public BranchStatus withConflictPredicted( final boolean conflictPredicted )
+	{
+		return new BranchStatus( branch, upstream, ahead, behind, dirty, lastFetchMillis, fetchError, conflictPredicted );
+	}
+
+	/**
+	 * Returns the short name of the current branch, for example "master".
+	 */
+	public String getBranch()
+	{
+		return branch;
+	}
+
+	/**
+	 * Returns the full name of the remote-tracking branch, for example
+	 * "refs/remotes/origin/master", or null if the branch has no upstream.
+	 */
+	public String getUpstream()
+	{
+		return upstream;
+	}
+
+	public boolean hasUpstream()
+	{
+		return upstream != null;
+	}
+
+	/**
+	 * Number of local commits, that are not in the remote-tracking branch.
+	 */
+	public int getAhead()
+	{
+		return ahead;
+	}
+
+	/**
+	 * Number of commits in the remote-tracking branch, that are not in the
+	 * current branch.
+	 */
+	public int getBehind()
+	{
+		return behind;
+	}
+
+	public boolean isDirty()
+	{
+		return dirty;
+	}
+
+	/**
+	 * True if both, the current branch and the remote-tracking branch, have
+	 * commits that the other one does not have. A pull needs to merge.
+	 */
+	public boolean isDiverged()
+	{
+		return ahead > 0 && behind > 0;
+	}
+
+	/**
+	 * Time of the last successful fetch, or 0 if there was none.
+	 */
+	public long getLastFetchMillis()
+	{
+		return lastFetchMillis;
+	}
+
+	/**
+	 * Error message of the last fetch, or null if it was successful.
+	 */
+	public String getFetchError()
+	{
+		return fetchError;
+	}
+
+	/**
+	 * True if the branches diverged, and merging them was tried in advance
+	 * and resulted in conflicts.
+	 */
+	public boolean isConflictPredicted()
+	{
+		return conflictPredicted;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder text = new StringBuilder( branch );
+		if ( !hasUpstream() )
+			text.append( ": not shared" );
+		else if ( isDiverged() )
+			text.append( ": " ).append( ahead ).append( " ahead, " ).append( behind ).append( " behind (diverged)" );
+		else if ( ahead > 0 )
+			text.append( ": " ).append( ahead ).append( " ahead" );
+		else if ( behind > 0 )
+			text.append( ": " ).append( behind ).append( " behind" );
+		else
+			text.append( ": up to date" );
+		if ( conflictPredicted )
+			text.append( ", merge conflicts expected" );
+		if ( dirty )
+			text.append( ", uncommitted changes" );
+		return text.toString();
+	}
+
+	/**
+	 * Listener for changes of the {@link BranchStatus}.
+	 */
+	public interface Listener
+	{
+		void statusChanged( BranchStatus status );
+	}
+}
@@ -0,0 +1,235 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.mastodon.mamut.collaboration.io.CommitStatsIndex;
+
+/**
+ * Lists the commits of all local and remote-tracking branches, newest first,
+ * one page at a time.
+ * <p>
+ * The commits are sorted by commit time only. Unlike a topological sort,
+ * this doesn't need to walk the whole history before returning the first
+ * commit. Reading a page therefore takes the same time, no matter how many
+ * commits the repository has. The {@link CommitStats} are taken from the
+ * {@link CommitStatsIndex}, the models of the commits are not loaded.
+ * <p>
+ * Commits that have no recorded statistics, for example commits that were
+ * pulled from a remote, are listed without statistics. They can be computed
+ * afterward, one entry at a time, with {@link #fillStats(Entry)}.
+ */
+public class CommitHistory implements AutoCloseable
+{
+
+	private final RevWalk walk;
+
+	private final CommitStatsIndex index;
+
+	private final StatsLoader statsLoader;
+
+	private boolean hasMore = true;
+
+	/**
+	 * @param statsLoader computes the statistics of commits that are missing
+	 *                    in the index.
+	 */
+	public CommitHistory( final Repository repository, final CommitStatsIndex index, final StatsLoader statsLoader ) throws IOException
+	{
+		this.index = index;
+		this.statsLoader = statsLoader;
+		walk = new RevWalk( repository );
+		walk.sort( RevSort.COMMIT_TIME_DESC );
+		final List< Ref > refs = new ArrayList<>();
+		final Ref head = repository.exactRef( Constants.HEAD );
+		if ( head != null )
+			refs.add( head );
+		refs.addAll( repository.getRefDatabase().getRefsByPrefix( Constants.R_HEADS ) );
+		refs.addAll( repository.getRefDatabase().getRefsByPrefix( Constants.R_REMOTES ) );
+		for ( final Ref ref : refs )
+		{
+			final ObjectId id = ref.getObjectId();
+			if ( id == null )
+				continue;
+			try
+			{
+				walk.markStart( walk.parseCommit( id ) );
+			}
+			catch ( final IncorrectObjectTypeException e )
+			{
+				// not a commit, for example a tag of a tree
+			}
+		}
+	}
+
+	/**
+	 * Returns the next commits, at most the given number.
+	 */
+	public synchronized List< Entry > nextPage( final int max ) throws IOException
+	{
+		final List< Entry > page = new ArrayList<>();
+		while ( hasMore && page.size() < max )
+		{
+			final RevCommit commit = walk.next();
+			if ( commit == null )
+			{
+				hasMore = false;
+				break;
+			}
+			page.add( new Entry( commit, index.get( commit ) ) );
+			commit.disposeBody();
+		}
+		return page;
+	}
+
+	/**
+	 * Returns the statistics of the given entry. If they were not recorded,
+	 * they are computed and appended to the {@link CommitStatsIndex}. This
+	 * reads the model of the commit, and is therefore much slower than
+	 * {@link #nextPage}.
+	 *
+	 * @return the statistics, or null if the commit has no Mastodon project.
+	 */
+	public CommitStats fillStats( final Entry entry ) throws IOException
+	{
+		if ( entry.stats == null )
+		{
+			final CommitStats stats = statsLoader.load( entry.id );
+			if ( stats != null )
+			{
+				index.put( entry.id, stats );
+				entry.stats = stats;
+			}
+		}
+		return entry.stats;
+	}
+
+	/**
+	 * Returns false if all commits were returned by {@link #nextPage}.
+	 */
+	public synchronized boolean hasMore()
+	{
+		return hasMore;
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		walk.close();
+	}
+
+	/**
+	 * Computes the {@link CommitStats} of a commit.
+	 */
+	public interface StatsLoader
+	{
+		/**
+		 * @return the statistics, or null if the commit has no Mastodon
+		 *         project.
+		 */
+		CommitStats load( ObjectId commit ) throws IOException;
+	}
+
+	/**
+	 * A commit in the {@link CommitHistory}.
+	 */
+	public static class Entry
+	{
+
+		private final ObjectId id;
+
+		private final String message;
+
+		private final String author;
+
+		private final long timeMillis;
+
+		private final int parentCount;
+
+		private volatile CommitStats stats;
+
+		private Entry( final RevCommit commit, final CommitStats stats )
+		{
+			this.id = commit.copy();
+			this.message = commit.getShortMessage();
+			this.author = commit.getAuthorIdent().getName();
+			this.timeMillis = commit.getCommitTime() * 1000L;
+			this.parentCount = commit.getParentCount();
+			this.stats = stats;
+		}
+
+		public ObjectId getId()
+		{
+			return id;
+		}
+
+		/**
+		 * Returns the first line of the commit message.
+		 */
+		public String getMessage()
+		{
+			return message;
+		}
+
+		public String getAuthor()
+		{
+			return author;
+		}
+
+		public long getTimeMillis()
+		{
+			return timeMillis;
+		}
+
+		public boolean isMerge()
+		{
+			return parentCount > 1;
+		}
+
+		/**
+		 * Returns the statistics of the commit, or null if they were
+		 * neither recorded nor computed by {@link CommitHistory#fillStats}.
+		 */
+		public CommitStats getStats()
+		{
+			return stats;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.util.Objects;
+
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTags;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * Statistics of the model of a commit: the number of spots, links and tags,
+ * and the number of timepoints changed compared to the parent commit.
+ * <p>
+ * The statistics are recorded when the commit is created, and shown in the
+ * history without loading the model of the commit.
+ */
+public class CommitStats
+{
+
+	/**
+	 * Value of {@link #getChangedTimepoints()} if the number is not known.
+	 */
+	public static final int UNKNOWN = -1;
+
+	private final int spots;
+
+	private final int links;
+
+	private final int tags;
+
+	private final int changedTimepoints;
+
+	public CommitStats( final int spots, final int links, final int tags, final int changedTimepoints )
+	{
+		this.spots = spots;
+		this.links = links;
+		this.tags = tags;
+		this.changedTimepoints = changedTimepoints;
+	}
+
+	/**
+	 * Counts the spots, links and tags of the given model. The caller needs
+	 * to hold the read lock of the model's graph.
+	 *
+	 * @param changedTimepoints the number of timepoints changed compared to
+	 *                          the parent commit, or {@link #UNKNOWN}.
+	 */
+	public static CommitStats of( final Model model, final int changedTimepoints )
+	{
+		final ObjTags< Spot > spotTags = model.getTagSetModel().getVertexTags();
+		final ObjTags< Link > linkTags = model.getTagSetModel().getEdgeTags();
+		int tags = 0;
+		for ( final TagSetStructure.TagSet tagSet : model.getTagSetModel().getTagSetStructure().getTagSets() )
+			for ( final TagSetStructure.Tag tag : tagSet.getTags() )
+				tags += spotTags.getTaggedWith( tag ).size() + linkTags.getTaggedWith( tag ).size();
+		return new CommitStats( model.getGraph().vertices().size(), model.getGraph().edges().size(), tags, changedTimepoints );
+	}
+
+	public int getSpots()
+	{
+		return spots;
+	}
+
+	public int getLinks()
+	{
+		return links;
+	}
+
+	/**
+	 * Returns the number of tags assigned to spots and links.
+	 */
+	public int getTags()
+	{
+		return tags;
+	}
+
+	/**
+	 * Returns the number of timepoints changed compared to the parent commit,
+	 * or {@link #UNKNOWN}.
+	 */
+	public int getChangedTimepoints()
+	{
+		return changedTimepoints;
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof CommitStats ) )
+			return false;
+		final CommitStats that = ( CommitStats ) o;
+		return spots == that.spots && links == that.links && tags == that.tags && changedTimepoints == that.changedTimepoints;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash( spots, links, tags, changedTimepoints );
+	}
+
+	@Override
+	public String toString()
+	{
+		final String changed = changedTimepoints == UNKNOWN ? "" : ", " + changedTimepoints + " timepoints changed";
+		return spots + " spots, " + links + " links, " + tags + " tags" + changed;
+	}
+}
@@ -51,10 +51,17 @@ public class ConflictUtils
 				!isTagSetEmpty( tagSetModel, "Merge Conflict (Labels)", "Label Conflict" );
 	}
 
+	/**
+	 * Removes the tag sets that are added by a merge to mark conflicts and the
+	 * origin of spots. The tag set structure is left untouched, if there are
+	 * no such tag sets.
+	 */
 	public static void removeMergeConflictTagSets( Model model )
 	{
 		TagSetModel< Spot, Link > tagSetModel = model.getTagSetModel();
 		TagSetStructure original = tagSetModel.getTagSetStructure();
+		if ( original.getTagSets().stream().noneMatch( tagSet -> isConflictTagSetName( tagSet.getName() ) ) )
+			return;
 		TagSetStructure replacement = new TagSetStructure();
 		replacement.set( original );
 		for ( TagSetStructure.TagSet tagSet : original.getTagSets() )
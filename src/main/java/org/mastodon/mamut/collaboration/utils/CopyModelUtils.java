@@ -41,6 +41,7 @@ import org.mastodon.mamut.model.Spot;
 import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetModel;
 import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.properties.ObjPropertyMap;
 
 /**
  * Utility method that allows to copy: a {@link Model}, a {@link ModelGraph} or a {@link TagSetModel}.
@@ -48,16 +49,66 @@ import org.mastodon.model.tag.TagSetStructure;
 public class CopyModelUtils
 {
 	public static void copyModelFromTo( Model source, Model target ) {
+		copyModelFromTo( source, target, source.getGraph().vertices() );
+	}
+
+	/**
+	 * Same as {@link #copyModelFromTo(Model, Model)}, but the spots are added
+	 * to the target in the given order. The links are added in the order of
+	 * their source spots.
+	 *
+	 * @param spotOrder all spots of the source model, in the order in which
+	 *                  their copies are added to the target.
+	 * @return maps from the spots and links of the source to their copies.
+	 */
+	public static Pair< RefRefMap< Spot, Spot >, RefRefMap< Link, Link > > copyModelFromTo( Model source, Model target, Iterable< Spot > spotOrder ) {
+		Pair< RefRefMap< Spot, Spot >, RefRefMap< Link, Link > > mapsAB;
 		try (Importer importer = new Importer( target ))
 		{
 			ModelGraph sourceGraph = source.getGraph();
 			ModelGraph targetGraph = target.getGraph();
-			Pair< RefRefMap< Spot, Spot >, RefRefMap< Link, Link > > mapsAB = copyGraphFromTo( sourceGraph, targetGraph );
+			mapsAB = copyGraphFromTo( sourceGraph, spotOrder, targetGraph );
 			copyTagSets( source, target, mapsAB );
 		}
+		// Finishing the import assigns new ids, copy them afterward.
+		ModelIds sourceIds = ModelIds.find( source );
+		if ( sourceIds != null )
+			copyIds( sourceIds, ModelIds.of( target ), mapsAB );
+		return mapsAB;
+	}
+
+	private static void copyIds( ModelIds sourceIds, ModelIds targetIds, Pair< RefRefMap< Spot, Spot >, RefRefMap< Link, Link > > mapsAB )
+	{
+		RefRefMap< Spot, Spot > spots = mapsAB.getLeft();
+		Spot ref = spots.createValueRef();
+		try
+		{
+			for ( Spot spotA : spots.keySet() )
+				targetIds.setSpotId( spots.get( spotA, ref ), sourceIds.getSpotId( spotA ) );
+		}
+		finally
+		{
+			spots.releaseValueRef( ref );
+		}
+		RefRefMap< Link, Link > links = mapsAB.getRight();
+		Link linkRef = links.createValueRef();
+		try
+		{
+			for ( Link linkA : links.keySet() )
+				targetIds.setLinkId( links.get( linkA, linkRef ), sourceIds.getLinkId( linkA ) );
+		}
+		finally
+		{
+			links.releaseValueRef( linkRef );
+		}
 	}
 
 	static Pair< RefRefMap< Spot, Spot >, RefRefMap< Link, Link > > copyGraphFromTo( ModelGraph graphA, ModelGraph graphB )
+	{
+		return copyGraphFromTo( graphA, graphA.vertices(), graphB );
+	}
+
+	private static Pair< RefRefMap< Spot, Spot >, RefRefMap< Link, Link > > copyGraphFromTo( ModelGraph graphA, Iterable< Spot > spotOrderA, ModelGraph graphB )
 	{
 		Spot refA = graphA.vertexRef();
 		Spot refB = graphB.vertexRef();
@@ -68,17 +119,21 @@ public class CopyModelUtils
 			RefRefMap< Link, Link > linksAtoB = new RefRefHashMap<>( graphA.edges().getRefPool(), graphB.edges().getRefPool() );
 			double[] position = new double[ 3 ];
 			double[][] cov = new double[ 3 ][ 3 ];
-			for ( Spot spotA : graphA.vertices() )
+			ObjPropertyMap< Spot, String > labelsA = graphA.getVertexPool().labelProperty();
+			for ( Spot spotA : spotOrderA )
 			{
 				int timepoint = spotA.getTimepoint();
 				spotA.localize( position );
 				spotA.getCovariance( cov );
 				Spot spotB = graphB.addVertex( refB );
 				spotB.init( timepoint, position, cov );
-				spotB.setLabel( spotA.getLabel() );
+				// A spot without label returns its pool index as label. Don't
+				// copy it, the pool index of the copy may be different.
+				if ( labelsA.isSet( spotA ) )
+					spotB.setLabel( labelsA.get( spotA ) );
 				map.put( spotA, spotB );
 			}
-			for ( Spot spotA : graphA.vertices() )
+			for ( Spot spotA : spotOrderA )
 			{
 				Spot spotB = map.get( spotA, refB );
 				for ( Link linkA : spotA.outgoingEdges() )
@@ -0,0 +1,209 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.mastodon.graph.GraphListener;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetModel;
+import org.mastodon.spatial.VertexPositionListener;
+
+/**
+ * Keeps the {@link ModelFingerprint} of a {@link Model} up to date, while the
+ * model is edited.
+ * <p>
+ * The tracker listens to the same events as {@link ModelChangeTracker}.
+ * Added, removed and moved spots, and added and removed links, mark only
+ * their timepoints (and the timepoints of the spots linking to them) as
+ * changed. {@link #getFingerprint()} then only hashes the spots of these
+ * timepoints again. Graph change notifications and tag changes don't tell
+ * which spots changed, they cause all timepoints to be hashed again. Label
+ * changes mark the timepoint of their spot.
+ * <p>
+ * The fingerprint doesn't cover feature values, see
+ * {@link ModelChangeTracker#hasUnsavedFeatureChanges()}. Like for
+ * {@link ModelChangeTracker}, changes to spot covariances are only detected
+ * through the graph change notification. Code that modifies the model
+ * without such a notification should call {@link #markAllDirty()}.
+ */
+public class FingerprintTracker
+{
+
+	private final Model model;
+
+	private final TreeMap< Integer, Long > hashes = new TreeMap<>();
+
+	private final Set< Integer > dirty = new HashSet<>();
+
+	private boolean allDirty = true;
+
+	private ModelFingerprint fingerprint = null;
+
+	public FingerprintTracker( final Model model )
+	{
+		this.model = model;
+		final ModelGraph graph = model.getGraph();
+		graph.addGraphListener( new GraphEventListener() );
+		graph.addGraphChangeListener( this::markAllDirty );
+		graph.addVertexPositionListener( new PositionChangeListener() );
+		graph.addVertexLabelListener( this::markSpotDirty );
+		final TagSetModel< Spot, Link > tagSetModel = model.getTagSetModel();
+		tagSetModel.listeners().add( this::markAllDirty );
+		tagSetModel.getVertexTags().listeners().add( this::markAllDirty );
+		tagSetModel.getEdgeTags().listeners().add( this::markAllDirty );
+	}
+
+	/**
+	 * Returns the fingerprint of the current state of the model. The caller
+	 * needs to hold the read lock of the model's graph.
+	 */
+	public synchronized ModelFingerprint getFingerprint()
+	{
+		if ( fingerprint != null )
+			return fingerprint;
+		if ( allDirty )
+		{
+			hashes.clear();
+			hashes.putAll( ModelFingerprint.hashTimepoints( model, t -> true ) );
+		}
+		else
+		{
+			final Map< Integer, Long > update = ModelFingerprint.hashTimepoints( model, dirty::contains );
+			hashes.keySet().removeAll( dirty );
+			hashes.putAll( update );
+		}
+		allDirty = false;
+		dirty.clear();
+		final long structureHash = ModelFingerprint.hashStructure( model.getTagSetModel().getTagSetStructure() );
+		fingerprint = new ModelFingerprint( structureHash, hashes );
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the number of timepoints that will be hashed again by the next
+	 * call to {@link #getFingerprint()}, or -1 if all timepoints will be hashed.
+	 */
+	public synchronized int getDirtyTimepointCount()
+	{
+		return allDirty ? -1 : dirty.size();
+	}
+
+	public synchronized void markAllDirty()
+	{
+		allDirty = true;
+		fingerprint = null;
+	}
+
+	private synchronized void markDirty( final int timepoint )
+	{
+		dirty.add( timepoint );
+		fingerprint = null;
+	}
+
+	/**
+	 * Marks the timepoint of the spot as changed, and the timepoints of the
+	 * spots that link to it, because their hashes cover the linked spots.
+	 */
+	private void markSpotDirty( final Spot spot )
+	{
+		markDirty( spot.getTimepoint() );
+		final Spot ref = model.getGraph().vertexRef();
+		try
+		{
+			for ( final Link link : spot.incomingEdges() )
+				markDirty( link.getSource( ref ).getTimepoint() );
+		}
+		finally
+		{
+			model.getGraph().releaseRef( ref );
+		}
+	}
+
+	private void markLinkDirty( final Link link )
+	{
+		final Spot ref = model.getGraph().vertexRef();
+		try
+		{
+			markDirty( link.getSource( ref ).getTimepoint() );
+		}
+		finally
+		{
+			model.getGraph().releaseRef( ref );
+		}
+	}
+
+	private class GraphEventListener implements GraphListener< Spot, Link >
+	{
+		@Override
+		public void graphRebuilt()
+		{
+			markAllDirty();
+		}
+
+		@Override
+		public void vertexAdded( final Spot vertex )
+		{
+			markSpotDirty( vertex );
+		}
+
+		@Override
+		public void vertexRemoved( final Spot vertex )
+		{
+			markSpotDirty( vertex );
+		}
+
+		@Override
+		public void edgeAdded( final Link edge )
+		{
+			markLinkDirty( edge );
+		}
+
+		@Override
+		public void edgeRemoved( final Link edge )
+		{
+			markLinkDirty( edge );
+		}
+	}
+
+	private class PositionChangeListener implements VertexPositionListener< Spot >
+	{
+		@Override
+		public void vertexPositionChanged( final Spot vertex )
+		{
+			markSpotDirty( vertex );
+		}
+	}
+}
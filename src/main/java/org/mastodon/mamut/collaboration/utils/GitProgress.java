@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.util.Locale;
+
+/**
+ * The progress of a git network operation, as reported by
+ * {@link GitProgressMonitor}. Immutable.
+ * <p>
+ * A git operation consists of several tasks, for example "Counting objects",
+ * "Compressing objects", "Receiving objects", "Resolving deltas" and
+ * "Checking out files". The progress describes the current task.
+ */
+public class GitProgress
+{
+
+	/**
+	 * Value of {@link #getTotal()}, {@link #getEtaMillis()} etc. if unknown.
+	 */
+	public static final long UNKNOWN = -1;
+
+	/**
+	 * Receives the progress of git operations. A headless caller can simply
+	 * log the progress: {@code progress -> System.out.println( progress )}.
+	 */
+	public interface Listener
+	{
+		void progress( GitProgress progress );
+	}
+
+	private final String task;
+
+	private final long completed;
+
+	private final long total;
+
+	private final long elapsedMillis;
+
+	private final long bytes;
+
+	private final boolean finished;
+
+	public GitProgress( final String task, final long completed, final long total, final long elapsedMillis, final long bytes, final boolean finished )
+	{
+		this.task = task;
+		this.completed = completed;
+		this.total = total;
+		this.elapsedMillis = elapsedMillis;
+		this.bytes = bytes;
+		this.finished = finished;
+	}
+
+	/**
+	 * Name of the current task, as given by JGit.
+	 */
+	public String getTask()
+	{
+		return task;
+	}
+
+	/**
+	 * Number of work units (usually objects or files) completed in the
+	 * current task.
+	 */
+	public long getCompleted()
+	{
+		return completed;
+	}
+
+	/**
+	 * Total number of work units of the current task, or {@link #UNKNOWN}.
+	 */
+	public long getTotal()
+	{
+		return total;
+	}
+
+	/**
+	 * Returns true if the current task is finished.
+	 */
+	public boolean isFinished()
+	{
+		return finished;
+	}
+
+	public long getElapsedMillis()
+	{
+		return elapsedMillis;
+	}
+
+	/**
+	 * Number of bytes received in the current task, or {@link #UNKNOWN} if not
+	 * measured. Bytes are only measured while JGit receives a pack.
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * Returns the percentage of the current task that is completed, or
+	 * {@link #UNKNOWN}.
+	 */
+	public int getPercent()
+	{
+		if ( total <= 0 )
+			return ( int ) UNKNOWN;
+		return ( int ) Math.min( 100, 100 * completed / total );
+	}
+
+	public double getUnitsPerSecond()
+	{
+		return elapsedMillis <= 0 ? 0 : 1000.0 * completed / elapsedMillis;
+	}
+
+	/**
+	 * Bytes per second received in the current task, or {@link #UNKNOWN}.
+	 */
+	public double getBytesPerSecond()
+	{
+		if ( bytes == UNKNOWN )
+			return UNKNOWN;
+		return elapsedMillis <= 0 ? 0 : 1000.0 * bytes / elapsedMillis;
+	}
+
+	/**
+	 * Estimated remaining time of the current task in milliseconds, assuming
+	 * that the rate stays the same. Returns {@link #UNKNOWN} if the total is
+	 * unknown or nothing was completed yet.
+	 */
+	public long getEtaMillis()
+	{
+		if ( finished )
+			return 0;
+		if ( total <= 0 || completed <= 0 || elapsedMillis <= 0 )
+			return UNKNOWN;
+		return Math.max( 0, ( total - completed ) * elapsedMillis / completed );
+	}
+
+	/**
+	 * For example: "Receiving objects: 45% (450/1000), 1.2 MB/s, ETA 0:35"
+	 */
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder( task ).append( ": " );
+		if ( total > 0 )
+			sb.append( getPercent() ).append( "% (" ).append( completed ).append( "/" ).append( total ).append( ")" );
+		else
+			sb.append( completed );
+		if ( bytes > 0 )
+			sb.append( ", " ).append( formatBytes( bytes ) )
+					.append( ", " ).append( formatBytes( ( long ) getBytesPerSecond() ) ).append( "/s" );
+		else if ( elapsedMillis > 0 && completed > 0 )
+			sb.append( String.format( Locale.ROOT, ", %.0f/s", getUnitsPerSecond() ) );
+		final long eta = getEtaMillis();
+		if ( finished )
+			sb.append( ", done" );
+		else if ( eta != UNKNOWN )
+			sb.append( ", ETA " ).append( formatDuration( eta ) );
+		return sb.toString();
+	}
+
+	static String formatBytes( final long bytes )
+	{
+		if ( bytes < 1000 )
+			return bytes + " B";
+		final String[] units = { "kB", "MB", "GB", "TB" };
+		double value = bytes;
+		int unit = -1;
+		while ( value >= 1000 && unit < units.length - 1 )
+		{
+			value /= 1000;
+			unit++;
+		}
+		return String.format( Locale.ROOT, "%.1f %s", value, units[ unit ] );
+	}
+
+	static String formatDuration( final long millis )
+	{
+		final long seconds = ( millis + 999 ) / 1000;
+		if ( seconds >= 3600 )
+			return String.format( Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60 );
+		return String.format( Locale.ROOT, "%d:%02d", seconds / 60, seconds % 60 );
+	}
+}
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+/**
+ * A JGit {@link ProgressMonitor}, that reports the progress of a clone,
+ * fetch, pull or push as {@link GitProgress} to a listener, including rate
+ * and estimated remaining time.
+ * <p>
+ * JGit does not report the number of bytes transferred. If the objects
+ * directory of the repository is given, the monitor measures the bytes
+ * received by looking at the size of the temporary pack file, that JGit
+ * writes while receiving objects ("incoming_*.pack").
+ * <p>
+ * The listener is called at most every 250 milliseconds, and at the begin
+ * and end of each task. The operation is cancelled by {@link #cancel()} or
+ * by cancelling the {@link OperationQueue} operation that runs it.
+ */
+public class GitProgressMonitor implements ProgressMonitor
+{
+
+	private static final long DEFAULT_INTERVAL_MILLIS = 250;
+
+	private static final String INCOMING_PACK_PREFIX = "incoming_";
+
+	private final GitProgress.Listener listener;
+
+	private final File objectsDirectory;
+
+	private final LongSupplier nanoClock;
+
+	private final long intervalNanos;
+
+	private volatile boolean cancelled = false;
+
+	private String task = "";
+
+	private long total = GitProgress.UNKNOWN;
+
+	private long completed = 0;
+
+	private long taskStart = 0;
+
+	private long lastReport = 0;
+
+	private long bytes = GitProgress.UNKNOWN;
+
+	/**
+	 * @param listener         receives the progress.
+	 * @param objectsDirectory the ".git/objects" directory of the repository
+	 *                         that receives objects, or null if the bytes
+	 *                         received should not be measured.
+	 */
+	public GitProgressMonitor( final GitProgress.Listener listener, final File objectsDirectory )
+	{
+		this( listener, objectsDirectory, System::nanoTime, DEFAULT_INTERVAL_MILLIS );
+	}
+
+	GitProgressMonitor( final GitProgress.Listener listener, final File objectsDirectory, final LongSupplier nanoClock, final long intervalMillis )
+	{
+		this.listener = listener;
+		this.objectsDirectory = objectsDirectory;
+		this.nanoClock = nanoClock;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos( intervalMillis );
+	}
+
+	/**
+	 * Requests JGit to stop the operation.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	@Override
+	public void start( final int totalTasks )
+	{
+		// ignore, JGit often doesn't know the number of tasks
+	}
+
+	@Override
+	public synchronized void beginTask( final String title, final int totalWork )
+	{
+		task = title;
+		total = totalWork == ProgressMonitor.UNKNOWN ? GitProgress.UNKNOWN : totalWork;
+		completed = 0;
+		bytes = GitProgress.UNKNOWN;
+		taskStart = nanoClock.getAsLong();
+		report( taskStart, false );
+	}
+
+	@Override
+	public synchronized void update( final int completed )
+	{
+		this.completed += completed;
+		final long now = nanoClock.getAsLong();
+		if ( now - lastReport >= intervalNanos )
+			report( now, false );
+	}
+
+	@Override
+	public synchronized void endTask()
+	{
+		report( nanoClock.getAsLong(), true );
+	}
+
+	@Override
+	public boolean isCancelled()
+	{
+		return cancelled || OperationQueue.isCancelled();
+	}
+
+	private void report( final long now, final boolean finished )
+	{
+		lastReport = now;
+		bytes = Math.max( bytes, incomingBytes() );
+		final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis( now - taskStart );
+		final long completed = finished && total > 0 ? Math.max( this.completed, total ) : this.completed;
+		listener.progress( new GitProgress( task, completed, total, elapsedMillis, bytes, finished ) );
+	}
+
+	/**
+	 * Returns the size of the pack files that JGit currently receives, or
+	 * {@link GitProgress#UNKNOWN}.
+	 */
+	private long incomingBytes()
+	{
+		if ( objectsDirectory == null )
+			return GitProgress.UNKNOWN;
+		final File[] files = objectsDirectory.listFiles( ( dir, name ) -> name.startsWith( INCOMING_PACK_PREFIX ) );
+		if ( files == null || files.length == 0 )
+			return GitProgress.UNKNOWN;
+		long sum = 0;
+		for ( final File file : files )
+			sum += file.length();
+		return sum;
+	}
+}
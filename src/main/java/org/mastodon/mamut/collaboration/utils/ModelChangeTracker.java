@@ -0,0 +1,186 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mastodon.feature.FeatureModel;
+import org.mastodon.graph.GraphChangeListener;
+import org.mastodon.graph.GraphListener;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetModel;
+import org.mastodon.spatial.VertexPositionListener;
+
+/**
+ * Keeps track of whether a {@link Model} was changed since it was last saved.
+ * <p>
+ * The tracker listens to the {@link ModelGraph} (vertices, edges, vertex
+ * positions, spot labels and {@link ModelGraph#notifyGraphChanged() graph
+ * change notifications}), to the {@link TagSetModel} and to the
+ * {@link FeatureModel}. Every event increments a revision counter. Saving the
+ * model records the revision that was saved. The model has unsaved changes if
+ * the current revision differs from the saved revision.
+ * <p>
+ * Changes to spot covariances are detected through the graph change
+ * notification that Mastodon's editing actions emit. Code that modifies the
+ * model programmatically without such a notification should call
+ * {@link #markChanged()}.
+ */
+public class ModelChangeTracker
+{
+
+	private static final long NEVER_SAVED = -1;
+
+	private final AtomicLong revision = new AtomicLong( 0 );
+
+	private volatile long savedRevision = NEVER_SAVED;
+
+	private volatile long featureRevision = 0;
+
+	public ModelChangeTracker( final Model model )
+	{
+		final ModelGraph graph = model.getGraph();
+		graph.addGraphListener( new GraphChangeCounter() );
+		graph.addGraphChangeListener( this::markChanged );
+		graph.addVertexPositionListener( new PositionChangeCounter() );
+		graph.addVertexLabelListener( spot -> markChanged() );
+		final TagSetModel< Spot, Link > tagSetModel = model.getTagSetModel();
+		tagSetModel.listeners().add( this::markChanged );
+		tagSetModel.getVertexTags().listeners().add( this::markChanged );
+		tagSetModel.getEdgeTags().listeners().add( this::markChanged );
+		model.getFeatureModel().listeners().add( this::markFeaturesChanged );
+	}
+
+	/**
+	 * Returns the current revision of the model. The revision is incremented
+	 * whenever the model changes.
+	 */
+	public long getRevision()
+	{
+		return revision.get();
+	}
+
+	/**
+	 * Marks the model as changed.
+	 */
+	public void markChanged()
+	{
+		revision.incrementAndGet();
+	}
+
+	private void markFeaturesChanged()
+	{
+		featureRevision = revision.incrementAndGet();
+	}
+
+	/**
+	 * Records that the given revision of the model has been written to disk.
+	 * <p>
+	 * Call {@link #getRevision()} before starting to save, and pass the result
+	 * to this method after saving is completed. Changes that happen while
+	 * saving are thereby not lost.
+	 */
+	public void markSaved( final long savedRevision )
+	{
+		this.savedRevision = savedRevision;
+	}
+
+	/**
+	 * Records that the current state of the model is identical to the state on
+	 * disk. This is the case for example after the model was reloaded from disk.
+	 */
+	public void markSaved()
+	{
+		markSaved( getRevision() );
+	}
+
+	/**
+	 * Returns true if the model was changed since it was last saved, or if it
+	 * was never saved.
+	 */
+	public boolean hasUnsavedChanges()
+	{
+		return savedRevision != revision.get();
+	}
+
+	/**
+	 * Returns true if the feature model changed since the model was last
+	 * saved, or if it was never saved. Unlike the graph and the tags, feature
+	 * values are not covered by the {@link ModelFingerprint}.
+	 */
+	public boolean hasUnsavedFeatureChanges()
+	{
+		return savedRevision == NEVER_SAVED || featureRevision > savedRevision;
+	}
+
+	private class GraphChangeCounter implements GraphListener< Spot, Link >
+	{
+		@Override
+		public void graphRebuilt()
+		{
+			markChanged();
+		}
+
+		@Override
+		public void vertexAdded( final Spot vertex )
+		{
+			markChanged();
+		}
+
+		@Override
+		public void vertexRemoved( final Spot vertex )
+		{
+			markChanged();
+		}
+
+		@Override
+		public void edgeAdded( final Link edge )
+		{
+			markChanged();
+		}
+
+		@Override
+		public void edgeRemoved( final Link edge )
+		{
+			markChanged();
+		}
+	}
+
+	private class PositionChangeCounter implements VertexPositionListener< Spot >
+	{
+		@Override
+		public void vertexPositionChanged( final Spot vertex )
+		{
+			markChanged();
+		}
+	}
+}
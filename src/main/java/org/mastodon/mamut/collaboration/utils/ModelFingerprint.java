@@ -0,0 +1,315 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTags;
+import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.properties.ObjPropertyMap;
+
+/**
+ * A Merkle-style fingerprint of the content of a {@link Model}: one 64-bit
+ * hash per timepoint, and a root hash over all timepoints.
+ * <p>
+ * The hash of a timepoint covers the spots of the timepoint (position,
+ * covariance, label and tags) and their outgoing links (the spots they point
+ * to and their tags). The hashes of the spots are summed up, so the hash
+ * doesn't depend on the order of the spots in the graph. Pool indices and
+ * {@link ModelIds} are not part of the fingerprint. Two models with the same
+ * content therefore have the same fingerprint, and two fingerprints tell
+ * which timepoints differ, without comparing the models.
+ * <p>
+ * The tag set structure (names, labels and colors of the tags) is hashed
+ * separately, and is part of the root hash only.
+ * <p>
+ * Use {@link FingerprintTracker} to keep the fingerprint of a model that is
+ * being edited up to date.
+ */
+public class ModelFingerprint
+{
+
+	private final long structureHash;
+
+	private final int[] timepoints;
+
+	private final long[] hashes;
+
+	private final long rootHash;
+
+	ModelFingerprint( final long structureHash, final SortedMap< Integer, Long > hashByTimepoint )
+	{
+		this.structureHash = structureHash;
+		timepoints = new int[ hashByTimepoint.size() ];
+		hashes = new long[ hashByTimepoint.size() ];
+		long root = mix( structureHash );
+		int i = 0;
+		for ( final Map.Entry< Integer, Long > entry : hashByTimepoint.entrySet() )
+		{
+			timepoints[ i ] = entry.getKey();
+			hashes[ i ] = entry.getValue();
+			root = mix( 31 * mix( 31 * root + timepoints[ i ] ) + hashes[ i ] );
+			i++;
+		}
+		rootHash = root;
+	}
+
+	/**
+	 * Creates a fingerprint from the given timepoints and hashes, for example
+	 * when reading a stored fingerprint.
+	 */
+	public static ModelFingerprint of( final long structureHash, final int[] timepoints, final long[] hashes )
+	{
+		final SortedMap< Integer, Long > map = new TreeMap<>();
+		for ( int i = 0; i < timepoints.length; i++ )
+			map.put( timepoints[ i ], hashes[ i ] );
+		return new ModelFingerprint( structureHash, map );
+	}
+
+	/**
+	 * Computes the fingerprint of the given model. The caller needs to hold
+	 * the read lock of the model's graph.
+	 */
+	public static ModelFingerprint of( final Model model )
+	{
+		final long structureHash = hashStructure( model.getTagSetModel().getTagSetStructure() );
+		return new ModelFingerprint( structureHash, new TreeMap<>( hashTimepoints( model, t -> true ) ) );
+	}
+
+	/**
+	 * Returns the hash of the tag set structure.
+	 */
+	public long getStructureHash()
+	{
+		return structureHash;
+	}
+
+	public long getRootHash()
+	{
+		return rootHash;
+	}
+
+	/**
+	 * Returns the timepoints that have spots, in ascending order.
+	 */
+	public int[] getTimepoints()
+	{
+		return timepoints.clone();
+	}
+
+	/**
+	 * Returns the hash of the given timepoint, or 0 if there are no spots in
+	 * the timepoint.
+	 */
+	public long getHash( final int timepoint )
+	{
+		final int i = Arrays.binarySearch( timepoints, timepoint );
+		return i < 0 ? 0 : hashes[ i ];
+	}
+
+	/**
+	 * Returns the timepoints, whose content differs between this and the
+	 * other fingerprint, in ascending order. Differences in the tag set
+	 * structure alone are not reported here, compare the
+	 * {@link #getStructureHash() structure hashes} for that.
+	 */
+	public int[] differingTimepoints( final ModelFingerprint other )
+	{
+		if ( rootHash == other.rootHash )
+			return new int[ 0 ];
+		final int[] result = new int[ timepoints.length + other.timepoints.length ];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while ( i < timepoints.length || j < other.timepoints.length )
+		{
+			final int a = i < timepoints.length ? timepoints[ i ] : Integer.MAX_VALUE;
+			final int b = j < other.timepoints.length ? other.timepoints[ j ] : Integer.MAX_VALUE;
+			if ( a == b && i < timepoints.length && j < other.timepoints.length )
+			{
+				if ( hashes[ i ] != other.hashes[ j ] )
+					result[ count++ ] = a;
+				i++;
+				j++;
+			}
+			else if ( a < b )
+			{
+				result[ count++ ] = a;
+				i++;
+			}
+			else
+			{
+				result[ count++ ] = b;
+				j++;
+			}
+		}
+		return Arrays.copyOf( result, count );
+	}
+
+	@Override
+	public boolean equals( final Object o )
+	{
+		if ( this == o )
+			return true;
+		if ( !( o instanceof ModelFingerprint ) )
+			return false;
+		final ModelFingerprint that = ( ModelFingerprint ) o;
+		return rootHash == that.rootHash && structureHash == that.structureHash && Arrays.equals( timepoints, that.timepoints ) && Arrays.equals( hashes, that.hashes );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Long.hashCode( rootHash );
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "%016x (%d timepoints)", rootHash, timepoints.length );
+	}
+
+	/**
+	 * Computes the hashes of the timepoints that match the given predicate.
+	 * The caller needs to hold the read lock of the model's graph.
+	 *
+	 * @return the hash by timepoint. Timepoints without spots are missing.
+	 */
+	static Map< Integer, Long > hashTimepoints( final Model model, final IntPredicate include )
+	{
+		final ModelGraph graph = model.getGraph();
+		final ObjTags< Spot > spotTags = model.getTagSetModel().getVertexTags();
+		final ObjTags< Link > linkTags = model.getTagSetModel().getEdgeTags();
+		final TagSetStructure.TagSet[] tagSets = model.getTagSetModel().getTagSetStructure().getTagSets().toArray( new TagSetStructure.TagSet[ 0 ] );
+		final long[] tagSetNameHashes = new long[ tagSets.length ];
+		for ( int k = 0; k < tagSets.length; k++ )
+			tagSetNameHashes[ k ] = hash( tagSets[ k ].getName() );
+		final Map< Integer, Long > result = new HashMap<>();
+		final double[] position = new double[ 3 ];
+		final double[][] covariance = new double[ 3 ][ 3 ];
+		final ObjPropertyMap< Spot, String > labels = graph.getVertexPool().labelProperty();
+		final Spot ref = graph.vertexRef();
+		try
+		{
+			for ( final Spot spot : graph.vertices() )
+			{
+				final int timepoint = spot.getTimepoint();
+				if ( !include.test( timepoint ) )
+					continue;
+				long hash = spotKey( spot, labels, position, covariance );
+				for ( int k = 0; k < tagSets.length; k++ )
+				{
+					final TagSetStructure.Tag tag = spotTags.tags( tagSets[ k ] ).get( spot );
+					if ( tag != null )
+						hash += mix( tagSetNameHashes[ k ] * 31 + hash( tag.label() ) );
+				}
+				for ( final Link link : spot.outgoingEdges() )
+				{
+					long linkHash = spotKey( link.getTarget( ref ), labels, position, covariance );
+					for ( int k = 0; k < tagSets.length; k++ )
+					{
+						final TagSetStructure.Tag tag = linkTags.tags( tagSets[ k ] ).get( link );
+						if ( tag != null )
+							linkHash += mix( tagSetNameHashes[ k ] * 31 + hash( tag.label() ) );
+					}
+					hash += mix( linkHash * 31 + 1 );
+				}
+				result.merge( timepoint, mix( hash ), Long::sum );
+			}
+		}
+		finally
+		{
+			graph.releaseRef( ref );
+		}
+		return result;
+	}
+
+	/**
+	 * Hash of the names, labels and colors of the tag sets and tags.
+	 */
+	static long hashStructure( final TagSetStructure structure )
+	{
+		long hash = 1;
+		for ( final TagSetStructure.TagSet tagSet : structure.getTagSets() )
+		{
+			hash = mix( 31 * hash + hash( tagSet.getName() ) );
+			for ( final TagSetStructure.Tag tag : tagSet.getTags() )
+				hash = mix( 31 * mix( 31 * hash + hash( tag.label() ) ) + tag.color() );
+		}
+		return hash;
+	}
+
+	/**
+	 * Hash of timepoint, position, covariance and label of a spot.
+	 */
+	private static long spotKey( final Spot spot, final ObjPropertyMap< Spot, String > labels, final double[] position, final double[][] covariance )
+	{
+		spot.localize( position );
+		spot.getCovariance( covariance );
+		long hash = spot.getTimepoint();
+		for ( int d = 0; d < 3; d++ )
+			hash = 31 * hash + Double.doubleToLongBits( position[ d ] );
+		for ( int r = 0; r < 3; r++ )
+			for ( int c = r; c < 3; c++ )
+				hash = 31 * hash + Double.doubleToLongBits( covariance[ r ][ c ] );
+		// A spot without label returns its pool index as label, only set labels count.
+		hash = 31 * hash + ( labels.isSet( spot ) ? hash( labels.get( spot ) ) : 0 );
+		return mix( hash );
+	}
+
+	private static long hash( final String text )
+	{
+		long hash = 1;
+		for ( int i = 0; i < text.length(); i++ )
+			hash = 31 * hash + text.charAt( i );
+		return mix( hash );
+	}
+
+	/**
+	 * Finalization step of the MurmurHash3 64-bit hash function.
+	 */
+	private static long mix( long h )
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
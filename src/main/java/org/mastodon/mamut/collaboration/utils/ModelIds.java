@@ -0,0 +1,371 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.mastodon.graph.GraphListener;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+
+/**
+ * Persistent, globally unique 64-bit ids for the spots and links of a
+ * {@link Model}.
+ * <p>
+ * Mastodon itself only knows the internal pool index of a spot, which changes
+ * whenever a project is saved and loaded. The ids managed by this class stay
+ * the same, as long as they are saved and loaded with
+ * {@link org.mastodon.mamut.collaboration.io.ModelIdsIO}. This allows to
+ * identify the same spot in different versions of a model.
+ * <p>
+ * A random id is assigned to every spot and link when it is added to the
+ * graph. When the graph is rebuilt, for example by
+ * {@link Model#loadRaw}, all objects get new random ids. Code that restores
+ * ids therefore needs to do so after the graph was rebuilt.
+ * <p>
+ * Undoing the removal of a spot or link, or redoing its addition, adds it to
+ * the graph again. Mastodon's undo history only restores the properties of
+ * the model itself, therefore this class remembers the ids of removed spots
+ * and links, by their geometry and by the ids of their source and target.
+ * An object that is added with the same geometry or between the same spots
+ * again, gets its old id back. The ids of at most {@link #MAX_REMOVED_IDS}
+ * removed spots and links are remembered. Undoing more removals than that
+ * assigns new ids to the oldest removed objects.
+ */
+public class ModelIds
+{
+
+	/**
+	 * Id value that is never assigned to a spot or link.
+	 */
+	public static final long NO_ID = 0;
+
+	/**
+	 * Maximum number of remembered ids of removed spots, and of removed
+	 * links.
+	 */
+	public static final int MAX_REMOVED_IDS = 1 << 18;
+
+	private static final Map< Model, ModelIds > registry = new WeakHashMap<>();
+
+	private final ModelGraph graph;
+
+	/** Ids indexed by the internal pool index of the spots. */
+	private long[] spotIds = new long[ 0 ];
+
+	private long[] linkIds = new long[ 0 ];
+
+	/** Ids of removed spots by {@link #spotKey(Spot)}. */
+	private final RemovedIds removedSpotIds = new RemovedIds( MAX_REMOVED_IDS );
+
+	/** Ids of removed links by {@link #linkKey(Link)}. */
+	private final RemovedIds removedLinkIds = new RemovedIds( MAX_REMOVED_IDS );
+
+	private final double[] position = new double[ 3 ];
+
+	private final double[][] covariance = new double[ 3 ][ 3 ];
+
+	private ModelIds( final ModelGraph graph )
+	{
+		this.graph = graph;
+		assignNewIds();
+		graph.addGraphListener( new IdAssigner() );
+	}
+
+	/**
+	 * Returns the ids of the given model. When called for the first time for a
+	 * model, new random ids are assigned to all spots and links.
+	 */
+	public static ModelIds of( final Model model )
+	{
+		synchronized ( registry )
+		{
+			return registry.computeIfAbsent( model, m -> new ModelIds( m.getGraph() ) );
+		}
+	}
+
+	/**
+	 * Returns the ids of the given model, or null if {@link #of(Model)} was
+	 * never called for the model.
+	 */
+	public static ModelIds find( final Model model )
+	{
+		synchronized ( registry )
+		{
+			return registry.get( model );
+		}
+	}
+
+	/**
+	 * Returns a new random id.
+	 */
+	public static long newId()
+	{
+		long id;
+		do
+			id = ThreadLocalRandom.current().nextLong();
+		while ( id == NO_ID );
+		return id;
+	}
+
+	public synchronized long getSpotId( final Spot spot )
+	{
+		final int index = spot.getInternalPoolIndex();
+		return index < spotIds.length ? spotIds[ index ] : NO_ID;
+	}
+
+	public synchronized void setSpotId( final Spot spot, final long id )
+	{
+		final int index = spot.getInternalPoolIndex();
+		spotIds = ensureCapacity( spotIds, index );
+		spotIds[ index ] = id;
+	}
+
+	public synchronized long getLinkId( final Link link )
+	{
+		final int index = link.getInternalPoolIndex();
+		return index < linkIds.length ? linkIds[ index ] : NO_ID;
+	}
+
+	public synchronized void setLinkId( final Link link, final long id )
+	{
+		final int index = link.getInternalPoolIndex();
+		linkIds = ensureCapacity( linkIds, index );
+		linkIds[ index ] = id;
+	}
+
+	private synchronized void assignNewIds()
+	{
+		spotIds = new long[ 0 ];
+		linkIds = new long[ 0 ];
+		removedSpotIds.clear();
+		removedLinkIds.clear();
+		for ( final Spot spot : graph.vertices() )
+			setSpotId( spot, newId() );
+		for ( final Link link : graph.edges() )
+			setLinkId( link, newId() );
+	}
+
+	private synchronized void spotAdded( final Spot spot )
+	{
+		setSpotId( spot, removedSpotIds.reuseOrNewId( spotKey( spot ) ) );
+	}
+
+	private synchronized void spotRemoved( final Spot spot )
+	{
+		removedSpotIds.remember( spotKey( spot ), getSpotId( spot ) );
+		setSpotId( spot, NO_ID );
+	}
+
+	private synchronized void linkAdded( final Link link )
+	{
+		setLinkId( link, removedLinkIds.reuseOrNewId( linkKey( link ) ) );
+	}
+
+	private synchronized void linkRemoved( final Link link )
+	{
+		removedLinkIds.remember( linkKey( link ), getLinkId( link ) );
+		setLinkId( link, NO_ID );
+	}
+
+	/**
+	 * Returns a hash of the timepoint, position and covariance of the spot.
+	 */
+	private long spotKey( final Spot spot )
+	{
+		spot.localize( position );
+		spot.getCovariance( covariance );
+		long hash = spot.getTimepoint();
+		for ( final double value : position )
+			hash = 31 * hash + Double.doubleToLongBits( value );
+		for ( final double[] row : covariance )
+			for ( final double value : row )
+				hash = 31 * hash + Double.doubleToLongBits( value );
+		return hash;
+	}
+
+	/**
+	 * Returns a hash of the ids of the source and target of the link.
+	 */
+	private long linkKey( final Link link )
+	{
+		final Spot ref = graph.vertexRef();
+		try
+		{
+			final long source = getSpotId( link.getSource( ref ) );
+			final long target = getSpotId( link.getTarget( ref ) );
+			return 31 * source + target;
+		}
+		finally
+		{
+			graph.releaseRef( ref );
+		}
+	}
+
+	private static long[] ensureCapacity( final long[] ids, final int index )
+	{
+		if ( index < ids.length )
+			return ids;
+		return Arrays.copyOf( ids, Math.max( index + 1, 2 * ids.length ) );
+	}
+
+	/**
+	 * Ids of removed objects by key. If several ids are remembered for the
+	 * same key, the id that was removed last is reused first.
+	 * <p>
+	 * The ids are kept in two generations of primitive maps. New ids go into
+	 * the current generation. When it is full, the older generation is
+	 * dropped and the current generation becomes the older one. The ids that
+	 * were removed longest ago are therefore forgotten first, and at most
+	 * the given number of ids is kept.
+	 */
+	static class RemovedIds
+	{
+
+		private final int generationSize;
+
+		private Generation current = new Generation();
+
+		private Generation older = new Generation();
+
+		RemovedIds( final int capacity )
+		{
+			this.generationSize = Math.max( 1, capacity / 2 );
+		}
+
+		void remember( final long key, final long id )
+		{
+			if ( id == NO_ID )
+				return;
+			if ( current.size() >= generationSize )
+			{
+				older = current;
+				current = new Generation();
+			}
+			current.push( key, id );
+		}
+
+		long reuseOrNewId( final long key )
+		{
+			long id = current.pop( key );
+			if ( id == NO_ID )
+				id = older.pop( key );
+			return id == NO_ID ? newId() : id;
+		}
+
+		void clear()
+		{
+			current = new Generation();
+			older = new Generation();
+		}
+
+		int size()
+		{
+			return current.size() + older.size();
+		}
+	}
+
+	/**
+	 * A multimap from keys to ids, that returns the ids of a key in reverse
+	 * order of insertion. The last id of each key is stored by key, the
+	 * other ids are linked from the id that was added after them.
+	 */
+	private static class Generation
+	{
+
+		private final TLongLongHashMap lastIdByKey = new TLongLongHashMap( 16, 0.5f, 0, NO_ID );
+
+		private final TLongLongHashMap previousIdById = new TLongLongHashMap( 16, 0.5f, NO_ID, NO_ID );
+
+		void push( final long key, final long id )
+		{
+			final long previous = lastIdByKey.put( key, id );
+			if ( previous != NO_ID )
+				previousIdById.put( id, previous );
+		}
+
+		long pop( final long key )
+		{
+			final long id = lastIdByKey.get( key );
+			if ( id == NO_ID )
+				return NO_ID;
+			final long previous = previousIdById.remove( id );
+			if ( previous != NO_ID )
+				lastIdByKey.put( key, previous );
+			else
+				lastIdByKey.remove( key );
+			return id;
+		}
+
+		int size()
+		{
+			return lastIdByKey.size() + previousIdById.size();
+		}
+	}
+
+	private class IdAssigner implements GraphListener< Spot, Link >
+	{
+		@Override
+		public void graphRebuilt()
+		{
+			assignNewIds();
+		}
+
+		@Override
+		public void vertexAdded( final Spot spot )
+		{
+			spotAdded( spot );
+		}
+
+		@Override
+		public void vertexRemoved( final Spot spot )
+		{
+			spotRemoved( spot );
+		}
+
+		@Override
+		public void edgeAdded( final Link link )
+		{
+			linkAdded( link );
+		}
+
+		@Override
+		public void edgeRemoved( final Link link )
+		{
+			linkRemoved( link );
+		}
+	}
+}
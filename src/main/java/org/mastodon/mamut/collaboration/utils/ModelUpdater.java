@@ -0,0 +1,371 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefList;
+import org.mastodon.mamut.collaboration.merge.FlatModel;
+import org.mastodon.mamut.collaboration.merge.ThreeWayMerge;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetModel;
+import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.properties.ObjPropertyMap;
+
+/**
+ * Updates a {@link Model} in place, such that it becomes equal to another
+ * model, by applying only the differences between the two models.
+ * <p>
+ * Spots are paired by their persistent ids, or by their content if they
+ * have no ids (see {@link ThreeWayMerge#matchToBase}). Paired spots that are
+ * unchanged are not touched, and keep their feature values. Spots that
+ * only exist in the target are removed, spots that only exist in the source
+ * are added, and the position, covariance and label of changed spots are
+ * updated. Links and tags are updated in the same way.
+ * <p>
+ * All changes are done while holding the write lock of the target graph and
+ * are followed by a single {@link Model#setUndoPoint()}, such that the
+ * update can be undone in one step. All comparisons are done before the
+ * target is modified. If the update nevertheless fails while modifying the
+ * target, no undo point is set, and the target must be replaced completely,
+ * for example by {@link ReloadFromDiskUtils#reloadFromDisk}, which also
+ * discards the undo history.
+ */
+public class ModelUpdater
+{
+
+	private final FlatModel source;
+
+	private final FlatModel target;
+
+	private final int[] sourceToTarget;
+
+	private final int[] targetToSource;
+
+	private final Model targetModel;
+
+	private final ModelGraph graph;
+
+	private final Spot ref1;
+
+	private final Spot ref2;
+
+	private final Spot ref3;
+
+	private final Link linkRef1;
+
+	private final Link linkRef2;
+
+	private ModelUpdater( final Model targetModel, final FlatModel target, final FlatModel source )
+	{
+		this.source = source;
+		this.target = target;
+		this.sourceToTarget = ThreeWayMerge.matchToBase( target, source );
+		this.targetToSource = ThreeWayMerge.invert( sourceToTarget, target.spotCount );
+		this.targetModel = targetModel;
+		this.graph = targetModel.getGraph();
+		this.ref1 = graph.vertexRef();
+		this.ref2 = graph.vertexRef();
+		this.ref3 = graph.vertexRef();
+		this.linkRef1 = graph.edgeRef();
+		this.linkRef2 = graph.edgeRef();
+	}
+
+	/**
+	 * Changes the {@code target} model such that it equals the {@code source}
+	 * model. The source model is not modified.
+	 */
+	public static void update( final Model target, final Model source )
+	{
+		final Lock lock = target.getGraph().getLock().writeLock();
+		lock.lock();
+		try
+		{
+			new ModelUpdater( target, FlatModel.of( target ), FlatModel.of( source ) ).run();
+			target.setUndoPoint();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		target.getGraph().notifyGraphChanged();
+	}
+
+	private void run()
+	{
+		try
+		{
+			final RefList< Spot > targetSpots = listSpots();
+			final RefList< Link > targetLinks = listLinks( targetSpots );
+			removeLinks( targetLinks );
+			removeSpots( targetSpots );
+			updateSpots( targetSpots );
+			final RefList< Spot > spots = addSpots( targetSpots );
+			final RefList< Link > links = updateLinks( spots );
+			updateTags( spots, links );
+			updateIds( spots, links );
+		}
+		finally
+		{
+			graph.releaseRef( ref1 );
+			graph.releaseRef( ref2 );
+			graph.releaseRef( ref3 );
+			graph.releaseRef( linkRef1 );
+			graph.releaseRef( linkRef2 );
+		}
+	}
+
+	/**
+	 * Returns the spots of the target in the order used by {@link FlatModel}.
+	 */
+	private RefList< Spot > listSpots()
+	{
+		final RefList< Spot > spots = RefCollections.createRefList( graph.vertices(), target.spotCount );
+		for ( final Spot spot : graph.vertices() )
+			spots.add( spot );
+		return spots;
+	}
+
+	/**
+	 * Returns the links of the target in the order used by {@link FlatModel}.
+	 */
+	private RefList< Link > listLinks( final RefList< Spot > spots )
+	{
+		final RefList< Link > links = RefCollections.createRefList( graph.edges(), target.linkCount );
+		for ( final Spot spot : spots )
+			for ( final Link link : spot.outgoingEdges() )
+				links.add( link );
+		return links;
+	}
+
+	/**
+	 * Removes the links between remaining spots, that don't exist in the
+	 * source. Links of removed spots are removed together with the spots.
+	 */
+	private void removeLinks( final RefList< Link > targetLinks )
+	{
+		final RefList< Link > toBeRemoved = RefCollections.createRefList( graph.edges() );
+		for ( int l = 0; l < target.linkCount; l++ )
+		{
+			final int s = targetToSource[ target.linkSource[ l ] ];
+			final int t = targetToSource[ target.linkTarget[ l ] ];
+			if ( s >= 0 && t >= 0 && source.findLink( s, t ) < 0 )
+				toBeRemoved.add( targetLinks.get( l, linkRef1 ) );
+		}
+		for ( final Link link : toBeRemoved )
+			graph.remove( link );
+	}
+
+	private void removeSpots( final RefList< Spot > targetSpots )
+	{
+		for ( int t = 0; t < target.spotCount; t++ )
+			if ( targetToSource[ t ] < 0 )
+				graph.remove( targetSpots.get( t, ref1 ) );
+	}
+
+	private void updateSpots( final RefList< Spot > targetSpots )
+	{
+		final double[] position = new double[ 3 ];
+		final double[][] covariance = new double[ 3 ][ 3 ];
+		final ObjPropertyMap< Spot, String > labels = graph.getVertexPool().labelProperty();
+		for ( int t = 0; t < target.spotCount; t++ )
+		{
+			final int s = targetToSource[ t ];
+			if ( s < 0 )
+				continue;
+			final Spot spot = targetSpots.get( t, ref1 );
+			if ( !target.sameGeometry( t, source, s ) )
+			{
+				System.arraycopy( source.position, 3 * s, position, 0, 3 );
+				for ( int r = 0; r < 3; r++ )
+					System.arraycopy( source.covariance, 9 * s + 3 * r, covariance[ r ], 0, 3 );
+				spot.setPosition( position );
+				spot.setCovariance( covariance );
+			}
+			if ( !Objects.equals( target.label[ t ], source.label[ s ] ) )
+			{
+				if ( source.label[ s ] != null )
+					spot.setLabel( source.label[ s ] );
+				else
+					labels.remove( spot );
+			}
+		}
+	}
+
+	/**
+	 * Adds the spots that only exist in the source, and returns a list with
+	 * the target spot for every spot of the source.
+	 */
+	private RefList< Spot > addSpots( final RefList< Spot > targetSpots )
+	{
+		final RefList< Spot > spots = RefCollections.createRefList( graph.vertices(), source.spotCount );
+		final double[] position = new double[ 3 ];
+		final double[][] covariance = new double[ 3 ][ 3 ];
+		for ( int s = 0; s < source.spotCount; s++ )
+		{
+			final int t = sourceToTarget[ s ];
+			if ( t >= 0 )
+			{
+				spots.add( targetSpots.get( t, ref1 ) );
+				continue;
+			}
+			System.arraycopy( source.position, 3 * s, position, 0, 3 );
+			for ( int r = 0; r < 3; r++ )
+				System.arraycopy( source.covariance, 9 * s + 3 * r, covariance[ r ], 0, 3 );
+			final Spot spot = graph.addVertex( ref1 ).init( source.timepoint[ s ], position, covariance );
+			if ( source.label[ s ] != null )
+				spot.setLabel( source.label[ s ] );
+			spots.add( spot );
+		}
+		return spots;
+	}
+
+	/**
+	 * Adds the missing links, and makes sure that the outgoing links of every
+	 * spot are in the same order as in the source. Returns a list with the
+	 * target link for every link of the source.
+	 */
+	private RefList< Link > updateLinks( final RefList< Spot > spots )
+	{
+		final RefList< Link > links = RefCollections.createRefList( graph.edges(), source.linkCount );
+		for ( int s = 0; s < source.spotCount; s++ )
+		{
+			final Spot spot = spots.get( s, ref1 );
+			for ( int l = source.outgoingStart[ s ]; l < source.outgoingStart[ s + 1 ]; l++ )
+			{
+				final int index = l - source.outgoingStart[ s ];
+				final Spot desiredTarget = spots.get( source.linkTarget[ l ], ref2 );
+				final int desiredTargetIndex = desiredTarget.getInternalPoolIndex();
+				if ( index < spot.outgoingEdges().size() )
+				{
+					final Link link = spot.outgoingEdges().get( index, linkRef1 );
+					if ( link.getTarget( ref3 ).getInternalPoolIndex() == desiredTargetIndex )
+					{
+						links.add( link );
+						continue;
+					}
+				}
+				// the link is missing or at the wrong position
+				final Link misplaced = graph.getEdge( spot, desiredTarget, linkRef2 );
+				if ( misplaced != null )
+					graph.remove( misplaced );
+				final Link link = graph.insertEdge( spot, index, desiredTarget, desiredTarget.incomingEdges().size(), linkRef1 ).init();
+				links.add( link );
+			}
+		}
+		return links;
+	}
+
+	private void updateTags( final RefList< Spot > spots, final RefList< Link > links )
+	{
+		final TagSetModel< Spot, Link > tagSetModel = targetModel.getTagSetModel();
+		if ( !sameTagSetStructure( target.tagSets, source.tagSets ) )
+			tagSetModel.setTagSetStructure( toTagSetStructure( source.tagSets ) );
+		final List< TagSetStructure.TagSet > tagSets = tagSetModel.getTagSetStructure().getTagSets();
+		for ( int k = 0; k < tagSets.size(); k++ )
+		{
+			final TagSetStructure.TagSet tagSet = tagSets.get( k );
+			final FlatModel.FlatTagSet sourceTagSet = source.tagSets.get( k );
+			updateTags( tagSetModel.getVertexTags().tags( tagSet ), tagSet, spots, ref1, sourceTagSet.spotTags );
+			updateTags( tagSetModel.getEdgeTags().tags( tagSet ), tagSet, links, linkRef1, sourceTagSet.linkTags );
+		}
+	}
+
+	private static < O > void updateTags( final ObjTagMap< O, TagSetStructure.Tag > tagMap, final TagSetStructure.TagSet tagSet,
+			final RefList< O > objects, final O ref, final String[] labels )
+	{
+		final Map< String, TagSetStructure.Tag > tagsByLabel = new HashMap<>();
+		for ( final TagSetStructure.Tag tag : tagSet.getTags() )
+			tagsByLabel.put( tag.label(), tag );
+		for ( int i = 0; i < labels.length; i++ )
+		{
+			final O object = objects.get( i, ref );
+			final TagSetStructure.Tag current = tagMap.get( object );
+			final String currentLabel = current == null ? null : current.label();
+			if ( Objects.equals( currentLabel, labels[ i ] ) )
+				continue;
+			if ( labels[ i ] == null )
+				tagMap.remove( object );
+			else
+				tagMap.set( object, tagsByLabel.get( labels[ i ] ) );
+		}
+	}
+
+	private static boolean sameTagSetStructure( final List< FlatModel.FlatTagSet > a, final List< FlatModel.FlatTagSet > b )
+	{
+		if ( a.size() != b.size() )
+			return false;
+		for ( int k = 0; k < a.size(); k++ )
+		{
+			final FlatModel.FlatTagSet tagSetA = a.get( k );
+			final FlatModel.FlatTagSet tagSetB = b.get( k );
+			if ( !tagSetA.name.equals( tagSetB.name )
+					|| !Arrays.equals( tagSetA.tagLabels, tagSetB.tagLabels )
+					|| !Arrays.equals( tagSetA.tagColors, tagSetB.tagColors ) )
+				return false;
+		}
+		return true;
+	}
+
+	private static TagSetStructure toTagSetStructure( final List< FlatModel.FlatTagSet > tagSets )
+	{
+		final TagSetStructure structure = new TagSetStructure();
+		for ( final FlatModel.FlatTagSet tagSet : tagSets )
+		{
+			final TagSetStructure.TagSet ts = structure.createTagSet( tagSet.name );
+			for ( int i = 0; i < tagSet.tagLabels.length; i++ )
+				ts.createTag( tagSet.tagLabels[ i ], tagSet.tagColors[ i ] );
+		}
+		return structure;
+	}
+
+	/**
+	 * Copies the persistent ids of the source to the target.
+	 */
+	private void updateIds( final RefList< Spot > spots, final RefList< Link > links )
+	{
+		final ModelIds ids = ModelIds.of( targetModel );
+		for ( int s = 0; s < source.spotCount; s++ )
+			if ( source.spotId[ s ] != ModelIds.NO_ID )
+				ids.setSpotId( spots.get( s, ref1 ), source.spotId[ s ] );
+		for ( int l = 0; l < source.linkCount; l++ )
+			if ( source.linkId[ l ] != ModelIds.NO_ID )
+				ids.setLinkId( links.get( l, linkRef1 ), source.linkId[ l ] );
+	}
+}
@@ -0,0 +1,338 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.scijava.listeners.Listeners;
+
+/**
+ * Runs the operations on a repository one after the other, on a single
+ * background thread.
+ * <p>
+ * Operations are identified by a key. Submitting an operation, while an
+ * operation with the same key is still waiting in the queue, returns the
+ * waiting operation instead of queuing a second one. Two clicks on
+ * "Synchronize" therefore only synchronize once more after the running
+ * operation.
+ * <p>
+ * Cancellation is cooperative: {@link Operation#cancel()} removes a waiting
+ * operation from the queue. A running operation is only marked as cancelled,
+ * it needs to check {@link #isCancelled()} or call {@link #checkCancelled()}
+ * between its steps.
+ */
+public class OperationQueue
+{
+
+	public enum State
+	{
+		QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+	}
+
+	public interface Task
+	{
+		void run() throws Exception;
+	}
+
+	public interface StateListener
+	{
+		/**
+		 * Called when an operation was queued, started or finished.
+		 */
+		void queueChanged();
+	}
+
+	private static final ThreadLocal< Operation > currentOperation = new ThreadLocal<>();
+
+	private final ThreadPoolExecutor executor;
+
+	private final Deque< Operation > queued = new ArrayDeque<>();
+
+	private Operation running = null;
+
+	private final Listeners.SynchronizedList< StateListener > listeners = new Listeners.SynchronizedList<>();
+
+	public OperationQueue( final String name )
+	{
+		executor = new ThreadPoolExecutor( 1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+			final Thread thread = new Thread( runnable, name );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		executor.allowCoreThreadTimeOut( true );
+	}
+
+	/**
+	 * Adds an operation to the queue, unless an operation with the same key
+	 * is already waiting in the queue.
+	 *
+	 * @return the new operation, or the waiting operation with the same key.
+	 */
+	public Operation submit( final String key, final String title, final Task task )
+	{
+		final Operation operation;
+		synchronized ( this )
+		{
+			for ( final Operation waiting : queued )
+				if ( waiting.key.equals( key ) )
+					return waiting;
+			operation = new Operation( key, title, task );
+			queued.add( operation );
+			executor.execute( this::runNext );
+		}
+		notifyListeners();
+		return operation;
+	}
+
+	/**
+	 * Returns the running operation, or null.
+	 */
+	public synchronized Operation getRunning()
+	{
+		return running;
+	}
+
+	/**
+	 * Returns the operations that wait in the queue, in the order in which
+	 * they will run.
+	 */
+	public synchronized List< Operation > getQueued()
+	{
+		return new ArrayList<>( queued );
+	}
+
+	/**
+	 * Cancels the running operation and all waiting operations.
+	 */
+	public void cancelAll()
+	{
+		final List< Operation > operations;
+		synchronized ( this )
+		{
+			operations = new ArrayList<>( queued );
+			if ( running != null )
+				operations.add( running );
+		}
+		operations.forEach( Operation::cancel );
+	}
+
+	public Listeners< StateListener > listeners()
+	{
+		return listeners;
+	}
+
+	/**
+	 * Returns the operation, that runs on the current thread, or null if the
+	 * current thread is not the thread of an {@link OperationQueue}.
+	 */
+	public static Operation currentOperation()
+	{
+		return currentOperation.get();
+	}
+
+	/**
+	 * Returns true, if the operation that runs on the current thread was
+	 * cancelled.
+	 */
+	public static boolean isCancelled()
+	{
+		final Operation operation = currentOperation.get();
+		return operation != null && operation.isCancelled();
+	}
+
+	/**
+	 * Throws a {@link CancellationException}, if the operation that runs on
+	 * the current thread was cancelled.
+	 */
+	public static void checkCancelled()
+	{
+		if ( isCancelled() )
+			throw new CancellationException( "Operation \"" + currentOperation.get().getTitle() + "\" was cancelled." );
+	}
+
+	private void runNext()
+	{
+		final Operation operation;
+		synchronized ( this )
+		{
+			operation = queued.poll();
+			if ( operation == null )
+				return; // the operation was cancelled while it was waiting
+			running = operation;
+		}
+		try
+		{
+			notifyListeners();
+			operation.run();
+		}
+		finally
+		{
+			synchronized ( this )
+			{
+				running = null;
+			}
+			notifyListeners();
+		}
+	}
+
+	private synchronized boolean removeQueued( final Operation operation )
+	{
+		return queued.remove( operation );
+	}
+
+	private void notifyListeners()
+	{
+		final List< StateListener > copy;
+		synchronized ( listeners )
+		{
+			copy = new ArrayList<>( listeners.list );
+		}
+		copy.forEach( StateListener::queueChanged );
+	}
+
+	/**
+	 * An operation in the {@link OperationQueue}.
+	 */
+	public class Operation
+	{
+
+		private final String key;
+
+		private final String title;
+
+		private final Task task;
+
+		private final CountDownLatch finished = new CountDownLatch( 1 );
+
+		private volatile State state = State.QUEUED;
+
+		private volatile boolean cancelled = false;
+
+		private volatile Throwable failure = null;
+
+		private Operation( final String key, final String title, final Task task )
+		{
+			this.key = key;
+			this.title = title;
+			this.task = task;
+		}
+
+		public String getKey()
+		{
+			return key;
+		}
+
+		public String getTitle()
+		{
+			return title;
+		}
+
+		public State getState()
+		{
+			return state;
+		}
+
+		/**
+		 * Returns the exception or error thrown by the operation, if it failed.
+		 */
+		public Throwable getFailure()
+		{
+			return failure;
+		}
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		/**
+		 * Cancels the operation. A waiting operation is removed from the
+		 * queue. A running operation stops at its next check for
+		 * cancellation.
+		 */
+		public void cancel()
+		{
+			cancelled = true;
+			if ( removeQueued( this ) )
+			{
+				finish( State.CANCELLED );
+				notifyListeners();
+			}
+		}
+
+		/**
+		 * Waits until the operation finished, failed or was cancelled.
+		 */
+		public State await() throws InterruptedException
+		{
+			finished.await();
+			return state;
+		}
+
+		private void run()
+		{
+			state = State.RUNNING;
+			currentOperation.set( this );
+			try
+			{
+				task.run();
+				finish( cancelled ? State.CANCELLED : State.SUCCEEDED );
+			}
+			catch ( final Throwable e )
+			{
+				failure = e;
+				finish( cancelled ? State.CANCELLED : State.FAILED );
+			}
+			finally
+			{
+				currentOperation.remove();
+			}
+		}
+
+		private void finish( final State state )
+		{
+			this.state = state;
+			finished.countDown();
+		}
+
+		@Override
+		public String toString()
+		{
+			return title + " (" + state.name().toLowerCase() + ")";
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ListBranchCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.events.ListenerList;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Caches the current branch and the list of branches of a git
+ * {@link Repository} in memory.
+ * <p>
+ * The cache is invalidated whenever JGit reports a change of the refs or of
+ * the config through the {@link Repository#getListenerList() listeners} of
+ * the repository. All changes that are made through the same
+ * {@link Repository} instance are reported immediately. Changes made by
+ * other programs, for example by the git command line, are only reported
+ * when JGit reads the refs the next time. Call {@link #refresh()} before
+ * reading the cache, to detect them.
+ * <p>
+ * Reading a cached value is not blocked by long-running operations on the
+ * repository.
+ */
+public class RefCache
+{
+
+	private final Repository repository;
+
+	/**
+	 * Incremented whenever the refs or the config change. Used to detect that
+	 * the refs changed while the cache was being filled.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	private volatile State state = null;
+
+	public RefCache( final Repository repository )
+	{
+		this.repository = repository;
+		final ListenerList listeners = repository.getListenerList();
+		listeners.addRefsChangedListener( event -> invalidate() );
+		listeners.addConfigChangedListener( event -> invalidate() );
+	}
+
+	/**
+	 * Returns the full name of the current branch, for example
+	 * "refs/heads/master", or the commit id if HEAD is detached.
+	 */
+	public String getFullBranch() throws IOException
+	{
+		return getState().fullBranch;
+	}
+
+	/**
+	 * Returns the full names of all local and remote-tracking branches.
+	 */
+	public List< String > getBranches() throws IOException
+	{
+		return getState().branches;
+	}
+
+	/**
+	 * Clears the cache.
+	 */
+	public void invalidate()
+	{
+		generation.incrementAndGet();
+		state = null;
+	}
+
+	/**
+	 * Checks the git directory for changes made by other programs. If there
+	 * are changes, the cache is invalidated. Ref files that didn't change
+	 * since they were read before are not read again.
+	 */
+	public void refresh() throws IOException
+	{
+		repository.scanForRepoChanges();
+	}
+
+	private State getState() throws IOException
+	{
+		final State cached = state;
+		if ( cached != null )
+			return cached;
+		final long before = generation.get();
+		final State fresh = readState();
+		if ( generation.get() == before )
+			state = fresh;
+		return fresh;
+	}
+
+	private State readState() throws IOException
+	{
+		final String fullBranch = repository.getFullBranch();
+		final List< String > branches;
+		try
+		{
+			branches = Git.wrap( repository ).branchList().setListMode( ListBranchCommand.ListMode.ALL ).call()
+					.stream().map( Ref::getName ).collect( Collectors.toList() );
+		}
+		catch ( final GitAPIException e )
+		{
+			throw new IOException( e );
+		}
+		return new State( fullBranch, Collections.unmodifiableList( branches ) );
+	}
+
+	private static class State
+	{
+
+		private final String fullBranch;
+
+		private final List< String > branches;
+
+		private State( final String fullBranch, final List< String > branches )
+		{
+			this.fullBranch = fullBranch;
+			this.branches = branches;
+		}
+	}
+}
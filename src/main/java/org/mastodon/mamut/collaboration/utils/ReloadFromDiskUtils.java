@@ -28,9 +28,11 @@
  */
 package org.mastodon.mamut.collaboration.utils;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.collaboration.io.ModelIdsIO;
 import org.mastodon.mamut.io.importer.ModelImporter;
 import org.mastodon.mamut.io.project.MamutProject;
 import org.mastodon.mamut.model.Model;
@@ -52,6 +54,7 @@ public class ReloadFromDiskUtils
 	 * <br>
 	 * This clears the undo history and reloads the ModelGraph and tags.
 	 * and tags. It does not reload the feature model, project XML or dataset XML.
+	 * The {@link ModelIds} are restored from the project folder, if possible.
 	 */
 	public static void reloadFromDisk( ProjectModel projectModel ) throws IOException
 	{
@@ -62,6 +65,34 @@ public class ReloadFromDiskUtils
 		{
 			projectModel.getModel().loadRaw( reader );
 		}
+		// The ids can only be restored after the import is finished, because
+		// finishing the import rebuilds the graph, which assigns new ids.
+		final File projectRoot = projectModel.getProject().getProjectRoot();
+		if ( projectRoot.isDirectory() )
+			ModelIdsIO.readFromFolder( projectRoot, projectModel.getModel() );
+	}
+
+	/**
+	 * Reloads the model from disk, but only applies the differences between the
+	 * model on disk and the model in memory.
+	 * <br>
+	 * Unlike {@link #reloadFromDisk(ProjectModel)} this keeps the undo history,
+	 * the changes are added to it as one undoable step. Unchanged spots and links
+	 * are not touched and keep their feature values. The feature model, project
+	 * XML and dataset XML are not reloaded.
+	 */
+	public static void reloadFromDiskIncrementally( ProjectModel projectModel ) throws IOException
+	{
+		Model model = projectModel.getModel();
+		Model onDisk = new Model( model.getSpaceUnits(), model.getTimeUnits() );
+		try (MamutProject.ProjectReader reader = projectModel.getProject().openForReading())
+		{
+			onDisk.loadRaw( reader );
+		}
+		File projectRoot = projectModel.getProject().getProjectRoot();
+		if ( projectRoot.isDirectory() )
+			ModelIdsIO.readFromFolder( projectRoot, onDisk );
+		ModelUpdater.update( model, onDisk );
 	}
 
 	private static class AutoClosableModelImporter extends ModelImporter implements AutoCloseable
@@ -28,41 +28,24 @@
  */
 package org.mastodon.mamut.collaboration;
 
-import java.awt.BorderLayout;
 import java.io.File;
 import java.io.IOException;
 
-import javax.swing.JFrame;
-import javax.swing.JLabel;
-import javax.swing.JScrollPane;
-
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.awtui.CommitGraphPane;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revplot.PlotWalk;
+import org.mastodon.mamut.collaboration.dialogs.CommitHistoryWindow;
+import org.mastodon.mamut.collaboration.io.CommitStatsIndex;
+import org.mastodon.mamut.collaboration.utils.CommitHistory;
 
-// Inspired by https://git.eclipse.org/r/plugins/gitiles/jgit/jgit/+/84022ac9de54ded6f04ca196264a8f2370e9da9a/org.eclipse.jgit.pgm/src/org/eclipse/jgit/pgm/Glog.java
-public class CommitGraphExample
+/**
+ * Shows the {@link CommitHistoryWindow} for a git repository.
+ */
+public class CommitHistoryExample
 {
-	public static void main( String... args ) throws IOException, GitAPIException
+	public static void main( String... args ) throws IOException
 	{
-		Git git = Git.open( new File( "/home/arzt/tmp/2/mgit-test" ) );
+		Git git = Git.open( new File( args.length > 0 ? args[ 0 ] : "/home/arzt/tmp/2/mgit-test" ) );
 		Repository repository = git.getRepository();
-		PlotWalk plotWalk = new PlotWalk( repository );
-		plotWalk.markStart( plotWalk.parseCommit( repository.resolve( "HEAD" ) ) );
-		JFrame frame = new JFrame( "Commit Graph!" );
-		CommitGraphPane comp = new CommitGraphPane();
-		comp.getCommitList().source( plotWalk );
-		comp.getCommitList().fillTo( Integer.MAX_VALUE );
-		JLabel label = new JLabel();
-		comp.getSelectionModel().addListSelectionListener( e -> {
-			int rowIndex = comp.getSelectedRow();
-			label.setText( comp.getCommitList().get( rowIndex ).getId().toString() );
-		} );
-		frame.add( new JScrollPane( comp ) );
-		frame.add( label, BorderLayout.PAGE_END );
-		frame.setSize( 600, 600 );
-		frame.setVisible( true );
+		CommitHistoryWindow.show( new CommitHistory( repository, new CommitStatsIndex( repository.getDirectory() ), commit -> null ) );
 	}
 }
@@ -31,6 +31,7 @@ package org.mastodon.mamut.collaboration;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -40,10 +41,16 @@ import java.util.HashSet;
 
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.collaboration.exceptions.GraphMergeConflictException;
+import org.mastodon.mamut.collaboration.exceptions.MastodonGitException;
 import org.mastodon.mamut.collaboration.settings.MastodonGitSettingsService;
+import org.mastodon.mamut.collaboration.utils.ConflictUtils;
 import org.mastodon.mamut.collaboration.utils.ModelAsserts;
 import org.mastodon.mamut.collaboration.utils.ModelIO;
 import org.mastodon.mamut.io.ProjectLoader;
@@ -183,6 +190,97 @@ public class MastodonGitRepositoryTest
 		}
 	}
 
+	/**
+	 * Test that {@link MastodonGitRepository#isClean()} detects an edit,
+	 * after an earlier call found the project to be clean, and HEAD did not
+	 * move in between.
+	 */
+	@Test
+	public void testIsCleanAfterEdit() throws Exception
+	{
+		try (final TwoReposOneRemote example = new TwoReposOneRemote())
+		{
+			final MastodonGitRepository repo = example.repo1;
+			assertTrue( repo.isClean() );
+			assertTrue( repo.isClean() );
+			addSpot( example.projectModel1, "Hello World!" );
+			assertTrue( repo.hasUncommittedChanges() );
+			assertFalse( repo.isClean() );
+			// the project is saved now, but still not committed
+			assertFalse( repo.isClean() );
+			assertTrue( repo.hasUncommittedChanges() );
+		}
+	}
+
+	/**
+	 * Test that a label, that is changed without a graph event, is not
+	 * considered as saved, and survives a pull.
+	 */
+	@Test
+	public void testLabelChangeIsNotLost() throws Exception
+	{
+		try (final TwoReposOneRemote example = new TwoReposOneRemote())
+		{
+			final MastodonGitRepository repo = example.repo1;
+			assertTrue( repo.isClean() );
+			firstSpot( example.projectModel1 ).setLabel( "renamed" );
+			assertFalse( repo.isClean() );
+			try
+			{
+				repo.pull();
+				fail( "MastodonGitException expected" );
+			}
+			catch ( final MastodonGitException e )
+			{
+				// expected, the label change is not committed
+			}
+			assertTrue( hasSpot( example.projectModel1, "renamed" ) );
+			repo.commit( "rename spot" );
+			repo.pull();
+			assertTrue( hasSpot( example.projectModel1, "renamed" ) );
+		}
+	}
+
+	/**
+	 * Test that {@link MastodonGitRepository#commit} updates the index and the
+	 * working tree, such that the project on disk matches the commit.
+	 */
+	@Test
+	public void testCommitUpdatesWorkingTree() throws Exception
+	{
+		try (final TwoReposOneRemote example = new TwoReposOneRemote())
+		{
+			final MastodonGitRepository repo = example.repo1;
+			addSpot( example.projectModel1, "Hello World!" );
+			assertTrue( repo.hasUncommittedChanges() );
+			repo.commit( "Add spot" );
+			assertFalse( repo.hasUncommittedChanges() );
+			try (final Git git = Git.open( repo.getProjectRoot().getParentFile() ))
+			{
+				assertTrue( git.status().call().isClean() );
+				assertEquals( "Add spot", git.log().setMaxCount( 1 ).call().iterator().next().getFullMessage() );
+			}
+			final ProjectModel reopened = ProjectLoader.open( repo.getProjectRoot().toString(), example.context1 );
+			ModelAsserts.assertModelEquals( example.projectModel1.getModel(), reopened.getModel() );
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void testCommitWithoutChanges() throws Exception
+	{
+		try (final TwoReposOneRemote example = new TwoReposOneRemote())
+		{
+			final MastodonGitRepository repo = example.repo1;
+			try (final Git git = Git.open( repo.getProjectRoot().getParentFile() ))
+			{
+				final ObjectId head = git.getRepository().resolve( Constants.HEAD );
+				repo.commit( "Nothing changed" );
+				assertEquals( head, git.getRepository().resolve( Constants.HEAD ) );
+			}
+		}
+	}
+
 	@Test
 	public void testSwitchBranchAndGetCurrentBranch() throws Exception
 	{
@@ -335,6 +433,84 @@ public class MastodonGitRepositoryTest
 		}
 	}
 
+	@Test
+	public void testMergeBranchFastForward() throws Exception
+	{
+		try (final TwoReposOneRemote example = new TwoReposOneRemote())
+		{
+			example.repo1.createNewBranch( "branch-a" );
+			addSpot( example.projectModel1, "spot in branch A" );
+			example.repo1.commit( "add spot" );
+			example.repo1.switchBranch( "master" );
+			assertFalse( hasSpot( example.projectModel1, "spot in branch A" ) );
+
+			example.repo1.mergeBranch( "refs/heads/branch-a" );
+			assertTrue( hasSpot( example.projectModel1, "spot in branch A" ) );
+			try (final Git git = Git.open( example.repo1.getProjectRoot().getParentFile() ))
+			{
+				final ObjectId head = git.getRepository().resolve( Constants.HEAD );
+				assertEquals( git.getRepository().resolve( "refs/heads/branch-a" ), head );
+				// merging again is a no-op
+				example.repo1.mergeBranch( "refs/heads/branch-a" );
+				assertEquals( head, git.getRepository().resolve( Constants.HEAD ) );
+			}
+		}
+	}
+
+	@Test
+	public void testResolveConflictsInMergeSession() throws Exception
+	{
+		try (final TwoReposOneRemote example = new TwoReposOneRemote())
+		{
+			firstSpot( example.projectModel1 ).setLabel( "label A" );
+			example.repo1.commit( "label A" );
+			example.repo1.push();
+			firstSpot( example.projectModel2 ).setLabel( "label B" );
+			example.repo2.commit( "label B" );
+			try
+			{
+				example.repo2.pull();
+				fail( "GraphMergeConflictException expected" );
+			}
+			catch ( final GraphMergeConflictException e )
+			{
+				// expected
+			}
+			assertTrue( example.repo2.hasConflictingMerge() );
+
+			example.repo2.startMergeSession();
+			assertTrue( example.repo2.isMergeSessionActive() );
+			final Model model = example.projectModel2.getModel();
+			assertTrue( ConflictUtils.hasConflict( model ) );
+			try
+			{
+				example.repo2.finishMergeSession( null );
+				fail( "GraphMergeConflictException expected" );
+			}
+			catch ( final GraphMergeConflictException e )
+			{
+				// expected
+			}
+
+			// resolve the conflict
+			ConflictUtils.removeMergeConflictTagSets( model );
+			firstSpot( example.projectModel2 ).setLabel( "label A and B" );
+			example.repo2.finishMergeSession( null );
+			assertFalse( example.repo2.isMergeSessionActive() );
+			assertTrue( example.repo2.isClean() );
+			try (final Git git = Git.open( example.repo2.getProjectRoot().getParentFile() ))
+			{
+				final RevCommit head = git.log().setMaxCount( 1 ).call().iterator().next();
+				assertEquals( 2, head.getParentCount() );
+			}
+		}
+	}
+
+	private static Spot firstSpot( final ProjectModel projectModel )
+	{
+		return projectModel.getModel().getGraph().vertices().iterator().next();
+	}
+
 	private static void loadFromDifferentFile( final ProjectModel projectModel, final Path pathA ) throws IOException
 	{
 		try (final MamutProject.ProjectReader reader = MamutProjectIO.load( pathA.toString() ).openForReading())
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.collaboration.MastodonGitRepository;
+import org.mastodon.mamut.collaboration.settings.MastodonGitSettingsService;
+import org.mastodon.mamut.collaboration.synthetic.LineageGenerator;
+import org.mastodon.mamut.collaboration.utils.CopyModelUtils;
+import org.mastodon.mamut.io.ProjectLoader;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.scijava.Context;
+
+/**
+ * Two clones of a shared Mastodon project, that use the same local bare
+ * repository as remote. The project contains a synthetic model with the
+ * given number of spots, see {@link #generateModel(int)}. Used as fixture by the benchmarks.
+ */
+public class BenchmarkRepositories implements AutoCloseable
+{
+
+	public static final long SEED = 42;
+
+	public static final int TIMEPOINTS = 1000;
+
+	public final Context context1;
+
+	public final Context context2;
+
+	public final ProjectModel projectModel1;
+
+	public final ProjectModel projectModel2;
+
+	public final MastodonGitRepository repo1;
+
+	public final MastodonGitRepository repo2;
+
+	private final Path tempDirectory;
+
+	private int counter = 0;
+
+	public BenchmarkRepositories( final int numberOfSpots ) throws Exception
+	{
+		tempDirectory = Files.createTempDirectory( "mastodon-git-benchmark" );
+		final Path centralRepo = tempDirectory.resolve( "central-repo.git" );
+		final Path localRepo = tempDirectory.resolve( "local-repo" );
+		context1 = new Context();
+		context2 = new Context();
+		final MastodonGitSettingsService settings = context1.getService( MastodonGitSettingsService.class );
+		settings.setAuthorName( "Mastodon Git Benchmark" );
+		settings.setAuthorEmail( "noreply@example.com" );
+		final String path = BenchmarkRepositories.class.getResource( "/org/mastodon/mamut/collaboration/tiny/tiny-project.mastodon" ).getPath();
+		projectModel1 = ProjectLoader.open( path, context1 );
+		CopyModelUtils.copyModelFromTo( generateModel( numberOfSpots ), projectModel1.getModel() );
+		Git.init().setDirectory( centralRepo.toFile() ).setBare( true ).call().close();
+		Files.createDirectory( localRepo );
+		repo1 = MastodonGitRepository.shareProject( projectModel1, localRepo.toFile(), centralRepo.toString() );
+		final File clone = tempDirectory.resolve( "local-repo2" ).toFile();
+		MastodonGitRepository.cloneRepository( centralRepo.toString(), clone );
+		projectModel2 = ProjectLoader.open( new File( clone, "mastodon.project" ).getAbsolutePath(), context2 );
+		repo2 = new MastodonGitRepository( projectModel2 );
+	}
+
+	/**
+	 * Returns a synthetic model with the given number of spots, see
+	 * {@link LineageGenerator}. The number of roots grows with the number of
+	 * spots, such that large models are not only deep, but also wide.
+	 */
+	public static Model generateModel( final int numberOfSpots )
+	{
+		return new LineageGenerator( SEED )
+				.spots( numberOfSpots )
+				.timepoints( TIMEPOINTS )
+				.roots( Math.max( 16, numberOfSpots / TIMEPOINTS ) )
+				.generate();
+	}
+
+	/**
+	 * Adds a labeled spot to the model of the given project. Each call uses a
+	 * new label, such that each call is a change that can be committed.
+	 */
+	public void addSpot( final ProjectModel projectModel )
+	{
+		final Spot spot = projectModel.getModel().getGraph().addVertex().init( 0, new double[] { -10, -10, counter }, 2 );
+		spot.setLabel( "benchmark spot " + counter++ );
+	}
+
+	@Override
+	public void close() throws Exception
+	{
+		projectModel1.close();
+		projectModel2.close();
+		context1.dispose();
+		context2.dispose();
+		FileUtils.deleteDirectory( tempDirectory.toFile() );
+	}
+}
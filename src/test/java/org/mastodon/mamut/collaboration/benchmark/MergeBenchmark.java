@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mastodon.mamut.collaboration.merge.ThreeWayMerge;
+import org.mastodon.mamut.collaboration.synthetic.EditScriptGenerator;
+import org.mastodon.mamut.model.Model;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link ThreeWayMerge} of the work of two simulated
+ * annotators, that made the given number of edits to a shared synthetic
+ * base model. The overlap is the fraction of the edits of the second
+ * annotator that touch spots edited by the first one.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx16g" } )
+public class MergeBenchmark
+{
+
+	@Param( { "10000", "100000", "1000000", "10000000" } )
+	public int spots;
+
+	@Param( { "1000" } )
+	public int edits;
+
+	@Param( { "0", "0.1" } )
+	public double overlap;
+
+	private Model base;
+
+	private Model ours;
+
+	private Model theirs;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		base = BenchmarkRepositories.generateModel( spots );
+		final EditScriptGenerator generator = new EditScriptGenerator( base, BenchmarkRepositories.SEED ).overlap( overlap );
+		ours = generator.generate( edits ).applyToCopy( base );
+		theirs = generator.generate( edits ).applyToCopy( base );
+	}
+
+	@Benchmark
+	public Model threeWayMerge()
+	{
+		return ThreeWayMerge.merge( base, ours, theirs );
+	}
+}
@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mastodon.mamut.collaboration.utils.ConflictUtils;
+import org.mastodon.mamut.collaboration.utils.CopyModelUtils;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetStructure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the in-memory model utilities, that are used by the merge
+ * and the reload: {@link CopyModelUtils} and {@link ConflictUtils}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx16g" } )
+public class ModelBenchmark
+{
+
+	@Param( { "10000", "100000", "1000000", "10000000" } )
+	public int spots;
+
+	private Model model;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		model = BenchmarkRepositories.generateModel( spots );
+		addConflictTags( model );
+	}
+
+	/**
+	 * Adds the tag sets, that a merge with conflicts would add, and tags
+	 * every thousandth spot as conflict.
+	 */
+	private static void addConflictTags( final Model model )
+	{
+		final TagSetStructure tss = new TagSetStructure();
+		tss.set( model.getTagSetModel().getTagSetStructure() );
+		final int index = tss.getTagSets().size();
+		tss.createTagSet( "Merge Conflict" ).createTag( "Conflict", 0xffff0000 );
+		tss.createTagSet( "Merge Conflict (Tags)" ).createTag( "Tag Conflict", 0xffff0000 );
+		tss.createTagSet( "Merge Conflict (Labels)" ).createTag( "Label Conflict", 0xffff0000 );
+		model.getTagSetModel().setTagSetStructure( tss );
+		final TagSetStructure.TagSet conflicts = model.getTagSetModel().getTagSetStructure().getTagSets().get( index );
+		final ObjTagMap< Spot, TagSetStructure.Tag > tags = model.getTagSetModel().getVertexTags().tags( conflicts );
+		int i = 0;
+		for ( final Spot spot : model.getGraph().vertices() )
+			if ( i++ % 1000 == 0 )
+				tags.set( spot, conflicts.getTags().get( 0 ) );
+	}
+
+	@Benchmark
+	public Model copyModel()
+	{
+		final Model copy = new Model();
+		CopyModelUtils.copyModelFromTo( model, copy );
+		return copy;
+	}
+
+	@Benchmark
+	public boolean hasConflict()
+	{
+		return ConflictUtils.hasConflict( model );
+	}
+
+}
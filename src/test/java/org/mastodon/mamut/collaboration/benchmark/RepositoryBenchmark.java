@@ -0,0 +1,219 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mastodon.mamut.collaboration.MastodonGitRepository;
+import org.mastodon.mamut.collaboration.utils.ReloadFromDiskUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the git operations of {@link MastodonGitRepository}, on
+ * synthetic models of different size. Each benchmark uses two clones of a
+ * local bare repository, see {@link BenchmarkRepositories}. Reloading the
+ * project from disk, as done after most of these operations, is measured
+ * separately.
+ * <p>
+ * Most operations modify the repositories. They are therefore measured as
+ * single shots, with the modifications that they need prepared before each
+ * invocation.
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 10 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx16g" } )
+public class RepositoryBenchmark
+{
+
+	@State( Scope.Benchmark )
+	public static class Repositories
+	{
+		@Param( { "10000", "100000", "1000000", "10000000" } )
+		public int spots;
+
+		public BenchmarkRepositories repositories;
+
+		@Setup( Level.Trial )
+		public void setup() throws Exception
+		{
+			repositories = new BenchmarkRepositories( spots );
+		}
+
+		@TearDown( Level.Trial )
+		public void tearDown() throws Exception
+		{
+			repositories.close();
+		}
+	}
+
+	/**
+	 * Adds a spot before each invocation, such that there is something to
+	 * commit.
+	 */
+	@State( Scope.Thread )
+	public static class UncommittedChange
+	{
+		@Setup( Level.Invocation )
+		public void setup( final Repositories state )
+		{
+			state.repositories.addSpot( state.repositories.projectModel1 );
+		}
+	}
+
+	/**
+	 * Before each invocation: commits and pushes a change in the second
+	 * repository, and commits a different change in the first repository.
+	 * The histories diverged and pulling requires the automatic merge.
+	 */
+	@State( Scope.Thread )
+	public static class DivergedHistories
+	{
+		@Setup( Level.Invocation )
+		public void setup( final Repositories state ) throws Exception
+		{
+			final BenchmarkRepositories r = state.repositories;
+			r.addSpot( r.projectModel2 );
+			r.repo2.commit( "remote change" );
+			r.repo2.push();
+			r.addSpot( r.projectModel1 );
+			r.repo1.commit( "local change" );
+		}
+	}
+
+	/**
+	 * Before each invocation: creates a new branch with one commit, and
+	 * commits a different change on the original branch.
+	 */
+	@State( Scope.Thread )
+	public static class DivergedBranches
+	{
+		private int counter = 0;
+
+		public String branch;
+
+		@Setup( Level.Invocation )
+		public void setup( final Repositories state ) throws Exception
+		{
+			final BenchmarkRepositories r = state.repositories;
+			final String original = r.repo1.getCurrentBranch();
+			final String name = "benchmark-" + counter++;
+			r.repo1.createNewBranch( name );
+			r.addSpot( r.projectModel1 );
+			r.repo1.commit( "change on branch" );
+			r.repo1.switchBranch( original );
+			r.addSpot( r.projectModel1 );
+			r.repo1.commit( "change on original branch" );
+			branch = "refs/heads/" + name;
+		}
+	}
+
+	/**
+	 * Creates a second branch that differs by one commit. The benchmark
+	 * switches back and forth between the two branches.
+	 */
+	@State( Scope.Thread )
+	public static class TwoBranches
+	{
+		private String[] branches;
+
+		private int counter = 0;
+
+		@Setup( Level.Trial )
+		public void setup( final Repositories state ) throws Exception
+		{
+			final BenchmarkRepositories r = state.repositories;
+			final String original = r.repo2.getCurrentBranch();
+			r.repo2.createNewBranch( "other" );
+			r.addSpot( r.projectModel2 );
+			r.repo2.commit( "change on other branch" );
+			branches = new String[] { original, "refs/heads/other" };
+		}
+
+		public String nextBranch()
+		{
+			return branches[ counter++ % 2 ];
+		}
+	}
+
+	@Benchmark
+	public void commit( final Repositories state, final UncommittedChange change ) throws Exception
+	{
+		state.repositories.repo1.commit( "benchmark commit" );
+	}
+
+	@Benchmark
+	public boolean isClean( final Repositories state ) throws Exception
+	{
+		return state.repositories.repo1.isClean();
+	}
+
+	@Benchmark
+	public void pullWithAutomaticMerge( final Repositories state, final DivergedHistories histories ) throws Exception
+	{
+		state.repositories.repo1.pull();
+	}
+
+	@Benchmark
+	public void mergeBranch( final Repositories state, final DivergedBranches branches ) throws Exception
+	{
+		state.repositories.repo1.mergeBranch( branches.branch );
+	}
+
+	@Benchmark
+	public void switchBranch( final Repositories state, final TwoBranches branches ) throws Exception
+	{
+		state.repositories.repo2.switchBranch( branches.nextBranch() );
+	}
+
+	@Benchmark
+	public void reloadFromDisk( final Repositories state ) throws Exception
+	{
+		ReloadFromDiskUtils.reloadFromDisk( state.repositories.projectModel1 );
+	}
+
+	@Benchmark
+	public void reloadFromDiskIncrementally( final Repositories state ) throws Exception
+	{
+		ReloadFromDiskUtils.reloadFromDiskIncrementally( state.repositories.projectModel1 );
+	}
+}
@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.Test;
+import org.mastodon.collection.RefList;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.mamut.collaboration.utils.CopyModelUtils;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.scijava.Context;
+
+/**
+ * Tests for {@link CanonicalModelIO}.
+ */
+public class CanonicalModelIOTest
+{
+
+	@Test
+	public void testSortedSpots()
+	{
+		Model model = exampleModel();
+		ModelIds ids = ModelIds.of( model );
+		RefList< Spot > sorted = CanonicalModelIO.sortedSpots( model );
+		assertEquals( model.getGraph().vertices().size(), sorted.size() );
+		for ( int i = 1; i < sorted.size(); i++ )
+		{
+			Spot a = sorted.get( i - 1 );
+			Spot b = sorted.get( i );
+			assertTrue( a.getTimepoint() < b.getTimepoint()
+					|| ( a.getTimepoint() == b.getTimepoint() && ids.getSpotId( a ) <= ids.getSpotId( b ) ) );
+		}
+	}
+
+	@Test
+	public void testFilesDontDependOnPoolOrder() throws IOException
+	{
+		Model model = exampleModel();
+		ModelIds.of( model );
+		// Copy the model with the spots in reverse order. The ids are copied too.
+		RefList< Spot > reversed = new RefArrayList<>( model.getGraph().vertices().getRefPool() );
+		for ( Spot spot : model.getGraph().vertices() )
+			reversed.add( 0, spot );
+		Model shuffled = new Model();
+		CopyModelUtils.copyModelFromTo( model, shuffled, reversed );
+
+		try (Context context = new Context())
+		{
+			assertNotEquals( saveRaw( context, model, false ), saveRaw( context, shuffled, false ) );
+			assertEquals( saveRaw( context, model, true ), saveRaw( context, shuffled, true ) );
+		}
+	}
+
+	private static Model exampleModel()
+	{
+		Model model = new Model();
+		Spot a = model.getGraph().addVertex().init( 2, new double[] { 1, 2, 3 }, 1 );
+		Spot b = model.getGraph().addVertex().init( 1, new double[] { 1, 2, 3 }, 1 );
+		Spot c = model.getGraph().addVertex().init( 1, new double[] { 4, 5, 6 }, 1 );
+		Spot d = model.getGraph().addVertex().init( 0, new double[] { 4, 5, 6 }, 1 );
+		c.setLabel( "c" );
+		model.getGraph().addEdge( d, b ).init();
+		model.getGraph().addEdge( d, c ).init();
+		model.getGraph().addEdge( b, a ).init();
+		return model;
+	}
+
+	/**
+	 * Returns the blob ids of the written model and tags files.
+	 */
+	private static Map< String, ObjectId > saveRaw( Context context, Model model, boolean canonical ) throws IOException
+	{
+		try (ObjectInserter inserter = new ObjectInserter.Formatter();
+				GitProjectWriter writer = new GitProjectWriter( inserter, null ))
+		{
+			if ( canonical )
+				CanonicalModelIO.saveRaw( context, model, writer );
+			else
+				model.saveRaw( writer );
+			return writer.getBlobs();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.mastodon.mamut.collaboration.utils.ModelAsserts;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * Tests for {@link ChunkedModelIO}.
+ */
+public class ChunkedModelIOTest
+{
+
+	@Test
+	public void testWriteAndRead() throws IOException
+	{
+		Model model = exampleModel();
+		Map< String, byte[] > files = write( model );
+		assertTrue( files.containsKey( ChunkedModelIO.MANIFEST_FILE ) );
+		assertTrue( files.containsKey( ChunkedModelIO.CROSS_LINKS_FILE ) );
+		// 40 timepoints, 16 timepoints per chunk
+		assertEquals( 3 + 2, files.size() );
+
+		Model read = read( files );
+		ModelAsserts.assertModelEquals( model, read );
+		assertEquals( model.getSpaceUnits(), read.getSpaceUnits() );
+		assertIdsEqual( model, read );
+	}
+
+	@Test
+	public void testEditOnlyChangesOneChunk() throws IOException
+	{
+		Model model = exampleModel();
+		Map< String, byte[] > before = write( model );
+		Spot spot = model.getGraph().vertices().iterator().next();
+		assertEquals( 0, spot.getTimepoint() );
+		spot.setLabel( "changed" );
+		Map< String, byte[] > after = write( model );
+
+		assertEquals( before.keySet(), after.keySet() );
+		for ( String path : before.keySet() )
+		{
+			boolean changed = path.equals( "chunks/t000000.raw" );
+			assertEquals( path, changed, !Arrays.equals( before.get( path ), after.get( path ) ) );
+		}
+	}
+
+	@Test
+	public void testAddedSpotDoesNotChangeLinksBetweenChunks() throws IOException
+	{
+		Model model = exampleModel();
+		Map< String, byte[] > before = write( model );
+		// shifts the index within the chunk of the spots at timepoint 15,
+		// which are the sources of links into the next chunk
+		model.getGraph().addVertex().init( 0, new double[] { -5, 0, 0 }, 1 );
+		Map< String, byte[] > after = write( model );
+
+		assertFalse( Arrays.equals( before.get( "chunks/t000000.raw" ), after.get( "chunks/t000000.raw" ) ) );
+		assertArrayEquals( before.get( ChunkedModelIO.CROSS_LINKS_FILE ), after.get( ChunkedModelIO.CROSS_LINKS_FILE ) );
+		ModelAsserts.assertModelEquals( model, read( after ) );
+	}
+
+	@Test
+	public void testWriteToFolder() throws IOException
+	{
+		File folder = Files.createTempDirectory( "mastodon-git-chunks" ).toFile();
+		try
+		{
+			assertFalse( ChunkedModelIO.isChunked( folder ) );
+			Model model = exampleModel();
+			ChunkedModelIO.writeToFolder( folder, model );
+			assertTrue( ChunkedModelIO.isChunked( folder ) );
+			ModelAsserts.assertModelEquals( model, ChunkedModelIO.readFromFolder( folder ) );
+
+			// remove the spots of the last chunk
+			ModelGraph graph = model.getGraph();
+			for ( Iterator< Spot > it = graph.vertices().iterator(); it.hasNext(); )
+				if ( it.next().getTimepoint() >= 32 )
+					it.remove();
+			ChunkedModelIO.writeToFolder( folder, model );
+			assertFalse( new File( folder, "chunks/t000032.raw" ).exists() );
+			ModelAsserts.assertModelEquals( model, ChunkedModelIO.readFromFolder( folder ) );
+		}
+		finally
+		{
+			FileUtils.deleteDirectory( folder );
+		}
+	}
+
+	/**
+	 * A model with two tracks over 40 timepoints, that divide at timepoint 20.
+	 * Some spots and links are tagged.
+	 */
+	private static Model exampleModel()
+	{
+		Model model = new Model( "um", "frame" );
+		TagSetStructure tss = new TagSetStructure();
+		TagSetStructure.TagSet tagSet = tss.createTagSet( "cell type" );
+		tagSet.createTag( "neuron", 0xff00ff00 );
+		tagSet.createTag( "muscle", 0xff0000ff );
+		model.getTagSetModel().setTagSetStructure( tss );
+		TagSetStructure.TagSet modelTagSet = model.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+		TagSetStructure.Tag muscle = modelTagSet.getTags().get( 1 );
+
+		ModelGraph graph = model.getGraph();
+		for ( int track = 0; track < 2; track++ )
+		{
+			Spot previous = graph.addVertex().init( 0, new double[] { track * 10, 0, 0 }, 1 );
+			previous.setLabel( "track " + track );
+			Spot sister = null;
+			for ( int t = 1; t < 40; t++ )
+			{
+				Spot spot = graph.addVertex().init( t, new double[] { track * 10, t, 0 }, 1 );
+				Link link = graph.addEdge( previous, spot ).init();
+				if ( t % 7 == 0 )
+				{
+					model.getTagSetModel().getVertexTags().set( spot, muscle );
+					model.getTagSetModel().getEdgeTags().set( link, muscle );
+				}
+				if ( t == 20 )
+				{
+					sister = graph.addVertex().init( t, new double[] { track * 10, t, 5 }, 2 );
+					graph.addEdge( previous, sister ).init();
+				}
+				else if ( sister != null )
+				{
+					Spot next = graph.addVertex().init( t, new double[] { track * 10, t, 5 }, 2 );
+					graph.addEdge( sister, next ).init();
+					sister = next;
+				}
+				previous = spot;
+			}
+		}
+		ModelIds.of( model );
+		return model;
+	}
+
+	private static Map< String, byte[] > write( Model model ) throws IOException
+	{
+		Map< String, byte[] > files = new HashMap<>();
+		ChunkedModelIO.write( model, files::put );
+		return files;
+	}
+
+	private static Model read( Map< String, byte[] > files ) throws IOException
+	{
+		return ChunkedModelIO.read( path -> {
+			byte[] content = files.get( path );
+			if ( content == null )
+				throw new FileNotFoundException( path );
+			return new ByteArrayInputStream( content );
+		} );
+	}
+
+	private static void assertIdsEqual( Model expected, Model actual )
+	{
+		ModelIds expectedIds = ModelIds.of( expected );
+		ModelIds actualIds = ModelIds.of( actual );
+		Map< Long, String > spots = new HashMap<>();
+		for ( Spot spot : expected.getGraph().vertices() )
+			spots.put( expectedIds.getSpotId( spot ), spot.getTimepoint() + " " + spot.getDoublePosition( 2 ) );
+		for ( Spot spot : actual.getGraph().vertices() )
+			assertEquals( spots.get( actualIds.getSpotId( spot ) ), spot.getTimepoint() + " " + spot.getDoublePosition( 2 ) );
+		long[] expectedLinkIds = expected.getGraph().edges().stream().mapToLong( expectedIds::getLinkId ).sorted().toArray();
+		long[] actualLinkIds = actual.getGraph().edges().stream().mapToLong( actualIds::getLinkId ).sorted().toArray();
+		assertArrayEquals( expectedLinkIds, actualLinkIds );
+	}
+}
@@ -0,0 +1,92 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mastodon.mamut.collaboration.utils.CommitStats;
+
+/**
+ * Tests {@link CommitStatsIndex}.
+ */
+public class CommitStatsIndexTest
+{
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final ObjectId a = ObjectId.fromString( "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa" );
+
+	private final ObjectId b = ObjectId.fromString( "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb" );
+
+	@Test
+	public void testPutAndGet() throws Exception
+	{
+		File gitDirectory = temporaryFolder.newFolder();
+		CommitStatsIndex index = new CommitStatsIndex( gitDirectory );
+		assertNull( index.get( a ) );
+		index.put( a, new CommitStats( 1, 2, 3, 4 ) );
+		index.put( b, new CommitStats( 5, 6, 7, CommitStats.UNKNOWN ) );
+		assertEquals( new CommitStats( 1, 2, 3, 4 ), index.get( a ) );
+
+		// a new index reads the entries from the file
+		CommitStatsIndex other = new CommitStatsIndex( gitDirectory );
+		assertEquals( new CommitStats( 1, 2, 3, 4 ), other.get( a ) );
+		assertEquals( new CommitStats( 5, 6, 7, CommitStats.UNKNOWN ), other.get( b ) );
+	}
+
+	@Test
+	public void testTruncatedEntry() throws Exception
+	{
+		File gitDirectory = temporaryFolder.newFolder();
+		CommitStatsIndex index = new CommitStatsIndex( gitDirectory );
+		index.put( a, new CommitStats( 1, 2, 3, 4 ) );
+		index.put( b, new CommitStats( 5, 6, 7, 8 ) );
+		File file = new File( gitDirectory, CommitStatsIndex.FILE );
+		try (RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+		{
+			raf.setLength( raf.length() - 3 );
+		}
+		CommitStatsIndex other = new CommitStatsIndex( gitDirectory );
+		assertEquals( new CommitStats( 1, 2, 3, 4 ), other.get( a ) );
+		assertNull( other.get( b ) );
+
+		// entries appended after the truncated entry are read correctly
+		other.put( b, new CommitStats( 5, 6, 7, 8 ) );
+		assertEquals( new CommitStats( 5, 6, 7, 8 ), new CommitStatsIndex( gitDirectory ).get( b ) );
+	}
+}
@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.collaboration.TestResources;
+import org.mastodon.mamut.collaboration.utils.ModelAsserts;
+import org.mastodon.mamut.io.ProjectLoader;
+import org.mastodon.mamut.io.ProjectSaver;
+import org.mastodon.mamut.model.Model;
+import org.scijava.Context;
+
+/**
+ * Tests for {@link GitProjectReader}.
+ */
+public class GitProjectReaderTest
+{
+	@Test
+	public void testReadModelFromCommit() throws Exception
+	{
+		final Path tmp = Files.createTempDirectory( "mastodon-git-reader-test" );
+		try (final Context context = new Context())
+		{
+			final ProjectModel projectModel = ProjectLoader.open( TestResources.asPath( "tiny/tiny-project.mastodon" ).toString(), context );
+			final Path projectFolder = tmp.resolve( "mastodon.project" );
+			Files.createDirectory( projectFolder );
+			ProjectSaver.saveProject( projectFolder.toFile(), projectModel );
+			try (final Git git = Git.init().setDirectory( tmp.toFile() ).call())
+			{
+				git.add().addFilepattern( "mastodon.project" ).call();
+				final RevCommit commit = git.commit().setMessage( "add project" ).call();
+				final Set< String > expectedFeatureKeys = listFeatureKeys( projectFolder );
+				// make sure the data is not read from the working tree
+				FileUtils.deleteDirectory( projectFolder.toFile() );
+
+				final Model model = new Model();
+				try (final GitProjectReader reader = new GitProjectReader( git.getRepository(), commit, "mastodon.project" ))
+				{
+					model.loadRaw( reader );
+					assertEquals( expectedFeatureKeys, new HashSet<>( reader.getFeatureKeys() ) );
+					assertThrows( FileNotFoundException.class, () -> reader.open( "does-not-exist.raw" ) );
+				}
+				ModelAsserts.assertModelEquals( projectModel.getModel(), model );
+			}
+			projectModel.close();
+		}
+		finally
+		{
+			FileUtils.deleteDirectory( tmp.toFile() );
+		}
+	}
+
+	private static Set< String > listFeatureKeys( final Path projectFolder ) throws IOException
+	{
+		final Path features = projectFolder.resolve( "features" );
+		if ( !Files.isDirectory( features ) )
+			return Collections.emptySet();
+		try (final Stream< Path > files = Files.list( features ))
+		{
+			return files.map( file -> file.getFileName().toString() )
+					.filter( name -> name.endsWith( ".raw" ) )
+					.map( name -> name.substring( 0, name.length() - ".raw".length() ) )
+					.collect( Collectors.toSet() );
+		}
+	}
+}
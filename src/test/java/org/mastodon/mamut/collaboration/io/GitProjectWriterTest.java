@@ -0,0 +1,83 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link GitProjectWriter}.
+ */
+public class GitProjectWriterTest
+{
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testSmallAndLargeBlobs() throws Exception
+	{
+		byte[] small = "small file".getBytes();
+		byte[] large = new byte[ 3 * 1024 * 1024 + 17 ];
+		new Random( 42 ).nextBytes( large );
+		try (Git git = Git.init().setDirectory( temporaryFolder.newFolder() ).call();
+				ObjectInserter inserter = git.getRepository().newObjectInserter())
+		{
+			GitProjectWriter writer = new GitProjectWriter( inserter, null );
+			try (OutputStream out = writer.getRawTagsOutputStream())
+			{
+				out.write( small );
+			}
+			try (OutputStream out = writer.getRawModelOutputStream())
+			{
+				for ( int i = 0; i < large.length; i += 1000 )
+					out.write( large, i, Math.min( 1000, large.length - i ) );
+			}
+			inserter.flush();
+			ObjectId id = writer.getBlobId( GitProjectReader.MODEL_FILE );
+			try (ObjectInserter.Formatter formatter = new ObjectInserter.Formatter())
+			{
+				assertEquals( formatter.idFor( Constants.OBJ_BLOB, large ), id );
+				assertEquals( formatter.idFor( Constants.OBJ_BLOB, small ), writer.getBlobId( GitProjectReader.TAGS_FILE ) );
+			}
+			assertArrayEquals( large, git.getRepository().open( id ).getCachedBytes( Integer.MAX_VALUE ) );
+		}
+	}
+}
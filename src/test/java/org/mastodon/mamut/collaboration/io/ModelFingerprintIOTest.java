@@ -0,0 +1,73 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+import org.mastodon.mamut.collaboration.utils.ModelFingerprint;
+
+/**
+ * Tests for {@link ModelFingerprintIO}.
+ */
+public class ModelFingerprintIOTest
+{
+	private static final ObjectId CONTENT_ID = ObjectId.fromString( "0123456789abcdef0123456789abcdef01234567" );
+
+	@Test
+	public void testWriteAndRead() throws IOException
+	{
+		ModelFingerprint fingerprint = ModelFingerprint.of( 42, new int[] { 0, 3, 7 }, new long[] { 1, -2, 3 } );
+		byte[] bytes = write( fingerprint );
+		ModelFingerprint read = ModelFingerprintIO.read( new ByteArrayInputStream( bytes ), CONTENT_ID );
+		assertEquals( fingerprint, read );
+		assertEquals( -2, read.getHash( 3 ) );
+	}
+
+	@Test
+	public void testReadStale() throws IOException
+	{
+		ModelFingerprint fingerprint = ModelFingerprint.of( 42, new int[] { 0 }, new long[] { 1 } );
+		byte[] bytes = write( fingerprint );
+		assertNull( ModelFingerprintIO.read( new ByteArrayInputStream( bytes ), ObjectId.zeroId() ) );
+	}
+
+	private static byte[] write( ModelFingerprint fingerprint ) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ModelFingerprintIO.write( out, fingerprint, CONTENT_ID );
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mastodon.mamut.collaboration.utils.CopyModelUtils;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.io.project.MamutProject;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+
+/**
+ * Tests for {@link ModelIdsIO}.
+ */
+public class ModelIdsIOTest
+{
+
+	private static final ObjectId MODEL_BLOB_ID = ObjectId.fromString( "0123456789012345678901234567890123456789" );
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testWriteAndRead() throws IOException
+	{
+		Model model = exampleModel();
+		ModelIds ids = ModelIds.of( model );
+		// the new spot takes the pool index of the removed one, the spots are
+		// therefore not in the order in which they were added
+		Spot removed = model.getGraph().vertices().iterator().next();
+		model.getGraph().remove( removed );
+		Spot d = model.getGraph().addVertex().init( 2, new double[] { 7, 8, 9 }, 1 );
+		d.setLabel( "d" );
+		model.getGraph().addEdge( d, findSpot( model, "c" ) ).init();
+
+		// save and load the model like Mastodon does, the ids are assigned in
+		// the order of the spots and links in the model file
+		File projectRoot = temporaryFolder.newFolder( "mastodon.project" );
+		MamutProject project = new MamutProject( projectRoot );
+		try (MamutProject.ProjectWriter writer = project.openForWriting())
+		{
+			model.saveRaw( writer );
+		}
+		ModelIdsIO.writeToFolder( projectRoot, model );
+		Model loaded = new Model();
+		try (MamutProject.ProjectReader reader = project.openForReading())
+		{
+			loaded.loadRaw( reader );
+		}
+		assertTrue( ModelIdsIO.readFromFolder( projectRoot, loaded ) );
+
+		assertEquals( idsByLabel( model, ids ), idsByLabel( loaded, ModelIds.of( loaded ) ) );
+	}
+
+	@Test
+	public void testIgnoreIdsOfDifferentModelFile() throws IOException
+	{
+		Model model = exampleModel();
+		Model copy = new Model();
+		CopyModelUtils.copyModelFromTo( model, copy );
+		byte[] bytes = write( model, MODEL_BLOB_ID );
+		ModelIds copyIds = ModelIds.of( copy );
+		Spot spot = copy.getGraph().vertices().iterator().next();
+		long before = copyIds.getSpotId( spot );
+
+		ObjectId otherBlobId = ObjectId.fromString( "9876543210987654321098765432109876543210" );
+		assertFalse( ModelIdsIO.read( new ByteArrayInputStream( bytes ), otherBlobId, copy ) );
+
+		assertEquals( before, copyIds.getSpotId( spot ) );
+		assertNotEquals( ModelIds.of( model ).getSpotId( model.getGraph().vertices().iterator().next() ), before );
+	}
+
+	private static Model exampleModel()
+	{
+		Model model = new Model();
+		Spot a = model.getGraph().addVertex().init( 0, new double[] { 1, 2, 3 }, 1 );
+		a.setLabel( "a" );
+		Spot b = model.getGraph().addVertex().init( 1, new double[] { 1, 2, 3 }, 1 );
+		b.setLabel( "b" );
+		Spot c = model.getGraph().addVertex().init( 1, new double[] { 4, 5, 6 }, 1 );
+		c.setLabel( "c" );
+		model.getGraph().addEdge( a, b ).init();
+		model.getGraph().addEdge( a, c ).init();
+		return model;
+	}
+
+	private static byte[] write( Model model, ObjectId modelBlobId ) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ModelIdsIO.write( model, modelBlobId, out );
+		return out.toByteArray();
+	}
+
+	private static Spot findSpot( Model model, String label )
+	{
+		for ( Spot spot : model.getGraph().vertices() )
+			if ( spot.getLabel().equals( label ) )
+				return spot;
+		return null;
+	}
+
+	/**
+	 * Returns the ids of the spots by their label, and of the links by the
+	 * labels of their source and target.
+	 */
+	private static Map< String, Long > idsByLabel( Model model, ModelIds ids )
+	{
+		Map< String, Long > map = new HashMap<>();
+		for ( Spot spot : model.getGraph().vertices() )
+			map.put( spot.getLabel(), ids.getSpotId( spot ) );
+		Spot ref = model.getGraph().vertexRef();
+		for ( Link link : model.getGraph().edges() )
+		{
+			String source = link.getSource( ref ).getLabel();
+			String target = link.getTarget( ref ).getLabel();
+			map.put( source + " -> " + target, ids.getLinkId( link ) );
+		}
+		model.getGraph().releaseRef( ref );
+		return map;
+	}
+}
@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mastodon.mamut.collaboration.utils.ModelFingerprint;
+
+/**
+ * Tests {@link ProjectFingerprintStore}.
+ */
+public class ProjectFingerprintStoreTest
+{
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final ObjectId a = ObjectId.fromString( "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa" );
+
+	private final ObjectId b = ObjectId.fromString( "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb" );
+
+	@Test
+	public void testPutAndGet() throws Exception
+	{
+		File gitDirectory = temporaryFolder.newFolder();
+		ProjectFingerprintStore store = new ProjectFingerprintStore( gitDirectory );
+		ModelFingerprint fingerprint = ModelFingerprint.of( 42, new int[] { 0, 3 }, new long[] { 7, 8 } );
+		assertNull( store.get( a ) );
+		store.put( a, fingerprint );
+		assertEquals( fingerprint, store.get( a ) );
+		assertNull( store.get( b ) );
+
+		// a new store reads the fingerprint from the file
+		assertEquals( fingerprint, new ProjectFingerprintStore( gitDirectory ).get( a ) );
+	}
+
+	@Test
+	public void testFileOfOtherTree() throws Exception
+	{
+		File gitDirectory = temporaryFolder.newFolder();
+		ProjectFingerprintStore store = new ProjectFingerprintStore( gitDirectory );
+		store.put( a, ModelFingerprint.of( 42, new int[] { 0 }, new long[] { 7 } ) );
+		File folder = new File( gitDirectory, ProjectFingerprintStore.FOLDER );
+		assertTrue( new File( folder, a.name() ).renameTo( new File( folder, b.name() ) ) );
+		assertNull( store.get( b ) );
+	}
+}
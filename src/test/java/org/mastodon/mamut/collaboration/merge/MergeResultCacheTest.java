@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mastodon.mamut.collaboration.io.ChunkedModelIO;
+import org.mastodon.mamut.collaboration.utils.ModelAsserts;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+
+/**
+ * Tests {@link MergeResultCache}.
+ */
+public class MergeResultCacheTest
+{
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final ObjectId a = ObjectId.fromString( "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa" );
+
+	private final ObjectId b = ObjectId.fromString( "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb" );
+
+	private final ObjectId c = ObjectId.fromString( "cccccccccccccccccccccccccccccccccccccccc" );
+
+	@Test
+	public void testKey()
+	{
+		String key = MergeResultCache.key( a, b, c, "ThreeWayMerge" );
+		assertEquals( key, MergeResultCache.key( a, b, c, "ThreeWayMerge" ) );
+		assertNotEquals( key, MergeResultCache.key( b, a, c, "ThreeWayMerge" ) );
+		assertNotEquals( key, MergeResultCache.key( a, b, null, "ThreeWayMerge" ) );
+		assertNotEquals( key, MergeResultCache.key( a, b, c, "MergeDatasets" ) );
+	}
+
+	@Test
+	public void testPutAndGet() throws Exception
+	{
+		MergeResultCache cache = new MergeResultCache( temporaryFolder.newFolder(), 3 );
+		String key = MergeResultCache.key( a, b, c, "ThreeWayMerge" );
+		assertNull( cache.get( key ) );
+		Model model = exampleModel( 5 );
+		cache.put( key, model );
+		assertTrue( cache.contains( key ) );
+		ModelAsserts.assertModelEquals( model, cache.get( key ) );
+	}
+
+	@Test
+	public void testEvictOldest() throws Exception
+	{
+		File folder = temporaryFolder.newFolder();
+		MergeResultCache cache = new MergeResultCache( folder, 2 );
+		String key1 = MergeResultCache.key( a, b, null, "1" );
+		String key2 = MergeResultCache.key( a, b, null, "2" );
+		String key3 = MergeResultCache.key( a, b, null, "3" );
+		cache.put( key1, exampleModel( 1 ) );
+		cache.put( key2, exampleModel( 2 ) );
+		new File( folder, key1 ).setLastModified( 1000_000 );
+		new File( folder, key2 ).setLastModified( 2000_000 );
+		cache.put( key3, exampleModel( 3 ) );
+		assertFalse( cache.contains( key1 ) );
+		assertTrue( cache.contains( key2 ) );
+		assertTrue( cache.contains( key3 ) );
+	}
+
+	@Test
+	public void testCorruptedEntryIsRemoved() throws Exception
+	{
+		File folder = temporaryFolder.newFolder();
+		MergeResultCache cache = new MergeResultCache( folder, 3 );
+		String key = MergeResultCache.key( a, b, c, "ThreeWayMerge" );
+		cache.put( key, exampleModel( 5 ) );
+		Files.write( new File( new File( folder, key ), ChunkedModelIO.MANIFEST_FILE ).toPath(), new byte[] { 1, 2, 3 } );
+		assertNull( cache.get( key ) );
+		assertFalse( cache.contains( key ) );
+	}
+
+	private static Model exampleModel( int numberOfSpots )
+	{
+		Model model = new Model();
+		ModelGraph graph = model.getGraph();
+		Spot previous = graph.vertexRef();
+		Spot spot = graph.vertexRef();
+		for ( int t = 0; t < numberOfSpots; t++ )
+		{
+			graph.addVertex( spot ).init( t, new double[] { t, 2 * t, 3 }, 1 ).setLabel( "spot " + t );
+			if ( t > 0 )
+				graph.addEdge( previous, spot ).init();
+			previous.refTo( spot );
+		}
+		graph.releaseRef( previous );
+		graph.releaseRef( spot );
+		return model;
+	}
+}
@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link MergeSession}.
+ */
+public class MergeSessionTest
+{
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testSaveAndLoad() throws Exception
+	{
+		File gitDirectory = temporaryFolder.newFolder();
+		ObjectId ours = ObjectId.fromString( "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa" );
+		ObjectId theirs = ObjectId.fromString( "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb" );
+		new MergeSession( ours, theirs, "Merge branch 'a'\n\nwith details" ).save( gitDirectory );
+		MergeSession session = MergeSession.load( gitDirectory );
+		assertEquals( ours, session.getOurs() );
+		assertEquals( theirs, session.getTheirs() );
+		assertEquals( "Merge branch 'a'\n\nwith details", session.getMessage() );
+		MergeSession.delete( gitDirectory );
+		assertNull( MergeSession.load( gitDirectory ) );
+	}
+
+	@Test
+	public void testLoadWithoutSession() throws Exception
+	{
+		assertNull( MergeSession.load( temporaryFolder.newFolder() ) );
+	}
+
+	@Test
+	public void testLoadInvalidFile() throws Exception
+	{
+		File gitDirectory = temporaryFolder.newFolder();
+		File file = new File( gitDirectory, MergeSession.FILE );
+		file.getParentFile().mkdirs();
+		Files.write( file.toPath(), "ours=xyz\ntheirs=abc\nmessage=m\n".getBytes() );
+		assertNull( MergeSession.load( gitDirectory ) );
+	}
+}
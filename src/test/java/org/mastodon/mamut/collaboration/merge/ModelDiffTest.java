@@ -0,0 +1,139 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mamut.collaboration.utils.ModelFixtures.addSpot;
+import static org.mastodon.mamut.collaboration.utils.ModelFixtures.copy;
+import static org.mastodon.mamut.collaboration.utils.ModelFixtures.getSpot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * Tests for {@link ModelDiff}.
+ */
+public class ModelDiffTest
+{
+
+	@Test
+	public void testNoChanges() throws Exception
+	{
+		Model model = lineage();
+		List< ModelChange > changes = new ArrayList<>();
+		ModelDiff.Summary summary = ModelDiff.diff( model, copy( model ), changes::add );
+		assertTrue( changes.isEmpty() );
+		assertTrue( summary.isEmpty() );
+		assertEquals( "no changes", summary.toString() );
+		assertEquals( 0, summary.getChangedChunks() );
+	}
+
+	@Test
+	public void testSpotChanges() throws Exception
+	{
+		Model before = lineage();
+		Model after = copy( before );
+		getSpot( after, "t1" ).setPosition( new double[] { 2, 1, 1 } );
+		getSpot( after, "t2" ).setLabel( "renamed" );
+		after.getGraph().remove( getSpot( after, "t3" ) );
+		addSpot( after, "new", 4, 50, 50, 50 );
+
+		List< ModelChange > changes = new ArrayList<>();
+		ModelDiff.Summary summary = ModelDiff.diff( before, after, changes::add );
+
+		assertEquals( 1, summary.getCount( ModelChange.Type.SPOT_MOVED ) );
+		assertEquals( 1, summary.getCount( ModelChange.Type.LABEL_CHANGED ) );
+		assertEquals( 1, summary.getCount( ModelChange.Type.SPOT_REMOVED ) );
+		assertEquals( 1, summary.getCount( ModelChange.Type.SPOT_ADDED ) );
+		assertEquals( 2, summary.getCount( ModelChange.Type.LINK_REMOVED ) );
+		assertEquals( 6, summary.getChangeCount() );
+		assertEquals( "1 spot added, 1 spot removed, 1 spot moved, 1 spot relabeled, 2 links removed", summary.toString() );
+		ModelChange moved = changes.stream().filter( c -> c.getType() == ModelChange.Type.SPOT_MOVED ).findFirst().get();
+		assertEquals( 1, moved.getTimepoint() );
+		assertArrayEquals( new double[] { 1, 0, 0 }, moved.getDisplacement(), 0 );
+		assertEquals( ModelIds.of( before ).getSpotId( getSpot( before, "t1" ) ), moved.getId() );
+		// only the first chunk of timepoints changed
+		assertEquals( 1, summary.getChangedChunks() );
+		assertEquals( 2, summary.getUnchangedChunks() );
+	}
+
+	@Test
+	public void testTagAndLinkChanges() throws Exception
+	{
+		Model before = lineage();
+		TagSetStructure tss = new TagSetStructure();
+		tss.createTagSet( "cell type" ).createTag( "neuron", 0xff00ff00 );
+		before.getTagSetModel().setTagSetStructure( tss );
+		Model after = copy( before );
+		TagSetStructure.TagSet tagSet = after.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+		after.getTagSetModel().getVertexTags().set( getSpot( after, "t20" ), tagSet.getTags().get( 0 ) );
+		// link across the chunk boundary between timepoint 15 and 16
+		after.getGraph().remove( after.getGraph().getEdge( getSpot( after, "t15" ), getSpot( after, "t16" ) ) );
+
+		List< ModelChange > changes = new ArrayList<>();
+		ModelDiff.Summary summary = ModelDiff.diff( before, after, changes::add );
+
+		assertEquals( 2, changes.size() );
+		ModelChange tag = changes.stream().filter( c -> c.getType() == ModelChange.Type.SPOT_TAG_CHANGED ).findFirst().get();
+		assertEquals( "cell type", tag.getTagSet() );
+		assertEquals( null, tag.getOldValue() );
+		assertEquals( "neuron", tag.getNewValue() );
+		ModelChange link = changes.stream().filter( c -> c.getType() == ModelChange.Type.LINK_REMOVED ).findFirst().get();
+		assertEquals( 15, link.getTimepoint() );
+		assertEquals( ModelIds.of( before ).getSpotId( getSpot( before, "t15" ) ), link.getSourceId() );
+		assertEquals( ModelIds.of( before ).getSpotId( getSpot( before, "t16" ) ), link.getTargetId() );
+		assertEquals( 1, summary.getChangedChunks() );
+	}
+
+	/**
+	 * A single lineage over 40 timepoints, that is three chunks.
+	 */
+	private static Model lineage()
+	{
+		Model model = new Model();
+		ModelIds.of( model );
+		Spot previous = null;
+		for ( int t = 0; t < 40; t++ )
+		{
+			Spot spot = addSpot( model, "t" + t, t, 1, 1, 1 );
+			if ( previous != null )
+				model.getGraph().addEdge( previous, spot );
+			previous = spot;
+		}
+		return model;
+	}
+}
@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mastodon.mamut.collaboration.utils.ModelAsserts;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+
+/**
+ * Tests {@link ModelSnapshotCache}.
+ */
+public class ModelSnapshotCacheTest
+{
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final ObjectId a = ObjectId.fromString( "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa" );
+
+	private final ObjectId b = ObjectId.fromString( "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb" );
+
+	private final ObjectId c = ObjectId.fromString( "cccccccccccccccccccccccccccccccccccccccc" );
+
+	@Test
+	public void testHitAndMiss() throws Exception
+	{
+		ModelSnapshotCache cache = new ModelSnapshotCache( null, "mastodon.project", "pixel", "frame", 100, null, 0 );
+		AtomicInteger loads = new AtomicInteger();
+		Model model = cache.get( a, () -> {
+			loads.incrementAndGet();
+			return exampleModel( 3 );
+		} );
+		assertSame( model, cache.get( a, () -> {
+			loads.incrementAndGet();
+			return exampleModel( 3 );
+		} ) );
+		assertEquals( 1, loads.get() );
+		ModelSnapshotCache.Stats stats = cache.getStats();
+		assertEquals( 1, stats.getHits() );
+		assertEquals( 1, stats.getMisses() );
+		assertEquals( 3, stats.getSpots() );
+	}
+
+	@Test
+	public void testEvictionBySpotCount() throws Exception
+	{
+		ModelSnapshotCache cache = new ModelSnapshotCache( null, "mastodon.project", "pixel", "frame", 10, null, 0 );
+		Model modelA = cache.get( a, () -> exampleModel( 4 ) );
+		cache.get( b, () -> exampleModel( 4 ) );
+		cache.get( a, () -> exampleModel( 4 ) ); // a is now the most recently used
+		cache.get( c, () -> exampleModel( 4 ) );
+		ModelSnapshotCache.Stats stats = cache.getStats();
+		assertEquals( 1, stats.getEvictions() );
+		assertEquals( 2, stats.getEntries() );
+		assertEquals( 8, stats.getSpots() );
+		assertSame( modelA, cache.get( a, () -> exampleModel( 4 ) ) );
+		// a model that is too large is not kept in memory
+		cache.get( b, () -> exampleModel( 11 ) );
+		assertEquals( 2, cache.getStats().getEntries() );
+	}
+
+	@Test
+	public void testDiskTier() throws Exception
+	{
+		File folder = temporaryFolder.newFolder();
+		ModelSnapshotCache cache = new ModelSnapshotCache( null, "mastodon.project", "pixel", "frame", 100, folder, Long.MAX_VALUE );
+		Model model = cache.get( a, () -> exampleModel( 3 ) );
+		cache.awaitDiskWrites();
+		assertEquals( 1, folder.listFiles().length );
+
+		// a new cache, for example after a restart, finds the model on disk
+		ModelSnapshotCache other = new ModelSnapshotCache( null, "mastodon.project", "pixel", "frame", 100, folder, Long.MAX_VALUE );
+		Model read = other.get( a, () -> {
+			throw new AssertionError( "should be read from disk" );
+		} );
+		assertNotSame( model, read );
+		ModelAsserts.assertModelEquals( model, read );
+		assertEquals( 1, other.getStats().getDiskHits() );
+	}
+
+	@Test
+	public void testDiskTierIsBoundedBySize() throws Exception
+	{
+		File folder = temporaryFolder.newFolder();
+		ModelSnapshotCache cache = new ModelSnapshotCache( null, "mastodon.project", "pixel", "frame", 100, folder, 1 );
+		cache.get( a, () -> exampleModel( 3 ) );
+		cache.awaitDiskWrites();
+		// the entry alone exceeds the limit
+		assertEquals( 0, folder.listFiles().length );
+	}
+
+	private static Model exampleModel( int spots )
+	{
+		Model model = new Model();
+		ModelGraph graph = model.getGraph();
+		for ( int i = 0; i < spots; i++ )
+			graph.addVertex().init( i, new double[] { i, 2, 3 }, 1 );
+		return model;
+	}
+}
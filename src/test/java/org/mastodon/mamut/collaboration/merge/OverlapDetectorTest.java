@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.mastodon.mamut.model.Model;
+
+/**
+ * Tests for {@link OverlapDetector}.
+ */
+public class OverlapDetectorTest
+{
+
+	@Test
+	public void testSameAsBruteForce()
+	{
+		Random random = new Random( 42 );
+		FlatModel a = FlatModel.of( randomModel( random, 500 ) );
+		FlatModel b = FlatModel.of( randomModel( random, 500 ) );
+		int[] spotsA = IntStream.range( 0, a.spotCount ).toArray();
+		int[] spotsB = IntStream.range( 0, b.spotCount ).filter( i -> i % 2 == 0 ).toArray();
+
+		BitSet overlapsA = new BitSet();
+		BitSet overlapsB = new BitSet();
+		OverlapDetector.findOverlaps( a, spotsA, b, spotsB, overlapsA, overlapsB );
+
+		BitSet expectedA = new BitSet();
+		BitSet expectedB = new BitSet();
+		for ( int i = 0; i < spotsA.length; i++ )
+			for ( int j = 0; j < spotsB.length; j++ )
+			{
+				int sa = spotsA[ i ];
+				int sb = spotsB[ j ];
+				double radiusSquared = Math.max( a.boundingSphereRadiusSquared[ sa ], b.boundingSphereRadiusSquared[ sb ] );
+				if ( a.timepoint[ sa ] == b.timepoint[ sb ] && a.distanceSquared( sa, b, sb ) < radiusSquared )
+				{
+					expectedA.set( i );
+					expectedB.set( j );
+				}
+			}
+		assertEquals( expectedA, overlapsA );
+		assertEquals( expectedB, overlapsB );
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		FlatModel a = FlatModel.of( randomModel( new Random( 1 ), 10 ) );
+		BitSet overlapsA = new BitSet();
+		BitSet overlapsB = new BitSet();
+		OverlapDetector.findOverlaps( a, new int[ 0 ], a, IntStream.range( 0, 10 ).toArray(), overlapsA, overlapsB );
+		assertEquals( 0, overlapsA.cardinality() + overlapsB.cardinality() );
+	}
+
+	private static Model randomModel( Random random, int spotCount )
+	{
+		Model model = new Model();
+		for ( int i = 0; i < spotCount; i++ )
+		{
+			double[] position = { 100 * random.nextDouble(), 100 * random.nextDouble(), 100 * random.nextDouble() };
+			double radius = 1 + 5 * random.nextDouble();
+			model.getGraph().addVertex().init( random.nextInt( 5 ), position, radius );
+		}
+		return model;
+	}
+}
@@ -0,0 +1,175 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+import org.mastodon.mamut.model.Model;
+
+/**
+ * Tests {@link SpeculativeMerge}.
+ */
+public class SpeculativeMergeTest
+{
+
+	private final ObjectId a = ObjectId.fromString( "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa" );
+
+	private final ObjectId b = ObjectId.fromString( "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb" );
+
+	private final ObjectId c = ObjectId.fromString( "cccccccccccccccccccccccccccccccccccccccc" );
+
+	@Test
+	public void testTakeMatchingResult() throws Exception
+	{
+		SpeculativeMerge speculativeMerge = new SpeculativeMerge();
+		Model model = new Model();
+		assertFalse( speculativeMerge.compute( a, b, ( ours, theirs ) -> model ) );
+		assertEquals( Boolean.FALSE, speculativeMerge.hasConflict( a, b ) );
+		assertNull( speculativeMerge.take( a, c ) );
+		assertSame( model, speculativeMerge.take( a, b ) );
+		// the result is handed out only once
+		assertNull( speculativeMerge.take( a, b ) );
+	}
+
+	@Test
+	public void testComputeOnlyOnce() throws Exception
+	{
+		SpeculativeMerge speculativeMerge = new SpeculativeMerge();
+		AtomicInteger counter = new AtomicInteger();
+		SpeculativeMerge.MergeFunction merge = ( ours, theirs ) -> {
+			counter.incrementAndGet();
+			return new Model();
+		};
+		speculativeMerge.compute( a, b, merge );
+		speculativeMerge.compute( a, b, merge );
+		assertEquals( 1, counter.get() );
+		speculativeMerge.compute( a, c, merge );
+		assertEquals( 2, counter.get() );
+		assertFalse( speculativeMerge.contains( a, b ) );
+		assertTrue( speculativeMerge.contains( a, c ) );
+	}
+
+	@Test
+	public void testFailedMergeIsNotCached() throws Exception
+	{
+		SpeculativeMerge speculativeMerge = new SpeculativeMerge();
+		try
+		{
+			speculativeMerge.compute( a, b, ( ours, theirs ) -> {
+				throw new IllegalStateException();
+			} );
+		}
+		catch ( IllegalStateException e )
+		{
+			// expected
+		}
+		assertFalse( speculativeMerge.contains( a, b ) );
+		assertNull( speculativeMerge.take( a, b ) );
+	}
+
+	@Test
+	public void testTakeWaitsForRunningMerge() throws Exception
+	{
+		SpeculativeMerge speculativeMerge = new SpeculativeMerge();
+		Model model = new Model();
+		CountDownLatch started = new CountDownLatch( 1 );
+		CountDownLatch finish = new CountDownLatch( 1 );
+		Thread thread = new Thread( () -> {
+			try
+			{
+				speculativeMerge.compute( a, b, ( ours, theirs ) -> {
+					started.countDown();
+					finish.await();
+					return model;
+				} );
+			}
+			catch ( Exception e )
+			{
+				throw new RuntimeException( e );
+			}
+		} );
+		thread.start();
+		started.await();
+		assertNull( speculativeMerge.hasConflict( a, b ) );
+		finish.countDown();
+		assertSame( model, speculativeMerge.take( a, b ) );
+		thread.join();
+	}
+
+	@Test
+	public void testComputeAfterConcurrentFailure() throws Exception
+	{
+		SpeculativeMerge speculativeMerge = new SpeculativeMerge();
+		Model model = new Model();
+		CountDownLatch started = new CountDownLatch( 1 );
+		CountDownLatch finish = new CountDownLatch( 1 );
+		Thread failing = new Thread( () -> {
+			try
+			{
+				speculativeMerge.compute( a, b, ( ours, theirs ) -> {
+					started.countDown();
+					finish.await();
+					throw new IllegalStateException();
+				} );
+			}
+			catch ( Exception e )
+			{
+				// expected
+			}
+		} );
+		failing.start();
+		started.await();
+		Thread releasing = new Thread( () -> {
+			try
+			{
+				Thread.sleep( 50 );
+			}
+			catch ( InterruptedException e )
+			{
+				// release immediately
+			}
+			finish.countDown();
+		} );
+		releasing.start();
+		// waits for the failing merge, and then merges itself
+		assertFalse( speculativeMerge.compute( a, b, ( ours, theirs ) -> model ) );
+		assertSame( model, speculativeMerge.take( a, b ) );
+		failing.join();
+		releasing.join();
+	}
+}
@@ -0,0 +1,259 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mamut.collaboration.utils.ModelFixtures.addSpot;
+import static org.mastodon.mamut.collaboration.utils.ModelFixtures.copy;
+import static org.mastodon.mamut.collaboration.utils.ModelFixtures.getSpot;
+
+import org.junit.Test;
+import org.mastodon.mamut.collaboration.utils.ConflictUtils;
+import org.mastodon.mamut.collaboration.utils.ModelAsserts;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * Tests for {@link ThreeWayMerge}.
+ */
+public class ThreeWayMergeTest
+{
+
+	@Test
+	public void testIndependentChanges()
+	{
+		Model base = new Model();
+		Spot a = addSpot( base, "a", 0, 1, 1, 1 );
+		Spot b = addSpot( base, "b", 1, 1, 1, 1 );
+		base.getGraph().addEdge( a, b );
+
+		Model ours = copy( base );
+		Spot c = addSpot( ours, "c", 1, 20, 20, 20 );
+		ours.getGraph().addEdge( getSpot( ours, "a" ), c );
+
+		Model theirs = copy( base );
+		getSpot( theirs, "b" ).setLabel( "b2" );
+
+		Model merged = ThreeWayMerge.merge( base, ours, theirs );
+
+		Model expected = new Model();
+		Spot ea = addSpot( expected, "a", 0, 1, 1, 1 );
+		Spot ec = addSpot( expected, "c", 1, 20, 20, 20 );
+		Spot eb = addSpot( expected, "b2", 1, 1, 1, 1 );
+		expected.getGraph().addEdge( ea, ec );
+		expected.getGraph().addEdge( ea, eb );
+		ModelAsserts.assertModelEquals( expected, merged );
+		assertFalse( ConflictUtils.hasConflict( merged ) );
+	}
+
+	@Test
+	public void testRemoval()
+	{
+		Model base = new Model();
+		Spot a = addSpot( base, "a", 0, 1, 1, 1 );
+		Spot b = addSpot( base, "b", 1, 1, 1, 1 );
+		base.getGraph().addEdge( a, b );
+
+		Model ours = copy( base );
+		ours.getGraph().remove( getSpot( ours, "b" ) );
+
+		Model merged = ThreeWayMerge.merge( base, ours, copy( base ) );
+
+		ModelAsserts.assertModelEquals( ours, merged );
+		assertFalse( ConflictUtils.hasConflict( merged ) );
+	}
+
+	@Test
+	public void testSameSpotAddedOnBothSides()
+	{
+		Model base = new Model();
+		addSpot( base, "a", 0, 1, 1, 1 );
+		Model ours = copy( base );
+		addSpot( ours, "b", 1, 1, 1, 1 );
+		Model theirs = copy( base );
+		addSpot( theirs, "b", 1, 1, 1, 1 );
+
+		Model merged = ThreeWayMerge.merge( base, ours, theirs );
+
+		ModelAsserts.assertModelEquals( ours, merged );
+		assertFalse( ConflictUtils.hasConflict( merged ) );
+	}
+
+	@Test
+	public void testOverlappingSpotsAddedOnBothSides()
+	{
+		Model base = new Model();
+		addSpot( base, "a", 0, 1, 1, 1 );
+		Model ours = copy( base );
+		addSpot( ours, "b", 1, 1, 1, 1 );
+		Model theirs = copy( base );
+		addSpot( theirs, "c", 1, 1.5, 1, 1 );
+
+		Model merged = ThreeWayMerge.merge( base, ours, theirs );
+
+		assertEquals( 3, merged.getGraph().vertices().size() );
+		assertTrue( ConflictUtils.hasConflict( merged ) );
+	}
+
+	@Test
+	public void testMovedOnBothSides()
+	{
+		Model base = new Model();
+		addSpot( base, "a", 0, 1, 1, 1 );
+		Model ours = copy( base );
+		getSpot( ours, "a" ).setPosition( new double[] { 2, 1, 1 } );
+		Model theirs = copy( base );
+		getSpot( theirs, "a" ).setPosition( new double[] { 3, 1, 1 } );
+
+		Model merged = ThreeWayMerge.merge( base, ours, theirs );
+
+		assertTrue( ConflictUtils.hasConflict( merged ) );
+	}
+
+	@Test
+	public void testMatchByIds()
+	{
+		Model base = new Model();
+		ModelIds.of( base );
+		addSpot( base, "a", 0, 1, 1, 1 );
+
+		Model ours = copy( base );
+		getSpot( ours, "a" ).setPosition( new double[] { 2, 1, 1 } );
+		Model theirs = copy( base );
+		getSpot( theirs, "a" ).setLabel( "b" );
+
+		Model merged = ThreeWayMerge.merge( base, ours, theirs );
+
+		Model expected = new Model();
+		addSpot( expected, "b", 0, 2, 1, 1 );
+		ModelAsserts.assertModelEquals( expected, merged );
+		assertFalse( ConflictUtils.hasConflict( merged ) );
+		Spot spot = merged.getGraph().vertices().iterator().next();
+		assertEquals( ModelIds.of( base ).getSpotId( getSpot( base, "a" ) ), ModelIds.of( merged ).getSpotId( spot ) );
+	}
+
+	@Test
+	public void testTags()
+	{
+		Model base = new Model();
+		addSpot( base, "a", 0, 1, 1, 1 );
+		addSpot( base, "b", 0, 10, 1, 1 );
+		TagSetStructure tss = new TagSetStructure();
+		TagSetStructure.TagSet tagSet = tss.createTagSet( "cell type" );
+		tagSet.createTag( "neuron", 0xff00ff00 );
+		tagSet.createTag( "muscle", 0xff0000ff );
+		base.getTagSetModel().setTagSetStructure( tss );
+
+		Model ours = copy( base );
+		tag( ours, "a", "neuron" );
+		Model theirs = copy( base );
+		tag( theirs, "b", "muscle" );
+
+		Model merged = ThreeWayMerge.merge( base, ours, theirs );
+
+		Model expected = copy( base );
+		tag( expected, "a", "neuron" );
+		tag( expected, "b", "muscle" );
+		ModelAsserts.assertModelEquals( expected, merged );
+		assertFalse( ConflictUtils.hasConflict( merged ) );
+	}
+
+	@Test
+	public void testTagConflict()
+	{
+		Model base = new Model();
+		addSpot( base, "a", 0, 1, 1, 1 );
+		TagSetStructure tss = new TagSetStructure();
+		TagSetStructure.TagSet tagSet = tss.createTagSet( "cell type" );
+		tagSet.createTag( "neuron", 0xff00ff00 );
+		tagSet.createTag( "muscle", 0xff0000ff );
+		base.getTagSetModel().setTagSetStructure( tss );
+
+		Model ours = copy( base );
+		tag( ours, "a", "neuron" );
+		Model theirs = copy( base );
+		tag( theirs, "a", "muscle" );
+
+		Model merged = ThreeWayMerge.merge( base, ours, theirs );
+
+		assertTrue( ConflictUtils.hasConflict( merged ) );
+	}
+
+	@Test
+	public void testMergeLean()
+	{
+		Model base = new Model();
+		ModelIds.of( base );
+		addSpot( base, "a", 0, 1, 1, 1 );
+		addSpot( base, "b", 0, 10, 1, 1 );
+		Model ours = copy( base );
+		getSpot( ours, "a" ).setLabel( "a1" );
+		Model theirs = copy( base );
+		getSpot( theirs, "a" ).setLabel( "a2" );
+
+		ThreeWayMerge.Result result = ThreeWayMerge.mergeLean( base, ours, theirs );
+
+		Model merged = result.getModel();
+		assertEquals( 1, result.getConflicts().getConflictCount() );
+		assertTrue( merged.getTagSetModel().getTagSetStructure().getTagSets().isEmpty() );
+		assertFalse( ConflictUtils.hasConflict( merged ) );
+		result.getConflicts().materialize( merged );
+		assertTrue( ConflictUtils.hasConflict( merged ) );
+		TagSetStructure.TagSet tagSet = merged.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+		assertEquals( ThreeWayMerge.LABEL_CONFLICT_TAG_SET, tagSet.getName() );
+		assertEquals( tagSet.getTags().get( 0 ), merged.getTagSetModel().getVertexTags().tags( tagSet ).get( getSpot( merged, "a1" ) ) );
+		assertNull( merged.getTagSetModel().getVertexTags().tags( tagSet ).get( getSpot( merged, "b" ) ) );
+	}
+
+	@Test
+	public void testMergeLeanWithoutConflicts()
+	{
+		Model base = new Model();
+		addSpot( base, "a", 0, 1, 1, 1 );
+		Model ours = copy( base );
+		addSpot( ours, "b", 1, 1, 1, 1 );
+
+		ThreeWayMerge.Result result = ThreeWayMerge.mergeLean( base, ours, copy( base ) );
+
+		assertTrue( result.getConflicts().isEmpty() );
+		ModelAsserts.assertModelEquals( ours, result.getModel() );
+	}
+
+	private static void tag( Model model, String spotLabel, String tagLabel )
+	{
+		TagSetStructure.TagSet tagSet = model.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+		TagSetStructure.Tag tag = tagSet.getTags().stream().filter( t -> t.label().equals( tagLabel ) ).findFirst().get();
+		model.getTagSetModel().getVertexTags().set( getSpot( model, spotLabel ), tag );
+	}
+}
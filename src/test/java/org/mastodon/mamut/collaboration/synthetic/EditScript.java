@@ -0,0 +1,408 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.synthetic;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mastodon.collection.RefList;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.mamut.collaboration.utils.CopyModelUtils;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * A list of edits, as an annotator would make them to a model. Spots and
+ * links are referenced by their {@link ModelIds}, such that the same script
+ * can be applied to any copy of the model it was created for.
+ *
+ * @see EditScriptGenerator
+ */
+public class EditScript
+{
+
+	private final List< Edit > edits;
+
+	EditScript( final List< Edit > edits )
+	{
+		this.edits = Collections.unmodifiableList( edits );
+	}
+
+	public List< Edit > getEdits()
+	{
+		return edits;
+	}
+
+	public int size()
+	{
+		return edits.size();
+	}
+
+	/**
+	 * Returns a copy of the given model, with all edits applied.
+	 */
+	public Model applyToCopy( final Model model )
+	{
+		final Model copy = new Model( model.getSpaceUnits(), model.getTimeUnits() );
+		CopyModelUtils.copyModelFromTo( model, copy );
+		applyTo( copy );
+		return copy;
+	}
+
+	/**
+	 * Applies all edits to the given model. Edits that reference a spot or
+	 * link that is not in the model are skipped.
+	 */
+	public void applyTo( final Model model )
+	{
+		final Target target = new Target( model );
+		for ( final Edit edit : edits )
+			edit.applyTo( target );
+		target.release();
+	}
+
+	/**
+	 * One change to a model.
+	 */
+	public interface Edit
+	{
+		void applyTo( Target target );
+	}
+
+	/**
+	 * The model that the edits are applied to, with a lookup of the
+	 * referenced spots and links by id. The lookup only holds the spots and
+	 * links that are referenced by the script.
+	 */
+	public class Target
+	{
+
+		private final Model model;
+
+		private final ModelGraph graph;
+
+		private final ModelIds ids;
+
+		private final RefList< Spot > spots;
+
+		private final RefList< Link > links;
+
+		private final Map< Long, Integer > spotIndex = new HashMap<>();
+
+		private final Map< Long, Integer > linkIndex = new HashMap<>();
+
+		private final Spot spotRef;
+
+		private final Link linkRef;
+
+		private Target( final Model model )
+		{
+			this.model = model;
+			this.graph = model.getGraph();
+			this.ids = ModelIds.of( model );
+			this.spots = new RefArrayList<>( graph.vertices().getRefPool() );
+			this.links = new RefArrayList<>( graph.edges().getRefPool() );
+			this.spotRef = graph.vertexRef();
+			this.linkRef = graph.edgeRef();
+			for ( final Edit edit : edits )
+			{
+				if ( edit instanceof SpotEdit )
+					spotIndex.put( ( ( SpotEdit ) edit ).spotId, -1 );
+				if ( edit instanceof AddSpot )
+					spotIndex.put( ( ( AddSpot ) edit ).parentId, -1 );
+				if ( edit instanceof RemoveLink )
+					linkIndex.put( ( ( RemoveLink ) edit ).linkId, -1 );
+			}
+			for ( final Spot spot : graph.vertices() )
+				if ( spotIndex.containsKey( ids.getSpotId( spot ) ) )
+				{
+					spotIndex.put( ids.getSpotId( spot ), spots.size() );
+					spots.add( spot );
+				}
+			for ( final Link link : graph.edges() )
+				if ( linkIndex.containsKey( ids.getLinkId( link ) ) )
+				{
+					linkIndex.put( ids.getLinkId( link ), links.size() );
+					links.add( link );
+				}
+		}
+
+		public Model getModel()
+		{
+			return model;
+		}
+
+		/**
+		 * Returns the spot with the given id, or null if there is no such spot.
+		 */
+		public Spot getSpot( final long id )
+		{
+			final Integer index = spotIndex.get( id );
+			if ( index == null || index < 0 )
+				return null;
+			return spots.get( index, spotRef );
+		}
+
+		public Link getLink( final long id )
+		{
+			final Integer index = linkIndex.get( id );
+			if ( index == null || index < 0 )
+				return null;
+			return links.get( index, linkRef );
+		}
+
+		private void removeSpot( final Spot spot )
+		{
+			final long id = ids.getSpotId( spot );
+			spotIndex.put( id, -1 );
+			for ( final Link link : spot.edges() )
+				linkIndex.remove( ids.getLinkId( link ) );
+			graph.remove( spot );
+		}
+
+		private void removeLink( final Link link )
+		{
+			linkIndex.put( ids.getLinkId( link ), -1 );
+			graph.remove( link );
+		}
+
+		private void release()
+		{
+			graph.releaseRef( spotRef );
+			graph.releaseRef( linkRef );
+		}
+	}
+
+	/**
+	 * Base class of the edits that change a spot.
+	 */
+	public abstract static class SpotEdit implements Edit
+	{
+		protected final long spotId;
+
+		protected SpotEdit( final long spotId )
+		{
+			this.spotId = spotId;
+		}
+
+		public long getSpotId()
+		{
+			return spotId;
+		}
+
+		@Override
+		public void applyTo( final Target target )
+		{
+			final Spot spot = target.getSpot( spotId );
+			if ( spot != null )
+				applyTo( target, spot );
+		}
+
+		protected abstract void applyTo( Target target, Spot spot );
+	}
+
+	public static class MoveSpot extends SpotEdit
+	{
+		private final double[] shift;
+
+		public MoveSpot( final long spotId, final double[] shift )
+		{
+			super( spotId );
+			this.shift = shift.clone();
+		}
+
+		@Override
+		protected void applyTo( final Target target, final Spot spot )
+		{
+			final double[] position = new double[ 3 ];
+			spot.localize( position );
+			for ( int d = 0; d < 3; d++ )
+				position[ d ] += shift[ d ];
+			spot.setPosition( position );
+		}
+	}
+
+	public static class ResizeSpot extends SpotEdit
+	{
+		private final double factor;
+
+		public ResizeSpot( final long spotId, final double factor )
+		{
+			super( spotId );
+			this.factor = factor;
+		}
+
+		@Override
+		protected void applyTo( final Target target, final Spot spot )
+		{
+			final double[][] covariance = new double[ 3 ][ 3 ];
+			spot.getCovariance( covariance );
+			for ( int i = 0; i < 3; i++ )
+				for ( int j = 0; j < 3; j++ )
+					covariance[ i ][ j ] *= factor * factor;
+			spot.setCovariance( covariance );
+		}
+	}
+
+	public static class SetLabel extends SpotEdit
+	{
+		private final String label;
+
+		public SetLabel( final long spotId, final String label )
+		{
+			super( spotId );
+			this.label = label;
+		}
+
+		@Override
+		protected void applyTo( final Target target, final Spot spot )
+		{
+			spot.setLabel( label );
+		}
+	}
+
+	/**
+	 * Sets the tag of a spot in the tag set with the given name, or removes
+	 * the tag if the tag label is null.
+	 */
+	public static class SetTag extends SpotEdit
+	{
+		private final String tagSetName;
+
+		private final String tagLabel;
+
+		public SetTag( final long spotId, final String tagSetName, final String tagLabel )
+		{
+			super( spotId );
+			this.tagSetName = tagSetName;
+			this.tagLabel = tagLabel;
+		}
+
+		@Override
+		protected void applyTo( final Target target, final Spot spot )
+		{
+			for ( final TagSetStructure.TagSet tagSet : target.getModel().getTagSetModel().getTagSetStructure().getTagSets() )
+			{
+				if ( !tagSet.getName().equals( tagSetName ) )
+					continue;
+				if ( tagLabel == null )
+					target.getModel().getTagSetModel().getVertexTags().remove( spot, tagSet );
+				else
+					for ( final TagSetStructure.Tag tag : tagSet.getTags() )
+						if ( tag.label().equals( tagLabel ) )
+							target.getModel().getTagSetModel().getVertexTags().set( spot, tag );
+			}
+		}
+	}
+
+	public static class RemoveSpot extends SpotEdit
+	{
+		public RemoveSpot( final long spotId )
+		{
+			super( spotId );
+		}
+
+		@Override
+		protected void applyTo( final Target target, final Spot spot )
+		{
+			target.removeSpot( spot );
+		}
+	}
+
+	/**
+	 * Adds a spot, and a link from the given parent to it. If the parent id
+	 * is {@link ModelIds#NO_ID}, the new spot has no parent.
+	 */
+	public static class AddSpot implements Edit
+	{
+		private final long spotId;
+
+		private final long parentId;
+
+		private final long linkId;
+
+		private final int timepoint;
+
+		private final double[] position;
+
+		private final double radius;
+
+		public AddSpot( final long spotId, final long parentId, final long linkId, final int timepoint, final double[] position, final double radius )
+		{
+			this.spotId = spotId;
+			this.parentId = parentId;
+			this.linkId = linkId;
+			this.timepoint = timepoint;
+			this.position = position.clone();
+			this.radius = radius;
+		}
+
+		@Override
+		public void applyTo( final Target target )
+		{
+			final Spot parent = parentId == ModelIds.NO_ID ? null : target.getSpot( parentId );
+			if ( parentId != ModelIds.NO_ID && parent == null )
+				return;
+			final ModelGraph graph = target.getModel().getGraph();
+			final Spot spot = graph.addVertex().init( timepoint, position, radius );
+			target.ids.setSpotId( spot, spotId );
+			if ( parent != null )
+			{
+				final Link link = graph.addEdge( parent, spot ).init();
+				target.ids.setLinkId( link, linkId );
+				graph.releaseRef( link );
+			}
+			graph.releaseRef( spot );
+		}
+	}
+
+	public static class RemoveLink implements Edit
+	{
+		private final long linkId;
+
+		public RemoveLink( final long linkId )
+		{
+			this.linkId = linkId;
+		}
+
+		@Override
+		public void applyTo( final Target target )
+		{
+			final Link link = target.getLink( linkId );
+			if ( link != null )
+				target.removeLink( link );
+		}
+	}
+}
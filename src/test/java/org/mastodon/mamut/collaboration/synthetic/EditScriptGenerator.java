@@ -0,0 +1,280 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.synthetic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.mastodon.collection.RefList;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * Generates random {@link EditScript}s for a shared base model, that
+ * simulate several annotators working on copies of the same project.
+ * <p>
+ * Each edit changes one spot of the base: it moves, resizes, relabels,
+ * (un)tags or removes the spot, removes its incoming link or adds a new
+ * spot next to it. Within one script, the spots that are edited and their
+ * direct neighbors are disjoint. By default, the scripts returned by
+ * successive calls of {@link #generate(int)} are disjoint in the same way,
+ * such that they can be merged without conflicts. With
+ * {@link #overlap(double)} a fraction of the edits is made to spots that were
+ * already edited by the previous scripts, which provokes conflicts.
+ * <p>
+ * The scripts only depend on the base model, the seed and the order of
+ * calls.
+ *
+ * <pre>
+ * Model base = new LineageGenerator( 42 ).spots( 100_000 ).generate();
+ * EditScriptGenerator generator = new EditScriptGenerator( base, 42 );
+ * Model ours = generator.generate( 1000 ).applyToCopy( base );
+ * Model theirs = generator.generate( 1000 ).applyToCopy( base );
+ * </pre>
+ */
+public class EditScriptGenerator
+{
+
+	private static final int MAX_TRIES = 1000;
+
+	private final Model base;
+
+	private final ModelIds ids;
+
+	private final Random random;
+
+	/** All spots of the base model, in iteration order. */
+	private final RefList< Spot > spots;
+
+	/**
+	 * Spots that are edited, or are neighbors of edited spots, in any of
+	 * the generated scripts. Indexed like {@link #spots}.
+	 */
+	private final boolean[] claimed;
+
+	/** Maps the pool index of a spot to its position in {@link #spots}. */
+	private final int[] indexOfPoolIndex;
+
+	/** Indices of the spots edited by the generated scripts. */
+	private final List< Integer > edited = new ArrayList<>();
+
+	private double overlap = 0;
+
+	private int counter = 0;
+
+	public EditScriptGenerator( final Model base, final long seed )
+	{
+		this.base = base;
+		this.ids = ModelIds.of( base );
+		this.random = new Random( seed );
+		this.spots = new RefArrayList<>( base.getGraph().vertices().getRefPool(), base.getGraph().vertices().size() );
+		int maxPoolIndex = -1;
+		for ( final Spot spot : base.getGraph().vertices() )
+		{
+			spots.add( spot );
+			maxPoolIndex = Math.max( maxPoolIndex, spot.getInternalPoolIndex() );
+		}
+		this.claimed = new boolean[ spots.size() ];
+		this.indexOfPoolIndex = new int[ maxPoolIndex + 1 ];
+		final Spot ref = base.getGraph().vertexRef();
+		for ( int i = 0; i < spots.size(); i++ )
+			indexOfPoolIndex[ spots.get( i, ref ).getInternalPoolIndex() ] = i;
+		base.getGraph().releaseRef( ref );
+	}
+
+	/**
+	 * Sets the fraction of edits, that are made to spots that were edited by
+	 * previously generated scripts. Default 0.
+	 */
+	public EditScriptGenerator overlap( final double overlap )
+	{
+		this.overlap = overlap;
+		return this;
+	}
+
+	/**
+	 * Generates a script with the given number of edits, that simulates the
+	 * work of one annotator.
+	 */
+	public EditScript generate( final int numberOfEdits )
+	{
+		final int previouslyEdited = edited.size();
+		final boolean[] mine = new boolean[ spots.size() ];
+		final List< EditScript.Edit > edits = new ArrayList<>( numberOfEdits );
+		final ModelGraph graph = base.getGraph();
+		final Spot spot = graph.vertexRef();
+		final Spot other = graph.vertexRef();
+		final Link link = graph.edgeRef();
+		for ( int e = 0; e < numberOfEdits; e++ )
+		{
+			final boolean contested = previouslyEdited > 0 && random.nextDouble() < overlap;
+			final int index = contested ? pickEdited( previouslyEdited, mine ) : pickUnclaimed( mine );
+			spots.get( index, spot );
+			claim( index, spot, mine );
+			edits.add( randomEdit( spot, other, link ) );
+		}
+		graph.releaseRef( spot );
+		graph.releaseRef( other );
+		graph.releaseRef( link );
+		return new EditScript( edits );
+	}
+
+	private int pickUnclaimed( final boolean[] mine )
+	{
+		final Spot spot = base.getGraph().vertexRef();
+		final Spot neighbor = base.getGraph().vertexRef();
+		try
+		{
+			for ( int i = 0; i < MAX_TRIES; i++ )
+			{
+				final int index = random.nextInt( spots.size() );
+				if ( claimed[ index ] || mine[ index ] )
+					continue;
+				spots.get( index, spot );
+				if ( isNeighborClaimed( spot, neighbor ) )
+					continue;
+				return index;
+			}
+			throw new IllegalStateException( "The base model is too small for the requested number of edits." );
+		}
+		finally
+		{
+			base.getGraph().releaseRef( spot );
+			base.getGraph().releaseRef( neighbor );
+		}
+	}
+
+	private int pickEdited( final int previouslyEdited, final boolean[] mine )
+	{
+		for ( int i = 0; i < MAX_TRIES; i++ )
+		{
+			final int index = edited.get( random.nextInt( previouslyEdited ) );
+			if ( !mine[ index ] )
+				return index;
+		}
+		return pickUnclaimed( mine );
+	}
+
+	private boolean isNeighborClaimed( final Spot spot, final Spot ref )
+	{
+		for ( final Link link : spot.incomingEdges() )
+			if ( claimed[ indexOf( link.getSource( ref ) ) ] )
+				return true;
+		for ( final Link link : spot.outgoingEdges() )
+			if ( claimed[ indexOf( link.getTarget( ref ) ) ] )
+				return true;
+		return false;
+	}
+
+	/**
+	 * Marks the spot and its direct neighbors as claimed.
+	 */
+	private void claim( final int index, final Spot spot, final boolean[] mine )
+	{
+		edited.add( index );
+		claimed[ index ] = true;
+		mine[ index ] = true;
+		final Spot ref = base.getGraph().vertexRef();
+		for ( final Link link : spot.incomingEdges() )
+			claimNeighbor( indexOf( link.getSource( ref ) ), mine );
+		for ( final Link link : spot.outgoingEdges() )
+			claimNeighbor( indexOf( link.getTarget( ref ) ), mine );
+		base.getGraph().releaseRef( ref );
+	}
+
+	private void claimNeighbor( final int index, final boolean[] mine )
+	{
+		claimed[ index ] = true;
+		mine[ index ] = true;
+	}
+
+	private int indexOf( final Spot spot )
+	{
+		return indexOfPoolIndex[ spot.getInternalPoolIndex() ];
+	}
+
+	private EditScript.Edit randomEdit( final Spot spot, final Spot ref, final Link linkRef )
+	{
+		final long spotId = ids.getSpotId( spot );
+		final double r = random.nextDouble();
+		if ( r < 0.3 )
+			return new EditScript.MoveSpot( spotId, new double[] { random.nextGaussian(), random.nextGaussian(), random.nextGaussian() } );
+		if ( r < 0.4 )
+			return new EditScript.ResizeSpot( spotId, 0.8 + 0.4 * random.nextDouble() );
+		if ( r < 0.55 )
+			return new EditScript.SetLabel( spotId, "edit " + counter++ );
+		if ( r < 0.7 )
+		{
+			final List< TagSetStructure.TagSet > tagSets = base.getTagSetModel().getTagSetStructure().getTagSets();
+			if ( !tagSets.isEmpty() )
+			{
+				final TagSetStructure.TagSet tagSet = tagSets.get( random.nextInt( tagSets.size() ) );
+				final List< TagSetStructure.Tag > tags = tagSet.getTags();
+				final int tag = random.nextInt( tags.size() + 1 );
+				return new EditScript.SetTag( spotId, tagSet.getName(), tag < tags.size() ? tags.get( tag ).label() : null );
+			}
+		}
+		if ( r < 0.85 )
+			return addSpot( spot );
+		if ( r < 0.9 && !spot.incomingEdges().isEmpty() )
+			return new EditScript.RemoveLink( ids.getLinkId( spot.incomingEdges().get( 0, linkRef ) ) );
+		return new EditScript.RemoveSpot( spotId );
+	}
+
+	/**
+	 * Adds a child to the given spot, or if it already has two children, a
+	 * new spot without parent next to it.
+	 */
+	private EditScript.Edit addSpot( final Spot spot )
+	{
+		final boolean child = spot.outgoingEdges().size() < 2;
+		final double[] position = new double[ 3 ];
+		spot.localize( position );
+		for ( int d = 0; d < 3; d++ )
+			position[ d ] += 0.5 * random.nextGaussian();
+		final int timepoint = spot.getTimepoint() + ( child ? 1 : 0 );
+		final long parentId = child ? ids.getSpotId( spot ) : ModelIds.NO_ID;
+		return new EditScript.AddSpot( nextId(), parentId, nextId(), timepoint, position, 3 );
+	}
+
+	private long nextId()
+	{
+		long id;
+		do
+			id = random.nextLong();
+		while ( id == ModelIds.NO_ID );
+		return id;
+	}
+}
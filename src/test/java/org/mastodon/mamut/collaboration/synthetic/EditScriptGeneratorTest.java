@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.synthetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mastodon.mamut.collaboration.merge.ThreeWayMerge;
+import org.mastodon.mamut.collaboration.utils.ConflictUtils;
+import org.mastodon.mamut.collaboration.utils.ModelAsserts;
+import org.mastodon.mamut.model.Model;
+
+/**
+ * Tests for {@link EditScriptGenerator} and {@link EditScript}.
+ */
+public class EditScriptGeneratorTest
+{
+
+	private final Model base = new LineageGenerator( 3 ).spots( 20_000 ).generate();
+
+	@Test
+	public void testSameSeedGivesSameEdits()
+	{
+		Model a = new EditScriptGenerator( base, 11 ).generate( 500 ).applyToCopy( base );
+		Model b = new EditScriptGenerator( base, 11 ).generate( 500 ).applyToCopy( base );
+		ModelAsserts.assertModelEquals( a, b );
+	}
+
+	@Test
+	public void testEditsChangeTheModel()
+	{
+		EditScript script = new EditScriptGenerator( base, 11 ).generate( 500 );
+		assertEquals( 500, script.size() );
+		Model edited = script.applyToCopy( base );
+		assertFalse( edited.getGraph().vertices().size() == base.getGraph().vertices().size()
+				&& edited.getGraph().edges().size() == base.getGraph().edges().size() );
+	}
+
+	@Test
+	public void testDisjointAnnotatorsMergeWithoutConflict()
+	{
+		EditScriptGenerator generator = new EditScriptGenerator( base, 12 );
+		Model ours = generator.generate( 500 ).applyToCopy( base );
+		Model theirs = generator.generate( 500 ).applyToCopy( base );
+		Model merged = ThreeWayMerge.merge( base, ours, theirs );
+		assertFalse( ConflictUtils.hasConflict( merged ) );
+	}
+
+	@Test
+	public void testOverlappingAnnotatorsConflict()
+	{
+		EditScriptGenerator generator = new EditScriptGenerator( base, 13 ).overlap( 1 );
+		Model ours = generator.generate( 500 ).applyToCopy( base );
+		Model theirs = generator.generate( 500 ).applyToCopy( base );
+		Model merged = ThreeWayMerge.merge( base, ours, theirs );
+		assertTrue( ConflictUtils.hasConflict( merged ) );
+	}
+}
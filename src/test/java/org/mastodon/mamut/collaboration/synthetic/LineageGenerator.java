@@ -0,0 +1,324 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.synthetic;
+
+import java.util.Random;
+
+import org.mastodon.collection.RefList;
+import org.mastodon.collection.ref.RefArrayList;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * Generates synthetic lineage trees, that resemble the tracking of dividing
+ * cells. The result only depends on the seed and the parameters, which
+ * allows to use models of any size in tests and benchmarks without storing
+ * them as files.
+ * <p>
+ * The generation starts with a number of root spots at timepoint 0. In each
+ * timepoint, every cell moves by a small random step, and either divides,
+ * dies or is continued by one spot in the next timepoint. Spots get random
+ * ellipsoid covariances, some of them get labels. The lineages are tagged
+ * with a cell type, that is inherited by all spots of a lineage, and some
+ * links get a confidence tag. The persistent {@link ModelIds} are derived
+ * from the seed too.
+ * <p>
+ * Generation stops when the given number of spots or timepoints is
+ * reached. If all cells died, a new root is added.
+ */
+public class LineageGenerator
+{
+
+	public static final String CELL_TYPE_TAG_SET = "Cell Type";
+
+	public static final String[] CELL_TYPES = { "neuron", "muscle", "epidermis", "germline" };
+
+	public static final String CONFIDENCE_TAG_SET = "Confidence";
+
+	public static final String[] CONFIDENCES = { "high", "low" };
+
+	private static final int[] COLORS = { 0xffff0000, 0xff00ff00, 0xff0000ff, 0xffffff00 };
+
+	private static final double VOLUME_SIZE = 1000;
+
+	private final long seed;
+
+	private int numberOfSpots = 10_000;
+
+	private int timepoints = 1000;
+
+	private int roots = 16;
+
+	private double divisionProbability = 0.005;
+
+	private double deathProbability = 0.0005;
+
+	private double labelProbability = 0.01;
+
+	private double tagProbability = 0.1;
+
+	public LineageGenerator( final long seed )
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the number of spots to generate, unless the number of timepoints
+	 * is reached before. Default 10 000.
+	 */
+	public LineageGenerator spots( final int numberOfSpots )
+	{
+		this.numberOfSpots = numberOfSpots;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of timepoints. Default 1000.
+	 */
+	public LineageGenerator timepoints( final int timepoints )
+	{
+		this.timepoints = timepoints;
+		return this;
+	}
+
+	/**
+	 * Sets the number of spots in the first timepoint. Default 16.
+	 */
+	public LineageGenerator roots( final int roots )
+	{
+		this.roots = roots;
+		return this;
+	}
+
+	/**
+	 * Sets the probability of a cell to divide, per timepoint. Default 0.005.
+	 */
+	public LineageGenerator divisionProbability( final double probability )
+	{
+		this.divisionProbability = probability;
+		return this;
+	}
+
+	/**
+	 * Sets the probability of a track to end, per timepoint. Default 0.0005.
+	 */
+	public LineageGenerator deathProbability( final double probability )
+	{
+		this.deathProbability = probability;
+		return this;
+	}
+
+	/**
+	 * Sets the fraction of spots that get a label. Default 0.01.
+	 */
+	public LineageGenerator labelProbability( final double probability )
+	{
+		this.labelProbability = probability;
+		return this;
+	}
+
+	/**
+	 * Sets the fraction of lineages that get a cell type and the fraction of
+	 * links that get a confidence tag. Default 0.1.
+	 */
+	public LineageGenerator tagProbability( final double probability )
+	{
+		this.tagProbability = probability;
+		return this;
+	}
+
+	public Model generate()
+	{
+		return new Generation().run();
+	}
+
+	/**
+	 * The state of one run of {@link #generate()}.
+	 */
+	private class Generation
+	{
+
+		private final Random random = new Random( seed );
+
+		private final Model model = new Model();
+
+		private final ModelGraph graph = model.getGraph();
+
+		private final ModelIds ids = ModelIds.of( model );
+
+		private final ObjTagMap< Spot, TagSetStructure.Tag > cellTypeTags;
+
+		private final ObjTagMap< Link, TagSetStructure.Tag > confidenceTags;
+
+		private final TagSetStructure.TagSet cellTypes;
+
+		private final TagSetStructure.TagSet confidences;
+
+		/** Cell type of a spot, indexed by pool index, -1 if none. */
+		private final byte[] cellTypeOf = new byte[ numberOfSpots ];
+
+		private final double[] position = new double[ 3 ];
+
+		private final double[][] covariance = new double[ 3 ][ 3 ];
+
+		private final double[][] axes = new double[ 3 ][ 3 ];
+
+		private int count = 0;
+
+		private Generation()
+		{
+			final TagSetStructure tss = new TagSetStructure();
+			final TagSetStructure.TagSet cellTypeSet = tss.createTagSet( CELL_TYPE_TAG_SET );
+			for ( int i = 0; i < CELL_TYPES.length; i++ )
+				cellTypeSet.createTag( CELL_TYPES[ i ], COLORS[ i ] );
+			final TagSetStructure.TagSet confidenceSet = tss.createTagSet( CONFIDENCE_TAG_SET );
+			for ( int i = 0; i < CONFIDENCES.length; i++ )
+				confidenceSet.createTag( CONFIDENCES[ i ], COLORS[ i ] );
+			model.getTagSetModel().setTagSetStructure( tss );
+			// NB: setTagSetStructure copies the structure, use the tag sets of the model
+			cellTypes = model.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+			confidences = model.getTagSetModel().getTagSetStructure().getTagSets().get( 1 );
+			cellTypeTags = model.getTagSetModel().getVertexTags().tags( cellTypes );
+			confidenceTags = model.getTagSetModel().getEdgeTags().tags( confidences );
+		}
+
+		private Model run()
+		{
+			RefList< Spot > current = new RefArrayList<>( graph.vertices().getRefPool() );
+			RefList< Spot > next = new RefArrayList<>( graph.vertices().getRefPool() );
+			final Spot parent = graph.vertexRef();
+			final Spot child = graph.vertexRef();
+			final Link link = graph.edgeRef();
+			for ( int i = 0; i < roots && count < numberOfSpots; i++ )
+				current.add( addRoot( 0, child ) );
+			for ( int t = 1; t < timepoints && count < numberOfSpots; t++ )
+			{
+				for ( int i = 0; i < current.size() && count < numberOfSpots; i++ )
+				{
+					current.get( i, parent );
+					if ( random.nextDouble() < deathProbability )
+						continue;
+					final boolean divide = random.nextDouble() < divisionProbability;
+					final int children = divide ? 2 : 1;
+					for ( int c = 0; c < children && count < numberOfSpots; c++ )
+					{
+						parent.localize( position );
+						for ( int d = 0; d < 3; d++ )
+							position[ d ] += random.nextGaussian() + ( divide ? ( c == 0 ? -5 : 5 ) : 0 );
+						addSpot( t, child );
+						graph.addEdge( parent, child, link ).init();
+						ids.setLinkId( link, nextId() );
+						if ( random.nextDouble() < tagProbability )
+							confidenceTags.set( link, confidences.getTags().get( random.nextInt( CONFIDENCES.length ) ) );
+						final byte cellType = cellTypeOf[ parent.getInternalPoolIndex() ];
+						setCellType( child, cellType );
+						next.add( child );
+					}
+				}
+				if ( next.isEmpty() && count < numberOfSpots )
+					next.add( addRoot( t, child ) );
+				final RefList< Spot > tmp = current;
+				current = next;
+				next = tmp;
+				next.clear();
+			}
+			graph.releaseRef( parent );
+			graph.releaseRef( child );
+			graph.releaseRef( link );
+			return model;
+		}
+
+		private Spot addRoot( final int timepoint, final Spot ref )
+		{
+			for ( int d = 0; d < 3; d++ )
+				position[ d ] = random.nextDouble() * VOLUME_SIZE;
+			final Spot spot = addSpot( timepoint, ref );
+			final byte cellType = random.nextDouble() < tagProbability ? ( byte ) random.nextInt( CELL_TYPES.length ) : -1;
+			setCellType( spot, cellType );
+			return spot;
+		}
+
+		/**
+		 * Adds a spot at the current {@link #position}, with a random
+		 * covariance and a random id.
+		 */
+		private Spot addSpot( final int timepoint, final Spot ref )
+		{
+			randomCovariance();
+			final Spot spot = graph.addVertex( ref ).init( timepoint, position, covariance );
+			ids.setSpotId( spot, nextId() );
+			if ( random.nextDouble() < labelProbability )
+				spot.setLabel( "cell " + count );
+			count++;
+			return spot;
+		}
+
+		private void setCellType( final Spot spot, final byte cellType )
+		{
+			cellTypeOf[ spot.getInternalPoolIndex() ] = cellType;
+			if ( cellType >= 0 )
+				cellTypeTags.set( spot, cellTypes.getTags().get( cellType ) );
+		}
+
+		/**
+		 * Sets {@link #covariance} to {@code A * A^T}, where A is a random
+		 * perturbation of a scaled identity matrix. The result is symmetric
+		 * and positive definite.
+		 */
+		private void randomCovariance()
+		{
+			final double radius = 3 + 2 * random.nextDouble();
+			for ( int i = 0; i < 3; i++ )
+				for ( int j = 0; j < 3; j++ )
+					axes[ i ][ j ] = ( i == j ? radius : 0 ) + 0.3 * radius * random.nextGaussian();
+			for ( int i = 0; i < 3; i++ )
+				for ( int j = 0; j < 3; j++ )
+				{
+					double sum = 0;
+					for ( int k = 0; k < 3; k++ )
+						sum += axes[ i ][ k ] * axes[ j ][ k ];
+					covariance[ i ][ j ] = sum;
+				}
+		}
+
+		private long nextId()
+		{
+			long id;
+			do
+				id = random.nextLong();
+			while ( id == ModelIds.NO_ID );
+			return id;
+		}
+	}
+}
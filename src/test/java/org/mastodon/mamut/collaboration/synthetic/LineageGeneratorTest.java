@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.synthetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.mamut.collaboration.utils.ModelAsserts;
+import org.mastodon.mamut.collaboration.utils.ModelIds;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+
+/**
+ * Tests for {@link LineageGenerator}.
+ */
+public class LineageGeneratorTest
+{
+
+	@Test
+	public void testSameSeedGivesSameModel()
+	{
+		Model a = new LineageGenerator( 42 ).spots( 5000 ).generate();
+		Model b = new LineageGenerator( 42 ).spots( 5000 ).generate();
+		ModelAsserts.assertModelEquals( a, b );
+		assertEquals( spotIds( a ), spotIds( b ) );
+	}
+
+	@Test
+	public void testDifferentSeedGivesDifferentModel()
+	{
+		Model a = new LineageGenerator( 1 ).spots( 1000 ).generate();
+		Model b = new LineageGenerator( 2 ).spots( 1000 ).generate();
+		assertNotEquals( spotIds( a ), spotIds( b ) );
+	}
+
+	@Test
+	public void testLineages()
+	{
+		Model model = new LineageGenerator( 7 ).spots( 20_000 ).divisionProbability( 0.02 ).generate();
+		assertEquals( 20_000, model.getGraph().vertices().size() );
+		assertEquals( 2, model.getTagSetModel().getTagSetStructure().getTagSets().size() );
+		boolean hasDivision = false;
+		boolean hasLabel = false;
+		for ( Spot spot : model.getGraph().vertices() )
+		{
+			assertTrue( spot.incomingEdges().size() <= 1 );
+			assertTrue( spot.outgoingEdges().size() <= 2 );
+			hasDivision |= spot.outgoingEdges().size() == 2;
+			hasLabel |= !spot.getLabel().equals( Integer.toString( spot.getInternalPoolIndex() ) );
+		}
+		assertTrue( hasDivision );
+		assertTrue( hasLabel );
+		Spot ref = model.getGraph().vertexRef();
+		for ( Link link : model.getGraph().edges() )
+			assertEquals( link.getSource( ref ).getTimepoint() + 1, link.getTarget( ref ).getTimepoint() );
+		assertFalse( model.getTagSetModel().getVertexTags().getTaggedWith(
+				model.getTagSetModel().getTagSetStructure().getTagSets().get( 0 ).getTags().get( 0 ) ).isEmpty() );
+	}
+
+	private static List< Long > spotIds( Model model )
+	{
+		ModelIds ids = ModelIds.of( model );
+		List< Long > list = new ArrayList<>();
+		for ( Spot spot : model.getGraph().vertices() )
+			list.add( ids.getSpotId( spot ) );
+		Collections.sort( list );
+		return list;
+	}
+}
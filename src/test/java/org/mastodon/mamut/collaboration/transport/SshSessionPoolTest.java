@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.SshSessionFactory;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+import org.junit.Test;
+
+/**
+ * Tests {@link SshSessionPool}.
+ */
+public class SshSessionPoolTest
+{
+
+	private final FakeSessionFactory factory = new FakeSessionFactory();
+
+	private final AtomicLong time = new AtomicLong();
+
+	private final SshSessionPool pool = new SshSessionPool( factory, 1000, time::get );
+
+	@Test
+	public void testReuseSession() throws Exception
+	{
+		URIish uri = new URIish( "git@example.com:project.git" );
+		RemoteSession first = pool.getSession( uri, null, FS.DETECTED, 0 );
+		first.exec( "git-upload-pack", 0 );
+		pool.releaseSession( first );
+		time.set( 500 );
+		RemoteSession second = pool.getSession( uri, null, FS.DETECTED, 0 );
+		second.exec( "git-receive-pack", 0 );
+		pool.releaseSession( second );
+		assertEquals( 1, factory.sessions.size() );
+		assertFalse( factory.sessions.get( 0 ).disconnected );
+		assertEquals( 1, pool.getIdleSessionCount() );
+	}
+
+	@Test
+	public void testDifferentHostsUseDifferentSessions() throws Exception
+	{
+		RemoteSession a = pool.getSession( new URIish( "git@example.com:project.git" ), null, FS.DETECTED, 0 );
+		pool.releaseSession( a );
+		RemoteSession b = pool.getSession( new URIish( "git@example.org:project.git" ), null, FS.DETECTED, 0 );
+		pool.releaseSession( b );
+		assertEquals( 2, factory.sessions.size() );
+		assertEquals( 2, pool.getIdleSessionCount() );
+	}
+
+	@Test
+	public void testIdleSessionIsEvicted() throws Exception
+	{
+		URIish uri = new URIish( "git@example.com:project.git" );
+		pool.releaseSession( pool.getSession( uri, null, FS.DETECTED, 0 ) );
+		time.set( 1000 );
+		pool.evictExpired();
+		assertEquals( 0, pool.getIdleSessionCount() );
+		assertTrue( factory.sessions.get( 0 ).disconnected );
+		pool.getSession( uri, null, FS.DETECTED, 0 );
+		assertEquals( 2, factory.sessions.size() );
+	}
+
+	@Test
+	public void testRetryWhenReusedSessionWasClosedByServer() throws Exception
+	{
+		URIish uri = new URIish( "git@example.com:project.git" );
+		pool.releaseSession( pool.getSession( uri, null, FS.DETECTED, 0 ) );
+		factory.sessions.get( 0 ).closedByServer = true;
+		RemoteSession session = pool.getSession( uri, null, FS.DETECTED, 0 );
+		session.exec( "git-upload-pack", 0 );
+		assertEquals( 2, factory.sessions.size() );
+		assertTrue( factory.sessions.get( 0 ).disconnected );
+		assertEquals( 1, factory.sessions.get( 1 ).commands.size() );
+	}
+
+	@Test( expected = IOException.class )
+	public void testNoRetryOnNewSession() throws Exception
+	{
+		factory.failNewSessions = true;
+		RemoteSession session = pool.getSession( new URIish( "git@example.com:project.git" ), null, FS.DETECTED, 0 );
+		session.exec( "git-upload-pack", 0 );
+	}
+
+	@Test
+	public void testEvictAll() throws URISyntaxException, IOException
+	{
+		pool.releaseSession( pool.getSession( new URIish( "git@example.com:project.git" ), null, FS.DETECTED, 0 ) );
+		pool.evictAll();
+		assertEquals( 0, pool.getIdleSessionCount() );
+		assertTrue( factory.sessions.get( 0 ).disconnected );
+	}
+
+	private static class FakeSessionFactory extends SshSessionFactory
+	{
+
+		private final List< FakeSession > sessions = new ArrayList<>();
+
+		private boolean failNewSessions = false;
+
+		@Override
+		public RemoteSession getSession( final URIish uri, final CredentialsProvider credentialsProvider, final FS fs, final int tms )
+		{
+			final FakeSession session = new FakeSession();
+			session.closedByServer = failNewSessions;
+			sessions.add( session );
+			return session;
+		}
+
+		@Override
+		public String getType()
+		{
+			return "fake";
+		}
+	}
+
+	private static class FakeSession implements RemoteSession
+	{
+
+		private final List< String > commands = new ArrayList<>();
+
+		private boolean closedByServer = false;
+
+		private boolean disconnected = false;
+
+		@Override
+		public Process exec( final String commandName, final int timeout ) throws IOException
+		{
+			if ( closedByServer || disconnected )
+				throw new IOException( "session closed" );
+			commands.add( commandName );
+			return null;
+		}
+
+		@Override
+		public void disconnect()
+		{
+			disconnected = true;
+		}
+	}
+}
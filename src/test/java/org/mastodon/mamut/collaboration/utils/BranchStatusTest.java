@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link BranchStatus}.
+ */
+public class BranchStatusTest
+{
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testNoUpstream() throws Exception
+	{
+		try (Git git = Git.init().setDirectory( temporaryFolder.newFolder() ).setInitialBranch( "master" ).call())
+		{
+			git.commit().setMessage( "initial commit" ).setAllowEmpty( true ).call();
+			BranchStatus status = BranchStatus.of( git.getRepository(), false );
+			assertEquals( "master", status.getBranch() );
+			assertFalse( status.hasUpstream() );
+			assertEquals( "master: not shared", status.toString() );
+		}
+	}
+
+	@Test
+	public void testAheadBehindAndDiverged() throws Exception
+	{
+		File remote = temporaryFolder.newFolder( "remote.git" );
+		Git.init().setBare( true ).setDirectory( remote ).setInitialBranch( "master" ).call().close();
+		try (Git alice = Git.cloneRepository().setURI( remote.toURI().toString() ).setDirectory( temporaryFolder.newFolder( "alice" ) ).call())
+		{
+			alice.commit().setMessage( "initial commit" ).setAllowEmpty( true ).call();
+			alice.push().call();
+			try (Git bob = Git.cloneRepository().setURI( remote.toURI().toString() ).setDirectory( temporaryFolder.newFolder( "bob" ) ).call())
+			{
+				assertEquals( "master: up to date", BranchStatus.of( bob.getRepository(), false ).toString() );
+
+				alice.commit().setMessage( "alice 1" ).setAllowEmpty( true ).call();
+				alice.commit().setMessage( "alice 2" ).setAllowEmpty( true ).call();
+				alice.push().call();
+				bob.fetch().call();
+				BranchStatus behind = BranchStatus.of( bob.getRepository(), false );
+				assertEquals( "refs/remotes/origin/master", behind.getUpstream() );
+				assertEquals( 0, behind.getAhead() );
+				assertEquals( 2, behind.getBehind() );
+				assertFalse( behind.isDiverged() );
+
+				bob.commit().setMessage( "bob 1" ).setAllowEmpty( true ).call();
+				BranchStatus diverged = BranchStatus.of( bob.getRepository(), true );
+				assertEquals( 1, diverged.getAhead() );
+				assertEquals( 2, diverged.getBehind() );
+				assertTrue( diverged.isDiverged() );
+				assertEquals( "master: 1 ahead, 2 behind (diverged), uncommitted changes", diverged.toString() );
+			}
+		}
+	}
+
+	@Test
+	public void testWithFetch()
+	{
+		BranchStatus status = new BranchStatus( "master", "refs/remotes/origin/master", 1, 0, false, 0, null, false );
+		BranchStatus fetched = status.withFetch( 42, "timeout" );
+		assertEquals( 42, fetched.getLastFetchMillis() );
+		assertEquals( "timeout", fetched.getFetchError() );
+		assertEquals( status.toString(), fetched.toString() );
+	}
+}
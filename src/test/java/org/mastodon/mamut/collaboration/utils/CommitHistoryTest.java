@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mastodon.mamut.collaboration.io.CommitStatsIndex;
+
+/**
+ * Tests {@link CommitHistory}.
+ */
+public class CommitHistoryTest
+{
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testPages() throws Exception
+	{
+		File directory = temporaryFolder.newFolder();
+		try (Git git = Git.init().setDirectory( directory ).setInitialBranch( "master" ).call())
+		{
+			List< RevCommit > commits = new ArrayList<>();
+			for ( int i = 0; i < 5; i++ )
+				commits.add( git.commit().setMessage( "commit " + i ).setAllowEmpty( true ).call() );
+			CommitStatsIndex index = new CommitStatsIndex( git.getRepository().getDirectory() );
+			CommitStats stats = new CommitStats( 10, 9, 3, 2 );
+			index.put( commits.get( 3 ), stats );
+			try (CommitHistory history = new CommitHistory( git.getRepository(), index, commit -> null ))
+			{
+				List< CommitHistory.Entry > first = history.nextPage( 2 );
+				assertEquals( 2, first.size() );
+				assertEquals( commits.get( 4 ), first.get( 0 ).getId() );
+				assertEquals( "commit 4", first.get( 0 ).getMessage() );
+				assertNull( first.get( 0 ).getStats() );
+				assertEquals( stats, first.get( 1 ).getStats() );
+				assertTrue( history.hasMore() );
+				assertEquals( 2, history.nextPage( 2 ).size() );
+				List< CommitHistory.Entry > last = history.nextPage( 2 );
+				assertEquals( 1, last.size() );
+				assertEquals( commits.get( 0 ), last.get( 0 ).getId() );
+				assertFalse( history.hasMore() );
+				assertTrue( history.nextPage( 2 ).isEmpty() );
+			}
+		}
+	}
+
+	@Test
+	public void testAllBranches() throws Exception
+	{
+		File directory = temporaryFolder.newFolder();
+		try (Git git = Git.init().setDirectory( directory ).setInitialBranch( "master" ).call())
+		{
+			git.commit().setMessage( "initial commit" ).setAllowEmpty( true ).call();
+			git.checkout().setCreateBranch( true ).setName( "feature" ).call();
+			git.commit().setMessage( "feature commit" ).setAllowEmpty( true ).call();
+			git.checkout().setName( "master" ).call();
+			CommitStatsIndex index = new CommitStatsIndex( git.getRepository().getDirectory() );
+			try (CommitHistory history = new CommitHistory( git.getRepository(), index, commit -> null ))
+			{
+				assertEquals( 2, history.nextPage( 10 ).size() );
+			}
+		}
+	}
+
+	@Test
+	public void testFillStats() throws Exception
+	{
+		File directory = temporaryFolder.newFolder();
+		try (Git git = Git.init().setDirectory( directory ).setInitialBranch( "master" ).call())
+		{
+			RevCommit first = git.commit().setMessage( "commit without project" ).setAllowEmpty( true ).call();
+			RevCommit second = git.commit().setMessage( "pulled commit" ).setAllowEmpty( true ).call();
+			CommitStats stats = new CommitStats( 5, 4, 1, 3 );
+			CommitHistory.StatsLoader loader = commit -> commit.equals( second ) ? stats : null;
+			CommitStatsIndex index = new CommitStatsIndex( git.getRepository().getDirectory() );
+			try (CommitHistory history = new CommitHistory( git.getRepository(), index, loader ))
+			{
+				List< CommitHistory.Entry > page = history.nextPage( 10 );
+				assertNull( page.get( 0 ).getStats() );
+				assertEquals( stats, history.fillStats( page.get( 0 ) ) );
+				assertEquals( stats, page.get( 0 ).getStats() );
+				assertNull( history.fillStats( page.get( 1 ) ) );
+			}
+			// the computed statistics are stored in the index
+			CommitStatsIndex reopened = new CommitStatsIndex( git.getRepository().getDirectory() );
+			assertEquals( stats, reopened.get( second ) );
+			assertNull( reopened.get( first ) );
+		}
+	}
+}
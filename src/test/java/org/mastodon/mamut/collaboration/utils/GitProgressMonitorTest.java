@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests for {@link GitProgressMonitor} and {@link GitProgress}.
+ */
+public class GitProgressMonitorTest
+{
+
+	private long nanos = 0;
+
+	private final List< GitProgress > reports = new ArrayList<>();
+
+	@Test
+	public void testRateAndEta()
+	{
+		GitProgressMonitor monitor = new GitProgressMonitor( reports::add, null, () -> nanos, 250 );
+		monitor.beginTask( "Receiving objects", 1000 );
+		advanceMillis( 2000 );
+		monitor.update( 400 );
+		GitProgress progress = last();
+		assertEquals( 40, progress.getPercent() );
+		assertEquals( 200, progress.getUnitsPerSecond(), 0.001 );
+		assertEquals( 3000, progress.getEtaMillis() );
+		assertEquals( "Receiving objects: 40% (400/1000), 200/s, ETA 0:03", progress.toString() );
+		monitor.endTask();
+		assertTrue( last().isFinished() );
+		assertEquals( 100, last().getPercent() );
+	}
+
+	@Test
+	public void testUnknownTotal()
+	{
+		GitProgressMonitor monitor = new GitProgressMonitor( reports::add, null, () -> nanos, 250 );
+		monitor.beginTask( "Counting objects", 0 );
+		advanceMillis( 1000 );
+		monitor.update( 10 );
+		assertEquals( GitProgress.UNKNOWN, last().getPercent() );
+		assertEquals( GitProgress.UNKNOWN, last().getEtaMillis() );
+	}
+
+	@Test
+	public void testUpdatesAreThrottled()
+	{
+		GitProgressMonitor monitor = new GitProgressMonitor( reports::add, null, () -> nanos, 250 );
+		monitor.beginTask( "Resolving deltas", 100 );
+		for ( int i = 0; i < 100; i++ )
+		{
+			advanceMillis( 10 );
+			monitor.update( 1 );
+		}
+		monitor.endTask();
+		// begin + one report every 250 ms + end
+		assertEquals( 1 + 4 + 1, reports.size() );
+	}
+
+	@Test
+	public void testBytesReceived() throws IOException
+	{
+		File objects = Files.createTempDirectory( "objects" ).toFile();
+		try
+		{
+			GitProgressMonitor monitor = new GitProgressMonitor( reports::add, objects, () -> nanos, 250 );
+			monitor.beginTask( "Receiving objects", 10 );
+			Files.write( new File( objects, "incoming_123.pack" ).toPath(), new byte[ 2_000_000 ] );
+			advanceMillis( 1000 );
+			monitor.update( 5 );
+			assertEquals( 2_000_000, last().getBytes() );
+			assertEquals( 2_000_000, last().getBytesPerSecond(), 0.001 );
+			assertEquals( "Receiving objects: 50% (5/10), 2.0 MB, 2.0 MB/s, ETA 0:01", last().toString() );
+		}
+		finally
+		{
+			FileUtils.deleteDirectory( objects );
+		}
+	}
+
+	@Test
+	public void testCancel()
+	{
+		GitProgressMonitor monitor = new GitProgressMonitor( reports::add, null );
+		assertFalse( monitor.isCancelled() );
+		monitor.cancel();
+		assertTrue( monitor.isCancelled() );
+	}
+
+	private void advanceMillis( long millis )
+	{
+		nanos += TimeUnit.MILLISECONDS.toNanos( millis );
+	}
+
+	private GitProgress last()
+	{
+		return reports.get( reports.size() - 1 );
+	}
+}
@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.util.TagSetUtils;
+
+/**
+ * Tests for {@link ModelChangeTracker}.
+ */
+public class ModelChangeTrackerTest
+{
+	@Test
+	public void testNeverSaved()
+	{
+		ModelChangeTracker tracker = new ModelChangeTracker( new Model() );
+		assertTrue( tracker.hasUnsavedChanges() );
+		tracker.markSaved();
+		assertFalse( tracker.hasUnsavedChanges() );
+	}
+
+	@Test
+	public void testGraphChanges()
+	{
+		Model model = new Model();
+		ModelGraph graph = model.getGraph();
+		ModelChangeTracker tracker = new ModelChangeTracker( model );
+		tracker.markSaved();
+
+		Spot a = graph.addVertex().init( 0, new double[ 3 ], 1 );
+		assertTrue( tracker.hasUnsavedChanges() );
+		tracker.markSaved();
+
+		Spot b = graph.addVertex().init( 1, new double[ 3 ], 1 );
+		tracker.markSaved();
+		graph.addEdge( a, b ).init();
+		assertTrue( tracker.hasUnsavedChanges() );
+		tracker.markSaved();
+
+		graph.remove( b );
+		assertTrue( tracker.hasUnsavedChanges() );
+	}
+
+	@Test
+	public void testTagSetChange()
+	{
+		Model model = new Model();
+		ModelChangeTracker tracker = new ModelChangeTracker( model );
+		tracker.markSaved();
+		TagSetUtils.addNewTagSetToModel( model, "tag set", Collections.emptyList() );
+		assertTrue( tracker.hasUnsavedChanges() );
+	}
+
+	@Test
+	public void testLabelChange()
+	{
+		Model model = new Model();
+		Spot spot = model.getGraph().addVertex().init( 0, new double[ 3 ], 1 );
+		ModelChangeTracker tracker = new ModelChangeTracker( model );
+		tracker.markSaved();
+		spot.setLabel( "renamed" );
+		assertTrue( tracker.hasUnsavedChanges() );
+		assertFalse( tracker.hasUnsavedFeatureChanges() );
+	}
+
+	@Test
+	public void testFeatureModelChange()
+	{
+		Model model = new Model();
+		ModelChangeTracker tracker = new ModelChangeTracker( model );
+		tracker.markSaved();
+		model.getFeatureModel().clear();
+		assertTrue( tracker.hasUnsavedChanges() );
+		assertTrue( tracker.hasUnsavedFeatureChanges() );
+		tracker.markSaved();
+		assertFalse( tracker.hasUnsavedFeatureChanges() );
+	}
+
+	@Test
+	public void testChangesWhileSaving()
+	{
+		Model model = new Model();
+		ModelChangeTracker tracker = new ModelChangeTracker( model );
+		long revision = tracker.getRevision();
+		// simulate a change that happens while the model is being saved
+		model.getGraph().addVertex().init( 0, new double[ 3 ], 1 );
+		tracker.markSaved( revision );
+		assertTrue( tracker.hasUnsavedChanges() );
+	}
+}
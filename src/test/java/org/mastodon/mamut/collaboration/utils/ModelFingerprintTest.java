@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.util.TagSetUtils;
+
+/**
+ * Tests for {@link ModelFingerprint} and {@link FingerprintTracker}.
+ */
+public class ModelFingerprintTest
+{
+	@Test
+	public void testCopyHasSameFingerprint()
+	{
+		Model model = exampleModel();
+		Model copy = new Model();
+		CopyModelUtils.copyModelFromTo( model, copy );
+		assertEquals( ModelFingerprint.of( model ), ModelFingerprint.of( copy ) );
+	}
+
+	@Test
+	public void testDifferingTimepoints()
+	{
+		Model model = exampleModel();
+		ModelFingerprint before = ModelFingerprint.of( model );
+		Spot spot = findSpot( model, "b" );
+		spot.setPosition( new double[] { 7, 2, 3 } );
+		ModelFingerprint after = ModelFingerprint.of( model );
+		assertNotEquals( before, after );
+		// timepoint 0 links to the moved spot, so it changes too
+		assertArrayEquals( new int[] { 0, 1 }, before.differingTimepoints( after ) );
+		assertEquals( before.getHash( 2 ), after.getHash( 2 ) );
+	}
+
+	@Test
+	public void testTagSetStructure()
+	{
+		Model model = exampleModel();
+		ModelFingerprint before = ModelFingerprint.of( model );
+		TagSetUtils.addNewTagSetToModel( model, "empty", Collections.emptyList() );
+		ModelFingerprint after = ModelFingerprint.of( model );
+		assertNotEquals( before, after );
+		assertArrayEquals( new int[ 0 ], before.differingTimepoints( after ) );
+	}
+
+	@Test
+	public void testTracker()
+	{
+		Model model = exampleModel();
+		FingerprintTracker tracker = new FingerprintTracker( model );
+		assertEquals( ModelFingerprint.of( model ), tracker.getFingerprint() );
+		ModelGraph graph = model.getGraph();
+		Spot d = graph.addVertex().init( 3, new double[] { 1, 2, 3 }, 1 );
+		graph.addEdge( findSpot( model, "c" ), d ).init();
+		assertEquals( 2, tracker.getDirtyTimepointCount() );
+		assertEquals( ModelFingerprint.of( model ), tracker.getFingerprint() );
+		assertEquals( 0, tracker.getDirtyTimepointCount() );
+		graph.remove( findSpot( model, "b" ) );
+		assertEquals( ModelFingerprint.of( model ), tracker.getFingerprint() );
+		findSpot( model, "a" ).setLabel( "z" );
+		graph.notifyGraphChanged();
+		assertEquals( -1, tracker.getDirtyTimepointCount() );
+		assertEquals( ModelFingerprint.of( model ), tracker.getFingerprint() );
+	}
+
+	@Test
+	public void testTrackerDetectsLabelChange()
+	{
+		Model model = exampleModel();
+		FingerprintTracker tracker = new FingerprintTracker( model );
+		ModelFingerprint before = tracker.getFingerprint();
+		// no graph change notification
+		findSpot( model, "b" ).setLabel( "renamed" );
+		assertEquals( 2, tracker.getDirtyTimepointCount() );
+		assertNotEquals( before, tracker.getFingerprint() );
+		assertEquals( ModelFingerprint.of( model ), tracker.getFingerprint() );
+	}
+
+	private static Model exampleModel()
+	{
+		Model model = new Model();
+		ModelGraph graph = model.getGraph();
+		Spot a = graph.addVertex().init( 0, new double[] { 1, 2, 3 }, 1 );
+		a.setLabel( "a" );
+		Spot b = graph.addVertex().init( 1, new double[] { 2, 2, 3 }, 1 );
+		b.setLabel( "b" );
+		Spot c = graph.addVertex().init( 2, new double[] { 3, 2, 3 }, 1 );
+		c.setLabel( "c" );
+		Link ab = graph.addEdge( a, b ).init();
+		graph.addEdge( b, c ).init();
+		TagSetStructure.TagSet tagSet = TagSetUtils.addNewTagSetToModel( model, "tag set", Arrays.asList( Pair.of( "tag", 0x00ff00 ) ) );
+		TagSetUtils.tagSpot( model, tagSet, tagSet.getTags().get( 0 ), b );
+		TagSetUtils.tagLinks( model, tagSet, tagSet.getTags().get( 0 ), Collections.singletonList( ab ) );
+		return model;
+	}
+
+	private static Spot findSpot( Model model, String label )
+	{
+		for ( Spot spot : model.getGraph().vertices() )
+			if ( spot.getLabel().equals( label ) )
+				return spot;
+		throw new IllegalArgumentException( label );
+	}
+}
@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+
+/**
+ * Helpers to build small {@link Model}s in tests, whose spots are identified
+ * by their labels.
+ */
+public class ModelFixtures
+{
+	private ModelFixtures()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * Adds a spot with radius 1 and the given label to the model.
+	 */
+	public static Spot addSpot( Model model, String label, int timepoint, double x, double y, double z )
+	{
+		Spot spot = model.getGraph().addVertex().init( timepoint, new double[] { x, y, z }, 1 );
+		spot.setLabel( label );
+		return spot;
+	}
+
+	/**
+	 * Returns the spot with the given label. Throws an {@link AssertionError}
+	 * if there is none.
+	 */
+	public static Spot getSpot( Model model, String label )
+	{
+		for ( Spot spot : model.getGraph().vertices() )
+			if ( spot.getLabel().equals( label ) )
+				return spot;
+		throw new AssertionError( "Spot not found: " + label );
+	}
+
+	/**
+	 * Returns a copy of the model, made with {@link CopyModelUtils}.
+	 */
+	public static Model copy( Model model )
+	{
+		Model copy = new Model();
+		CopyModelUtils.copyModelFromTo( model, copy );
+		return copy;
+	}
+}
@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+
+/**
+ * Tests for {@link ModelIds}.
+ */
+public class ModelIdsTest
+{
+
+	@Test
+	public void testIdsAreAssigned()
+	{
+		Model model = new Model();
+		ModelGraph graph = model.getGraph();
+		Spot a = graph.addVertex().init( 0, new double[ 3 ], 1 );
+		ModelIds ids = ModelIds.of( model );
+		Spot b = graph.addVertex().init( 1, new double[ 3 ], 1 );
+		Link link = graph.addEdge( a, b ).init();
+		assertNotEquals( ModelIds.NO_ID, ids.getSpotId( a ) );
+		assertNotEquals( ModelIds.NO_ID, ids.getSpotId( b ) );
+		assertNotEquals( ids.getSpotId( a ), ids.getSpotId( b ) );
+		assertNotEquals( ModelIds.NO_ID, ids.getLinkId( link ) );
+	}
+
+	@Test
+	public void testFind()
+	{
+		Model model = new Model();
+		assertNull( ModelIds.find( model ) );
+		ModelIds ids = ModelIds.of( model );
+		assertEquals( ids, ModelIds.find( model ) );
+	}
+
+	@Test
+	public void testCopyModelPreservesIds()
+	{
+		Model source = new Model();
+		ModelIds sourceIds = ModelIds.of( source );
+		Spot a = source.getGraph().addVertex().init( 0, new double[ 3 ], 1 );
+		a.setLabel( "a" );
+		Spot b = source.getGraph().addVertex().init( 1, new double[ 3 ], 1 );
+		b.setLabel( "b" );
+		Link link = source.getGraph().addEdge( a, b ).init();
+
+		Model target = new Model();
+		CopyModelUtils.copyModelFromTo( source, target );
+
+		ModelIds targetIds = ModelIds.of( target );
+		for ( Spot spot : target.getGraph().vertices() )
+		{
+			long expected = sourceIds.getSpotId( spot.getLabel().equals( "a" ) ? a : b );
+			assertEquals( expected, targetIds.getSpotId( spot ) );
+		}
+		Link targetLink = target.getGraph().edges().iterator().next();
+		assertEquals( sourceIds.getLinkId( link ), targetIds.getLinkId( targetLink ) );
+	}
+
+	@Test
+	public void testUndoRedoPreservesIds()
+	{
+		Model model = new Model();
+		ModelGraph graph = model.getGraph();
+		ModelIds ids = ModelIds.of( model );
+		Spot a = graph.addVertex().init( 0, new double[] { 1, 2, 3 }, 1 );
+		Spot b = graph.addVertex().init( 1, new double[] { 4, 5, 6 }, 1 );
+		Link link = graph.addEdge( a, b ).init();
+		model.setUndoPoint();
+		long spotId = ids.getSpotId( b );
+		long linkId = ids.getLinkId( link );
+
+		graph.remove( b );
+		model.setUndoPoint();
+		model.undo();
+		assertEquals( spotId, ids.getSpotId( findSpot( graph, 1 ) ) );
+		assertEquals( linkId, ids.getLinkId( graph.edges().iterator().next() ) );
+
+		model.undo();
+		model.redo();
+		assertEquals( spotId, ids.getSpotId( findSpot( graph, 1 ) ) );
+		assertEquals( linkId, ids.getLinkId( graph.edges().iterator().next() ) );
+	}
+
+	@Test
+	public void testRemovedIdsAreReusedLastInFirstOut()
+	{
+		ModelIds.RemovedIds removed = new ModelIds.RemovedIds( 100 );
+		removed.remember( 7, 1 );
+		removed.remember( 7, 2 );
+		removed.remember( 8, 3 );
+		assertEquals( 2, removed.reuseOrNewId( 7 ) );
+		assertEquals( 1, removed.reuseOrNewId( 7 ) );
+		assertEquals( 3, removed.reuseOrNewId( 8 ) );
+		assertEquals( 0, removed.size() );
+		assertNotEquals( 1, removed.reuseOrNewId( 7 ) );
+	}
+
+	@Test
+	public void testRemovedIdsAreBounded()
+	{
+		ModelIds.RemovedIds removed = new ModelIds.RemovedIds( 100 );
+		for ( int i = 1; i <= 1000; i++ )
+			removed.remember( i, i );
+		assertTrue( removed.size() <= 100 );
+		// the ids that were removed last are still known
+		assertEquals( 1000, removed.reuseOrNewId( 1000 ) );
+		assertEquals( 999, removed.reuseOrNewId( 999 ) );
+		assertNotEquals( 1, removed.reuseOrNewId( 1 ) );
+	}
+
+	private static Spot findSpot( ModelGraph graph, int timepoint )
+	{
+		for ( Spot spot : graph.vertices() )
+			if ( spot.getTimepoint() == timepoint )
+				return spot;
+		return null;
+	}
+}
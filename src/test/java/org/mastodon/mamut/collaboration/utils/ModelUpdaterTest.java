@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mamut.collaboration.utils.ModelFixtures.addSpot;
+import static org.mastodon.mamut.collaboration.utils.ModelFixtures.copy;
+import static org.mastodon.mamut.collaboration.utils.ModelFixtures.getSpot;
+
+import org.junit.Test;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * Tests for {@link ModelUpdater}.
+ */
+public class ModelUpdaterTest
+{
+
+	@Test
+	public void testUpdate()
+	{
+		Model target = new Model();
+		ModelIds.of( target );
+		ModelGraph graph = target.getGraph();
+		Spot a = addSpot( target, "a", 0, 1, 0, 0 );
+		Spot b = addSpot( target, "b", 1, 2, 0, 0 );
+		Spot c = addSpot( target, "c", 1, 3, 0, 0 );
+		graph.addEdge( a, b ).init();
+		graph.addEdge( a, c ).init();
+
+		Model source = copy( target );
+		ModelGraph sourceGraph = source.getGraph();
+		Spot sourceA = getSpot( source, "a" );
+		sourceGraph.remove( getSpot( source, "b" ) );
+		getSpot( source, "c" ).setPosition( new double[] { 5, 5, 5 } );
+		Spot d = addSpot( source, "d", 1, 4, 0, 0 );
+		sourceGraph.addEdge( sourceA, d ).init();
+		TagSetStructure tss = new TagSetStructure();
+		tss.createTagSet( "lineage" ).createTag( "x", 0xff0000ff );
+		source.getTagSetModel().setTagSetStructure( tss );
+		TagSetStructure.TagSet tagSet = source.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+		source.getTagSetModel().getVertexTags().set( d, tagSet.getTags().get( 0 ) );
+
+		int poolIndexA = a.getInternalPoolIndex();
+		ModelUpdater.update( target, source );
+
+		ModelAsserts.assertModelEquals( source, target );
+		// the unchanged spot is still the same object
+		assertEquals( poolIndexA, getSpot( target, "a" ).getInternalPoolIndex() );
+		assertEquals( ModelIds.of( source ).getSpotId( d ), ModelIds.of( target ).getSpotId( getSpot( target, "d" ) ) );
+	}
+
+	@Test
+	public void testOutgoingEdgeOrder()
+	{
+		Model target = new Model();
+		ModelGraph graph = target.getGraph();
+		Spot a = addSpot( target, "a", 0, 1, 0, 0 );
+		Spot b = addSpot( target, "b", 1, 2, 0, 0 );
+		Spot c = addSpot( target, "c", 1, 3, 0, 0 );
+		graph.addEdge( a, b ).init();
+		graph.addEdge( a, c ).init();
+
+		Model source = new Model();
+		ModelGraph sourceGraph = source.getGraph();
+		Spot sa = addSpot( source, "a", 0, 1, 0, 0 );
+		Spot sb = addSpot( source, "b", 1, 2, 0, 0 );
+		Spot sc = addSpot( source, "c", 1, 3, 0, 0 );
+		sourceGraph.addEdge( sa, sc ).init();
+		sourceGraph.addEdge( sa, sb ).init();
+
+		ModelUpdater.update( target, source );
+
+		ModelAsserts.assertModelEquals( source, target );
+	}
+
+	@Test
+	public void testLabelThatEqualsPoolIndex()
+	{
+		Model target = new Model();
+		Spot spot = target.getGraph().addVertex().init( 0, new double[ 3 ], 1 );
+
+		Model source = copy( target );
+		Spot sourceSpot = source.getGraph().vertices().iterator().next();
+		sourceSpot.setLabel( Integer.toString( sourceSpot.getInternalPoolIndex() ) );
+
+		ModelUpdater.update( target, source );
+
+		// the label is set, even though it equals the pool index
+		assertTrue( target.getGraph().getVertexPool().labelProperty().isSet( spot ) );
+	}
+}
@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link OperationQueue}.
+ */
+public class OperationQueueTest
+{
+
+	private final OperationQueue queue = new OperationQueue( "test" );
+
+	private final List< String > log = Collections.synchronizedList( new ArrayList<>() );
+
+	@Test
+	public void testOperationsRunInOrder() throws InterruptedException
+	{
+		queue.submit( "a", "A", () -> log.add( "a" ) );
+		queue.submit( "b", "B", () -> log.add( "b" ) );
+		OperationQueue.Operation c = queue.submit( "c", "C", () -> log.add( "c" ) );
+		assertEquals( OperationQueue.State.SUCCEEDED, c.await() );
+		assertEquals( "[a, b, c]", log.toString() );
+	}
+
+	@Test
+	public void testWaitingDuplicatesAreCoalesced() throws InterruptedException
+	{
+		CountDownLatch started = new CountDownLatch( 1 );
+		CountDownLatch block = new CountDownLatch( 1 );
+		OperationQueue.Operation blocker = queue.submit( "block", "Block", () -> {
+			started.countDown();
+			block.await();
+		} );
+		started.await();
+		OperationQueue.Operation sync1 = queue.submit( "sync", "Sync", () -> log.add( "sync" ) );
+		OperationQueue.Operation sync2 = queue.submit( "sync", "Sync", () -> log.add( "sync" ) );
+		assertSame( sync1, sync2 );
+		assertEquals( 1, queue.getQueued().size() );
+		block.countDown();
+		sync1.await();
+		assertEquals( OperationQueue.State.SUCCEEDED, blocker.await() );
+		assertEquals( "[sync]", log.toString() );
+	}
+
+	@Test
+	public void testCancelWaitingOperation() throws InterruptedException
+	{
+		CountDownLatch block = new CountDownLatch( 1 );
+		queue.submit( "block", "Block", block::await );
+		OperationQueue.Operation cancelled = queue.submit( "a", "A", () -> log.add( "a" ) );
+		OperationQueue.Operation next = queue.submit( "b", "B", () -> log.add( "b" ) );
+		cancelled.cancel();
+		assertEquals( OperationQueue.State.CANCELLED, cancelled.await() );
+		block.countDown();
+		next.await();
+		assertEquals( "[b]", log.toString() );
+	}
+
+	@Test
+	public void testCancelRunningOperation() throws InterruptedException
+	{
+		CountDownLatch started = new CountDownLatch( 1 );
+		OperationQueue.Operation operation = queue.submit( "loop", "Loop", () -> {
+			started.countDown();
+			while ( true )
+			{
+				OperationQueue.checkCancelled();
+				Thread.sleep( 1 );
+			}
+		} );
+		started.await();
+		assertSame( operation, queue.getRunning() );
+		operation.cancel();
+		assertEquals( OperationQueue.State.CANCELLED, operation.await() );
+		assertTrue( operation.isCancelled() );
+	}
+
+	@Test
+	public void testFailure() throws InterruptedException
+	{
+		OperationQueue.Operation operation = queue.submit( "fail", "Fail", () -> {
+			throw new IllegalStateException( "expected" );
+		} );
+		assertEquals( OperationQueue.State.FAILED, operation.await() );
+		assertEquals( "expected", operation.getFailure().getMessage() );
+		assertNull( OperationQueue.currentOperation() );
+	}
+
+	@Test
+	public void testError() throws InterruptedException
+	{
+		OperationQueue.Operation operation = queue.submit( "error", "Error", () -> {
+			throw new StackOverflowError( "expected" );
+		} );
+		assertEquals( OperationQueue.State.FAILED, operation.await() );
+		assertTrue( operation.getFailure() instanceof StackOverflowError );
+		OperationQueue.Operation next = queue.submit( "next", "Next", () -> {} );
+		assertEquals( OperationQueue.State.SUCCEEDED, next.await() );
+	}
+}
@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * mastodon-git
+ * %%
+ * Copyright (C) 2023 - 2024 Matthias Arzt
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.collaboration.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link RefCache}.
+ */
+public class RefCacheTest
+{
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testCachedValues() throws Exception
+	{
+		try (Git git = initRepository())
+		{
+			RefCache cache = new RefCache( git.getRepository() );
+			assertEquals( "refs/heads/master", cache.getFullBranch() );
+			List< String > branches = cache.getBranches();
+			assertEquals( Arrays.asList( "refs/heads/master" ), branches );
+			assertSame( branches, cache.getBranches() );
+		}
+	}
+
+	@Test
+	public void testInvalidatedByBranchChanges() throws Exception
+	{
+		try (Git git = initRepository())
+		{
+			RefCache cache = new RefCache( git.getRepository() );
+			cache.getBranches();
+			git.branchCreate().setName( "feature" ).call();
+			assertEquals( Arrays.asList( "refs/heads/feature", "refs/heads/master" ), cache.getBranches() );
+			git.checkout().setName( "feature" ).call();
+			assertEquals( "refs/heads/feature", cache.getFullBranch() );
+			git.branchDelete().setBranchNames( "master" ).call();
+			assertEquals( Arrays.asList( "refs/heads/feature" ), cache.getBranches() );
+		}
+	}
+
+	@Test
+	public void testRefreshDetectsChangesByOtherInstances() throws Exception
+	{
+		try (Git git = initRepository())
+		{
+			RefCache cache = new RefCache( git.getRepository() );
+			cache.getBranches();
+			try (Git other = Git.open( git.getRepository().getWorkTree() ))
+			{
+				other.branchCreate().setName( "feature" ).call();
+			}
+			cache.refresh();
+			assertEquals( Arrays.asList( "refs/heads/feature", "refs/heads/master" ), cache.getBranches() );
+		}
+	}
+
+	@Test
+	public void testRefreshDetectsCheckoutByOtherInstances() throws Exception
+	{
+		try (Git git = initRepository())
+		{
+			git.branchCreate().setName( "feature" ).call();
+			RefCache cache = new RefCache( git.getRepository() );
+			assertEquals( "refs/heads/master", cache.getFullBranch() );
+			try (Git other = Git.open( git.getRepository().getWorkTree() ))
+			{
+				other.checkout().setName( "feature" ).call();
+			}
+			cache.refresh();
+			assertEquals( "refs/heads/feature", cache.getFullBranch() );
+		}
+	}
+
+	private Git initRepository() throws Exception
+	{
+		File directory = temporaryFolder.newFolder();
+		Git git = Git.init().setDirectory( directory ).setInitialBranch( "master" ).call();
+		git.commit().setMessage( "initial commit" ).setAllowEmpty( true ).call();
+		return git;
+	}
+}